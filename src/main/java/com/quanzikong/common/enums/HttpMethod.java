@@ -90,4 +90,13 @@ public enum HttpMethod {
         return description;
     }
 
+    /**
+     * 是否幂等(同一请求重复发送结果相同)，幂等请求在连接失效时可以安全重发
+     *
+     * @return boolean
+     */
+    public boolean isIdempotent() {
+        return this == GET || this == PUT || this == DELETE;
+    }
+
 }
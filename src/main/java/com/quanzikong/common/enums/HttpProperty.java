@@ -26,6 +26,14 @@ public enum HttpProperty {
      * Charset
      */
     UserAgent("User-Agent", "user agent"),
+    /**
+     * Accept-Encoding
+     */
+    AcceptEncoding("Accept-Encoding", "accept encoding"),
+    /**
+     * Content-Encoding
+     */
+    ContentEncoding("Content-Encoding", "content encoding"),
     // --------  you can modify end  ---------
     ;
 
@@ -0,0 +1,21 @@
+package com.quanzikong.common.utils;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 原生异步的传输层，RestApiClient的异步请求不再占用executor线程等待响应<br/>
+ * - 返回的future不应在I/O线程上complete，以免回调阻塞I/O
+ *
+ * @author agent
+ */
+public interface AsyncHttpTransport extends HttpTransport {
+
+    /**
+     * 异步执行一次http交换
+     *
+     * @param request HttpTransport.Request
+     *
+     * @return CompletableFuture
+     */
+    CompletableFuture<RestApiResponse> executeAsync(HttpTransport.Request request);
+}
@@ -0,0 +1,104 @@
+package com.quanzikong.common.utils;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 进程内共享的byte[]池<br/>
+ * - 按2的幂分桶(4KB ~ 1MB)，借出的数组长度不小于所需长度，内容未清零<br/>
+ * - 超过1MB的数组不入池；池中保留的总字节数有上限，超过时归还的数组直接丢弃<br/>
+ * - 无锁，借出与归还可以在不同线程
+ *
+ * Usage:
+ * byte[] buffer = BufferPool.acquire(size);
+ * try {
+ * ...
+ * } finally {
+ * BufferPool.release(buffer);
+ * }
+ *
+ * @author agent
+ */
+final class BufferPool {
+
+    private static final int MIN_SHIFT = 12;
+    private static final int MAX_SHIFT = 20;
+    /**
+     * 池中最多保留的字节数
+     */
+    private static final long MAX_RETAINED = 32L * 1024 * 1024;
+
+    @SuppressWarnings("unchecked")
+    private static final Queue<byte[]>[] BUCKETS = (Queue<byte[]>[])new Queue<?>[MAX_SHIFT - MIN_SHIFT + 1];
+    private static final AtomicLong RETAINED = new AtomicLong();
+
+    static {
+        for (int i = 0; i < BUCKETS.length; i++) {
+            BUCKETS[i] = new ConcurrentLinkedQueue<byte[]>();
+        }
+    }
+
+    private BufferPool() {
+    }
+
+    /**
+     * 借出长度不小于size的数组
+     *
+     * @param size 所需长度
+     *
+     * @return byte[]
+     */
+    static byte[] acquire(int size) {
+        int index = bucket(size);
+        if (index < 0) {
+            return new byte[size];
+        }
+        byte[] buffer = BUCKETS[index].poll();
+        if (null == buffer) {
+            return new byte[1 << (index + MIN_SHIFT)];
+        }
+        RETAINED.addAndGet(-buffer.length);
+        return buffer;
+    }
+
+    /**
+     * 归还数组，之后不能再使用
+     *
+     * @param buffer byte[]，可以为null
+     */
+    static void release(byte[] buffer) {
+        // 只接受池中借出的长度
+        if (null == buffer || Integer.bitCount(buffer.length) != 1 || buffer.length < 1 << MIN_SHIFT
+            || buffer.length > 1 << MAX_SHIFT) {
+            return;
+        }
+        if (RETAINED.addAndGet(buffer.length) > MAX_RETAINED) {
+            RETAINED.addAndGet(-buffer.length);
+            return;
+        }
+        BUCKETS[bucket(buffer.length)].offer(buffer);
+    }
+
+    /**
+     * 池中保留的字节数
+     *
+     * @return long
+     */
+    static long getRetained() {
+        return RETAINED.get();
+    }
+
+    // --------------------------------- private ----------------------------------
+
+    /**
+     * size所在的桶，超过最大的桶时返回-1
+     */
+    private static int bucket(int size) {
+        if (size <= 1 << MIN_SHIFT) {
+            return 0;
+        }
+        int shift = 32 - Integer.numberOfLeadingZeros(size - 1);
+        return shift > MAX_SHIFT ? -1 : shift - MIN_SHIFT;
+    }
+}
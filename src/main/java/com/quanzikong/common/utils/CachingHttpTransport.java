@@ -0,0 +1,179 @@
+package com.quanzikong.common.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.quanzikong.common.enums.HttpMethod;
+import com.quanzikong.common.enums.HttpProperty;
+
+/**
+ * 在另一个传输层外加上http响应缓存，存储与配置见<code>HttpCache</code><br/>
+ * - 新鲜的缓存直接返回，不访问网络<br/>
+ * - 过期的缓存以条件请求重新验证，304时返回缓存的body<br/>
+ * - 调用方自己带了If-None-Match/If-Modified-Since，或者请求Cache-Control: no-store时不经过缓存
+ *
+ * @author agent
+ */
+public class CachingHttpTransport implements HttpTransport {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final HttpTransport delegate;
+    private final HttpCache cache;
+
+    public CachingHttpTransport(HttpTransport delegate, HttpCache cache) {
+        this.delegate = delegate;
+        this.cache = cache;
+    }
+
+    @Override
+    public RestApiResponse execute(Request request) throws Exception {
+        String key = request.getUrl().toString();
+        if (HttpMethod.GET != request.getMethod()) {
+            RestApiResponse response = delegate.execute(request);
+            if (response.getStatusCode() < 400) {
+                cache.invalidate(key);
+            }
+            return response;
+        }
+        if (!this.isCacheable(request)) {
+            return delegate.execute(request);
+        }
+
+        HttpCache.Stats stats = cache.getStats();
+        stats.onRequest();
+        Map<String, String> cacheControl = HttpCache.parseCacheControl(
+            request.getHeaders().get("Cache-Control"));
+        HttpCache.Entry entry = cache.get(key, request.getHeaders());
+        long now = System.currentTimeMillis();
+        if (null != entry && !cacheControl.containsKey("no-cache") && entry.isFresh(now)) {
+            stats.onHit();
+            return entry.toResponse(request.getCharset(), now);
+        }
+
+        Request exchange = request;
+        if (null == entry) {
+            stats.onMiss();
+        } else {
+            stats.onRevalidate();
+            exchange = this.conditional(request, entry);
+        }
+        RestApiResponse response = delegate.execute(exchange);
+        long responseTime = System.currentTimeMillis();
+
+        if (null != entry && response.getStatusCode() == 304) {
+            closeQuietly(response);
+            stats.onNotModified();
+            return cache.refresh(entry, response.getHeaders(), responseTime).toResponse(request.getCharset(),
+                responseTime);
+        }
+        return this.store(key, request, response, responseTime);
+    }
+
+    public HttpTransport getDelegate() {
+        return delegate;
+    }
+
+    public HttpCache getCache() {
+        return cache;
+    }
+
+    // --------------------------------- private ----------------------------------
+
+    private boolean isCacheable(Request request) {
+        Map<String, String> headers = request.getHeaders();
+        if (headers.containsKey("If-None-Match") || headers.containsKey("If-Modified-Since")) {
+            return false;
+        }
+        return !HttpCache.parseCacheControl(headers.get("Cache-Control")).containsKey("no-store");
+    }
+
+    /**
+     * 带上entry的验证器，中断原请求时一并中断条件请求
+     */
+    private Request conditional(Request request, HttpCache.Entry entry) {
+        Map<String, String> validators = new LinkedHashMap<String, String>(4);
+        if (null != entry.getETag()) {
+            validators.put("If-None-Match", entry.getETag());
+        }
+        if (null != entry.getLastModified()) {
+            validators.put("If-Modified-Since", entry.getLastModified());
+        }
+        if (validators.isEmpty()) {
+            return request;
+        }
+        final Request exchange = request.copy(validators);
+        request.attach(new Closeable() {
+            @Override
+            public void close() {
+                exchange.abort();
+            }
+        });
+        return exchange;
+    }
+
+    /**
+     * 可缓存时读出body并保存，超过maxEntryBytes的body原样流式返回
+     */
+    private RestApiResponse store(String key, Request request, RestApiResponse response, long responseTime)
+        throws IOException {
+        if (!cache.isStorable(request.getHeaders(), response.getStatusCode(), response.getHeaders())) {
+            return response;
+        }
+        long limit = cache.entryLimit();
+        String contentLength = response.getHeader(HttpProperty.ContentLength.getCode());
+        if (null != contentLength && parseLong(contentLength) > limit) {
+            return response;
+        }
+
+        InputStream in = response.getBody();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(
+            null == contentLength ? BUFFER_SIZE : (int)Math.max(0, parseLong(contentLength)));
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int n;
+        try {
+            while ((n = in.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+                if (out.size() > limit) {
+                    // 太大，不缓存，已读出的部分与剩余的部分拼接后返回
+                    InputStream body = new SequenceInputStream(new ByteArrayInputStream(out.toByteArray()), in);
+                    return new RestApiResponse(response.getStatusCode(), response.getHeaders(), body,
+                        response.getCharset());
+                }
+            }
+        } catch (IOException e) {
+            closeQuietly(response);
+            throw e;
+        }
+        closeQuietly(response);
+
+        byte[] body = out.toByteArray();
+        cache.put(key, request.getHeaders(), response.getStatusCode(), response.getHeaders(), body, responseTime);
+        return new RestApiResponse(response.getStatusCode(), response.getHeaders(), new ByteArrayInputStream(body),
+            response.getCharset());
+    }
+
+    private static long parseLong(String value) {
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (null == closeable) {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package com.quanzikong.common.utils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiConsumer;
+
+import com.quanzikong.common.utils.HttpCoalescer.Shared;
+
+/**
+ * 在另一个传输层外合并同一时刻相同的GET请求(single-flight)，配置与统计见<code>HttpCoalescer</code><br/>
+ * - 第一个调用发出请求并读完body，之后到达的相同调用等待并各自得到一份响应<br/>
+ * - 等待的调用只受自己的deadline与取消控制：第一个调用因超时或取消而失败时，等待的调用重新发出请求<br/>
+ * - 请求完成后即从进行中移除，不缓存结果(缓存见CachingHttpTransport)
+ *
+ * @author agent
+ */
+public class CoalescingHttpTransport implements HttpTransport {
+
+    private final HttpTransport delegate;
+    private final HttpCoalescer coalescer;
+
+    public CoalescingHttpTransport(HttpTransport delegate, HttpCoalescer coalescer) {
+        this.delegate = delegate;
+        this.coalescer = coalescer;
+    }
+
+    @Override
+    public RestApiResponse execute(Request request) throws Exception {
+        String key = coalescer.key(request);
+        if (null == key) {
+            return delegate.execute(request);
+        }
+
+        for (; ; ) {
+            CompletableFuture<Shared> flight = new CompletableFuture<Shared>();
+            CompletableFuture<Shared> existing = coalescer.join(key, flight);
+            if (null != existing) {
+                coalescer.getStats().onCoalesced();
+                try {
+                    return this.await(request, existing).toResponse();
+                } catch (LeaderCancelledException e) {
+                    // 发出请求的调用超时或被取消，与本次调用无关，重新加入或者由本次调用发出
+                    continue;
+                }
+            }
+
+            coalescer.getStats().onExecuted();
+            try {
+                RestApiResponse response = delegate.execute(request);
+                Shared shared = new Shared(response, response.getBytes());
+                coalescer.leave(key, flight);
+                flight.complete(shared);
+                return shared.toResponse();
+            } catch (Exception e) {
+                coalescer.getStats().onFailure();
+                coalescer.leave(key, flight);
+                flight.completeExceptionally(request.isAborted() || request.isExpired()
+                    ? new LeaderCancelledException(e) : e);
+                throw e;
+            } finally {
+                if (!flight.isDone()) {
+                    coalescer.leave(key, flight);
+                    flight.completeExceptionally(new IOException("Coalesced request failed"));
+                }
+            }
+        }
+    }
+
+    public HttpTransport getDelegate() {
+        return delegate;
+    }
+
+    public HttpCoalescer getCoalescer() {
+        return coalescer;
+    }
+
+    // --------------------------------- private ----------------------------------
+
+    /**
+     * 等待进行中的请求，受本次请求的deadline与中断控制
+     */
+    private Shared await(Request request, CompletableFuture<Shared> flight) throws Exception {
+        final CompletableFuture<Shared> mine = new CompletableFuture<Shared>();
+        flight.whenComplete(new BiConsumer<Shared, Throwable>() {
+            @Override
+            public void accept(Shared shared, Throwable throwable) {
+                if (null != throwable) {
+                    mine.completeExceptionally(throwable);
+                } else {
+                    mine.complete(shared);
+                }
+            }
+        });
+        Closeable abort = new Closeable() {
+            @Override
+            public void close() {
+                mine.completeExceptionally(new IOException("Request aborted"));
+            }
+        };
+        request.attach(abort);
+        try {
+            long remaining = request.remainingMillis();
+            return remaining == Long.MAX_VALUE ? mine.get() : mine.get(Math.max(0, remaining), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            throw new TimeoutException("Request deadline exceeded");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception)cause;
+            }
+            throw e;
+        } finally {
+            request.detach(abort);
+        }
+    }
+
+    // ------------------------------------ inner classes -------------------------
+
+    /**
+     * 发出请求的调用超时或被取消，等待的调用应当重试而不是失败
+     */
+    private static final class LeaderCancelledException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        private LeaderCancelledException(Exception cause) {
+            super(cause.getMessage(), cause);
+        }
+    }
+}
@@ -0,0 +1,423 @@
+package com.quanzikong.common.utils;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 带TTL的域名解析缓存<br/>
+ * - ttl: 解析结果的有效期，过期后同步重新解析(同一域名的并发解析只发出一次，其它线程最多等待连接池的connect timeout)<br/>
+ * - refreshAfter: 结果使用超过该时长后，在后台提前刷新，请求线程继续使用旧结果，不会遇到解析的延迟抖动；
+ * 刷新失败时保留旧结果直到过期<br/>
+ * - negativeTtl: 解析失败(UnknownHostException)的缓存时长，期间直接失败，避免反复请求解析服务<br/>
+ * - 一个域名有多个地址时，每次解析按轮询的顺序返回，连接分散到上游的各个副本；ip地址不经过缓存<br/>
+ * - 线程安全，请在多个连接池之间共享同一个实例
+ *
+ * Usage:
+ * DnsCache dnsCache = new DnsCache().setTtl(30000).setRefreshAfter(20000);
+ * HttpConnectionPool pool = new HttpConnectionPool().setDnsResolver(dnsCache);
+ *
+ * @author agent
+ */
+public class DnsCache implements DnsResolver {
+
+    private static final long DEFAULT_TTL = 30000L;
+    private static final long DEFAULT_REFRESH_AFTER = 20000L;
+    private static final long DEFAULT_NEGATIVE_TTL = 5000L;
+    private static final int REFRESH_POOL_SIZE = 2;
+    private static final int REFRESH_QUEUE_SIZE = 1024;
+
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+    private final ConcurrentMap<String, CompletableFuture<Entry>> loading
+        = new ConcurrentHashMap<String, CompletableFuture<Entry>>();
+    private final Stats stats = new Stats();
+
+    private volatile DnsResolver delegate = DnsResolver.SYSTEM;
+    private volatile long ttl = DEFAULT_TTL;
+    private volatile long refreshAfter = DEFAULT_REFRESH_AFTER;
+    private volatile long negativeTtl = DEFAULT_NEGATIVE_TTL;
+    private volatile ExecutorService executor = RefreshExecutorHolder.EXECUTOR;
+
+    /**
+     * 默认配置的共享实例(默认连接池使用)
+     *
+     * @return DnsCache
+     */
+    public static DnsCache getDefault() {
+        return DefaultHolder.INSTANCE;
+    }
+
+    @Override
+    public InetAddress[] resolve(String host) throws UnknownHostException {
+        return this.resolve(host, 0);
+    }
+
+    /**
+     * 解析域名，等待同一域名进行中的解析时最多等待timeout(ms)
+     *
+     * @param host    域名或ip
+     * @param timeout 最长等待时间(ms)，0表示不限制
+     *
+     * @return InetAddress[]
+     *
+     * @throws UnknownHostException 解析失败或者等待超时
+     */
+    @Override
+    public InetAddress[] resolve(String host, int timeout) throws UnknownHostException {
+        if (isIpAddress(host)) {
+            return delegate.resolve(host);
+        }
+
+        stats.onRequest();
+        long now = System.currentTimeMillis();
+        Entry entry = entries.get(host);
+        if (null != entry && now < entry.expireAt) {
+            if (null == entry.addresses) {
+                stats.onNegativeHit();
+                throw new UnknownHostException(host + " (cached)");
+            }
+            stats.onHit();
+            if (now >= entry.refreshAt) {
+                this.refreshAsync(host, entry);
+            }
+            return entry.next();
+        }
+
+        stats.onMiss();
+        entry = this.load(host, timeout);
+        if (null == entry.addresses) {
+            throw new UnknownHostException(host);
+        }
+        return entry.next();
+    }
+
+    /**
+     * 移除域名的缓存
+     *
+     * @param host 域名
+     */
+    public void invalidate(String host) {
+        entries.remove(host);
+    }
+
+    /**
+     * 清空缓存
+     */
+    public void clear() {
+        entries.clear();
+    }
+
+    /**
+     * 缓存的域名数(含解析失败的)
+     *
+     * @return int
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    public Stats getStats() {
+        return stats;
+    }
+
+    // --------------------------------- setters & getters ----------------------------------
+
+    public DnsResolver getDelegate() {
+        return delegate;
+    }
+
+    /**
+     * 实际执行解析的resolver，默认DnsResolver.SYSTEM
+     *
+     * @param delegate DnsResolver
+     *
+     * @return DnsCache
+     */
+    public DnsCache setDelegate(DnsResolver delegate) {
+        this.delegate = delegate;
+        return this;
+    }
+
+    public long getTtl() {
+        return ttl;
+    }
+
+    public DnsCache setTtl(long ttl) {
+        this.ttl = ttl;
+        return this;
+    }
+
+    public long getRefreshAfter() {
+        return refreshAfter;
+    }
+
+    /**
+     * 提前刷新的时机(ms)，不小于ttl时不提前刷新
+     *
+     * @param refreshAfter long
+     *
+     * @return DnsCache
+     */
+    public DnsCache setRefreshAfter(long refreshAfter) {
+        this.refreshAfter = refreshAfter;
+        return this;
+    }
+
+    public long getNegativeTtl() {
+        return negativeTtl;
+    }
+
+    /**
+     * 解析失败的缓存时长(ms)，0表示不缓存
+     *
+     * @param negativeTtl long
+     *
+     * @return DnsCache
+     */
+    public DnsCache setNegativeTtl(long negativeTtl) {
+        this.negativeTtl = negativeTtl;
+        return this;
+    }
+
+    /**
+     * 后台刷新使用的线程池，默认2个守护线程
+     *
+     * @param executor ExecutorService
+     *
+     * @return DnsCache
+     */
+    public DnsCache setExecutor(ExecutorService executor) {
+        this.executor = executor;
+        return this;
+    }
+
+    // --------------------------------- private ----------------------------------
+
+    /**
+     * 同步解析，同一域名的并发解析共享结果，等待其它线程的解析最多timeout(ms)
+     */
+    private Entry load(String host, int timeout) throws UnknownHostException {
+        CompletableFuture<Entry> created = new CompletableFuture<Entry>();
+        CompletableFuture<Entry> existing = loading.putIfAbsent(host, created);
+        if (null != existing) {
+            try {
+                return timeout > 0 ? existing.get(timeout, TimeUnit.MILLISECONDS) : existing.get();
+            } catch (TimeoutException e) {
+                throw new UnknownHostException(host + " (timed out after " + timeout + "ms)");
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new UnknownHostException(host + " (interrupted)");
+            } catch (ExecutionException e) {
+                throw (UnknownHostException)new UnknownHostException(host).initCause(e.getCause());
+            }
+        }
+
+        try {
+            Entry entry = this.lookup(host, null);
+            created.complete(entry);
+            return entry;
+        } catch (RuntimeException e) {
+            created.completeExceptionally(e);
+            throw e;
+        } finally {
+            loading.remove(host, created);
+        }
+    }
+
+    private void refreshAsync(final String host, final Entry current) {
+        if (!current.refreshing.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    DnsCache.this.lookup(host, current);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            current.refreshing.set(false);
+        }
+    }
+
+    /**
+     * 解析并更新缓存；刷新(current不为null)失败时保留旧结果
+     */
+    private Entry lookup(String host, Entry current) {
+        long now = System.currentTimeMillis();
+        Entry entry;
+        try {
+            InetAddress[] addresses = delegate.resolve(host);
+            if (null != current) {
+                stats.onRefresh();
+            }
+            entry = new Entry(addresses, now + Math.min(refreshAfter, ttl), now + ttl);
+        } catch (UnknownHostException e) {
+            stats.onFailure();
+            if (null != current) {
+                current.refreshing.set(false);
+                return current;
+            }
+            entry = new Entry(null, now + negativeTtl, now + negativeTtl);
+        }
+        if (null == current) {
+            entries.put(host, entry);
+        } else {
+            // 期间被invalidate时不再放回
+            entries.replace(host, current, entry);
+        }
+        return entry;
+    }
+
+    /**
+     * ip地址(含ipv6)不需要解析
+     */
+    private static boolean isIpAddress(String host) {
+        if (host.indexOf(':') >= 0) {
+            return true;
+        }
+        for (int i = 0; i < host.length(); i++) {
+            char c = host.charAt(i);
+            if ((c < '0' || c > '9') && c != '.') {
+                return false;
+            }
+        }
+        return !host.isEmpty();
+    }
+
+    // ------------------------------------ inner classes -------------------------
+
+    private static class DefaultHolder {
+        private static final DnsCache INSTANCE = new DnsCache();
+    }
+
+    private static class RefreshExecutorHolder {
+        private static final ExecutorService EXECUTOR = ThreadUtil.getDaemonExecutorService(
+            REFRESH_POOL_SIZE, REFRESH_QUEUE_SIZE, "dns-refresh-%d");
+    }
+
+    /**
+     * 一次解析的结果，addresses为null表示解析失败
+     */
+    private static final class Entry {
+        private final InetAddress[] addresses;
+        private final long refreshAt;
+        private final long expireAt;
+        private final AtomicInteger cursor = new AtomicInteger();
+        private final AtomicBoolean refreshing = new AtomicBoolean();
+
+        private Entry(InetAddress[] addresses, long refreshAt, long expireAt) {
+            this.addresses = addresses;
+            this.refreshAt = refreshAt;
+            this.expireAt = expireAt;
+        }
+
+        /**
+         * 按轮询顺序返回全部地址
+         */
+        private InetAddress[] next() {
+            int length = addresses.length;
+            if (length == 1) {
+                return addresses.clone();
+            }
+            int start = (cursor.getAndIncrement() & Integer.MAX_VALUE) % length;
+            InetAddress[] rotated = new InetAddress[length];
+            for (int i = 0; i < length; i++) {
+                rotated[i] = addresses[(start + i) % length];
+            }
+            return rotated;
+        }
+    }
+
+    /**
+     * 缓存统计
+     */
+    public static final class Stats {
+        private final AtomicLong requests = new AtomicLong();
+        private final AtomicLong hits = new AtomicLong();
+        private final AtomicLong misses = new AtomicLong();
+        private final AtomicLong negativeHits = new AtomicLong();
+        private final AtomicLong refreshes = new AtomicLong();
+        private final AtomicLong failures = new AtomicLong();
+
+        void onRequest() {
+            requests.incrementAndGet();
+        }
+
+        void onHit() {
+            hits.incrementAndGet();
+        }
+
+        void onMiss() {
+            misses.incrementAndGet();
+        }
+
+        void onNegativeHit() {
+            negativeHits.incrementAndGet();
+        }
+
+        void onRefresh() {
+            refreshes.incrementAndGet();
+        }
+
+        void onFailure() {
+            failures.incrementAndGet();
+        }
+
+        public long getRequests() {
+            return requests.get();
+        }
+
+        public long getHits() {
+            return hits.get();
+        }
+
+        public long getMisses() {
+            return misses.get();
+        }
+
+        /**
+         * 命中解析失败缓存的次数
+         *
+         * @return long
+         */
+        public long getNegativeHits() {
+            return negativeHits.get();
+        }
+
+        /**
+         * 后台提前刷新成功的次数
+         *
+         * @return long
+         */
+        public long getRefreshes() {
+            return refreshes.get();
+        }
+
+        /**
+         * 解析失败的次数(含后台刷新)
+         *
+         * @return long
+         */
+        public long getFailures() {
+            return failures.get();
+        }
+
+        @Override
+        public String toString() {
+            return "[requests: " + requests.get() + "; hits: " + hits.get() + "; misses: " + misses.get()
+                + "; negativeHits: " + negativeHits.get() + "; refreshes: " + refreshes.get()
+                + "; failures: " + failures.get() + "]";
+        }
+    }
+}
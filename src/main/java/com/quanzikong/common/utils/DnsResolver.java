@@ -0,0 +1,52 @@
+package com.quanzikong.common.utils;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+/**
+ * 域名解析，供HttpConnectionPool建立连接时使用<br/>
+ * - SYSTEM直接使用JVM的解析(InetAddress.getAllByName)；DnsCache在其上增加TTL缓存、提前刷新与轮询<br/>
+ * - 返回的多个地址按顺序尝试连接，前面的地址连接失败时尝试下一个
+ *
+ * Usage:
+ * HttpConnectionPool pool = new HttpConnectionPool().setDnsResolver(new DnsCache().setTtl(30000));
+ *
+ * @author agent
+ */
+public interface DnsResolver {
+
+    /**
+     * JVM的解析
+     */
+    DnsResolver SYSTEM = new DnsResolver() {
+        @Override
+        public InetAddress[] resolve(String host) throws UnknownHostException {
+            return InetAddress.getAllByName(host);
+        }
+    };
+
+    /**
+     * 解析域名
+     *
+     * @param host 域名或ip
+     *
+     * @return InetAddress[]，至少一个
+     *
+     * @throws UnknownHostException e
+     */
+    InetAddress[] resolve(String host) throws UnknownHostException;
+
+    /**
+     * 解析域名，最多等待timeout(ms)，连接池传入connect timeout；默认实现忽略timeout
+     *
+     * @param host    域名或ip
+     * @param timeout 最长等待时间(ms)，0表示不限制
+     *
+     * @return InetAddress[]，至少一个
+     *
+     * @throws UnknownHostException 解析失败或者超时
+     */
+    default InetAddress[] resolve(String host, int timeout) throws UnknownHostException {
+        return this.resolve(host);
+    }
+}
@@ -0,0 +1,293 @@
+package com.quanzikong.common.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Array;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * query string与application/x-www-form-urlencoded的编码<br/>
+ * - 编码规则与URLEncoder相同：字母、数字与"-_.*"原样输出，空格为"+"，其它字符按charset编码后输出%XX<br/>
+ * - 参数值为Collection或数组时展开为多个同名参数(a=1&amp;a=2)，值为null时输出空值(a=)，File类型的参数被忽略<br/>
+ * - 编码结果直接写入按线程复用的byte缓冲区，UTF-8时不生成中间的String与byte[]，之后只拷贝一次得到结果<br/>
+ * - 线程安全
+ *
+ * Usage:
+ * String url = FormEncoder.appendQuery("http://host/api", params, "UTF-8");
+ * byte[] body = FormEncoder.toBytes(params, "UTF-8");
+ *
+ * @author agent
+ */
+public final class FormEncoder {
+
+    private static final byte[] HEX = "0123456789ABCDEF".getBytes(StandardCharsets.US_ASCII);
+    /**
+     * 不需要编码的字符
+     */
+    private static final boolean[] SAFE = new boolean[128];
+    /**
+     * 超过该大小的缓冲区用完后不再保留，避免偶发的大表单长期占用内存
+     */
+    private static final int MAX_RETAINED_BUFFER = 64 * 1024;
+    private static final ThreadLocal<Buffer> BUFFER = new ThreadLocal<Buffer>() {
+        @Override
+        protected Buffer initialValue() {
+            return new Buffer();
+        }
+    };
+
+    static {
+        for (int c = 'a'; c <= 'z'; c++) {
+            SAFE[c] = true;
+        }
+        for (int c = 'A'; c <= 'Z'; c++) {
+            SAFE[c] = true;
+        }
+        for (int c = '0'; c <= '9'; c++) {
+            SAFE[c] = true;
+        }
+        SAFE['-'] = true;
+        SAFE['_'] = true;
+        SAFE['.'] = true;
+        SAFE['*'] = true;
+    }
+
+    private FormEncoder() {
+    }
+
+    /**
+     * 在url后追加参数：url已有query string时以&amp;连接，没有参数时原样返回
+     *
+     * @param url     url
+     * @param params  参数
+     * @param charset 编码
+     *
+     * @return String
+     */
+    public static String appendQuery(String url, Map<String, ?> params, String charset) {
+        Buffer buffer = BUFFER.get();
+        try {
+            encode(params, Charset.forName(charset), buffer);
+            if (buffer.count == 0) {
+                return url;
+            }
+            char separator = url.indexOf('?') < 0 ? '?' : (url.endsWith("?") || url.endsWith("&") ? 0 : '&');
+            StringBuilder sb = new StringBuilder(url.length() + 1 + buffer.count).append(url);
+            if (separator != 0) {
+                sb.append(separator);
+            }
+            for (int i = 0; i < buffer.count; i++) {
+                sb.append((char)buffer.bytes[i]);
+            }
+            return sb.toString();
+        } finally {
+            buffer.reset();
+        }
+    }
+
+    /**
+     * 编码为query string(不含"?")
+     *
+     * @param params  参数
+     * @param charset 编码
+     *
+     * @return String
+     */
+    public static String toQueryString(Map<String, ?> params, String charset) {
+        Buffer buffer = BUFFER.get();
+        try {
+            encode(params, Charset.forName(charset), buffer);
+            return new String(buffer.bytes, 0, buffer.count, StandardCharsets.US_ASCII);
+        } finally {
+            buffer.reset();
+        }
+    }
+
+    /**
+     * 编码为表单body
+     *
+     * @param params  参数
+     * @param charset 编码
+     *
+     * @return byte[]
+     */
+    public static byte[] toBytes(Map<String, ?> params, String charset) {
+        Buffer buffer = BUFFER.get();
+        try {
+            encode(params, Charset.forName(charset), buffer);
+            return Arrays.copyOf(buffer.bytes, buffer.count);
+        } finally {
+            buffer.reset();
+        }
+    }
+
+    /**
+     * 编码后写出到输出流
+     *
+     * @param params  参数
+     * @param charset 编码
+     * @param out     OutputStream
+     *
+     * @throws IOException e
+     */
+    public static void writeTo(Map<String, ?> params, String charset, OutputStream out) throws IOException {
+        Buffer buffer = BUFFER.get();
+        try {
+            encode(params, Charset.forName(charset), buffer);
+            out.write(buffer.bytes, 0, buffer.count);
+        } finally {
+            buffer.reset();
+        }
+    }
+
+    /**
+     * 编码单个名称或值
+     *
+     * @param value   值
+     * @param charset 编码
+     *
+     * @return String
+     */
+    public static String encode(String value, String charset) {
+        Buffer buffer = BUFFER.get();
+        try {
+            encodeComponent(value, Charset.forName(charset), buffer);
+            return new String(buffer.bytes, 0, buffer.count, StandardCharsets.US_ASCII);
+        } finally {
+            buffer.reset();
+        }
+    }
+
+    // --------------------------------- private ----------------------------------
+
+    private static void encode(Map<String, ?> params, Charset charset, Buffer buffer) {
+        if (null == params) {
+            return;
+        }
+        for (Map.Entry<String, ?> entry : params.entrySet()) {
+            String name = entry.getKey();
+            Object value = entry.getValue();
+            if (value instanceof File) {
+                continue;
+            }
+            if (value instanceof Iterable) {
+                for (Object item : (Iterable<?>)value) {
+                    appendPair(name, item, charset, buffer);
+                }
+            } else if (null != value && value.getClass().isArray()) {
+                for (int i = 0, length = Array.getLength(value); i < length; i++) {
+                    appendPair(name, Array.get(value, i), charset, buffer);
+                }
+            } else {
+                appendPair(name, value, charset, buffer);
+            }
+        }
+    }
+
+    private static void appendPair(String name, Object value, Charset charset, Buffer buffer) {
+        if (value instanceof File) {
+            return;
+        }
+        if (buffer.count > 0) {
+            buffer.write('&');
+        }
+        encodeComponent(name, charset, buffer);
+        buffer.write('=');
+        if (null != value) {
+            encodeComponent(value instanceof String ? (String)value : String.valueOf(value), charset, buffer);
+        }
+    }
+
+    private static void encodeComponent(String value, Charset charset, Buffer buffer) {
+        boolean utf8 = StandardCharsets.UTF_8.equals(charset);
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < 128 && SAFE[c]) {
+                buffer.write(c);
+            } else if (c == ' ') {
+                buffer.write('+');
+            } else if (c < 128) {
+                appendEscaped(c, buffer);
+            } else if (utf8) {
+                i = appendUtf8(value, i, buffer);
+            } else {
+                // 其它编码：把连续的非ASCII字符一起编码
+                int end = i + 1;
+                while (end < length && value.charAt(end) >= 128) {
+                    end++;
+                }
+                for (byte b : value.substring(i, end).getBytes(charset)) {
+                    appendEscaped(b & 0xff, buffer);
+                }
+                i = end - 1;
+            }
+        }
+    }
+
+    /**
+     * 按UTF-8编码一个字符(含代理对)，返回最后处理的下标
+     */
+    private static int appendUtf8(String value, int index, Buffer buffer) {
+        char c = value.charAt(index);
+        int codePoint = c;
+        if (Character.isHighSurrogate(c) && index + 1 < value.length()
+            && Character.isLowSurrogate(value.charAt(index + 1))) {
+            codePoint = Character.toCodePoint(c, value.charAt(index + 1));
+            index++;
+        } else if (Character.isSurrogate(c)) {
+            // 不成对的代理字符与String.getBytes一致，编码为'?'
+            appendEscaped('?', buffer);
+            return index;
+        }
+
+        if (codePoint < 0x800) {
+            appendEscaped(0xc0 | (codePoint >> 6), buffer);
+            appendEscaped(0x80 | (codePoint & 0x3f), buffer);
+        } else if (codePoint < 0x10000) {
+            appendEscaped(0xe0 | (codePoint >> 12), buffer);
+            appendEscaped(0x80 | ((codePoint >> 6) & 0x3f), buffer);
+            appendEscaped(0x80 | (codePoint & 0x3f), buffer);
+        } else {
+            appendEscaped(0xf0 | (codePoint >> 18), buffer);
+            appendEscaped(0x80 | ((codePoint >> 12) & 0x3f), buffer);
+            appendEscaped(0x80 | ((codePoint >> 6) & 0x3f), buffer);
+            appendEscaped(0x80 | (codePoint & 0x3f), buffer);
+        }
+        return index;
+    }
+
+    private static void appendEscaped(int b, Buffer buffer) {
+        buffer.write('%');
+        buffer.write(HEX[(b >> 4) & 0xf]);
+        buffer.write(HEX[b & 0xf]);
+    }
+
+    // ------------------------------------ inner classes -------------------------
+
+    /**
+     * 按线程复用的byte缓冲区
+     */
+    private static final class Buffer {
+        private byte[] bytes = new byte[1024];
+        private int count = 0;
+
+        private void write(int b) {
+            if (count == bytes.length) {
+                bytes = Arrays.copyOf(bytes, bytes.length << 1);
+            }
+            bytes[count++] = (byte)b;
+        }
+
+        private void reset() {
+            count = 0;
+            if (bytes.length > MAX_RETAINED_BUFFER) {
+                bytes = new byte[1024];
+            }
+        }
+    }
+}
@@ -0,0 +1,285 @@
+package com.quanzikong.common.utils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.zip.CRC32;
+
+/**
+ * 长度前缀的hessian记录流(读取)，按需逐条解码HessianFrameWriter写入的记录<br/>
+ * - 从InputStream/ReadableByteChannel读取时使用一个可复用的缓冲区(默认64KB，只会扩大到单条最大的记录)；
+ * map(Path)按窗口(256MB)映射文件，不复制数据<br/>
+ * - 内存占用与记录数无关，可以遍历上百万条记录；记录带CRC32时逐条校验<br/>
+ * - 解码规则同HessianUtil.deserialize(按clazz解码，setStrict(true)时类型不符直接失败)<br/>
+ * - 格式错误、校验失败、记录被截断时抛出IllegalStateException；0字节的输入视为没有记录<br/>
+ * - 非线程安全，只能遍历一次；close关闭下层的流/channel/文件
+ *
+ * Usage:
+ * try (HessianFrameReader&lt;TestPojo&gt; reader = HessianFrameReader.map(file.toPath(), TestPojo.class)) {
+ * for (TestPojo pojo : reader) {
+ * // ...
+ * }
+ * }
+ *
+ * @author agent
+ */
+public class HessianFrameReader<T> implements Iterator<T>, Iterable<T>, Closeable {
+
+    private static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+    private static final int DEFAULT_MAX_FRAME_SIZE = 64 * 1024 * 1024;
+    private static final long MAP_WINDOW_SIZE = 256L * 1024 * 1024;
+
+    private final Class<T> clazz;
+    private final ReadableByteChannel channel;
+    private final FileChannel file;
+    private final long fileSize;
+    private final CRC32 crc = new CRC32();
+    private int maxFrameSize = DEFAULT_MAX_FRAME_SIZE;
+    private boolean strict = false;
+    /**
+     * 读模式，position为下一条记录的起点
+     */
+    private ByteBuffer buffer;
+    /**
+     * buffer的副本，用于校验与解码单条记录，buffer替换时重建
+     */
+    private ByteBuffer frame;
+    /**
+     * 映射窗口在文件中的起点
+     */
+    private long windowStart = 0;
+    private boolean started = false;
+    private boolean checksum = false;
+    private boolean ready = false;
+    private long records = 0;
+
+    public HessianFrameReader(InputStream in, Class<T> clazz) {
+        this(Channels.newChannel(in), clazz);
+    }
+
+    public HessianFrameReader(ReadableByteChannel channel, Class<T> clazz) {
+        this(channel, null, 0, clazz);
+        this.setBuffer((ByteBuffer)ByteBuffer.allocate(DEFAULT_BUFFER_SIZE).flip());
+    }
+
+    private HessianFrameReader(ReadableByteChannel channel, FileChannel file, long fileSize, Class<T> clazz) {
+        this.channel = channel;
+        this.file = file;
+        this.fileSize = fileSize;
+        this.clazz = clazz;
+    }
+
+    /**
+     * 以内存映射的方式读取文件
+     *
+     * @param path  文件
+     * @param clazz 记录的类型
+     * @param <T>   T
+     *
+     * @return HessianFrameReader 使用完请close
+     *
+     * @throws IOException e
+     */
+    public static <T> HessianFrameReader<T> map(Path path, Class<T> clazz) throws IOException {
+        FileChannel file = FileChannel.open(path, StandardOpenOption.READ);
+        HessianFrameReader<T> reader = new HessianFrameReader<T>(null, file, file.size(), clazz);
+        reader.setBuffer(ByteBuffer.allocate(0));
+        return reader;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (ready) {
+            return true;
+        }
+        try {
+            if (!started) {
+                started = true;
+                this.readHeader();
+            }
+            int headerSize = checksum ? 8 : 4;
+            if (!this.fill(headerSize)) {
+                if (buffer.hasRemaining()) {
+                    throw new IllegalStateException("Truncated frame header after record " + records);
+                }
+                return false;
+            }
+            int length = buffer.getInt(buffer.position());
+            if (length < 0 || length > maxFrameSize) {
+                throw new IllegalStateException("Invalid frame length " + length + " after record " + records);
+            }
+            if (!this.fill(headerSize + length)) {
+                throw new IllegalStateException("Truncated frame after record " + records);
+            }
+            ready = true;
+            return true;
+        } catch (IOException e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public T next() {
+        if (!this.hasNext()) {
+            throw new NoSuchElementException();
+        }
+        int start = buffer.position();
+        int headerSize = checksum ? 8 : 4;
+        int length = buffer.getInt(start);
+        int payload = start + headerSize;
+        frame.limit(payload + length).position(payload);
+        if (checksum) {
+            crc.reset();
+            crc.update(frame);
+            if ((int)crc.getValue() != buffer.getInt(start + 4)) {
+                throw new IllegalStateException("Checksum mismatch in record " + records);
+            }
+            frame.position(payload);
+        }
+        buffer.position(payload + length);
+        ready = false;
+        records++;
+        return HessianUtil.deserializeFrame(frame, clazz, strict);
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException("remove");
+    }
+
+    /**
+     * 返回自身，只能遍历一次
+     *
+     * @return Iterator
+     */
+    @Override
+    public Iterator<T> iterator() {
+        return this;
+    }
+
+    /**
+     * 关闭下层的流；映射的内存在GC时释放
+     *
+     * @throws IOException e
+     */
+    @Override
+    public void close() throws IOException {
+        ready = false;
+        buffer = ByteBuffer.allocate(0);
+        frame = buffer;
+        if (null != file) {
+            file.close();
+        } else {
+            channel.close();
+        }
+    }
+
+    /**
+     * 已读出的记录数
+     *
+     * @return long
+     */
+    public long getRecords() {
+        return records;
+    }
+
+    // --------------------------------- setters & getters ----------------------------------
+
+    public int getMaxFrameSize() {
+        return maxFrameSize;
+    }
+
+    /**
+     * 单条记录的最大长度，超过时视为数据损坏，默认64MB
+     *
+     * @param maxFrameSize int
+     *
+     * @return HessianFrameReader
+     */
+    public HessianFrameReader<T> setMaxFrameSize(int maxFrameSize) {
+        this.maxFrameSize = maxFrameSize;
+        return this;
+    }
+
+    public boolean isStrict() {
+        return strict;
+    }
+
+    /**
+     * 记录的类型与clazz不符时直接失败，见HessianUtil.deserialize(bytes, clazz, strict)
+     *
+     * @param strict boolean
+     *
+     * @return HessianFrameReader
+     */
+    public HessianFrameReader<T> setStrict(boolean strict) {
+        this.strict = strict;
+        return this;
+    }
+
+    // --------------------------------- private ----------------------------------
+
+    private void readHeader() throws IOException {
+        if (!this.fill(HessianFrameWriter.STREAM_HEADER_SIZE)) {
+            if (buffer.hasRemaining()) {
+                throw new IllegalStateException("Not a hessian frame stream");
+            }
+            return;
+        }
+        int position = buffer.position();
+        if (buffer.get(position) != HessianFrameWriter.MAGIC_0
+            || buffer.get(position + 1) != HessianFrameWriter.MAGIC_1
+            || buffer.get(position + 2) != HessianFrameWriter.VERSION) {
+            throw new IllegalStateException("Not a hessian frame stream");
+        }
+        checksum = (buffer.get(position + 3) & HessianFrameWriter.FLAG_CHECKSUM) != 0;
+        buffer.position(position + HessianFrameWriter.STREAM_HEADER_SIZE);
+    }
+
+    /**
+     * 保证buffer中至少有n字节，到达末尾仍不足时返回false
+     */
+    private boolean fill(int n) throws IOException {
+        if (buffer.remaining() >= n) {
+            return true;
+        }
+        if (null != file) {
+            long position = windowStart + buffer.position();
+            if (position + buffer.remaining() >= fileSize) {
+                return false;
+            }
+            long size = Math.min(Math.max(MAP_WINDOW_SIZE, n), fileSize - position);
+            windowStart = position;
+            this.setBuffer(file.map(FileChannel.MapMode.READ_ONLY, position, size));
+            return buffer.remaining() >= n;
+        }
+        ByteBuffer target;
+        if (buffer.capacity() >= n) {
+            target = buffer.compact();
+        } else {
+            target = ByteBuffer.allocate(Math.max(buffer.capacity() << 1, n));
+            target.put(buffer);
+        }
+        while (target.position() < n) {
+            if (channel.read(target) < 0) {
+                break;
+            }
+        }
+        target.flip();
+        this.setBuffer(target);
+        return buffer.remaining() >= n;
+    }
+
+    private void setBuffer(ByteBuffer buffer) {
+        this.buffer = buffer;
+        this.frame = buffer.duplicate();
+    }
+}
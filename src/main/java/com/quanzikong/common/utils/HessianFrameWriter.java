@@ -0,0 +1,278 @@
+package com.quanzikong.common.utils;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * 长度前缀的hessian记录流(写出)，在一个流/文件中连续写入大量记录，由HessianFrameReader逐条读出<br/>
+ * - 格式：4字节流头('H' 'F' 版本 flags)，之后每条记录为4字节长度 + [4字节CRC32] + HessianUtil.serialize的结果<br/>
+ * - 记录编码进内部缓冲区，累积到64KB再写出，不需要再包一层BufferedOutputStream；
+ * 内存占用只与单条最大的记录有关，与记录数无关<br/>
+ * - setChecksum(true)时每条记录带CRC32，读取时校验；setProtocol选择hessian协议，默认Hessian 2<br/>
+ * - 非线程安全；close时写出剩余数据并关闭下层的流/channel
+ *
+ * Usage:
+ * try (HessianFrameWriter writer = new HessianFrameWriter(new FileOutputStream(file)).setChecksum(true)) {
+ * for (TestPojo pojo : pojos) {
+ * writer.write(pojo);
+ * }
+ * }
+ *
+ * @author agent
+ */
+public class HessianFrameWriter implements Closeable, Flushable {
+
+    static final int MAGIC_0 = 'H';
+    static final int MAGIC_1 = 'F';
+    static final int VERSION = 1;
+    static final int FLAG_CHECKSUM = 1;
+    static final int STREAM_HEADER_SIZE = 4;
+    /**
+     * 缓冲的数据达到该大小时写出
+     */
+    private static final int FLUSH_THRESHOLD = 64 * 1024;
+
+    private final OutputStream out;
+    private final WritableByteChannel channel;
+    private final Sink sink = new Sink();
+    private final CRC32 crc = new CRC32();
+    private HessianUtil.Protocol protocol = HessianUtil.Protocol.HESSIAN_2;
+    private boolean checksum = false;
+    private boolean started = false;
+    private boolean closed = false;
+    private byte[] buffer = new byte[FLUSH_THRESHOLD];
+    private int count = 0;
+    /**
+     * 正在编码的记录在buffer中的起点，写出之前的记录时随之前移
+     */
+    private int frameStart = 0;
+    private long records = 0;
+    private long bytes = 0;
+
+    public HessianFrameWriter(OutputStream out) {
+        this.out = out;
+        this.channel = null;
+    }
+
+    public HessianFrameWriter(WritableByteChannel channel) {
+        this.out = null;
+        this.channel = channel;
+    }
+
+    /**
+     * 写入一条记录
+     *
+     * @param record 记录
+     *
+     * @return 记录占用的字节数(含长度与校验)
+     *
+     * @throws IOException e
+     */
+    public int write(Object record) throws IOException {
+        this.start();
+        int headerSize = checksum ? 8 : 4;
+        frameStart = count;
+        this.ensureCapacity(headerSize);
+        count += headerSize;
+        int length;
+        try {
+            length = HessianUtil.serialize(record, sink, protocol);
+        } catch (IllegalStateException e) {
+            // 丢弃写了一半的记录
+            count = frameStart;
+            if (e.getCause() instanceof IOException) {
+                throw (IOException)e.getCause();
+            }
+            throw e;
+        }
+        writeInt(buffer, frameStart, length);
+        if (checksum) {
+            crc.reset();
+            crc.update(buffer, frameStart + headerSize, length);
+            writeInt(buffer, frameStart + 4, (int)crc.getValue());
+        }
+        frameStart = count;
+        records++;
+        if (count >= FLUSH_THRESHOLD) {
+            this.drain();
+        }
+        return headerSize + length;
+    }
+
+    /**
+     * 写出缓冲的记录并flush下层的流
+     *
+     * @throws IOException e
+     */
+    @Override
+    public void flush() throws IOException {
+        this.start();
+        this.drain();
+        if (null != out) {
+            out.flush();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        try {
+            this.flush();
+        } finally {
+            closed = true;
+            buffer = null;
+            if (null != out) {
+                out.close();
+            } else {
+                channel.close();
+            }
+        }
+    }
+
+    /**
+     * 已写入的记录数
+     *
+     * @return long
+     */
+    public long getRecords() {
+        return records;
+    }
+
+    /**
+     * 已写出到下层的字节数(不含缓冲中的)
+     *
+     * @return long
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    // --------------------------------- setters & getters ----------------------------------
+
+    public HessianUtil.Protocol getProtocol() {
+        return protocol;
+    }
+
+    /**
+     * 记录使用的hessian协议，默认Hessian 2(同类记录更紧凑)
+     *
+     * @param protocol Protocol
+     *
+     * @return HessianFrameWriter
+     */
+    public HessianFrameWriter setProtocol(HessianUtil.Protocol protocol) {
+        this.protocol = protocol;
+        return this;
+    }
+
+    public boolean isChecksum() {
+        return checksum;
+    }
+
+    /**
+     * 每条记录是否带CRC32，需在写入第一条记录之前设置
+     *
+     * @param checksum boolean
+     *
+     * @return HessianFrameWriter
+     */
+    public HessianFrameWriter setChecksum(boolean checksum) {
+        if (started) {
+            throw new IllegalStateException("Checksum must be set before the first record");
+        }
+        this.checksum = checksum;
+        return this;
+    }
+
+    // --------------------------------- private ----------------------------------
+
+    /**
+     * 第一次写入时写流头
+     */
+    private void start() throws IOException {
+        if (closed) {
+            throw new IOException("HessianFrameWriter is closed");
+        }
+        if (started) {
+            return;
+        }
+        started = true;
+        buffer[count++] = (byte)MAGIC_0;
+        buffer[count++] = (byte)MAGIC_1;
+        buffer[count++] = (byte)VERSION;
+        buffer[count++] = (byte)(checksum ? FLAG_CHECKSUM : 0);
+        frameStart = count;
+    }
+
+    /**
+     * 保证还能追加n字节：先写出之前完整的记录，仍不够时扩容
+     */
+    private void ensureCapacity(int n) throws IOException {
+        if (count + n <= buffer.length) {
+            return;
+        }
+        this.drain();
+        if (count + n > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length << 1, count + n));
+        }
+    }
+
+    /**
+     * 写出缓冲中完整的记录，正在编码的记录移到buffer开头
+     */
+    private void drain() throws IOException {
+        if (frameStart > 0) {
+            this.write(0, frameStart);
+            System.arraycopy(buffer, frameStart, buffer, 0, count - frameStart);
+            count -= frameStart;
+            frameStart = 0;
+        }
+    }
+
+    private void write(int offset, int length) throws IOException {
+        if (null != out) {
+            out.write(buffer, offset, length);
+        } else {
+            ByteBuffer src = ByteBuffer.wrap(buffer, offset, length);
+            while (src.hasRemaining()) {
+                channel.write(src);
+            }
+        }
+        bytes += length;
+    }
+
+    private static void writeInt(byte[] b, int offset, int value) {
+        b[offset] = (byte)(value >>> 24);
+        b[offset + 1] = (byte)(value >>> 16);
+        b[offset + 2] = (byte)(value >>> 8);
+        b[offset + 3] = (byte)value;
+    }
+
+    // ------------------------------------ inner classes -------------------------
+
+    /**
+     * HessianUtil.serialize写入的目标，直接追加到buffer
+     */
+    private final class Sink extends OutputStream {
+        @Override
+        public void write(int b) throws IOException {
+            HessianFrameWriter.this.ensureCapacity(1);
+            buffer[count++] = (byte)b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            HessianFrameWriter.this.ensureCapacity(len);
+            System.arraycopy(b, off, buffer, count, len);
+            count += len;
+        }
+    }
+}
@@ -1,19 +1,129 @@
 package com.quanzikong.common.utils;
 
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
+import com.caucho.hessian.io.AbstractHessianInput;
+import com.caucho.hessian.io.AbstractSerializerFactory;
+import com.caucho.hessian.io.Deserializer;
+import com.caucho.hessian.io.Hessian2Input;
+import com.caucho.hessian.io.Hessian2Output;
 import com.caucho.hessian.io.HessianInput;
 import com.caucho.hessian.io.HessianOutput;
+import com.caucho.hessian.io.HessianProtocolException;
+import com.caucho.hessian.io.Serializer;
+import com.caucho.hessian.io.SerializerFactory;
+import com.google.common.primitives.Primitives;
 
 /**
- * hessian serialize
+ * hessian serialize<br/>
+ * - HessianOutput/HessianInput and the serialization buffer are reused per thread (init() before, released after),
+ * so a call allocates neither stream objects nor a growing ByteArrayOutputStream<br/>
+ * - HessianOutput writes byte by byte, so output is always encoded into the thread buffer and handed to the
+ * target OutputStream/ByteBuffer with a single bulk write<br/>
+ * - nested calls (e.g. from a custom serializer) fall back to fresh objects<br/>
+ * - all streams share one SerializerFactory, so serializers and class introspection are built once per class
+ * instead of once per thread; warmUp() builds them at startup, register() adds custom serializers<br/>
+ * - serialize writes Hessian 1 unless Protocol.HESSIAN_2 is given; Hessian 2 output starts with the 'H' 2 0
+ * version header and is much more compact for lists of the same class (class definitions, compact ints and
+ * string refs). Readers older than this class only understand Hessian 1<br/>
+ * - deserialize detects the protocol: the version header, or a first byte that is not a Hessian 1 value tag,
+ * means Hessian 2. Hessian 2 without the header is only recognized by that first byte, so a headless object,
+ * untyped map or compact value decodes, while a headless typed map ('M') or list ('V') is taken as Hessian 1<br/>
+ * - deserialize decodes towards the requested class (readObject(Class)): a payload of an unknown or different
+ * class is mapped onto its fields, a result that still is not a clazz fails here instead of at the call site.
+ * strict mode rejects payloads whose class is not a clazz, also for nested objects
+ *
+ * Usage:
+ * HessianUtil.register(Money.class, new MoneySerializer(), new MoneyDeserializer());
+ * HessianUtil.warmUp(TestPojo.class, Money.class);
  *
  * @author author 2018-04-26 02:53:29
  */
 public class HessianUtil {
 
+    /**
+     * buffers larger than this are not kept after the call
+     */
+    private static final int MAX_RETAINED_BUFFER = 256 * 1024;
+    /**
+     * first byte of the Hessian 2 version header 'H' 2 0, without 2 0 it is a Hessian 2 untyped map
+     */
+    private static final int VERSION_TAG = 'H';
+    /**
+     * first bytes of Hessian 1 values, anything else is decoded as Hessian 2
+     */
+    private static final String HESSIAN_1_TAGS = "NTFILDdSsXxBbMV";
+    /**
+     * strict mode of the decode running on this thread, read by the shared SerializerFactory
+     */
+    private static final ThreadLocal<Boolean> STRICT = new ThreadLocal<Boolean>() {
+        @Override
+        protected Boolean initialValue() {
+            return Boolean.FALSE;
+        }
+    };
+    private static final ThreadLocal<Codec> CODEC = new ThreadLocal<Codec>() {
+        @Override
+        protected Codec initialValue() {
+            return new Codec();
+        }
+    };
+
+    /**
+     * the SerializerFactory shared by all HessianUtil streams, configure it (addFactory, setAllowNonSerializable)
+     * before the first call
+     *
+     * @return SerializerFactory
+     */
+    public static SerializerFactory getSerializerFactory() {
+        return FactoryHolder.FACTORY;
+    }
+
+    /**
+     * register a custom serializer/deserializer, it takes precedence over the built-in ones but not over a
+     * serializer the factory already cached, so register before the class is first (de)serialized or warmed up
+     *
+     * @param clazz        clazz
+     * @param serializer   Serializer, null to keep the default
+     * @param deserializer Deserializer, null to keep the default
+     */
+    public static void register(Class<?> clazz, Serializer serializer, Deserializer deserializer) {
+        if (null != serializer) {
+            FactoryHolder.REGISTRY.serializers.put(clazz, serializer);
+        }
+        if (null != deserializer) {
+            FactoryHolder.REGISTRY.deserializers.put(clazz, deserializer);
+        }
+    }
+
+    /**
+     * build and cache the serializers and deserializers of the classes and of their Serializable field types,
+     * so the first request does not pay for reflection
+     *
+     * @param classes classes
+     *
+     * @throws IllegalStateException if a class cannot be serialized, e.g. it is not Serializable
+     */
+    public static void warmUp(Class<?>... classes) {
+        Set<Class<?>> visited = new HashSet<Class<?>>();
+        for (Class<?> clazz : classes) {
+            warmUp(clazz, visited, true);
+        }
+    }
+
     /**
      * serialize
      *
@@ -23,33 +133,636 @@ public class HessianUtil {
      * @return byte[]
      */
     public static <T> byte[] serialize(T obj) {
-        ByteArrayOutputStream os = new ByteArrayOutputStream();
-        HessianOutput ho = new HessianOutput(os);
+        return serialize(obj, Protocol.HESSIAN_1);
+    }
+
+    /**
+     * serialize with the given protocol
+     *
+     * @param obj      obj
+     * @param protocol Protocol
+     * @param <T>      T
+     *
+     * @return byte[]
+     */
+    public static <T> byte[] serialize(T obj, Protocol protocol) {
+        Codec codec = Codec.acquire();
+        try {
+            codec.encode(obj, protocol);
+            return Arrays.copyOf(codec.buffer.bytes, codec.buffer.count);
+        } finally {
+            codec.release();
+        }
+    }
+
+    /**
+     * serialize into the stream, the stream is neither flushed nor closed
+     *
+     * @param obj obj
+     * @param os  OutputStream
+     * @param <T> T
+     *
+     * @return bytes written
+     */
+    public static <T> int serialize(T obj, OutputStream os) {
+        return serialize(obj, os, Protocol.HESSIAN_1);
+    }
+
+    /**
+     * serialize into the stream with the given protocol, the stream is neither flushed nor closed
+     *
+     * @param obj      obj
+     * @param os       OutputStream
+     * @param protocol Protocol
+     * @param <T>      T
+     *
+     * @return bytes written
+     */
+    public static <T> int serialize(T obj, OutputStream os, Protocol protocol) {
+        Codec codec = Codec.acquire();
         try {
-            ho.writeObject(obj);
+            codec.encode(obj, protocol);
+            os.write(codec.buffer.bytes, 0, codec.buffer.count);
+            return codec.buffer.count;
         } catch (IOException e) {
             throw new IllegalStateException(e.getMessage(), e);
+        } finally {
+            codec.release();
+        }
+    }
+
+    /**
+     * serialize into the buffer at its position, the position is advanced
+     *
+     * @param obj    obj
+     * @param target ByteBuffer
+     * @param <T>    T
+     *
+     * @return bytes written
+     *
+     * @throws java.nio.BufferOverflowException if the remaining space is not enough, nothing is written
+     */
+    public static <T> int serialize(T obj, ByteBuffer target) {
+        return serialize(obj, target, Protocol.HESSIAN_1);
+    }
+
+    /**
+     * serialize into the buffer at its position with the given protocol, the position is advanced
+     *
+     * @param obj      obj
+     * @param target   ByteBuffer
+     * @param protocol Protocol
+     * @param <T>      T
+     *
+     * @return bytes written
+     *
+     * @throws java.nio.BufferOverflowException if the remaining space is not enough, nothing is written
+     */
+    public static <T> int serialize(T obj, ByteBuffer target, Protocol protocol) {
+        Codec codec = Codec.acquire();
+        try {
+            codec.encode(obj, protocol);
+            target.put(codec.buffer.bytes, 0, codec.buffer.count);
+            return codec.buffer.count;
+        } finally {
+            codec.release();
         }
-        return os.toByteArray();
     }
 
     /**
      * deserialize
      *
      * @param bytes bytes
-     * @param clazz clazz
+     * @param clazz clazz, Object.class for whatever the payload holds
      * @param <T>   T
      *
      * @return Object
+     *
+     * @throws IllegalStateException if the payload cannot be decoded as clazz
      */
     public static <T> T deserialize(byte[] bytes, Class<T> clazz) {
-        ByteArrayInputStream is = new ByteArrayInputStream(bytes);
-        HessianInput hi = new HessianInput(is);
+        return deserialize(bytes, clazz, false);
+    }
+
+    /**
+     * deserialize, in strict mode a payload of another class fails instead of being mapped onto clazz
+     *
+     * @param bytes  bytes
+     * @param clazz  clazz
+     * @param strict strict
+     * @param <T>    T
+     *
+     * @return Object
+     *
+     * @throws IllegalStateException if the payload cannot be decoded as clazz
+     */
+    public static <T> T deserialize(byte[] bytes, Class<T> clazz, boolean strict) {
+        return deserialize(new ByteArrayInputStream(bytes), clazz, strict);
+    }
+
+    /**
+     * deserialize from the buffer's remaining bytes, the position is advanced past the object<br/>
+     * Hessian 2 decoding reads ahead from its source, so the buffer is fed to it one byte per read to stop
+     * exactly at the end of the object; for a single object deserialize(byte[]) is faster
+     *
+     * @param source ByteBuffer
+     * @param clazz  clazz
+     * @param <T>    T
+     *
+     * @return Object
+     */
+    public static <T> T deserialize(ByteBuffer source, Class<T> clazz) {
+        return deserialize(source, clazz, false);
+    }
+
+    /**
+     * deserialize from the buffer's remaining bytes, in strict mode a payload of another class fails
+     *
+     * @param source ByteBuffer
+     * @param clazz  clazz
+     * @param strict strict
+     * @param <T>    T
+     *
+     * @return Object
+     */
+    public static <T> T deserialize(ByteBuffer source, Class<T> clazz, boolean strict) {
+        return deserialize(source, clazz, strict, true);
+    }
+
+    /**
+     * deserialize a frame whose remaining bytes hold exactly one object, the decoder may read up to the limit
+     * so the position afterwards is not meaningful
+     *
+     * @param frame  ByteBuffer
+     * @param clazz  clazz
+     * @param strict strict
+     * @param <T>    T
+     *
+     * @return Object
+     */
+    static <T> T deserializeFrame(ByteBuffer frame, Class<T> clazz, boolean strict) {
+        return deserialize(frame, clazz, strict, false);
+    }
+
+    /**
+     * deserialize from stream, the stream is not closed<br/>
+     * Hessian 2 decoding reads ahead up to 1KB, so bytes following the object may be consumed
+     *
+     * @param is    InputStream
+     * @param clazz clazz
+     * @param <T>   T
+     *
+     * @return Object
+     */
+    public static <T> T deserialize(InputStream is, Class<T> clazz) {
+        return deserialize(is, clazz, false);
+    }
+
+    /**
+     * deserialize from stream, in strict mode a payload of another class fails
+     *
+     * @param is     InputStream
+     * @param clazz  clazz
+     * @param strict strict
+     * @param <T>    T
+     *
+     * @return Object
+     */
+    public static <T> T deserialize(InputStream is, Class<T> clazz, boolean strict) {
+        Codec codec = Codec.acquire();
         try {
-            return (T)hi.readObject();
-        } catch (IOException e) {
+            return codec.decode(is, clazz, strict);
+        } finally {
+            codec.release();
+        }
+    }
+
+    // --------------------------------- private ----------------------------------
+
+    private static <T> T deserialize(ByteBuffer source, Class<T> clazz, boolean strict, boolean exact) {
+        Codec codec = Codec.acquire();
+        try {
+            codec.source.buffer = source;
+            codec.source.exact = exact;
+            return codec.decode(codec.source, clazz, strict);
+        } finally {
+            codec.source.exact = false;
+            codec.source.buffer = null;
+            codec.release();
+        }
+    }
+
+    private static void warmUp(Class<?> clazz, Set<Class<?>> visited, boolean explicit) {
+        while (clazz.isArray()) {
+            clazz = clazz.getComponentType();
+        }
+        if (clazz.isPrimitive() || clazz.getName().startsWith("java.") || !visited.add(clazz)) {
+            return;
+        }
+        if (!explicit && (clazz.isInterface() || Modifier.isAbstract(clazz.getModifiers())
+            || !Serializable.class.isAssignableFrom(clazz))) {
+            // field types that never appear on the wire as such
+            return;
+        }
+        SerializerFactory factory = getSerializerFactory();
+        try {
+            factory.getSerializer(clazz);
+            factory.getDeserializer(clazz);
+            // type name lookup used when the payload names the class
+            factory.getDeserializer(clazz.getName());
+        } catch (HessianProtocolException e) {
             throw new IllegalStateException(e.getMessage(), e);
         }
+        for (Class<?> c = clazz; null != c && c != Object.class; c = c.getSuperclass()) {
+            for (Field field : c.getDeclaredFields()) {
+                int modifiers = field.getModifiers();
+                if (!Modifier.isStatic(modifiers) && !Modifier.isTransient(modifiers)) {
+                    warmUp(field.getType(), visited, false);
+                }
+            }
+        }
+    }
+
+    private static boolean isHessian1Tag(int tag) {
+        return HESSIAN_1_TAGS.indexOf(tag) >= 0;
+    }
+
+    private static boolean isTyped(Class<?> clazz) {
+        return null != clazz && Object.class != clazz;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T cast(Object value, Class<T> clazz) {
+        if (null == value || !isTyped(clazz) || Primitives.wrap(clazz).isInstance(value)) {
+            return (T)value;
+        }
+        throw new IllegalStateException("hessian: expected " + clazz.getName() + " but was "
+            + value.getClass().getName());
+    }
+
+    // ------------------------------------ inner classes -------------------------
+
+    private static class FactoryHolder {
+        private static final Registry REGISTRY = new Registry();
+        private static final SerializerFactory FACTORY = new TypedSerializerFactory(
+            HessianUtil.class.getClassLoader());
+
+        static {
+            FACTORY.addFactory(REGISTRY);
+        }
+    }
+
+    /**
+     * SerializerFactory tuned for typed decoding<br/>
+     * - type names resolve through a lock-free cache instead of the synchronized map of SerializerFactory<br/>
+     * - a payload of exactly the expected class takes the cached per-class deserializer without a type lookup<br/>
+     * - in strict mode a payload class that is not the expected class fails with HessianProtocolException
+     */
+    private static final class TypedSerializerFactory extends SerializerFactory {
+        private final ConcurrentMap<String, Deserializer> typeDeserializers
+            = new ConcurrentHashMap<String, Deserializer>();
+
+        private TypedSerializerFactory(ClassLoader loader) {
+            super(loader);
+        }
+
+        @Override
+        public Deserializer getDeserializer(String type) throws HessianProtocolException {
+            if (null == type) {
+                return null;
+            }
+            Deserializer deserializer = typeDeserializers.get(type);
+            if (null == deserializer) {
+                deserializer = super.getDeserializer(type);
+                if (null != deserializer) {
+                    typeDeserializers.putIfAbsent(type, deserializer);
+                }
+            }
+            return deserializer;
+        }
+
+        @Override
+        @SuppressWarnings({"rawtypes", "unchecked"})
+        public Deserializer getObjectDeserializer(String type, Class cl) throws HessianProtocolException {
+            if (!isTyped(cl) || null == type || type.isEmpty()) {
+                return super.getObjectDeserializer(type, cl);
+            }
+            if (cl.getName().equals(type)) {
+                return this.getDeserializer(cl);
+            }
+            if (!STRICT.get()) {
+                return super.getObjectDeserializer(type, cl);
+            }
+            Deserializer reader = this.getObjectDeserializer(type);
+            if (!cl.isAssignableFrom(reader.getType())) {
+                throw new HessianProtocolException("hessian: expected " + cl.getName() + " but was " + type);
+            }
+            return reader;
+        }
     }
 
-}
\ No newline at end of file
+    /**
+     * serializers added by register()
+     */
+    private static final class Registry extends AbstractSerializerFactory {
+        private final ConcurrentMap<Class<?>, Serializer> serializers = new ConcurrentHashMap<Class<?>, Serializer>();
+        private final ConcurrentMap<Class<?>, Deserializer> deserializers
+            = new ConcurrentHashMap<Class<?>, Deserializer>();
+
+        @Override
+        @SuppressWarnings("rawtypes")
+        public Serializer getSerializer(Class cl) {
+            return serializers.get(cl);
+        }
+
+        @Override
+        @SuppressWarnings("rawtypes")
+        public Deserializer getDeserializer(Class cl) {
+            return deserializers.get(cl);
+        }
+    }
+
+    /**
+     * wire protocol used by serialize
+     */
+    public enum Protocol {
+        /**
+         * HessianOutput, readable by any hessian version
+         */
+        HESSIAN_1,
+        /**
+         * Hessian2Output with the version header
+         */
+        HESSIAN_2
+    }
+
+    /**
+     * per thread HessianOutput/HessianInput and buffers, the Hessian 2 streams are created on first use
+     */
+    private static final class Codec {
+        private final HessianOutput output = new HessianOutput();
+        private final HessianInput input = new TypedHessianInput();
+        private Hessian2Output output2;
+        private Hessian2Input input2;
+        private final Buffer buffer = new Buffer();
+        private final ByteBufferInputStream source = new ByteBufferInputStream();
+        private final PeekInputStream peek = new PeekInputStream();
+        private boolean inUse = false;
+
+        private Codec() {
+            output.setSerializerFactory(getSerializerFactory());
+            input.setSerializerFactory(getSerializerFactory());
+        }
+
+        private static Codec acquire() {
+            Codec codec = CODEC.get();
+            if (codec.inUse) {
+                return new Codec();
+            }
+            codec.inUse = true;
+            return codec;
+        }
+
+        private void encode(Object obj, Protocol protocol) {
+            try {
+                if (protocol == Protocol.HESSIAN_2) {
+                    if (null == output2) {
+                        output2 = new Hessian2Output();
+                        output2.setSerializerFactory(getSerializerFactory());
+                    }
+                    output2.init(buffer);
+                    output2.writeVersion();
+                    output2.writeObject(obj);
+                    output2.flushBuffer();
+                } else {
+                    output.init(buffer);
+                    output.writeObject(obj);
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException(e.getMessage(), e);
+            }
+        }
+
+        private <T> T decode(InputStream is, Class<T> clazz, boolean strict) {
+            Boolean outer = STRICT.get();
+            STRICT.set(strict);
+            try {
+                int tag = peek.init(is);
+                if (tag < 0) {
+                    throw new EOFException("hessian: unexpected end of stream");
+                }
+                AbstractHessianInput in;
+                if (tag == VERSION_TAG && peek.peek(1) == 2 && peek.peek(2) == 0) {
+                    peek.skip(3);
+                    in = this.input2();
+                } else if (isHessian1Tag(tag)) {
+                    in = input;
+                } else {
+                    in = this.input2();
+                }
+                in.init(peek);
+                return cast(isTyped(clazz) ? in.readObject(clazz) : in.readObject(), clazz);
+            } catch (IOException e) {
+                throw new IllegalStateException(e.getMessage(), e);
+            } finally {
+                STRICT.set(outer);
+            }
+        }
+
+        private Hessian2Input input2() {
+            if (null == input2) {
+                input2 = new Hessian2Input();
+                input2.setSerializerFactory(getSerializerFactory());
+            }
+            return input2;
+        }
+
+        /**
+         * drop references to the stream and to (de)serialized objects
+         */
+        private void release() {
+            output.init(null);
+            input.init(null);
+            if (null != output2) {
+                output2.init(null);
+            }
+            if (null != input2) {
+                input2.init(null);
+                try {
+                    input2.resetBuffer();
+                } catch (IllegalStateException ignored) {
+                    // bytes read ahead past the object are dropped
+                }
+            }
+            peek.in = null;
+            buffer.reset();
+            inUse = false;
+        }
+    }
+
+    /**
+     * HessianInput that decodes a typed map towards the expected class<br/>
+     * HessianInput.readObject(Class) looks a typed map up by its type name only, so the expected class of the
+     * top-level object and of nested fields would be ignored; here it goes through
+     * TypedSerializerFactory.getObjectDeserializer(type, cl) like Hessian 2
+     */
+    private static final class TypedHessianInput extends HessianInput {
+        private InputStream is;
+
+        @Override
+        public void init(InputStream is) {
+            super.init(is);
+            this.is = is;
+        }
+
+        @Override
+        @SuppressWarnings("rawtypes")
+        public Object readObject(Class cl) throws IOException {
+            if (!isTyped(cl)) {
+                return super.readObject(cl);
+            }
+            if (_peek < 0) {
+                _peek = is.read();
+            }
+            if (_peek != 'M') {
+                return super.readObject(cl);
+            }
+            _peek = -1;
+            String type = readType();
+            Deserializer reader = type.isEmpty() ? getSerializerFactory().getDeserializer(cl)
+                : getSerializerFactory().getObjectDeserializer(type, cl);
+            return reader.readMap(this);
+        }
+    }
+
+    /**
+     * growable byte buffer
+     */
+    private static final class Buffer extends OutputStream {
+        private byte[] bytes = new byte[1024];
+        private int count = 0;
+
+        @Override
+        public void write(int b) {
+            if (count == bytes.length) {
+                bytes = Arrays.copyOf(bytes, bytes.length << 1);
+            }
+            bytes[count++] = (byte)b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            if (count + len > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length << 1, count + len));
+            }
+            System.arraycopy(b, off, bytes, count, len);
+            count += len;
+        }
+
+        private void reset() {
+            count = 0;
+            if (bytes.length > MAX_RETAINED_BUFFER) {
+                bytes = new byte[1024];
+            }
+        }
+    }
+
+    /**
+     * InputStream over a ByteBuffer, reads advance the buffer's position
+     */
+    private static final class ByteBufferInputStream extends InputStream {
+        private ByteBuffer buffer;
+        /**
+         * at most one byte per bulk read, so a reader that buffers ahead never consumes past its object
+         */
+        private boolean exact = false;
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int n = exact ? 1 : Math.min(len, buffer.remaining());
+            buffer.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+
+    /**
+     * InputStream that looks at the first bytes before handing the stream to a decoder
+     */
+    private static final class PeekInputStream extends InputStream {
+        private InputStream in;
+        /**
+         * bytes looked at but not yet read, enough for the version header
+         */
+        private final int[] head = new int[3];
+        private int pos = 0;
+        private int limit = 0;
+
+        /**
+         * @return the first byte, still unread, or -1 at EOF
+         */
+        private int init(InputStream in) throws IOException {
+            this.in = in;
+            this.pos = 0;
+            this.limit = 0;
+            return peek(0);
+        }
+
+        /**
+         * @return the byte at index from the current position, still unread, or -1 at EOF
+         */
+        private int peek(int index) throws IOException {
+            while (limit - pos <= index) {
+                int b = in.read();
+                if (b < 0) {
+                    return -1;
+                }
+                head[limit++] = b;
+            }
+            return head[pos + index];
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (pos < limit) {
+                return head[pos++];
+            }
+            return in.read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (pos < limit) {
+                int n = Math.min(len, limit - pos);
+                for (int i = 0; i < n; i++) {
+                    b[off + i] = (byte)head[pos++];
+                }
+                return n;
+            }
+            return in.read(b, off, len);
+        }
+
+        @Override
+        public int available() throws IOException {
+            return limit - pos + in.available();
+        }
+    }
+}
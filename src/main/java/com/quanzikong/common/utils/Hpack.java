@@ -0,0 +1,524 @@
+package com.quanzikong.common.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * HTTP/2的HPACK头部压缩(RFC 7541)，由Http2Transport使用<br/>
+ * - Encoder: 完全匹配时用静态表/动态表索引，否则按名称索引写入字面值并加入动态表，
+ * 敏感头(authorization, cookie等)以never indexed写出，字符串在更短时使用Huffman编码<br/>
+ * - Decoder: 支持全部表示形式、动态表大小更新与Huffman解码<br/>
+ * - 编解码器按连接创建，非线程安全，须按帧在线上的顺序使用
+ *
+ * @author agent
+ */
+final class Hpack {
+
+    /**
+     * 默认的动态表大小(SETTINGS_HEADER_TABLE_SIZE)
+     */
+    static final int DEFAULT_TABLE_SIZE = 4096;
+
+    /**
+     * 每个表项在名称与值之外的固定开销
+     */
+    private static final int ENTRY_OVERHEAD = 32;
+
+    private static final String[][] STATIC_TABLE = {
+        {":authority", ""}, {":method", "GET"}, {":method", "POST"}, {":path", "/"}, {":path", "/index.html"},
+        {":scheme", "http"}, {":scheme", "https"}, {":status", "200"}, {":status", "204"}, {":status", "206"},
+        {":status", "304"}, {":status", "400"}, {":status", "404"}, {":status", "500"}, {"accept-charset", ""},
+        {"accept-encoding", "gzip, deflate"}, {"accept-language", ""}, {"accept-ranges", ""}, {"accept", ""},
+        {"access-control-allow-origin", ""}, {"age", ""}, {"allow", ""}, {"authorization", ""},
+        {"cache-control", ""}, {"content-disposition", ""}, {"content-encoding", ""}, {"content-language", ""},
+        {"content-length", ""}, {"content-location", ""}, {"content-range", ""}, {"content-type", ""},
+        {"cookie", ""}, {"date", ""}, {"etag", ""}, {"expect", ""}, {"expires", ""}, {"from", ""}, {"host", ""},
+        {"if-match", ""}, {"if-modified-since", ""}, {"if-none-match", ""}, {"if-range", ""},
+        {"if-unmodified-since", ""}, {"last-modified", ""}, {"link", ""}, {"location", ""}, {"max-forwards", ""},
+        {"proxy-authenticate", ""}, {"proxy-authorization", ""}, {"range", ""}, {"referer", ""}, {"refresh", ""},
+        {"retry-after", ""}, {"server", ""}, {"set-cookie", ""}, {"strict-transport-security", ""},
+        {"transfer-encoding", ""}, {"user-agent", ""}, {"vary", ""}, {"via", ""}, {"www-authenticate", ""}
+    };
+
+    /**
+     * 名称 -&gt; 静态表中第一个该名称的索引
+     */
+    private static final Map<String, Integer> STATIC_NAMES = new HashMap<String, Integer>(64);
+    /**
+     * 名称 + '\0' + 值 -&gt; 静态表索引
+     */
+    private static final Map<String, Integer> STATIC_FIELDS = new HashMap<String, Integer>(64);
+
+    /**
+     * Huffman编码表(RFC 7541 Appendix B)，下标为符号，256为EOS
+     */
+    private static final int[] HUFFMAN_CODES = {
+        0x1ff8, 0x7fffd8, 0xfffffe2, 0xfffffe3, 0xfffffe4, 0xfffffe5,
+        0xfffffe6, 0xfffffe7, 0xfffffe8, 0xffffea, 0x3ffffffc, 0xfffffe9,
+        0xfffffea, 0x3ffffffd, 0xfffffeb, 0xfffffec, 0xfffffed, 0xfffffee,
+        0xfffffef, 0xffffff0, 0xffffff1, 0xffffff2, 0x3ffffffe, 0xffffff3,
+        0xffffff4, 0xffffff5, 0xffffff6, 0xffffff7, 0xffffff8, 0xffffff9,
+        0xffffffa, 0xffffffb, 0x14, 0x3f8, 0x3f9, 0xffa,
+        0x1ff9, 0x15, 0xf8, 0x7fa, 0x3fa, 0x3fb,
+        0xf9, 0x7fb, 0xfa, 0x16, 0x17, 0x18,
+        0x0, 0x1, 0x2, 0x19, 0x1a, 0x1b,
+        0x1c, 0x1d, 0x1e, 0x1f, 0x5c, 0xfb,
+        0x7ffc, 0x20, 0xffb, 0x3fc, 0x1ffa, 0x21,
+        0x5d, 0x5e, 0x5f, 0x60, 0x61, 0x62,
+        0x63, 0x64, 0x65, 0x66, 0x67, 0x68,
+        0x69, 0x6a, 0x6b, 0x6c, 0x6d, 0x6e,
+        0x6f, 0x70, 0x71, 0x72, 0xfc, 0x73,
+        0xfd, 0x1ffb, 0x7fff0, 0x1ffc, 0x3ffc, 0x22,
+        0x7ffd, 0x3, 0x23, 0x4, 0x24, 0x5,
+        0x25, 0x26, 0x27, 0x6, 0x74, 0x75,
+        0x28, 0x29, 0x2a, 0x7, 0x2b, 0x76,
+        0x2c, 0x8, 0x9, 0x2d, 0x77, 0x78,
+        0x79, 0x7a, 0x7b, 0x7ffe, 0x7fc, 0x3ffd,
+        0x1ffd, 0xffffffc, 0xfffe6, 0x3fffd2, 0xfffe7, 0xfffe8,
+        0x3fffd3, 0x3fffd4, 0x3fffd5, 0x7fffd9, 0x3fffd6, 0x7fffda,
+        0x7fffdb, 0x7fffdc, 0x7fffdd, 0x7fffde, 0xffffeb, 0x7fffdf,
+        0xffffec, 0xffffed, 0x3fffd7, 0x7fffe0, 0xffffee, 0x7fffe1,
+        0x7fffe2, 0x7fffe3, 0x7fffe4, 0x1fffdc, 0x3fffd8, 0x7fffe5,
+        0x3fffd9, 0x7fffe6, 0x7fffe7, 0xffffef, 0x3fffda, 0x1fffdd,
+        0xfffe9, 0x3fffdb, 0x3fffdc, 0x7fffe8, 0x7fffe9, 0x1fffde,
+        0x7fffea, 0x3fffdd, 0x3fffde, 0xfffff0, 0x1fffdf, 0x3fffdf,
+        0x7fffeb, 0x7fffec, 0x1fffe0, 0x1fffe1, 0x3fffe0, 0x1fffe2,
+        0x7fffed, 0x3fffe1, 0x7fffee, 0x7fffef, 0xfffea, 0x3fffe2,
+        0x3fffe3, 0x3fffe4, 0x7ffff0, 0x3fffe5, 0x3fffe6, 0x7ffff1,
+        0x3ffffe0, 0x3ffffe1, 0xfffeb, 0x7fff1, 0x3fffe7, 0x7ffff2,
+        0x3fffe8, 0x1ffffec, 0x3ffffe2, 0x3ffffe3, 0x3ffffe4, 0x7ffffde,
+        0x7ffffdf, 0x3ffffe5, 0xfffff1, 0x1ffffed, 0x7fff2, 0x1fffe3,
+        0x3ffffe6, 0x7ffffe0, 0x7ffffe1, 0x3ffffe7, 0x7ffffe2, 0xfffff2,
+        0x1fffe4, 0x1fffe5, 0x3ffffe8, 0x3ffffe9, 0xffffffd, 0x7ffffe3,
+        0x7ffffe4, 0x7ffffe5, 0xfffec, 0xfffff3, 0xfffed, 0x1fffe6,
+        0x3fffe9, 0x1fffe7, 0x1fffe8, 0x7ffff3, 0x3fffea, 0x3fffeb,
+        0x1ffffee, 0x1ffffef, 0xfffff4, 0xfffff5, 0x3ffffea, 0x7ffff4,
+        0x3ffffeb, 0x7ffffe6, 0x3ffffec, 0x3ffffed, 0x7ffffe7, 0x7ffffe8,
+        0x7ffffe9, 0x7ffffea, 0x7ffffeb, 0xffffffe, 0x7ffffec, 0x7ffffed,
+        0x7ffffee, 0x7ffffef, 0x7fffff0, 0x3ffffee, 0x3fffffff
+    };
+    private static final byte[] HUFFMAN_LENGTHS = {
+        13, 23, 28, 28, 28, 28, 28, 28, 28, 24, 30, 28, 28, 30, 28, 28,
+        28, 28, 28, 28, 28, 28, 30, 28, 28, 28, 28, 28, 28, 28, 28, 28,
+        6, 10, 10, 12, 13, 6, 8, 11, 10, 10, 8, 11, 8, 6, 6, 6,
+        5, 5, 5, 6, 6, 6, 6, 6, 6, 6, 7, 8, 15, 6, 12, 10,
+        13, 6, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7,
+        7, 7, 7, 7, 7, 7, 7, 7, 8, 7, 8, 13, 19, 13, 14, 6,
+        15, 5, 6, 5, 6, 5, 6, 6, 6, 5, 7, 7, 6, 6, 6, 5,
+        6, 7, 6, 5, 5, 6, 7, 7, 7, 7, 7, 15, 11, 14, 13, 28,
+        20, 22, 20, 20, 22, 22, 22, 23, 22, 23, 23, 23, 23, 23, 24, 23,
+        24, 24, 22, 23, 24, 23, 23, 23, 23, 21, 22, 23, 22, 23, 23, 24,
+        22, 21, 20, 22, 22, 23, 23, 21, 23, 22, 22, 24, 21, 22, 23, 23,
+        21, 21, 22, 21, 23, 22, 23, 23, 20, 22, 22, 22, 23, 22, 22, 23,
+        26, 26, 20, 19, 22, 23, 22, 25, 26, 26, 26, 27, 27, 26, 24, 25,
+        19, 21, 26, 27, 27, 26, 27, 24, 21, 21, 26, 26, 28, 27, 27, 27,
+        20, 24, 20, 21, 22, 21, 21, 23, 22, 22, 25, 25, 24, 24, 26, 23,
+        26, 27, 26, 26, 27, 27, 27, 27, 27, 28, 27, 27, 27, 27, 27, 26,
+        30
+    };
+
+    /**
+     * Huffman解码树：节点i的子节点为HUFFMAN_TREE[2i](bit 0)与HUFFMAN_TREE[2i+1](bit 1)，
+     * 小于0时为叶子，符号为-(值+1)
+     */
+    private static final int[] HUFFMAN_TREE;
+
+    static {
+        for (int i = STATIC_TABLE.length - 1; i >= 0; i--) {
+            STATIC_NAMES.put(STATIC_TABLE[i][0], i + 1);
+            STATIC_FIELDS.put(STATIC_TABLE[i][0] + '\0' + STATIC_TABLE[i][1], i + 1);
+        }
+
+        // 257个叶子的满二叉树共有256个内部节点
+        int[] tree = new int[256 * 2];
+        int nodes = 1;
+        for (int symbol = 0; symbol < HUFFMAN_CODES.length; symbol++) {
+            int code = HUFFMAN_CODES[symbol];
+            int node = 0;
+            for (int bit = HUFFMAN_LENGTHS[symbol] - 1; bit > 0; bit--) {
+                int slot = node * 2 + ((code >>> bit) & 1);
+                if (tree[slot] == 0) {
+                    tree[slot] = nodes++;
+                }
+                node = tree[slot];
+            }
+            tree[node * 2 + (code & 1)] = -(symbol + 1);
+        }
+        HUFFMAN_TREE = tree;
+    }
+
+    private Hpack() {
+    }
+
+    /**
+     * 解码出的一个头部
+     */
+    interface HeaderListener {
+        /**
+         * 收到一个头部
+         *
+         * @param name  名称(小写)
+         * @param value 值
+         *
+         * @throws IOException 头部非法
+         */
+        void onHeader(String name, String value) throws IOException;
+    }
+
+    // ------------------------------------ encoder & decoder -------------------------
+
+    /**
+     * 头部编码器
+     */
+    static final class Encoder {
+        private final DynamicTable table = new DynamicTable(DEFAULT_TABLE_SIZE);
+        /**
+         * 待在下一个头部块开头发出的动态表大小更新，-1表示没有
+         */
+        private int pendingTableSize = -1;
+
+        /**
+         * 对端通过SETTINGS_HEADER_TABLE_SIZE通知的动态表上限，编码器使用不超过默认值的大小
+         *
+         * @param maxSize 对端允许的大小
+         */
+        void setMaxTableSize(int maxSize) {
+            int size = Math.min(maxSize, DEFAULT_TABLE_SIZE);
+            if (size != table.maxSize) {
+                table.resize(size);
+                pendingTableSize = size;
+            }
+        }
+
+        /**
+         * 开始一个新的头部块
+         *
+         * @param out 输出
+         */
+        void begin(ByteArrayOutputStream out) {
+            if (pendingTableSize >= 0) {
+                writeInt(out, 0x20, 5, pendingTableSize);
+                pendingTableSize = -1;
+            }
+        }
+
+        /**
+         * 编码一个头部
+         *
+         * @param out       输出
+         * @param name      名称(小写)
+         * @param value     值
+         * @param sensitive 是否为敏感头(不加入任何压缩表)
+         */
+        void encode(ByteArrayOutputStream out, String name, String value, boolean sensitive) {
+            if (!sensitive) {
+                Integer exact = STATIC_FIELDS.get(name + '\0' + value);
+                int index = null != exact ? exact : table.indexOf(name, value);
+                if (index > 0) {
+                    writeInt(out, 0x80, 7, index);
+                    return;
+                }
+            }
+
+            int nameIndex = nameIndex(name);
+            int size = name.length() + value.length() + ENTRY_OVERHEAD;
+            if (sensitive) {
+                writeInt(out, 0x10, 4, nameIndex);
+            } else if (size <= table.maxSize / 2) {
+                writeInt(out, 0x40, 6, nameIndex);
+                table.add(name, value);
+            } else {
+                // 太大的值会挤掉动态表中的其他项，不加入
+                writeInt(out, 0x00, 4, nameIndex);
+            }
+            if (nameIndex == 0) {
+                writeString(out, name);
+            }
+            writeString(out, value);
+        }
+
+        private int nameIndex(String name) {
+            Integer index = STATIC_NAMES.get(name);
+            return null != index ? index : Math.max(0, table.indexOfName(name));
+        }
+    }
+
+    /**
+     * 头部解码器
+     */
+    static final class Decoder {
+        private final DynamicTable table = new DynamicTable(DEFAULT_TABLE_SIZE);
+        private final int maxTableSize;
+
+        /**
+         * constructor
+         *
+         * @param maxTableSize 本端通过SETTINGS_HEADER_TABLE_SIZE允许的最大动态表大小
+         */
+        Decoder(int maxTableSize) {
+            this.maxTableSize = maxTableSize;
+        }
+
+        /**
+         * 解码一个完整的头部块
+         *
+         * @param block    头部块
+         * @param listener HeaderListener
+         *
+         * @throws IOException 压缩错误(COMPRESSION_ERROR)
+         */
+        void decode(byte[] block, HeaderListener listener) throws IOException {
+            int[] pos = {0};
+            while (pos[0] < block.length) {
+                int b = block[pos[0]] & 0xff;
+                if ((b & 0x80) != 0) {
+                    // 6.1 Indexed Header Field
+                    int index = readInt(block, pos, 7);
+                    listener.onHeader(this.name(index), this.value(index));
+                } else if ((b & 0x40) != 0) {
+                    // 6.2.1 Literal with Incremental Indexing
+                    int index = readInt(block, pos, 6);
+                    String name = index == 0 ? readString(block, pos) : this.name(index);
+                    String value = readString(block, pos);
+                    table.add(name, value);
+                    listener.onHeader(name, value);
+                } else if ((b & 0x20) != 0) {
+                    // 6.3 Dynamic Table Size Update
+                    int size = readInt(block, pos, 5);
+                    if (size > maxTableSize) {
+                        throw new IOException("HPACK table size update exceeds limit: " + size);
+                    }
+                    table.resize(size);
+                } else {
+                    // 6.2.2 Literal without Indexing / 6.2.3 Literal Never Indexed
+                    int index = readInt(block, pos, 4);
+                    String name = index == 0 ? readString(block, pos) : this.name(index);
+                    listener.onHeader(name, readString(block, pos));
+                }
+            }
+        }
+
+        private String name(int index) throws IOException {
+            return this.entry(index)[0];
+        }
+
+        private String value(int index) throws IOException {
+            return this.entry(index)[1];
+        }
+
+        private String[] entry(int index) throws IOException {
+            if (index <= 0) {
+                throw new IOException("HPACK invalid index: " + index);
+            }
+            if (index <= STATIC_TABLE.length) {
+                return STATIC_TABLE[index - 1];
+            }
+            String[] entry = table.get(index - STATIC_TABLE.length);
+            if (null == entry) {
+                throw new IOException("HPACK invalid index: " + index);
+            }
+            return entry;
+        }
+    }
+
+    // --------------------------------- private ----------------------------------
+
+    /**
+     * 动态表，新加入的项索引最小(从1开始)
+     */
+    private static final class DynamicTable {
+        private final Deque<String[]> entries = new ArrayDeque<String[]>();
+        private int size = 0;
+        private int maxSize;
+
+        private DynamicTable(int maxSize) {
+            this.maxSize = maxSize;
+        }
+
+        private void add(String name, String value) {
+            int entrySize = name.length() + value.length() + ENTRY_OVERHEAD;
+            if (entrySize > maxSize) {
+                // 4.4 比整个表还大的项使表被清空
+                entries.clear();
+                size = 0;
+                return;
+            }
+            entries.addFirst(new String[] {name, value});
+            size += entrySize;
+            this.evict();
+        }
+
+        private void resize(int maxSize) {
+            this.maxSize = maxSize;
+            this.evict();
+        }
+
+        private void evict() {
+            while (size > maxSize) {
+                String[] eldest = entries.removeLast();
+                size -= eldest[0].length() + eldest[1].length() + ENTRY_OVERHEAD;
+            }
+        }
+
+        private String[] get(int index) {
+            if (index > entries.size()) {
+                return null;
+            }
+            Iterator<String[]> it = entries.iterator();
+            for (int i = 1; i < index; i++) {
+                it.next();
+            }
+            return it.next();
+        }
+
+        /**
+         * 完全匹配的项在HPACK索引空间中的索引，没有时返回-1
+         */
+        private int indexOf(String name, String value) {
+            int i = 1;
+            for (String[] entry : entries) {
+                if (entry[0].equals(name) && entry[1].equals(value)) {
+                    return STATIC_TABLE.length + i;
+                }
+                i++;
+            }
+            return -1;
+        }
+
+        private int indexOfName(String name) {
+            int i = 1;
+            for (String[] entry : entries) {
+                if (entry[0].equals(name)) {
+                    return STATIC_TABLE.length + i;
+                }
+                i++;
+            }
+            return -1;
+        }
+    }
+
+    /**
+     * 5.1 以prefixBits位前缀写出整数，first为前缀之外的标志位
+     */
+    private static void writeInt(ByteArrayOutputStream out, int first, int prefixBits, int value) {
+        int max = (1 << prefixBits) - 1;
+        if (value < max) {
+            out.write(first | value);
+            return;
+        }
+        out.write(first | max);
+        writeIntTail(out, value - max);
+    }
+
+    private static void writeIntTail(ByteArrayOutputStream out, int value) {
+        while (value >= 0x80) {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static int readInt(byte[] block, int[] pos, int prefixBits) throws IOException {
+        int max = (1 << prefixBits) - 1;
+        int value = block[pos[0]++] & max;
+        if (value < max) {
+            return value;
+        }
+        for (int shift = 0; ; shift += 7) {
+            if (pos[0] >= block.length || shift > 28) {
+                throw new IOException("HPACK invalid integer");
+            }
+            int b = block[pos[0]++] & 0xff;
+            value += (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                if (value < 0) {
+                    throw new IOException("HPACK integer overflow");
+                }
+                return value;
+            }
+        }
+    }
+
+    /**
+     * 5.2 写出字符串，Huffman编码更短时使用Huffman
+     */
+    private static void writeString(ByteArrayOutputStream out, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.ISO_8859_1);
+        long bits = 0;
+        for (byte b : bytes) {
+            bits += HUFFMAN_LENGTHS[b & 0xff];
+        }
+        int huffmanLength = (int)((bits + 7) / 8);
+        if (huffmanLength >= bytes.length) {
+            writeInt(out, 0x00, 7, bytes.length);
+            out.write(bytes, 0, bytes.length);
+            return;
+        }
+
+        writeInt(out, 0x80, 7, huffmanLength);
+        long current = 0;
+        int pending = 0;
+        for (byte b : bytes) {
+            int symbol = b & 0xff;
+            current = (current << HUFFMAN_LENGTHS[symbol]) | HUFFMAN_CODES[symbol];
+            pending += HUFFMAN_LENGTHS[symbol];
+            while (pending >= 8) {
+                pending -= 8;
+                out.write((int)(current >>> pending));
+            }
+        }
+        if (pending > 0) {
+            // 以EOS的高位(全1)填充
+            out.write((int)((current << (8 - pending)) | (0xff >>> pending)));
+        }
+    }
+
+    private static String readString(byte[] block, int[] pos) throws IOException {
+        if (pos[0] >= block.length) {
+            throw new IOException("HPACK truncated string");
+        }
+        boolean huffman = (block[pos[0]] & 0x80) != 0;
+        int length = readInt(block, pos, 7);
+        if (length > block.length - pos[0]) {
+            throw new IOException("HPACK truncated string");
+        }
+        int start = pos[0];
+        pos[0] += length;
+        if (!huffman) {
+            return new String(block, start, length, StandardCharsets.ISO_8859_1);
+        }
+
+        StringBuilder sb = new StringBuilder(length * 8 / 5);
+        int node = 0;
+        int depth = 0;
+        for (int i = start; i < start + length; i++) {
+            int b = block[i] & 0xff;
+            for (int bit = 7; bit >= 0; bit--) {
+                int next = HUFFMAN_TREE[node * 2 + ((b >>> bit) & 1)];
+                if (next < 0) {
+                    int symbol = -next - 1;
+                    if (symbol == 256) {
+                        throw new IOException("HPACK EOS in string");
+                    }
+                    sb.append((char)symbol);
+                    node = 0;
+                    depth = 0;
+                } else {
+                    node = next;
+                    depth++;
+                }
+            }
+        }
+        // 5.2 填充不超过7位且为EOS的前缀(全1)
+        if (depth > 7) {
+            throw new IOException("HPACK invalid Huffman padding");
+        }
+        return sb.toString();
+    }
+}
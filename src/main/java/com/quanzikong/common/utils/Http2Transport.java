@@ -0,0 +1,1591 @@
+package com.quanzikong.common.utils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+import com.quanzikong.common.utils.RestApiUtil.SslProvider;
+
+/**
+ * HTTP/2传输层(RFC 7540)：同一host的并发请求作为stream复用一个连接<br/>
+ * - https通过ALPN协商h2(需要JDK支持ALPN，如8u252+)，http使用h2c(prior knowledge，直接发送连接前言)<br/>
+ * - 对端不支持HTTP/2时(ALPN未选中h2、h2c前言得到HTTP/1.x响应或被关闭)，该host之后的请求都交给fallback，默认为池化的HTTP/1.1传输层<br/>
+ * - 请求头使用HPACK压缩(动态表与Huffman)；收发两个方向都遵守连接级与stream级的流量控制，响应body被读取后才归还接收窗口，
+ * 慢的消费者只会阻塞自己的stream<br/>
+ * - 遵守对端的SETTINGS_MAX_CONCURRENT_STREAMS，超过时等待其他stream结束<br/>
+ * - 收到GOAWAY后不再在该连接上新建stream；未被对端处理的stream(REFUSED_STREAM或GOAWAY之后的stream)在body可重复写出时换连接重发一次<br/>
+ * - 不支持server push(SETTINGS_ENABLE_PUSH=0)与h2c的Upgrade握手<br/>
+ * - future在callbackExecutor中complete，不阻塞读线程
+ *
+ * Usage:
+ * Http2Transport transport = new Http2Transport();
+ * RestApiUtil.newInstance(url).setTransport(transport).asGet().getResponseString();
+ *
+ * @author agent
+ */
+public class Http2Transport implements AsyncHttpTransport, Closeable {
+
+    private static final byte[] PREFACE = "PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1);
+    private static final byte[] EMPTY = new byte[0];
+    private static final int FRAME_HEADER_LENGTH = 9;
+    private static final int DEFAULT_MAX_FRAME_SIZE = 16384;
+    private static final int DEFAULT_WINDOW_SIZE = 65535;
+    private static final int MAX_STREAM_ID = Integer.MAX_VALUE;
+
+    private static final int TYPE_DATA = 0x0;
+    private static final int TYPE_HEADERS = 0x1;
+    private static final int TYPE_RST_STREAM = 0x3;
+    private static final int TYPE_SETTINGS = 0x4;
+    private static final int TYPE_PUSH_PROMISE = 0x5;
+    private static final int TYPE_PING = 0x6;
+    private static final int TYPE_GOAWAY = 0x7;
+    private static final int TYPE_WINDOW_UPDATE = 0x8;
+    private static final int TYPE_CONTINUATION = 0x9;
+
+    private static final int FLAG_END_STREAM = 0x1;
+    private static final int FLAG_ACK = 0x1;
+    private static final int FLAG_END_HEADERS = 0x4;
+    private static final int FLAG_PADDED = 0x8;
+    private static final int FLAG_PRIORITY = 0x20;
+
+    private static final int SETTINGS_HEADER_TABLE_SIZE = 0x1;
+    private static final int SETTINGS_ENABLE_PUSH = 0x2;
+    private static final int SETTINGS_MAX_CONCURRENT_STREAMS = 0x3;
+    private static final int SETTINGS_INITIAL_WINDOW_SIZE = 0x4;
+    private static final int SETTINGS_MAX_FRAME_SIZE = 0x5;
+
+    private static final int NO_ERROR = 0x0;
+    private static final int PROTOCOL_ERROR = 0x1;
+    private static final int FLOW_CONTROL_ERROR = 0x3;
+    private static final int FRAME_SIZE_ERROR = 0x6;
+    private static final int REFUSED_STREAM = 0x7;
+    private static final int CANCEL = 0x8;
+
+    /**
+     * HTTP/2中禁止出现的连接级请求头(RFC 7540 8.1.2.2)，host改为:authority
+     */
+    private static final Set<String> CONNECTION_HEADERS = new HashSet<String>(Arrays.asList(
+        "connection", "keep-alive", "proxy-connection", "transfer-encoding", "upgrade", "host", "content-length"));
+    /**
+     * 不进入HPACK动态表的请求头
+     */
+    private static final Set<String> SENSITIVE_HEADERS = new HashSet<String>(Arrays.asList(
+        "authorization", "proxy-authorization", "cookie"));
+
+    private static final Method SET_APPLICATION_PROTOCOLS = method(SSLParameters.class, "setApplicationProtocols",
+        String[].class);
+    private static final Method GET_APPLICATION_PROTOCOL = method(SSLSocket.class, "getApplicationProtocol");
+
+    private volatile boolean h2c = true;
+    private volatile int streamWindowSize = 1024 * 1024;
+    private volatile int connectionWindowSize = 16 * 1024 * 1024;
+    private volatile HttpTransport fallback = null;
+    private volatile Executor callbackExecutor = CallbackExecutorHolder.EXECUTOR;
+
+    private final ConcurrentMap<String, CompletableFuture<Connection>> connections
+        = new ConcurrentHashMap<String, CompletableFuture<Connection>>();
+    private final Set<String> http1Hosts = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private volatile boolean closed = false;
+
+    private final AtomicLong createdConnections = new AtomicLong();
+    private final AtomicLong startedStreams = new AtomicLong();
+    private final AtomicLong fallbackRequests = new AtomicLong();
+    private final AtomicLong refusedRetries = new AtomicLong();
+
+    @Override
+    public RestApiResponse execute(HttpTransport.Request request) throws Exception {
+        for (int attempt = 0; ; attempt++) {
+            Connection connection = this.connection(request);
+            if (null == connection) {
+                fallbackRequests.incrementAndGet();
+                return this.getFallback().execute(request);
+            }
+            try {
+                return connection.start(request).await();
+            } catch (RefusedStreamException e) {
+                if (!this.retryRefused(request, attempt)) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    @Override
+    public CompletableFuture<RestApiResponse> executeAsync(HttpTransport.Request request) {
+        CompletableFuture<RestApiResponse> future = new CompletableFuture<RestApiResponse>();
+        if (closed) {
+            future.completeExceptionally(new IOException("Transport closed"));
+            return future;
+        }
+        this.startAsync(request, future, 0);
+        return future;
+    }
+
+    /**
+     * 关闭所有HTTP/2连接(发送GOAWAY)，进行中的请求以IOException结束；fallback不会被关闭
+     */
+    @Override
+    public void close() {
+        closed = true;
+        for (CompletableFuture<Connection> future : connections.values()) {
+            Connection connection = future.getNow(null);
+            if (null != connection) {
+                connection.shutdown();
+            }
+        }
+        connections.clear();
+    }
+
+    // --------------------------------- getters & setters ----------------------------------
+
+    public boolean isH2c() {
+        return h2c;
+    }
+
+    /**
+     * setter of h2c<br/>
+     * - true(默认)时http请求以prior knowledge方式尝试HTTP/2，对端不支持时回退；false时http请求直接交给fallback
+     *
+     * @param h2c boolean
+     *
+     * @return Http2Transport
+     */
+    public Http2Transport setH2c(boolean h2c) {
+        this.h2c = h2c;
+        return this;
+    }
+
+    public int getStreamWindowSize() {
+        return streamWindowSize;
+    }
+
+    /**
+     * setter of streamWindowSize，每个stream的接收窗口(SETTINGS_INITIAL_WINDOW_SIZE)，对之后新建的连接生效
+     *
+     * @param streamWindowSize 字节数，默认1M
+     *
+     * @return Http2Transport
+     */
+    public Http2Transport setStreamWindowSize(int streamWindowSize) {
+        this.streamWindowSize = Math.max(DEFAULT_WINDOW_SIZE, streamWindowSize);
+        return this;
+    }
+
+    public int getConnectionWindowSize() {
+        return connectionWindowSize;
+    }
+
+    /**
+     * setter of connectionWindowSize，连接级的接收窗口，对之后新建的连接生效
+     *
+     * @param connectionWindowSize 字节数，默认16M
+     *
+     * @return Http2Transport
+     */
+    public Http2Transport setConnectionWindowSize(int connectionWindowSize) {
+        this.connectionWindowSize = Math.max(DEFAULT_WINDOW_SIZE, connectionWindowSize);
+        return this;
+    }
+
+    public HttpTransport getFallback() {
+        HttpTransport transport = fallback;
+        if (null == transport) {
+            transport = new PooledHttpTransport(HttpConnectionPool.getDefault());
+            fallback = transport;
+        }
+        return transport;
+    }
+
+    /**
+     * setter of fallback，对端不支持HTTP/2时使用的传输层，默认为使用默认连接池的PooledHttpTransport
+     *
+     * @param fallback HttpTransport
+     *
+     * @return Http2Transport
+     */
+    public Http2Transport setFallback(HttpTransport fallback) {
+        this.fallback = fallback;
+        return this;
+    }
+
+    public Executor getCallbackExecutor() {
+        return callbackExecutor;
+    }
+
+    /**
+     * setter of callbackExecutor，异步请求在其中发出并complete，默认为共享的有界守护线程池
+     *
+     * @param callbackExecutor Executor
+     *
+     * @return Http2Transport
+     */
+    public Http2Transport setCallbackExecutor(Executor callbackExecutor) {
+        this.callbackExecutor = null == callbackExecutor ? CallbackExecutorHolder.EXECUTOR : callbackExecutor;
+        return this;
+    }
+
+    /**
+     * 当前可用的HTTP/2连接数
+     *
+     * @return int
+     */
+    public int getOpenConnections() {
+        int open = 0;
+        for (CompletableFuture<Connection> future : connections.values()) {
+            Connection connection = future.getNow(null);
+            if (null != connection && connection.isUsable()) {
+                open++;
+            }
+        }
+        return open;
+    }
+
+    /**
+     * 当前进行中的stream数
+     *
+     * @return int
+     */
+    public int getActiveStreams() {
+        int active = 0;
+        for (CompletableFuture<Connection> future : connections.values()) {
+            Connection connection = future.getNow(null);
+            if (null != connection) {
+                active += connection.streams.size();
+            }
+        }
+        return active;
+    }
+
+    public long getCreatedConnections() {
+        return createdConnections.get();
+    }
+
+    public long getStreams() {
+        return startedStreams.get();
+    }
+
+    public long getFallbackRequests() {
+        return fallbackRequests.get();
+    }
+
+    public long getRefusedRetries() {
+        return refusedRetries.get();
+    }
+
+    @Override
+    public String toString() {
+        return "[open: " + this.getOpenConnections()
+            + "; created: " + createdConnections.get()
+            + "; streams: " + startedStreams.get()
+            + "; fallback: " + fallbackRequests.get()
+            + "; refusedRetries: " + refusedRetries.get() + "]";
+    }
+
+    // --------------------------------- private ----------------------------------
+
+    private void startAsync(final HttpTransport.Request request, final CompletableFuture<RestApiResponse> future,
+                            final int attempt) {
+        final Executor executor = callbackExecutor;
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        Connection connection = Http2Transport.this.connection(request);
+                        if (null == connection) {
+                            fallbackRequests.incrementAndGet();
+                            future.complete(Http2Transport.this.getFallback().execute(request));
+                            return;
+                        }
+                        connection.start(request).response.whenCompleteAsync(
+                            new BiConsumer<RestApiResponse, Throwable>() {
+                                @Override
+                                public void accept(RestApiResponse response, Throwable throwable) {
+                                    if (null == throwable) {
+                                        future.complete(response);
+                                    } else {
+                                        Http2Transport.this.onAsyncFailure(request, future, attempt, throwable);
+                                    }
+                                }
+                            }, executor);
+                    } catch (Throwable e) {
+                        Http2Transport.this.onAsyncFailure(request, future, attempt, e);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(e);
+        }
+    }
+
+    private void onAsyncFailure(HttpTransport.Request request, CompletableFuture<RestApiResponse> future, int attempt,
+                                Throwable throwable) {
+        Throwable cause = throwable instanceof ExecutionException || throwable instanceof CompletionException
+            ? throwable.getCause() : throwable;
+        if (cause instanceof RefusedStreamException && this.retryRefused(request, attempt)) {
+            this.startAsync(request, future, attempt + 1);
+        } else {
+            future.completeExceptionally(cause);
+        }
+    }
+
+    /**
+     * 对端未处理的stream只重发一次，且body必须可以重复写出
+     */
+    private boolean retryRefused(HttpTransport.Request request, int attempt) {
+        HttpBody body = request.getBody();
+        if (attempt > 0 || request.isAborted() || closed || (null != body && !body.isRepeatable())) {
+            return false;
+        }
+        refusedRetries.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * 获取host的HTTP/2连接，没有时建立；对端不支持HTTP/2时返回null
+     */
+    private Connection connection(HttpTransport.Request request) throws Exception {
+        if (closed) {
+            throw new IOException("Transport closed");
+        }
+        String key = key(request);
+        if ((!request.isSecure() && !h2c) || http1Hosts.contains(key)) {
+            return null;
+        }
+        while (true) {
+            CompletableFuture<Connection> future = connections.get(key);
+            if (null == future) {
+                CompletableFuture<Connection> created = new CompletableFuture<Connection>();
+                future = connections.putIfAbsent(key, created);
+                if (null == future) {
+                    return this.connect(request, key, created);
+                }
+            }
+
+            Connection connection;
+            try {
+                int timeout = request.connectTimeout();
+                connection = timeout > 0 ? future.get(timeout, TimeUnit.MILLISECONDS) : future.get();
+            } catch (ExecutionException e) {
+                // 其他请求建立连接失败，本次请求重新建立
+                connections.remove(key, future);
+                continue;
+            } catch (TimeoutException e) {
+                throw new SocketTimeoutException("connect timed out");
+            }
+            if (null == connection) {
+                return null;
+            }
+            if (connection.isUsable()) {
+                return connection;
+            }
+            connections.remove(key, future);
+        }
+    }
+
+    private Connection connect(HttpTransport.Request request, String key, CompletableFuture<Connection> slot)
+        throws Exception {
+        try {
+            Connection connection = this.open(request, key);
+            if (null == connection) {
+                http1Hosts.add(key);
+                connections.remove(key, slot);
+            }
+            slot.complete(connection);
+            return connection;
+        } catch (Exception e) {
+            connections.remove(key, slot);
+            slot.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    /**
+     * 建立连接并完成HTTP/2握手，对端不支持HTTP/2时返回null
+     */
+    private Connection open(HttpTransport.Request request, String key) throws Exception {
+        URL url = request.getUrl();
+        String host = url.getHost();
+        int port = url.getPort() > 0 ? url.getPort() : url.getDefaultPort();
+        Socket socket = new Socket();
+        try {
+            socket.setTcpNoDelay(true);
+            socket.setKeepAlive(true);
+            socket.connect(new InetSocketAddress(host, port), request.connectTimeout());
+            if (request.isSecure()) {
+                socket = this.upgradeToTls(request, socket, host, port);
+                if (null == socket) {
+                    return null;
+                }
+            }
+            socket.setSoTimeout(request.readTimeout());
+            Connection connection = new Connection(key, socket, streamWindowSize, connectionWindowSize);
+            if (!connection.handshake()) {
+                closeQuietly(socket);
+                return null;
+            }
+            socket.setSoTimeout(0);
+            createdConnections.incrementAndGet();
+            ReaderThreadFactoryHolder.THREAD_FACTORY.newThread(connection).start();
+            return connection;
+        } catch (Exception e) {
+            closeQuietly(socket);
+            throw e;
+        }
+    }
+
+    /**
+     * TLS握手并通过ALPN协商h2，未协商出h2(含JDK不支持ALPN)时关闭连接并返回null
+     */
+    private Socket upgradeToTls(HttpTransport.Request request, Socket socket, String host, int port)
+        throws Exception {
+        if (null == SET_APPLICATION_PROTOCOLS || null == GET_APPLICATION_PROTOCOL) {
+            closeQuietly(socket);
+            return null;
+        }
+        SslProvider sslProvider = request.getSslProvider();
+        SSLSocketFactory factory = sslProvider.getSSLSocketFactory();
+        SSLSocket sslSocket = (SSLSocket)factory.createSocket(socket, host, port, true);
+        try {
+            SSLParameters parameters = sslSocket.getSSLParameters();
+            SET_APPLICATION_PROTOCOLS.invoke(parameters, (Object)new String[] {"h2", "http/1.1"});
+            sslSocket.setSSLParameters(parameters);
+            sslSocket.startHandshake();
+            HostnameVerifier verifier = sslProvider.getDefalutHostnameVerifier();
+            if (null != verifier && !verifier.verify(host, sslSocket.getSession())) {
+                throw new IOException("Hostname '" + host + "' was not verified");
+            }
+            if (!"h2".equals(GET_APPLICATION_PROTOCOL.invoke(sslSocket))) {
+                closeQuietly(sslSocket);
+                return null;
+            }
+            return sslSocket;
+        } catch (Exception e) {
+            closeQuietly(sslSocket);
+            throw e;
+        }
+    }
+
+    /**
+     * 连接的key：scheme、host、port，https时还区分SslProvider
+     */
+    private static String key(HttpTransport.Request request) {
+        URL url = request.getUrl();
+        int port = url.getPort() > 0 ? url.getPort() : url.getDefaultPort();
+        String key = url.getProtocol().toLowerCase() + "://" + url.getHost().toLowerCase() + ":" + port;
+        return request.isSecure() ? key + "@" + System.identityHashCode(request.getSslProvider()) : key;
+    }
+
+    private static Method method(Class<?> type, String name, Class<?>... parameterTypes) {
+        try {
+            return type.getMethod(name, parameterTypes);
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (null == closeable) {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    // ------------------------------------ inner classes -------------------------
+
+    private static class CallbackExecutorHolder {
+        private static final ExecutorService EXECUTOR = ThreadUtil.getDaemonExecutorService(16, 4096,
+            "http2-callback-%d");
+    }
+
+    private static class ReaderThreadFactoryHolder {
+        private static final ThreadFactory THREAD_FACTORY = ThreadUtil.getDaemonThreadFactory("http2-reader-%d");
+    }
+
+    private static class TimeoutSchedulerHolder {
+        private static final ScheduledExecutorService SCHEDULER = ThreadUtil.getDaemonScheduledExecutorService(1,
+            "http2-timeout-%d");
+    }
+
+    /**
+     * 对端未处理的stream(REFUSED_STREAM或GOAWAY之后)，可以安全地重发
+     */
+    private static final class RefusedStreamException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        private RefusedStreamException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * 一个HTTP/2连接：读线程处理所有收到的帧，发送方在writeLock下写帧<br/>
+     * - 锁顺序：writeLock -&gt; Connection；Stream的锁不与其他锁嵌套
+     */
+    private final class Connection implements Runnable {
+        private final String key;
+        private final Socket socket;
+        private final InputStream in;
+        private final OutputStream out;
+        private final int localStreamWindow;
+        private final int localConnectionWindow;
+
+        /**
+         * 保护out、encoder、nextStreamId与streams的登记
+         */
+        private final Object writeLock = new Object();
+        private final byte[] frameHeader = new byte[FRAME_HEADER_LENGTH];
+        private final Hpack.Encoder encoder = new Hpack.Encoder();
+        private final Hpack.Decoder decoder = new Hpack.Decoder(Hpack.DEFAULT_TABLE_SIZE);
+        private final ConcurrentMap<Integer, Stream> streams = new ConcurrentHashMap<Integer, Stream>();
+        private int nextStreamId = 1;
+
+        // 以下由Connection的锁保护
+        private long sendWindow = DEFAULT_WINDOW_SIZE;
+        private int peerInitialWindow = DEFAULT_WINDOW_SIZE;
+        private int peerMaxFrameSize = DEFAULT_MAX_FRAME_SIZE;
+        private int peerMaxConcurrentStreams = Integer.MAX_VALUE;
+        private int activeStreams = 0;
+        private int receiveUnacked = 0;
+
+        private volatile boolean goingAway = false;
+        private volatile IOException failure = null;
+
+        private Connection(String key, Socket socket, int localStreamWindow, int localConnectionWindow)
+            throws IOException {
+            this.key = key;
+            this.socket = socket;
+            this.in = new BufferedInputStream(socket.getInputStream(), DEFAULT_MAX_FRAME_SIZE + FRAME_HEADER_LENGTH);
+            this.out = new BufferedOutputStream(socket.getOutputStream(),
+                DEFAULT_MAX_FRAME_SIZE + FRAME_HEADER_LENGTH);
+            this.localStreamWindow = localStreamWindow;
+            this.localConnectionWindow = localConnectionWindow;
+        }
+
+        /**
+         * 发送连接前言与SETTINGS，并读取对端的第一个SETTINGS
+         *
+         * @return false表示对端不支持HTTP/2(返回了HTTP/1.x响应或直接关闭)
+         */
+        private boolean handshake() throws IOException {
+            synchronized (writeLock) {
+                out.write(PREFACE);
+                byte[] settings = new byte[12];
+                putSetting(settings, 0, SETTINGS_ENABLE_PUSH, 0);
+                putSetting(settings, 6, SETTINGS_INITIAL_WINDOW_SIZE, localStreamWindow);
+                this.writeFrame(TYPE_SETTINGS, 0, 0, settings, 0, settings.length);
+                if (localConnectionWindow > DEFAULT_WINDOW_SIZE) {
+                    this.writeWindowUpdate(0, localConnectionWindow - DEFAULT_WINDOW_SIZE);
+                }
+                out.flush();
+            }
+
+            byte[] header = new byte[FRAME_HEADER_LENGTH];
+            int n = 0;
+            while (n < header.length) {
+                int read = in.read(header, n, header.length - n);
+                if (read < 0) {
+                    return false;
+                }
+                n += read;
+            }
+            if (new String(header, 0, 5, StandardCharsets.ISO_8859_1).equals("HTTP/")) {
+                return false;
+            }
+            int length = readInt24(header, 0);
+            if ((header[3] & 0xff) != TYPE_SETTINGS || (header[4] & FLAG_ACK) != 0 || length > DEFAULT_MAX_FRAME_SIZE) {
+                throw new ProtocolException("HTTP/2 server preface must start with SETTINGS");
+            }
+            byte[] payload = new byte[length];
+            this.readFully(payload);
+            this.onSettings(payload);
+            return true;
+        }
+
+        /**
+         * 读线程：处理收到的帧直到连接关闭
+         */
+        @Override
+        public void run() {
+            try {
+                byte[] header = new byte[FRAME_HEADER_LENGTH];
+                while (true) {
+                    this.readFully(header);
+                    int length = readInt24(header, 0);
+                    int type = header[3] & 0xff;
+                    int flags = header[4] & 0xff;
+                    int streamId = readInt32(header, 5) & MAX_STREAM_ID;
+                    if (length > DEFAULT_MAX_FRAME_SIZE) {
+                        throw this.connectionError(FRAME_SIZE_ERROR, "Frame too large: " + length);
+                    }
+                    byte[] payload = new byte[length];
+                    this.readFully(payload);
+                    this.onFrame(type, flags, streamId, payload);
+                }
+            } catch (IOException e) {
+                this.fail(e);
+            } catch (RuntimeException e) {
+                this.fail(new IOException("HTTP/2 reader failed", e));
+            }
+        }
+
+        private void onFrame(int type, int flags, int streamId, byte[] payload) throws IOException {
+            switch (type) {
+                case TYPE_DATA:
+                    this.onData(flags, streamId, payload);
+                    break;
+                case TYPE_HEADERS:
+                    this.onHeaders(flags, streamId, payload);
+                    break;
+                case TYPE_RST_STREAM:
+                    Stream reset = streams.get(streamId);
+                    if (null != reset && payload.length == 4) {
+                        reset.onReset(readInt32(payload, 0));
+                    }
+                    break;
+                case TYPE_SETTINGS:
+                    if ((flags & FLAG_ACK) == 0) {
+                        this.onSettings(payload);
+                    }
+                    break;
+                case TYPE_PUSH_PROMISE:
+                    throw this.connectionError(PROTOCOL_ERROR, "PUSH_PROMISE received while push is disabled");
+                case TYPE_PING:
+                    if ((flags & FLAG_ACK) == 0) {
+                        this.sendFrame(TYPE_PING, FLAG_ACK, 0, payload);
+                    }
+                    break;
+                case TYPE_GOAWAY:
+                    this.onGoAway(readInt32(payload, 0) & MAX_STREAM_ID);
+                    break;
+                case TYPE_WINDOW_UPDATE:
+                    this.onWindowUpdate(streamId, readInt32(payload, 0) & MAX_STREAM_ID);
+                    break;
+                case TYPE_CONTINUATION:
+                    throw this.connectionError(PROTOCOL_ERROR, "Unexpected CONTINUATION");
+                default:
+                    // PRIORITY与未知类型的帧忽略
+                    break;
+            }
+        }
+
+        private void onData(int flags, int streamId, byte[] payload) throws IOException {
+            int offset = 0;
+            int padding = 0;
+            if ((flags & FLAG_PADDED) != 0) {
+                padding = payload[0] & 0xff;
+                offset = 1;
+            }
+            int length = payload.length - offset - padding;
+            if (length < 0) {
+                throw this.connectionError(PROTOCOL_ERROR, "Invalid DATA padding");
+            }
+            Stream stream = streams.get(streamId);
+            if (null != stream && stream.onData(payload, offset, length, (flags & FLAG_END_STREAM) != 0)) {
+                // 数据在被读取后归还窗口，padding立即归还
+                if (payload.length > length) {
+                    this.onConsumed(stream, payload.length - length);
+                }
+            } else {
+                this.onConsumed(null, payload.length);
+            }
+        }
+
+        private void onHeaders(int flags, int streamId, byte[] payload) throws IOException {
+            int offset = 0;
+            int padding = 0;
+            if ((flags & FLAG_PADDED) != 0) {
+                padding = payload[0] & 0xff;
+                offset = 1;
+            }
+            if ((flags & FLAG_PRIORITY) != 0) {
+                offset += 5;
+            }
+            if (payload.length - offset - padding < 0) {
+                throw this.connectionError(PROTOCOL_ERROR, "Invalid HEADERS padding");
+            }
+            ByteArrayOutputStream block = new ByteArrayOutputStream(payload.length);
+            block.write(payload, offset, payload.length - offset - padding);
+
+            int continuationFlags = flags;
+            byte[] header = new byte[FRAME_HEADER_LENGTH];
+            while ((continuationFlags & FLAG_END_HEADERS) == 0) {
+                this.readFully(header);
+                int length = readInt24(header, 0);
+                if ((header[3] & 0xff) != TYPE_CONTINUATION || (readInt32(header, 5) & MAX_STREAM_ID) != streamId
+                    || length > DEFAULT_MAX_FRAME_SIZE) {
+                    throw this.connectionError(PROTOCOL_ERROR, "Expected CONTINUATION of stream " + streamId);
+                }
+                continuationFlags = header[4] & 0xff;
+                byte[] fragment = new byte[length];
+                this.readFully(fragment);
+                block.write(fragment, 0, length);
+            }
+
+            // 即使stream已经结束也必须解码，以保持HPACK动态表同步
+            final List<String[]> fields = new ArrayList<String[]>();
+            decoder.decode(block.toByteArray(), new Hpack.HeaderListener() {
+                @Override
+                public void onHeader(String name, String value) {
+                    fields.add(new String[] {name, value});
+                }
+            });
+            Stream stream = streams.get(streamId);
+            if (null != stream) {
+                stream.onHeaders(fields, (flags & FLAG_END_STREAM) != 0);
+            }
+        }
+
+        private void onSettings(byte[] payload) throws IOException {
+            if (payload.length % 6 != 0) {
+                throw this.connectionError(FRAME_SIZE_ERROR, "Invalid SETTINGS length");
+            }
+            for (int i = 0; i < payload.length; i += 6) {
+                int id = ((payload[i] & 0xff) << 8) | (payload[i + 1] & 0xff);
+                int value = readInt32(payload, i + 2);
+                switch (id) {
+                    case SETTINGS_HEADER_TABLE_SIZE:
+                        synchronized (writeLock) {
+                            encoder.setMaxTableSize(value);
+                        }
+                        break;
+                    case SETTINGS_MAX_CONCURRENT_STREAMS:
+                        synchronized (this) {
+                            peerMaxConcurrentStreams = value < 0 ? Integer.MAX_VALUE : value;
+                            this.notifyAll();
+                        }
+                        break;
+                    case SETTINGS_INITIAL_WINDOW_SIZE:
+                        if (value < 0) {
+                            throw this.connectionError(FLOW_CONTROL_ERROR, "Invalid initial window size");
+                        }
+                        synchronized (this) {
+                            int delta = value - peerInitialWindow;
+                            peerInitialWindow = value;
+                            for (Stream stream : streams.values()) {
+                                stream.sendWindow += delta;
+                            }
+                            this.notifyAll();
+                        }
+                        break;
+                    case SETTINGS_MAX_FRAME_SIZE:
+                        synchronized (this) {
+                            peerMaxFrameSize = Math.max(DEFAULT_MAX_FRAME_SIZE, Math.min(value, 16777215));
+                        }
+                        break;
+                    default:
+                        break;
+                }
+            }
+            this.sendFrame(TYPE_SETTINGS, FLAG_ACK, 0, EMPTY);
+        }
+
+        private void onGoAway(int lastStreamId) {
+            goingAway = true;
+            List<Stream> refused = new ArrayList<Stream>();
+            synchronized (writeLock) {
+                for (Stream stream : streams.values()) {
+                    if (stream.id > lastStreamId) {
+                        refused.add(stream);
+                    }
+                }
+            }
+            for (Stream stream : refused) {
+                stream.fail(new RefusedStreamException("HTTP/2 stream " + stream.id + " refused by GOAWAY"));
+            }
+            boolean idle;
+            synchronized (this) {
+                this.notifyAll();
+                idle = activeStreams == 0;
+            }
+            if (idle) {
+                this.shutdown();
+            }
+        }
+
+        private void onWindowUpdate(int streamId, int increment) throws IOException {
+            synchronized (this) {
+                if (streamId == 0) {
+                    sendWindow += increment;
+                } else {
+                    Stream stream = streams.get(streamId);
+                    if (null != stream) {
+                        stream.sendWindow += increment;
+                    }
+                }
+                this.notifyAll();
+            }
+        }
+
+        /**
+         * 接收的数据被消费(或丢弃)后归还窗口，累计超过窗口的一半时发送WINDOW_UPDATE
+         */
+        private void onConsumed(Stream stream, int n) {
+            int streamIncrement = 0;
+            if (null != stream) {
+                streamIncrement = stream.onConsumed(n, localStreamWindow / 2);
+            }
+            int connectionIncrement = 0;
+            synchronized (this) {
+                receiveUnacked += n;
+                if (receiveUnacked >= localConnectionWindow / 2) {
+                    connectionIncrement = receiveUnacked;
+                    receiveUnacked = 0;
+                }
+            }
+            if (streamIncrement == 0 && connectionIncrement == 0) {
+                return;
+            }
+            try {
+                synchronized (writeLock) {
+                    if (connectionIncrement > 0) {
+                        this.writeWindowUpdate(0, connectionIncrement);
+                    }
+                    if (streamIncrement > 0) {
+                        this.writeWindowUpdate(stream.id, streamIncrement);
+                    }
+                    out.flush();
+                }
+            } catch (IOException e) {
+                this.fail(e);
+            }
+        }
+
+        /**
+         * 新建stream并发出请求头与body
+         */
+        private Stream start(HttpTransport.Request request) throws IOException, TimeoutException,
+            InterruptedException {
+            int readTimeout = request.readTimeout();
+            this.reserve(readTimeout);
+            Stream stream = new Stream(this, request, readTimeout);
+            HttpBody body = request.getBody();
+            try {
+                synchronized (writeLock) {
+                    this.ensureUsable();
+                    stream.id = nextStreamId;
+                    nextStreamId += 2;
+                    if (nextStreamId < 0) {
+                        goingAway = true;
+                    }
+                    synchronized (this) {
+                        stream.sendWindow = peerInitialWindow;
+                    }
+                    streams.put(stream.id, stream);
+                    if (null == body) {
+                        stream.localClosed = true;
+                    }
+                    this.writeHeaders(stream.id, this.encodeHeaders(request, body), null == body);
+                    out.flush();
+                }
+            } catch (RefusedStreamException e) {
+                stream.fail(e);
+                throw e;
+            } catch (IOException e) {
+                stream.fail(e);
+                this.fail(e);
+                throw e;
+            }
+            startedStreams.incrementAndGet();
+            request.attach(stream.abortHandle);
+
+            if (null != body) {
+                try {
+                    DataFrameStream frames = new DataFrameStream(stream);
+                    body.writeTo(frames);
+                    frames.finish();
+                } catch (IOException e) {
+                    // 对端已经给出完整响应(如提前返回错误)时，忽略body发送失败
+                    if (!stream.response.isDone() || stream.response.isCompletedExceptionally()) {
+                        stream.cancel(e);
+                        throw e;
+                    }
+                }
+            }
+            stream.scheduleTimeout();
+            return stream;
+        }
+
+        /**
+         * 占用一个并发stream名额，超过对端的SETTINGS_MAX_CONCURRENT_STREAMS时等待
+         */
+        private synchronized void reserve(int timeout) throws IOException, InterruptedException {
+            long deadline = timeout > 0 ? System.currentTimeMillis() + timeout : 0;
+            while (activeStreams >= peerMaxConcurrentStreams && null == failure && !goingAway) {
+                long remaining = deadline > 0 ? deadline - System.currentTimeMillis() : 0;
+                if (deadline > 0 && remaining <= 0) {
+                    throw new SocketTimeoutException("Timed out waiting for an HTTP/2 stream slot");
+                }
+                this.wait(remaining);
+            }
+            activeStreams++;
+        }
+
+        private synchronized void onStreamReleased() {
+            activeStreams--;
+            this.notifyAll();
+        }
+
+        private void ensureUsable() throws IOException {
+            if (null != failure) {
+                throw new IOException("HTTP/2 connection closed: " + failure.getMessage(), failure);
+            }
+            if (goingAway) {
+                throw new RefusedStreamException("HTTP/2 connection is going away");
+            }
+        }
+
+        private boolean isUsable() {
+            return null == failure && !goingAway;
+        }
+
+        private byte[] encodeHeaders(HttpTransport.Request request, HttpBody body) {
+            ByteArrayOutputStream block = new ByteArrayOutputStream(256);
+            encoder.begin(block);
+            encoder.encode(block, ":method", request.getMethod().name(), false);
+            encoder.encode(block, ":scheme", request.isSecure() ? "https" : "http", false);
+            encoder.encode(block, ":authority", request.getHostHeader(), false);
+            encoder.encode(block, ":path", request.getTarget(), false);
+            for (Map.Entry<String, String> header : request.getHeaders().entrySet()) {
+                String name = header.getKey().toLowerCase();
+                if (CONNECTION_HEADERS.contains(name) || ("te".equals(name)
+                    && !"trailers".equalsIgnoreCase(header.getValue()))) {
+                    continue;
+                }
+                encoder.encode(block, name, header.getValue(), SENSITIVE_HEADERS.contains(name));
+            }
+            if (null != body && body.contentLength() >= 0) {
+                encoder.encode(block, "content-length", String.valueOf(body.contentLength()), false);
+            }
+            return block.toByteArray();
+        }
+
+        /**
+         * 写出头部块，超过对端的最大帧长时拆分为HEADERS与CONTINUATION，调用方持有writeLock
+         */
+        private void writeHeaders(int streamId, byte[] block, boolean endStream) throws IOException {
+            int maxFrameSize;
+            synchronized (this) {
+                maxFrameSize = peerMaxFrameSize;
+            }
+            int offset = 0;
+            int type = TYPE_HEADERS;
+            int flags = endStream ? FLAG_END_STREAM : 0;
+            do {
+                int length = Math.min(maxFrameSize, block.length - offset);
+                boolean last = offset + length == block.length;
+                this.writeFrame(type, last ? flags | FLAG_END_HEADERS : flags, streamId, block, offset, length);
+                offset += length;
+                type = TYPE_CONTINUATION;
+                flags = 0;
+            } while (offset < block.length);
+        }
+
+        /**
+         * 在流量控制窗口内发送DATA，endStream时最后一帧带END_STREAM
+         */
+        private void sendData(Stream stream, byte[] data, int offset, int length, boolean endStream)
+            throws IOException {
+            do {
+                int n = length > 0 ? this.acquireWindow(stream, length) : 0;
+                boolean last = n == length;
+                synchronized (writeLock) {
+                    this.ensureOpen(stream);
+                    this.writeFrame(TYPE_DATA, last && endStream ? FLAG_END_STREAM : 0, stream.id, data, offset, n);
+                    out.flush();
+                }
+                offset += n;
+                length -= n;
+            } while (length > 0);
+            if (endStream) {
+                stream.onLocalClosed();
+            }
+        }
+
+        /**
+         * 等待发送窗口，返回本次可发送的字节数(不超过最大帧长)
+         */
+        private synchronized int acquireWindow(Stream stream, int wanted) throws IOException {
+            long deadline = stream.readTimeout > 0 ? System.currentTimeMillis() + stream.readTimeout : 0;
+            while (true) {
+                this.ensureOpen(stream);
+                long available = Math.min(sendWindow, stream.sendWindow);
+                if (available > 0) {
+                    int n = (int)Math.min(Math.min(wanted, available), peerMaxFrameSize);
+                    sendWindow -= n;
+                    stream.sendWindow -= n;
+                    return n;
+                }
+                long remaining = deadline > 0 ? deadline - System.currentTimeMillis() : 0;
+                if (deadline > 0 && remaining <= 0) {
+                    throw new SocketTimeoutException("Timed out waiting for HTTP/2 flow control window");
+                }
+                try {
+                    this.wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while waiting for HTTP/2 flow control window");
+                }
+            }
+        }
+
+        private void ensureOpen(Stream stream) throws IOException {
+            if (null != stream.error) {
+                throw stream.error;
+            }
+            if (null != failure) {
+                throw new IOException("HTTP/2 connection closed: " + failure.getMessage(), failure);
+            }
+        }
+
+        private void sendReset(int streamId, int errorCode) {
+            byte[] payload = new byte[4];
+            putInt32(payload, 0, errorCode);
+            this.sendFrame(TYPE_RST_STREAM, 0, streamId, payload);
+        }
+
+        /**
+         * 发送控制帧，失败时关闭连接
+         */
+        private void sendFrame(int type, int flags, int streamId, byte[] payload) {
+            try {
+                synchronized (writeLock) {
+                    this.writeFrame(type, flags, streamId, payload, 0, payload.length);
+                    out.flush();
+                }
+            } catch (IOException e) {
+                this.fail(e);
+            }
+        }
+
+        private void writeWindowUpdate(int streamId, int increment) throws IOException {
+            byte[] payload = new byte[4];
+            putInt32(payload, 0, increment);
+            this.writeFrame(TYPE_WINDOW_UPDATE, 0, streamId, payload, 0, payload.length);
+        }
+
+        /**
+         * 写出一帧(不flush)，调用方持有writeLock
+         */
+        private void writeFrame(int type, int flags, int streamId, byte[] payload, int offset, int length)
+            throws IOException {
+            frameHeader[0] = (byte)(length >>> 16);
+            frameHeader[1] = (byte)(length >>> 8);
+            frameHeader[2] = (byte)length;
+            frameHeader[3] = (byte)type;
+            frameHeader[4] = (byte)flags;
+            putInt32(frameHeader, 5, streamId & MAX_STREAM_ID);
+            out.write(frameHeader);
+            out.write(payload, offset, length);
+        }
+
+        private void readFully(byte[] buffer) throws IOException {
+            int n = 0;
+            while (n < buffer.length) {
+                int read = in.read(buffer, n, buffer.length - n);
+                if (read < 0) {
+                    throw new EOFException("HTTP/2 connection closed by peer");
+                }
+                n += read;
+            }
+        }
+
+        /**
+         * 连接级错误：发送GOAWAY，由读线程关闭连接
+         */
+        private IOException connectionError(int errorCode, String message) {
+            byte[] payload = new byte[8];
+            putInt32(payload, 0, 0);
+            putInt32(payload, 4, errorCode);
+            this.sendFrame(TYPE_GOAWAY, 0, 0, payload);
+            return new ProtocolException(message);
+        }
+
+        /**
+         * 正常关闭：发送GOAWAY并关闭连接
+         */
+        private void shutdown() {
+            if (null == failure) {
+                byte[] payload = new byte[8];
+                putInt32(payload, 4, NO_ERROR);
+                this.sendFrame(TYPE_GOAWAY, 0, 0, payload);
+            }
+            this.fail(new IOException("HTTP/2 connection closed"));
+        }
+
+        /**
+         * 连接失效：关闭socket，所有stream以IOException结束
+         */
+        private void fail(IOException cause) {
+            synchronized (this) {
+                if (null != failure) {
+                    return;
+                }
+                failure = cause;
+                this.notifyAll();
+            }
+            closeQuietly(socket);
+            CompletableFuture<Connection> slot = connections.get(key);
+            if (null != slot && slot.getNow(null) == this) {
+                connections.remove(key, slot);
+            }
+            List<Stream> open;
+            // 先关闭socket以唤醒阻塞在写上的线程，之后登记的stream都会看到failure
+            synchronized (writeLock) {
+                open = new ArrayList<Stream>(streams.values());
+            }
+            for (Stream stream : open) {
+                stream.fail(new IOException("HTTP/2 connection closed: " + cause.getMessage(), cause));
+            }
+        }
+    }
+
+    /**
+     * 一个请求/响应交换
+     */
+    private final class Stream {
+        private final Connection connection;
+        private final HttpTransport.Request request;
+        private final int readTimeout;
+        private final CompletableFuture<RestApiResponse> response = new CompletableFuture<RestApiResponse>();
+        private final AtomicBoolean released = new AtomicBoolean(false);
+        private final Closeable abortHandle = new Closeable() {
+            @Override
+            public void close() {
+                Stream.this.cancel(new IOException("Request aborted"));
+            }
+        };
+        private volatile int id = 0;
+        private volatile ScheduledFuture<?> timeout = null;
+
+        /**
+         * 发送窗口，由Connection的锁保护
+         */
+        private long sendWindow = 0;
+
+        // 以下由Stream的锁保护
+        private final ArrayDeque<byte[]> chunks = new ArrayDeque<byte[]>();
+        private int chunkPosition = 0;
+        private int buffered = 0;
+        private int receiveUnacked = 0;
+        private boolean remoteClosed = false;
+        private boolean bodyClosed = false;
+        private volatile boolean localClosed = false;
+        private volatile IOException error = null;
+
+        private Stream(Connection connection, HttpTransport.Request request, int readTimeout) {
+            this.connection = connection;
+            this.request = request;
+            this.readTimeout = readTimeout;
+        }
+
+        /**
+         * 同步等待响应头
+         */
+        private RestApiResponse await() throws Exception {
+            try {
+                return response.get();
+            } catch (InterruptedException e) {
+                request.abort();
+                Thread.currentThread().interrupt();
+                throw e;
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof Exception) {
+                    throw (Exception)cause;
+                }
+                throw e;
+            }
+        }
+
+        /**
+         * 收到响应头前超过readTimeout时取消stream
+         */
+        private void scheduleTimeout() {
+            if (readTimeout <= 0 || response.isDone()) {
+                return;
+            }
+            timeout = TimeoutSchedulerHolder.SCHEDULER.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    if (!response.isDone()) {
+                        Stream.this.cancel(new SocketTimeoutException("Read timed out"));
+                    }
+                }
+            }, readTimeout, TimeUnit.MILLISECONDS);
+            if (released.get()) {
+                timeout.cancel(false);
+            }
+        }
+
+        private void onHeaders(List<String[]> fields, boolean endStream) {
+            if (response.isDone()) {
+                // trailers
+                if (endStream) {
+                    this.onRemoteClosed();
+                }
+                return;
+            }
+            int status = -1;
+            Map<String, List<String>> headers = new LinkedHashMap<String, List<String>>();
+            for (String[] field : fields) {
+                if (":status".equals(field[0])) {
+                    try {
+                        status = Integer.parseInt(field[1]);
+                    } catch (NumberFormatException ignored) {
+                    }
+                } else if (!field[0].startsWith(":")) {
+                    List<String> values = headers.get(field[0]);
+                    if (null == values) {
+                        values = new ArrayList<String>(1);
+                        headers.put(field[0], values);
+                    }
+                    values.add(field[1]);
+                }
+            }
+            if (status < 100) {
+                this.cancel(new ProtocolException("HTTP/2 response without a valid :status"));
+                return;
+            }
+            if (status < 200 && !endStream) {
+                // 1xx
+                return;
+            }
+            ScheduledFuture<?> scheduled = timeout;
+            if (null != scheduled) {
+                scheduled.cancel(false);
+            }
+            RestApiResponse restApiResponse = new RestApiResponse(status, headers, new BodyStream(),
+                request.getCharset());
+            if (endStream) {
+                this.onRemoteClosed();
+            }
+            response.complete(restApiResponse);
+        }
+
+        /**
+         * 收到DATA，返回false表示数据被丢弃(body已关闭或stream已失败)
+         */
+        private boolean onData(byte[] payload, int offset, int length, boolean endStream) {
+            synchronized (this) {
+                if (bodyClosed || null != error) {
+                    return false;
+                }
+                if (length > 0) {
+                    chunks.add(Arrays.copyOfRange(payload, offset, offset + length));
+                    buffered += length;
+                }
+                this.notifyAll();
+            }
+            if (endStream) {
+                this.onRemoteClosed();
+            }
+            return true;
+        }
+
+        /**
+         * 消费了n个字节，返回需要发送的stream级WINDOW_UPDATE增量(0表示暂不发送)
+         */
+        private synchronized int onConsumed(int n, int threshold) {
+            if (remoteClosed) {
+                return 0;
+            }
+            receiveUnacked += n;
+            if (receiveUnacked < threshold) {
+                return 0;
+            }
+            int increment = receiveUnacked;
+            receiveUnacked = 0;
+            return increment;
+        }
+
+        private void onRemoteClosed() {
+            synchronized (this) {
+                remoteClosed = true;
+                this.notifyAll();
+            }
+            if (localClosed) {
+                this.release();
+            }
+        }
+
+        private void onLocalClosed() {
+            boolean done;
+            synchronized (this) {
+                localClosed = true;
+                done = remoteClosed;
+            }
+            if (done) {
+                this.release();
+            }
+        }
+
+        private void onReset(int errorCode) {
+            boolean complete;
+            synchronized (this) {
+                complete = remoteClosed;
+            }
+            if (complete && errorCode == NO_ERROR) {
+                // 对端已给出完整响应，只是不再需要请求body
+                synchronized (this) {
+                    localClosed = true;
+                    error = new IOException("HTTP/2 stream " + id + " closed by peer");
+                }
+                this.release();
+                return;
+            }
+            this.fail(errorCode == REFUSED_STREAM
+                ? new RefusedStreamException("HTTP/2 stream " + id + " refused")
+                : new IOException("HTTP/2 stream " + id + " reset by peer, error code: " + errorCode));
+        }
+
+        /**
+         * 本端取消：向对端发送RST_STREAM(CANCEL)
+         */
+        private void cancel(IOException cause) {
+            boolean reset;
+            synchronized (this) {
+                reset = id > 0 && null == error && !(remoteClosed && localClosed);
+            }
+            if (reset) {
+                connection.sendReset(id, CANCEL);
+            }
+            this.fail(cause);
+        }
+
+        private void fail(IOException cause) {
+            synchronized (this) {
+                // 已完整收到的响应仍然可以读完
+                if (null == error && !remoteClosed) {
+                    error = cause;
+                }
+                localClosed = true;
+                this.notifyAll();
+            }
+            response.completeExceptionally(cause);
+            this.release();
+        }
+
+        private void release() {
+            if (!released.compareAndSet(false, true)) {
+                return;
+            }
+            if (id > 0) {
+                connection.streams.remove(id);
+            }
+            ScheduledFuture<?> scheduled = timeout;
+            if (null != scheduled) {
+                scheduled.cancel(false);
+            }
+            request.detach(abortHandle);
+            connection.onStreamReleased();
+            if (connection.goingAway && connection.streams.isEmpty()) {
+                connection.shutdown();
+            }
+        }
+
+        /**
+         * 响应body，读取后归还接收窗口；未读完就关闭时取消stream
+         */
+        private final class BodyStream extends InputStream {
+            @Override
+            public int read() throws IOException {
+                byte[] b = new byte[1];
+                int n = this.read(b, 0, 1);
+                return n < 0 ? -1 : b[0] & 0xff;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (len == 0) {
+                    return 0;
+                }
+                int n;
+                synchronized (Stream.this) {
+                    long deadline = readTimeout > 0 ? System.currentTimeMillis() + readTimeout : 0;
+                    while (chunks.isEmpty()) {
+                        if (bodyClosed) {
+                            throw new IOException("Stream closed");
+                        }
+                        if (remoteClosed) {
+                            return -1;
+                        }
+                        if (null != error) {
+                            throw error;
+                        }
+                        long remaining = deadline > 0 ? deadline - System.currentTimeMillis() : 0;
+                        if (deadline > 0 && remaining <= 0) {
+                            throw new SocketTimeoutException("Read timed out");
+                        }
+                        try {
+                            Stream.this.wait(remaining);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            throw new IOException("Interrupted while reading HTTP/2 stream");
+                        }
+                    }
+                    byte[] chunk = chunks.peek();
+                    n = Math.min(len, chunk.length - chunkPosition);
+                    System.arraycopy(chunk, chunkPosition, b, off, n);
+                    chunkPosition += n;
+                    buffered -= n;
+                    if (chunkPosition == chunk.length) {
+                        chunks.poll();
+                        chunkPosition = 0;
+                    }
+                }
+                connection.onConsumed(Stream.this, n);
+                return n;
+            }
+
+            @Override
+            public int available() {
+                synchronized (Stream.this) {
+                    return buffered;
+                }
+            }
+
+            @Override
+            public void close() {
+                int unread;
+                boolean cancel;
+                synchronized (Stream.this) {
+                    if (bodyClosed) {
+                        return;
+                    }
+                    bodyClosed = true;
+                    unread = buffered;
+                    chunks.clear();
+                    buffered = 0;
+                    cancel = !remoteClosed || !localClosed;
+                    Stream.this.notifyAll();
+                }
+                if (unread > 0) {
+                    connection.onConsumed(null, unread);
+                }
+                if (cancel) {
+                    Stream.this.cancel(new IOException("Response body closed"));
+                }
+            }
+        }
+    }
+
+    /**
+     * 把body切分为DATA帧，finish时发出最后一帧(带END_STREAM)
+     */
+    private static final class DataFrameStream extends OutputStream {
+        private final Stream stream;
+        private final byte[] buffer = new byte[DEFAULT_MAX_FRAME_SIZE];
+        private int count = 0;
+
+        private DataFrameStream(Stream stream) {
+            this.stream = stream;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (count == buffer.length) {
+                this.flushBuffer();
+            }
+            buffer[count++] = (byte)b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len >= buffer.length) {
+                this.flushBuffer();
+                stream.connection.sendData(stream, b, off, len, false);
+                return;
+            }
+            if (len > buffer.length - count) {
+                this.flushBuffer();
+            }
+            System.arraycopy(b, off, buffer, count, len);
+            count += len;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            this.flushBuffer();
+        }
+
+        private void finish() throws IOException {
+            stream.connection.sendData(stream, buffer, 0, count, true);
+            count = 0;
+        }
+
+        private void flushBuffer() throws IOException {
+            if (count > 0) {
+                stream.connection.sendData(stream, buffer, 0, count, false);
+                count = 0;
+            }
+        }
+    }
+
+    private static void putSetting(byte[] buffer, int offset, int id, int value) {
+        buffer[offset] = (byte)(id >>> 8);
+        buffer[offset + 1] = (byte)id;
+        putInt32(buffer, offset + 2, value);
+    }
+
+    private static void putInt32(byte[] buffer, int offset, int value) {
+        buffer[offset] = (byte)(value >>> 24);
+        buffer[offset + 1] = (byte)(value >>> 16);
+        buffer[offset + 2] = (byte)(value >>> 8);
+        buffer[offset + 3] = (byte)value;
+    }
+
+    private static int readInt24(byte[] buffer, int offset) {
+        return ((buffer[offset] & 0xff) << 16) | ((buffer[offset + 1] & 0xff) << 8) | (buffer[offset + 2] & 0xff);
+    }
+
+    private static int readInt32(byte[] buffer, int offset) {
+        return ((buffer[offset] & 0xff) << 24) | ((buffer[offset + 1] & 0xff) << 16)
+            | ((buffer[offset + 2] & 0xff) << 8) | (buffer[offset + 3] & 0xff);
+    }
+}
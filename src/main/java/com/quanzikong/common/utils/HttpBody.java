@@ -0,0 +1,310 @@
+package com.quanzikong.common.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 请求body，由若干段内存数据、文件区间或输入流组成<br/>
+ * - 写出时逐段进行，内存占用与body大小无关<br/>
+ * - 文件段通过FileChannel.transferTo写出，目标为SocketChannel时由内核直接拷贝(zero-copy)<br/>
+ * - 含输入流的body长度可能未知(contentLength() &lt; 0，此时以chunked发送)，且只能写出一次<br/>
+ * - Producer在写出时才生成内容(如流式序列化json)，长度未知
+ *
+ * @author agent
+ */
+public class HttpBody {
+
+    private static final int COPY_BUFFER_SIZE = 8192;
+
+    private final List<Segment> segments;
+    private final long contentLength;
+    private final boolean repeatable;
+
+    HttpBody(List<Segment> segments) {
+        long length = 0;
+        boolean canRepeat = true;
+        for (Segment segment : segments) {
+            if (null != segment.stream) {
+                canRepeat = false;
+            }
+            length = length < 0 || segment.length < 0 ? -1 : length + segment.length;
+        }
+        this.segments = Collections.unmodifiableList(segments);
+        this.contentLength = length;
+        this.repeatable = canRepeat;
+    }
+
+    public static HttpBody of(byte[] bytes) {
+        return of(ByteBuffer.wrap(bytes));
+    }
+
+    public static HttpBody of(ByteBuffer buffer) {
+        return new HttpBody(Collections.singletonList(Segment.of(buffer)));
+    }
+
+    /**
+     * 文件body，写出时才打开文件
+     *
+     * @param file File
+     *
+     * @return HttpBody
+     */
+    public static HttpBody of(File file) {
+        return new HttpBody(Collections.singletonList(Segment.of(file.toPath(), 0, file.length())));
+    }
+
+    /**
+     * 文件body，写出时才打开文件
+     *
+     * @param path Path
+     *
+     * @return HttpBody
+     *
+     * @throws IOException 读取文件大小失败
+     */
+    public static HttpBody of(Path path) throws IOException {
+        return new HttpBody(Collections.singletonList(Segment.of(path, 0, Files.size(path))));
+    }
+
+    /**
+     * 输入流body，写完后关闭输入流
+     *
+     * @param in     InputStream
+     * @param length 长度，未知时传-1
+     *
+     * @return HttpBody
+     */
+    public static HttpBody of(InputStream in, long length) {
+        return new HttpBody(Collections.singletonList(Segment.of(in, length)));
+    }
+
+    /**
+     * 写出时才生成内容的body，长度未知，以chunked发送
+     *
+     * @param producer Producer
+     *
+     * @return HttpBody
+     */
+    public static HttpBody of(Producer producer) {
+        return new HttpBody(Collections.singletonList(Segment.of(producer)));
+    }
+
+    /**
+     * body长度，未知时返回-1
+     *
+     * @return long
+     */
+    public long contentLength() {
+        return contentLength;
+    }
+
+    /**
+     * 能否重复写出(不含输入流)，决定了失败后能否重试
+     *
+     * @return boolean
+     */
+    public boolean isRepeatable() {
+        return repeatable;
+    }
+
+    /**
+     * 写出到输出流
+     *
+     * @param out OutputStream
+     *
+     * @throws IOException e
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        WritableByteChannel channel = null;
+        for (Segment segment : segments) {
+            if (null != segment.buffer) {
+                writeBuffer(segment.buffer.duplicate(), out);
+            } else if (null != segment.path) {
+                if (null == channel) {
+                    channel = Channels.newChannel(out);
+                }
+                transferFile(segment, channel);
+            } else if (null != segment.producer) {
+                segment.producer.writeTo(out);
+            } else {
+                copyStream(segment.stream, out);
+            }
+        }
+    }
+
+    /**
+     * 写出到channel，文件段使用FileChannel.transferTo
+     *
+     * @param channel WritableByteChannel(阻塞模式)
+     *
+     * @throws IOException e
+     */
+    public void writeTo(WritableByteChannel channel) throws IOException {
+        for (Segment segment : segments) {
+            if (null != segment.buffer) {
+                ByteBuffer buffer = segment.buffer.duplicate();
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            } else if (null != segment.path) {
+                transferFile(segment, channel);
+            } else if (null != segment.producer) {
+                segment.producer.writeTo(Channels.newOutputStream(channel));
+            } else {
+                copyStream(segment.stream, Channels.newOutputStream(channel));
+            }
+        }
+    }
+
+    List<Segment> segments() {
+        return segments;
+    }
+
+    /**
+     * 是否含有Producer段
+     *
+     * @return boolean
+     */
+    boolean hasProducer() {
+        for (Segment segment : segments) {
+            if (null != segment.producer) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 把Producer段生成的内容缓存到内存中，得到长度已知的body，供不能在写出时调用Producer的传输层使用
+     *
+     * @return HttpBody
+     *
+     * @throws IOException e
+     */
+    HttpBody bufferProducers() throws IOException {
+        if (!this.hasProducer()) {
+            return this;
+        }
+        List<Segment> buffered = new ArrayList<Segment>(segments.size());
+        for (Segment segment : segments) {
+            if (null == segment.producer) {
+                buffered.add(segment);
+                continue;
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream(COPY_BUFFER_SIZE);
+            segment.producer.writeTo(out);
+            buffered.add(Segment.of(ByteBuffer.wrap(out.toByteArray())));
+        }
+        return new HttpBody(buffered);
+    }
+
+    private static void writeBuffer(ByteBuffer buffer, OutputStream out) throws IOException {
+        if (buffer.hasArray()) {
+            out.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            return;
+        }
+        byte[] bytes = new byte[Math.min(buffer.remaining(), COPY_BUFFER_SIZE)];
+        while (buffer.hasRemaining()) {
+            int n = Math.min(buffer.remaining(), bytes.length);
+            buffer.get(bytes, 0, n);
+            out.write(bytes, 0, n);
+        }
+    }
+
+    private static void transferFile(Segment segment, WritableByteChannel channel) throws IOException {
+        FileChannel file = FileChannel.open(segment.path, StandardOpenOption.READ);
+        try {
+            long position = segment.position;
+            long remaining = segment.length;
+            while (remaining > 0) {
+                long n = file.transferTo(position, remaining, channel);
+                if (n <= 0 && position >= file.size()) {
+                    throw new IOException("File truncated while sending: " + segment.path);
+                }
+                position += n;
+                remaining -= n;
+            }
+        } finally {
+            file.close();
+        }
+    }
+
+    private static void copyStream(InputStream in, OutputStream out) throws IOException {
+        try {
+            byte[] buffer = new byte[COPY_BUFFER_SIZE];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    // ------------------------------------ inner classes -------------------------
+
+    /**
+     * 写出时生成body内容，失败重试时可能被调用多次，每次应生成相同的内容
+     */
+    public interface Producer {
+        /**
+         * 写出body内容，不要关闭out
+         *
+         * @param out OutputStream
+         *
+         * @throws IOException e
+         */
+        void writeTo(OutputStream out) throws IOException;
+    }
+
+    /**
+     * body的一段：内存数据、文件区间、输入流或Producer，四者之一
+     */
+    static final class Segment {
+        final ByteBuffer buffer;
+        final Path path;
+        final long position;
+        final InputStream stream;
+        final Producer producer;
+        final long length;
+
+        private Segment(ByteBuffer buffer, Path path, long position, InputStream stream, Producer producer,
+                        long length) {
+            this.buffer = buffer;
+            this.path = path;
+            this.position = position;
+            this.stream = stream;
+            this.producer = producer;
+            this.length = length;
+        }
+
+        static Segment of(ByteBuffer buffer) {
+            return new Segment(buffer.slice(), null, 0, null, null, buffer.remaining());
+        }
+
+        static Segment of(Path path, long position, long length) {
+            return new Segment(null, path, position, null, null, length);
+        }
+
+        static Segment of(InputStream stream, long length) {
+            return new Segment(null, null, 0, stream, null, length);
+        }
+
+        static Segment of(Producer producer) {
+            return new Segment(null, null, 0, null, producer, -1);
+        }
+    }
+}
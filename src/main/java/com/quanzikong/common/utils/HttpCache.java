@@ -0,0 +1,895 @@
+package com.quanzikong.common.utils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * http响应缓存(共享缓存)的配置、存储与统计，由CachingHttpTransport使用<br/>
+ * - 只缓存GET的200/203响应，遵循Cache-Control(max-age, s-maxage, no-store, no-cache, private, must-revalidate)、
+ * Expires、Age与Vary<br/>
+ * - 缓存在调用方之间共享，Cache-Control: private的响应不保存；带Authorization或Cookie的请求，
+ * 只有响应为public或带s-maxage时才保存<br/>
+ * - 过期(或no-cache)的响应带有ETag/Last-Modified时以If-None-Match/If-Modified-Since重新验证，304时直接返回缓存的body<br/>
+ * - 内存中按LRU保存，总大小不超过maxBytes；设置directory后被淘汰的响应写入磁盘，再次命中时读回内存<br/>
+ * - 缓存的是线上的原始响应(压缩的响应仍是压缩的)，解压由RestApiClient负责<br/>
+ * - 同一url的POST/PUT/DELETE成功后，该url的缓存失效<br/>
+ * - 多个client/RestApiUtil共享同一个HttpCache才能共享缓存
+ *
+ * Usage:
+ * HttpCache cache = new HttpCache().setMaxBytes(32 * 1024 * 1024).setDirectory(new File("/tmp/http-cache"));
+ * RestApiClient client = RestApiClient.newBuilder().cache(cache).build();
+ *
+ * @author agent
+ */
+public class HttpCache {
+
+    private static final Set<Integer> CACHEABLE_STATUSES = new HashSet<Integer>(Arrays.asList(200, 203));
+    private static final String FILE_SUFFIX = ".cache";
+    private static final int FILE_MAGIC = 0x48434331;
+    /**
+     * 估算的每个条目的固定开销(key、对象头等)
+     */
+    private static final int ENTRY_OVERHEAD = 256;
+
+    private volatile long maxBytes = 16L * 1024 * 1024;
+    private volatile long maxEntryBytes = 1024L * 1024;
+    private volatile File directory = null;
+    private volatile long maxDiskBytes = 64L * 1024 * 1024;
+
+    /**
+     * 内存中的条目，按访问顺序排列，由this保护
+     */
+    private final LinkedHashMap<String, Entry> memory = new LinkedHashMap<String, Entry>(64, 0.75f, true);
+    private long memoryBytes = 0;
+    /**
+     * 磁盘上的条目(key -> 文件大小)，按访问顺序排列，由this保护
+     */
+    private final LinkedHashMap<String, Long> disk = new LinkedHashMap<String, Long>(64, 0.75f, true);
+    private long diskBytes = 0;
+
+    private final Stats stats = new Stats();
+
+    /**
+     * RestApiClient在useCaches且未指定cache时使用的共享缓存
+     *
+     * @return HttpCache
+     */
+    public static HttpCache getDefault() {
+        return DefaultHolder.INSTANCE;
+    }
+
+    /**
+     * 统计
+     *
+     * @return Stats
+     */
+    public Stats getStats() {
+        return stats;
+    }
+
+    /**
+     * 内存中的条目数
+     *
+     * @return int
+     */
+    public synchronized int size() {
+        return memory.size();
+    }
+
+    /**
+     * 内存中的条目估算的总字节数
+     *
+     * @return long
+     */
+    public synchronized long getMemoryBytes() {
+        return memoryBytes;
+    }
+
+    /**
+     * 磁盘上的条目数
+     *
+     * @return int
+     */
+    public synchronized int diskSize() {
+        return disk.size();
+    }
+
+    /**
+     * 磁盘上的条目的总字节数
+     *
+     * @return long
+     */
+    public synchronized long getDiskBytes() {
+        return diskBytes;
+    }
+
+    /**
+     * 使该url的缓存失效
+     *
+     * @param url 完整的请求地址(含query string)
+     */
+    public void invalidate(String url) {
+        boolean removed;
+        synchronized (this) {
+            removed = this.removeMemory(url);
+            removed = this.removeDisk(url) || removed;
+        }
+        if (removed) {
+            stats.invalidations.incrementAndGet();
+        }
+    }
+
+    /**
+     * 清空内存与磁盘上的缓存
+     */
+    public synchronized void clear() {
+        memory.clear();
+        memoryBytes = 0;
+        for (String key : new ArrayList<String>(disk.keySet())) {
+            this.removeDisk(key);
+        }
+    }
+
+    // --------------------------------- package ----------------------------------
+
+    /**
+     * 查找与请求匹配(含Vary)的条目，内存未命中时从磁盘读回
+     *
+     * @param key            缓存key(url)
+     * @param requestHeaders 请求头
+     *
+     * @return Entry 没有时返回null
+     */
+    Entry get(String key, Map<String, String> requestHeaders) {
+        Entry entry;
+        synchronized (this) {
+            entry = memory.get(key);
+        }
+        if (null == entry) {
+            entry = this.readDisk(key);
+            if (null != entry) {
+                stats.diskHits.incrementAndGet();
+                this.putMemory(entry);
+            }
+        }
+        return null == entry || !entry.matches(requestHeaders) ? null : entry;
+    }
+
+    /**
+     * 响应是否可以保存
+     *
+     * @param requestHeaders 请求头
+     * @param statusCode     响应码
+     * @param headers        响应头
+     *
+     * @return boolean
+     */
+    boolean isStorable(Map<String, String> requestHeaders, int statusCode, Map<String, List<String>> headers) {
+        if (!CACHEABLE_STATUSES.contains(statusCode)) {
+            return false;
+        }
+        Map<String, String> cacheControl = parseCacheControl(headers);
+        if (cacheControl.containsKey("no-store") || cacheControl.containsKey("private")) {
+            return false;
+        }
+        // 带凭证的请求的响应可能因人而异，服务端明确允许共享时才保存
+        if (hasCredentials(requestHeaders) && !cacheControl.containsKey("public")
+            && !cacheControl.containsKey("s-maxage")) {
+            return false;
+        }
+        String vary = joinHeader(headers, "Vary");
+        if (null != vary && vary.contains("*")) {
+            return false;
+        }
+        // 没有新鲜度信息也没有验证器的响应无法复用
+        return hasFreshness(cacheControl, headers) || null != firstHeader(headers, "ETag")
+            || null != firstHeader(headers, "Last-Modified");
+    }
+
+    /**
+     * 保存响应
+     *
+     * @param key            缓存key(url)
+     * @param requestHeaders 请求头，用于记录Vary的值
+     * @param statusCode     响应码
+     * @param headers        响应头
+     * @param body           响应body
+     * @param responseTime   收到响应的时间
+     */
+    void put(String key, Map<String, String> requestHeaders, int statusCode, Map<String, List<String>> headers,
+             byte[] body, long responseTime) {
+        Map<String, String> vary = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+        String varyHeader = joinHeader(headers, "Vary");
+        if (null != varyHeader) {
+            for (String name : varyHeader.split(",")) {
+                name = name.trim();
+                if (!name.isEmpty()) {
+                    String value = requestHeaders.get(name);
+                    vary.put(name, null == value ? "" : value);
+                }
+            }
+        }
+        this.putMemory(new Entry(key, statusCode, copyHeaders(headers), vary, body, responseTime));
+        stats.stores.incrementAndGet();
+    }
+
+    /**
+     * 304后以新的响应头更新条目(ETag、Cache-Control、Expires、Date等)
+     *
+     * @param entry        原条目
+     * @param headers      304的响应头
+     * @param responseTime 收到响应的时间
+     *
+     * @return Entry 更新后的条目
+     */
+    Entry refresh(Entry entry, Map<String, List<String>> headers, long responseTime) {
+        Map<String, List<String>> merged = copyHeaders(entry.headers);
+        for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+            String name = header.getKey();
+            // 304不描述body，不能覆盖原有的实体头
+            if (null != name && !"Content-Length".equalsIgnoreCase(name)
+                && !"Content-Encoding".equalsIgnoreCase(name) && !"Transfer-Encoding".equalsIgnoreCase(name)) {
+                merged.put(name, header.getValue());
+            }
+        }
+        Entry refreshed = new Entry(entry.key, entry.statusCode, merged, entry.vary, entry.body, responseTime);
+        this.putMemory(refreshed);
+        return refreshed;
+    }
+
+    /**
+     * 可以缓存的body最大字节数
+     */
+    long entryLimit() {
+        return Math.min(maxEntryBytes, maxBytes);
+    }
+
+    // --------------------------------- private ----------------------------------
+
+    private void putMemory(Entry entry) {
+        List<Entry> evicted = null;
+        synchronized (this) {
+            this.removeMemory(entry.key);
+            memory.put(entry.key, entry);
+            memoryBytes += entry.size;
+            Iterator<Entry> it = memory.values().iterator();
+            while (memoryBytes > maxBytes && it.hasNext()) {
+                Entry eldest = it.next();
+                it.remove();
+                memoryBytes -= eldest.size;
+                stats.evictions.incrementAndGet();
+                if (null == evicted) {
+                    evicted = new ArrayList<Entry>();
+                }
+                evicted.add(eldest);
+            }
+        }
+        if (null != evicted && null != directory) {
+            for (Entry eldest : evicted) {
+                this.writeDisk(eldest);
+            }
+        }
+    }
+
+    private boolean removeMemory(String key) {
+        Entry removed = memory.remove(key);
+        if (null != removed) {
+            memoryBytes -= removed.size;
+        }
+        return null != removed;
+    }
+
+    private Entry readDisk(String key) {
+        File dir = directory;
+        synchronized (this) {
+            if (null == dir || null == disk.get(key)) {
+                return null;
+            }
+        }
+        File file = new File(dir, fileName(key));
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (in.readInt() != FILE_MAGIC || !key.equals(readString(in))) {
+                return null;
+            }
+            int statusCode = in.readInt();
+            long responseTime = in.readLong();
+            Map<String, List<String>> headers = new TreeMap<String, List<String>>(String.CASE_INSENSITIVE_ORDER);
+            for (int i = in.readInt(); i > 0; i--) {
+                String name = readString(in);
+                List<String> values = new ArrayList<String>();
+                for (int j = in.readInt(); j > 0; j--) {
+                    values.add(readString(in));
+                }
+                headers.put(name, values);
+            }
+            Map<String, String> vary = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+            for (int i = in.readInt(); i > 0; i--) {
+                vary.put(readString(in), readString(in));
+            }
+            byte[] body = new byte[in.readInt()];
+            in.readFully(body);
+            return new Entry(key, statusCode, headers, vary, body, responseTime);
+        } catch (IOException e) {
+            synchronized (this) {
+                this.removeDisk(key);
+            }
+            return null;
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    private void writeDisk(Entry entry) {
+        File dir = directory;
+        if (null == dir || entry.body.length > maxDiskBytes) {
+            return;
+        }
+        String name = fileName(entry.key);
+        File tmp = new File(dir, name + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            out.writeInt(FILE_MAGIC);
+            writeString(out, entry.key);
+            out.writeInt(entry.statusCode);
+            out.writeLong(entry.responseTime);
+            out.writeInt(entry.headers.size());
+            for (Map.Entry<String, List<String>> header : entry.headers.entrySet()) {
+                writeString(out, header.getKey());
+                out.writeInt(header.getValue().size());
+                for (String value : header.getValue()) {
+                    writeString(out, value);
+                }
+            }
+            out.writeInt(entry.vary.size());
+            for (Map.Entry<String, String> vary : entry.vary.entrySet()) {
+                writeString(out, vary.getKey());
+                writeString(out, vary.getValue());
+            }
+            out.writeInt(entry.body.length);
+            out.write(entry.body);
+            out.close();
+            out = null;
+        } catch (IOException e) {
+            closeQuietly(out);
+            tmp.delete();
+            return;
+        }
+
+        File file = new File(dir, name);
+        synchronized (this) {
+            this.removeDisk(entry.key);
+            if (!tmp.renameTo(file)) {
+                tmp.delete();
+                return;
+            }
+            disk.put(entry.key, file.length());
+            diskBytes += file.length();
+            Iterator<String> it = disk.keySet().iterator();
+            while (diskBytes > maxDiskBytes && it.hasNext()) {
+                String eldest = it.next();
+                diskBytes -= disk.get(eldest);
+                it.remove();
+                new File(dir, fileName(eldest)).delete();
+            }
+        }
+        stats.diskWrites.incrementAndGet();
+    }
+
+    private boolean removeDisk(String key) {
+        Long size = disk.remove(key);
+        if (null == size) {
+            return false;
+        }
+        diskBytes -= size;
+        File dir = directory;
+        if (null != dir) {
+            new File(dir, fileName(key)).delete();
+        }
+        return true;
+    }
+
+    /**
+     * 载入目录中已有的条目(按修改时间从旧到新)
+     */
+    private synchronized void loadDisk(File dir) {
+        disk.clear();
+        diskBytes = 0;
+        File[] files = dir.listFiles();
+        if (null == files) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                return Long.compare(a.lastModified(), b.lastModified());
+            }
+        });
+        for (File file : files) {
+            if (!file.getName().endsWith(FILE_SUFFIX)) {
+                continue;
+            }
+            DataInputStream in = null;
+            try {
+                in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+                if (in.readInt() == FILE_MAGIC) {
+                    disk.put(readString(in), file.length());
+                    diskBytes += file.length();
+                }
+            } catch (IOException ignored) {
+            } finally {
+                closeQuietly(in);
+            }
+        }
+    }
+
+    private static String fileName(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(key.getBytes(StandardCharsets.UTF_8));
+            StringBuilder sb = new StringBuilder(digest.length * 2 + FILE_SUFFIX.length());
+            for (byte b : digest) {
+                sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return sb.append(FILE_SUFFIX).toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static Map<String, List<String>> copyHeaders(Map<String, List<String>> headers) {
+        Map<String, List<String>> copy = new TreeMap<String, List<String>>(String.CASE_INSENSITIVE_ORDER);
+        for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+            if (null != header.getKey()) {
+                copy.put(header.getKey(), header.getValue());
+            }
+        }
+        return copy;
+    }
+
+    static String firstHeader(Map<String, List<String>> headers, String name) {
+        List<String> values = headers.get(name);
+        return null == values || values.isEmpty() ? null : values.get(0);
+    }
+
+    private static String joinHeader(Map<String, List<String>> headers, String name) {
+        List<String> values = headers.get(name);
+        if (null == values || values.isEmpty()) {
+            return null;
+        }
+        StringBuilder sb = new StringBuilder();
+        for (String value : values) {
+            if (sb.length() > 0) {
+                sb.append(',');
+            }
+            sb.append(value);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 解析Cache-Control，指令名小写，没有值的指令值为""
+     *
+     * @param value Cache-Control的值，可以为null
+     *
+     * @return Map
+     */
+    static Map<String, String> parseCacheControl(String value) {
+        if (null == value) {
+            return Collections.emptyMap();
+        }
+        Map<String, String> directives = new TreeMap<String, String>();
+        for (String directive : value.split(",")) {
+            int eq = directive.indexOf('=');
+            String name = (eq < 0 ? directive : directive.substring(0, eq)).trim().toLowerCase();
+            if (name.isEmpty()) {
+                continue;
+            }
+            String arg = eq < 0 ? "" : directive.substring(eq + 1).trim();
+            if (arg.length() >= 2 && arg.startsWith("\"") && arg.endsWith("\"")) {
+                arg = arg.substring(1, arg.length() - 1);
+            }
+            directives.put(name, arg);
+        }
+        return directives;
+    }
+
+    private static Map<String, String> parseCacheControl(Map<String, List<String>> headers) {
+        return parseCacheControl(joinHeader(headers, "Cache-Control"));
+    }
+
+    private static boolean hasFreshness(Map<String, String> cacheControl, Map<String, List<String>> headers) {
+        return cacheControl.containsKey("s-maxage") || cacheControl.containsKey("max-age")
+            || null != firstHeader(headers, "Expires");
+    }
+
+    private static boolean hasCredentials(Map<String, String> requestHeaders) {
+        for (String name : requestHeaders.keySet()) {
+            if ("Authorization".equalsIgnoreCase(name) || "Cookie".equalsIgnoreCase(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 解析http日期，失败时返回-1
+     */
+    private static long parseDate(String value) {
+        if (null == value) {
+            return -1;
+        }
+        try {
+            return ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * 解析秒数，失败时返回-1
+     */
+    private static long parseSeconds(String value) {
+        if (null == value) {
+            return -1;
+        }
+        try {
+            return Math.max(0, Long.parseLong(value.trim()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (null == closeable) {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    // --------------------------------- getters & setters ----------------------------------
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * 内存中缓存的最大总字节数(估算值)，默认16M
+     *
+     * @param maxBytes long
+     *
+     * @return HttpCache
+     */
+    public HttpCache setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+        return this;
+    }
+
+    public long getMaxEntryBytes() {
+        return maxEntryBytes;
+    }
+
+    /**
+     * 单个响应body超过该字节数时不缓存，默认1M
+     *
+     * @param maxEntryBytes long
+     *
+     * @return HttpCache
+     */
+    public HttpCache setMaxEntryBytes(long maxEntryBytes) {
+        this.maxEntryBytes = maxEntryBytes;
+        return this;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * 磁盘缓存目录，为null时只缓存在内存中(默认)<br/>
+     * - 目录中已有的条目会被载入，重启后仍可复用
+     *
+     * @param directory File
+     *
+     * @return HttpCache
+     */
+    public HttpCache setDirectory(File directory) {
+        if (null != directory && !directory.isDirectory() && !directory.mkdirs()) {
+            throw new IllegalArgumentException("Cannot create cache directory: " + directory);
+        }
+        this.directory = directory;
+        if (null == directory) {
+            synchronized (this) {
+                disk.clear();
+                diskBytes = 0;
+            }
+        } else {
+            this.loadDisk(directory);
+        }
+        return this;
+    }
+
+    public long getMaxDiskBytes() {
+        return maxDiskBytes;
+    }
+
+    /**
+     * 磁盘缓存的最大总字节数，默认64M
+     *
+     * @param maxDiskBytes long
+     *
+     * @return HttpCache
+     */
+    public HttpCache setMaxDiskBytes(long maxDiskBytes) {
+        this.maxDiskBytes = maxDiskBytes;
+        return this;
+    }
+
+    // ------------------------------------ inner classes -------------------------
+
+    /**
+     * 缓存的响应，不可变
+     */
+    static final class Entry {
+        final String key;
+        final int statusCode;
+        final Map<String, List<String>> headers;
+        final Map<String, String> vary;
+        final byte[] body;
+        final long responseTime;
+        final long size;
+        /**
+         * 收到响应时已有的age(ms)
+         */
+        private final long initialAge;
+        /**
+         * 新鲜期(ms)
+         */
+        private final long freshness;
+        private final boolean noCache;
+
+        private Entry(String key, int statusCode, Map<String, List<String>> headers, Map<String, String> vary,
+                      byte[] body, long responseTime) {
+            this.key = key;
+            this.statusCode = statusCode;
+            this.headers = headers;
+            this.vary = vary;
+            this.body = body;
+            this.responseTime = responseTime;
+
+            Map<String, String> cacheControl = parseCacheControl(headers);
+            this.noCache = cacheControl.containsKey("no-cache");
+            long age = parseSeconds(firstHeader(headers, "Age"));
+            this.initialAge = age < 0 ? 0 : age * 1000;
+            // 共享缓存中s-maxage优先于max-age
+            long maxAge = parseSeconds(cacheControl.containsKey("s-maxage") ? cacheControl.get("s-maxage")
+                : cacheControl.get("max-age"));
+            if (maxAge >= 0) {
+                this.freshness = maxAge * 1000;
+            } else {
+                long expires = parseDate(firstHeader(headers, "Expires"));
+                long date = parseDate(firstHeader(headers, "Date"));
+                this.freshness = expires < 0 ? 0 : Math.max(0, expires - (date < 0 ? responseTime : date));
+            }
+
+            long headerBytes = 0;
+            for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+                headerBytes += header.getKey().length();
+                for (String value : header.getValue()) {
+                    headerBytes += value.length();
+                }
+            }
+            this.size = ENTRY_OVERHEAD + key.length() + headerBytes + body.length;
+        }
+
+        /**
+         * 当前的age(ms)
+         */
+        long age(long now) {
+            return initialAge + Math.max(0, now - responseTime);
+        }
+
+        boolean isFresh(long now) {
+            return !noCache && this.age(now) < freshness;
+        }
+
+        String getETag() {
+            return firstHeader(headers, "ETag");
+        }
+
+        String getLastModified() {
+            return firstHeader(headers, "Last-Modified");
+        }
+
+        private boolean matches(Map<String, String> requestHeaders) {
+            for (Map.Entry<String, String> v : vary.entrySet()) {
+                String value = requestHeaders.get(v.getKey());
+                if (!v.getValue().equals(null == value ? "" : value)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * 以缓存的内容构造响应，带有Age头
+         */
+        RestApiResponse toResponse(String charset, long now) {
+            Map<String, List<String>> copy = new TreeMap<String, List<String>>(String.CASE_INSENSITIVE_ORDER);
+            copy.putAll(headers);
+            copy.put("Age", Collections.singletonList(String.valueOf(this.age(now) / 1000)));
+            return new RestApiResponse(statusCode, copy, new ByteArrayInputStream(body), charset);
+        }
+    }
+
+    /**
+     * 缓存统计，线程安全
+     */
+    public static final class Stats {
+        private final AtomicLong requests = new AtomicLong();
+        private final AtomicLong hits = new AtomicLong();
+        private final AtomicLong misses = new AtomicLong();
+        private final AtomicLong revalidations = new AtomicLong();
+        private final AtomicLong notModified = new AtomicLong();
+        private final AtomicLong stores = new AtomicLong();
+        private final AtomicLong evictions = new AtomicLong();
+        private final AtomicLong diskHits = new AtomicLong();
+        private final AtomicLong diskWrites = new AtomicLong();
+        private final AtomicLong invalidations = new AtomicLong();
+
+        void onRequest() {
+            requests.incrementAndGet();
+        }
+
+        void onHit() {
+            hits.incrementAndGet();
+        }
+
+        void onMiss() {
+            misses.incrementAndGet();
+        }
+
+        void onRevalidate() {
+            revalidations.incrementAndGet();
+        }
+
+        void onNotModified() {
+            notModified.incrementAndGet();
+        }
+
+        /**
+         * 经过缓存的请求数(GET且未指定no-store)
+         *
+         * @return long
+         */
+        public long getRequests() {
+            return requests.get();
+        }
+
+        /**
+         * 直接由缓存返回(未访问网络)的请求数
+         *
+         * @return long
+         */
+        public long getHits() {
+            return hits.get();
+        }
+
+        /**
+         * 没有可用条目的请求数
+         *
+         * @return long
+         */
+        public long getMisses() {
+            return misses.get();
+        }
+
+        /**
+         * 发出条件请求重新验证的次数
+         *
+         * @return long
+         */
+        public long getRevalidations() {
+            return revalidations.get();
+        }
+
+        /**
+         * 重新验证得到304(复用缓存的body)的次数
+         *
+         * @return long
+         */
+        public long getNotModified() {
+            return notModified.get();
+        }
+
+        public long getStores() {
+            return stores.get();
+        }
+
+        /**
+         * 因超过maxBytes被移出内存的条目数
+         *
+         * @return long
+         */
+        public long getEvictions() {
+            return evictions.get();
+        }
+
+        /**
+         * 从磁盘读回的条目数
+         *
+         * @return long
+         */
+        public long getDiskHits() {
+            return diskHits.get();
+        }
+
+        public long getDiskWrites() {
+            return diskWrites.get();
+        }
+
+        public long getInvalidations() {
+            return invalidations.get();
+        }
+
+        @Override
+        public String toString() {
+            return "[requests: " + requests.get()
+                + "; hits: " + hits.get()
+                + "; misses: " + misses.get()
+                + "; revalidations: " + revalidations.get()
+                + "; notModified: " + notModified.get()
+                + "; stores: " + stores.get()
+                + "; evictions: " + evictions.get()
+                + "; diskHits: " + diskHits.get()
+                + "; diskWrites: " + diskWrites.get()
+                + "; invalidations: " + invalidations.get() + "]";
+        }
+    }
+
+    private static final class DefaultHolder {
+        private static final HttpCache INSTANCE = new HttpCache();
+    }
+}
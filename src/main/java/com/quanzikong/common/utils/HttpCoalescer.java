@@ -0,0 +1,202 @@
+package com.quanzikong.common.utils;
+
+import java.io.ByteArrayInputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import com.quanzikong.common.enums.HttpMethod;
+
+/**
+ * 相同GET请求的合并(single-flight)配置与运行状态，由CoalescingHttpTransport使用<br/>
+ * - 同一时刻key相同的GET只发出一次请求，其余调用等待并共享它的响应(状态码、响应头、body)<br/>
+ * - 默认key为url(含query string)加全部请求头，可通过keyFunction自定义，返回null时不合并<br/>
+ * - 共享的body会被完整读入内存，不要用于大文件下载<br/>
+ * - 发出请求的调用失败时，等待中的调用得到同一个异常；等待方超过自己的deadline或被中断时单独失败<br/>
+ * - 多个client/RestApiUtil共享同一个HttpCoalescer才能互相合并
+ *
+ * Usage:
+ * HttpCoalescer coalescer = new HttpCoalescer();
+ * RestApiUtil.newInstance(url).setCoalescer(coalescer).asGet().addParam("id", 1).getResponseString();
+ *
+ * @author agent
+ */
+public class HttpCoalescer {
+
+    /**
+     * 默认的key：url(含query string)加全部请求头
+     */
+    public static final Function<HttpTransport.Request, String> DEFAULT_KEY
+        = new Function<HttpTransport.Request, String>() {
+        @Override
+        public String apply(HttpTransport.Request request) {
+            StringBuilder sb = new StringBuilder(128).append(request.getUrl());
+            // RestApiClient传入的请求头不区分大小写且有序
+            for (Map.Entry<String, String> header : request.getHeaders().entrySet()) {
+                sb.append('\n').append(header.getKey().toLowerCase()).append(':').append(header.getValue());
+            }
+            return sb.toString();
+        }
+    };
+
+    private volatile Function<HttpTransport.Request, String> keyFunction = DEFAULT_KEY;
+
+    private final ConcurrentMap<String, CompletableFuture<Shared>> inFlight
+        = new ConcurrentHashMap<String, CompletableFuture<Shared>>();
+    private final Stats stats = new Stats();
+
+    /**
+     * 统计
+     *
+     * @return Stats
+     */
+    public Stats getStats() {
+        return stats;
+    }
+
+    /**
+     * 正在进行中的请求数(按key)
+     *
+     * @return int
+     */
+    public int getInFlight() {
+        return inFlight.size();
+    }
+
+    // --------------------------------- package ----------------------------------
+
+    /**
+     * 请求的合并key，不能合并时返回null
+     */
+    String key(HttpTransport.Request request) {
+        if (HttpMethod.GET != request.getMethod() || null != request.getBody()) {
+            return null;
+        }
+        return keyFunction.apply(request);
+    }
+
+    /**
+     * 登记一次请求，已有相同key的请求在进行中时返回它，否则返回null(调用方负责发出请求)
+     */
+    CompletableFuture<Shared> join(String key, CompletableFuture<Shared> flight) {
+        return inFlight.putIfAbsent(key, flight);
+    }
+
+    void leave(String key, CompletableFuture<Shared> flight) {
+        inFlight.remove(key, flight);
+    }
+
+    // --------------------------------- getters & setters ----------------------------------
+
+    public Function<HttpTransport.Request, String> getKeyFunction() {
+        return keyFunction;
+    }
+
+    /**
+     * 合并key的计算方法，为null时使用DEFAULT_KEY<br/>
+     * - 例如只按url合并：request -&gt; request.getUrl().toString()
+     *
+     * @param keyFunction Function
+     *
+     * @return HttpCoalescer
+     */
+    public HttpCoalescer setKeyFunction(Function<HttpTransport.Request, String> keyFunction) {
+        this.keyFunction = null == keyFunction ? DEFAULT_KEY : keyFunction;
+        return this;
+    }
+
+    // ------------------------------------ inner classes -------------------------
+
+    /**
+     * 共享的响应，每个调用方各自得到一个新的RestApiResponse
+     */
+    static final class Shared {
+        private final int statusCode;
+        private final Map<String, List<String>> headers;
+        private final byte[] body;
+        private final String charset;
+
+        Shared(RestApiResponse response, byte[] body) {
+            this.statusCode = response.getStatusCode();
+            this.headers = response.getHeaders();
+            this.body = body;
+            this.charset = response.getCharset();
+        }
+
+        RestApiResponse toResponse() {
+            return new RestApiResponse(statusCode, headers, new ByteArrayInputStream(body), charset);
+        }
+    }
+
+    /**
+     * 合并统计，线程安全
+     */
+    public static final class Stats {
+        private final AtomicLong calls = new AtomicLong();
+        private final AtomicLong executed = new AtomicLong();
+        private final AtomicLong coalesced = new AtomicLong();
+        private final AtomicLong failures = new AtomicLong();
+
+        void onExecuted() {
+            calls.incrementAndGet();
+            executed.incrementAndGet();
+        }
+
+        void onCoalesced() {
+            calls.incrementAndGet();
+            coalesced.incrementAndGet();
+        }
+
+        void onFailure() {
+            failures.incrementAndGet();
+        }
+
+        /**
+         * 经过合并的GET调用数
+         *
+         * @return long
+         */
+        public long getCalls() {
+            return calls.get();
+        }
+
+        /**
+         * 实际发出的请求数
+         *
+         * @return long
+         */
+        public long getExecuted() {
+            return executed.get();
+        }
+
+        /**
+         * 共享了其他调用的响应(未发出请求)的调用数
+         *
+         * @return long
+         */
+        public long getCoalesced() {
+            return coalesced.get();
+        }
+
+        /**
+         * 失败的共享请求数
+         *
+         * @return long
+         */
+        public long getFailures() {
+            return failures.get();
+        }
+
+        @Override
+        public String toString() {
+            return "[calls: " + calls.get()
+                + "; executed: " + executed.get()
+                + "; coalesced: " + coalesced.get()
+                + "; failures: " + failures.get() + "]";
+        }
+    }
+}
@@ -0,0 +1,655 @@
+package com.quanzikong.common.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+
+/**
+ * 最小化的HTTP/1.1报文编解码，供基于socket的传输层使用
+ *
+ * @author agent
+ */
+final class HttpCodec {
+
+    static final Charset ASCII = Charset.forName("ISO-8859-1");
+
+    private static final String CRLF = "\r\n";
+    private static final String COLON_SPACE = ": ";
+    private static final String HOST = "Host";
+    private static final String HTTP_1_1 = "HTTP/1.1";
+    private static final String HTTP_1_0 = "HTTP/1.0";
+    private static final String CONNECTION = "Connection";
+    private static final String CLOSE = "close";
+    private static final String KEEP_ALIVE = "keep-alive";
+    private static final String CONTENT_LENGTH = "Content-Length";
+    private static final String TRANSFER_ENCODING = "Transfer-Encoding";
+    private static final String CHUNKED = "chunked";
+    private static final String HEAD = "HEAD";
+    static final long BODY_CHUNKED = -1;
+    static final long BODY_UNTIL_CLOSE = -2;
+    static final int MAX_LINE_LENGTH = 65536;
+    private static final int MAX_DRAIN_LENGTH = 65536;
+    private static final String TOKEN_DELIMITERS = "\"(),/:;<=>?@[\\]{}";
+    static final byte[] CRLF_BYTES = CRLF.getBytes(ASCII);
+    static final byte[] LAST_CHUNK = ("0" + CRLF + CRLF).getBytes(ASCII);
+
+    private HttpCodec() {
+    }
+
+    /**
+     * 编码请求行和请求头(补全Host与Content-Length，body长度未知时为Transfer-Encoding: chunked)，body由调用方继续写出
+     *
+     * @param request HttpTransport.Request
+     *
+     * @return byte[]
+     */
+    static byte[] encodeRequestHead(HttpTransport.Request request) {
+        return encodeRequestHead(request, request.getBody());
+    }
+
+    /**
+     * 编码请求行和请求头，按实际要写出的body(如传输层缓存后的body)补全长度<br/>
+     * - 请求头名称须为token，请求头的值与请求目标中不能有CR/LF/NUL，否则抛出IllegalArgumentException
+     *
+     * @param request HttpTransport.Request
+     * @param body    实际写出的body
+     *
+     * @return byte[]
+     */
+    static byte[] encodeRequestHead(HttpTransport.Request request, HttpBody body) {
+        StringBuilder sb = new StringBuilder(256);
+        sb.append(request.getMethod().getCode()).append(' ').append(checkValue("Request target", request.getTarget()))
+            .append(' ').append(HTTP_1_1).append(CRLF);
+        sb.append(HOST).append(COLON_SPACE).append(checkValue(HOST, request.getHostHeader())).append(CRLF);
+        for (Entry<String, String> entry : request.getHeaders().entrySet()) {
+            String name = entry.getKey();
+            if (HOST.equalsIgnoreCase(name) || CONTENT_LENGTH.equalsIgnoreCase(name)
+                || TRANSFER_ENCODING.equalsIgnoreCase(name)) {
+                continue;
+            }
+            sb.append(checkName(name)).append(COLON_SPACE).append(checkValue(name, entry.getValue())).append(CRLF);
+        }
+        if (null != body && body.contentLength() >= 0) {
+            sb.append(CONTENT_LENGTH).append(COLON_SPACE).append(body.contentLength()).append(CRLF);
+        } else if (null != body) {
+            sb.append(TRANSFER_ENCODING).append(COLON_SPACE).append(CHUNKED).append(CRLF);
+        }
+        sb.append(CRLF);
+        return sb.toString().getBytes(ASCII);
+    }
+
+    /**
+     * chunk头：十六进制长度 + CRLF
+     *
+     * @param size chunk长度
+     *
+     * @return byte[]
+     */
+    static byte[] chunkHeader(long size) {
+        return (Long.toHexString(size) + CRLF).getBytes(ASCII);
+    }
+
+    /**
+     * 读取响应状态行和响应头，跳过1xx的中间响应
+     *
+     * @param in InputStream
+     *
+     * @return ResponseHead
+     *
+     * @throws IOException e
+     */
+    static ResponseHead readResponseHead(InputStream in) throws IOException {
+        while (true) {
+            String statusLine = readLine(in);
+            if (null == statusLine) {
+                throw new IOException("Connection closed by peer before response");
+            }
+            if (statusLine.isEmpty()) {
+                continue;
+            }
+
+            ResponseHead head = parseStatusLine(statusLine);
+            String line;
+            String lastName = null;
+            while (null != (line = readLine(in)) && !line.isEmpty()) {
+                lastName = parseHeaderLine(head, line, lastName);
+            }
+
+            if (head.statusCode >= 100 && head.statusCode < 200) {
+                continue;
+            }
+            return head;
+        }
+    }
+
+    /**
+     * 根据响应头创建body输入流，body读完或者流被关闭时回调listener
+     *
+     * @param head     ResponseHead
+     * @param method   请求方法
+     * @param in       连接的输入流
+     * @param listener BodyListener
+     *
+     * @return InputStream
+     *
+     * @throws IOException e
+     */
+    static InputStream bodyStream(ResponseHead head, String method, InputStream in, BodyListener listener)
+        throws IOException {
+        boolean keepAlive = head.isKeepAlive();
+        long length = bodyLength(head, method);
+        if (length == BODY_CHUNKED) {
+            return new ChunkedInputStream(in, keepAlive, listener);
+        }
+        if (length == BODY_UNTIL_CLOSE) {
+            // 没有长度信息时以连接关闭为body结束，连接不可复用
+            return new EofInputStream(in, listener);
+        }
+        return new FixedLengthInputStream(in, length, keepAlive, listener);
+    }
+
+    /**
+     * 按RFC 7230 3.3.3确定响应body的长度
+     *
+     * @param head   ResponseHead
+     * @param method 请求方法
+     *
+     * @return body长度，或者BODY_CHUNKED、BODY_UNTIL_CLOSE
+     *
+     * @throws IOException Content-Length非法
+     */
+    static long bodyLength(ResponseHead head, String method) throws IOException {
+        int code = head.statusCode;
+        if (HEAD.equalsIgnoreCase(method) || code == 204 || code == 304) {
+            return 0;
+        }
+
+        String transferEncoding = head.getHeader(TRANSFER_ENCODING);
+        if (null != transferEncoding && transferEncoding.toLowerCase().contains(CHUNKED)) {
+            return BODY_CHUNKED;
+        }
+
+        String contentLength = head.getHeader(CONTENT_LENGTH);
+        if (null != contentLength) {
+            return parseContentLength(contentLength);
+        }
+        return BODY_UNTIL_CLOSE;
+    }
+
+    /**
+     * 解析Content-Length，只接受非负的十进制数字(不能带符号)
+     *
+     * @param contentLength Content-Length的值
+     *
+     * @return body长度
+     *
+     * @throws IOException 格式错误
+     */
+    static long parseContentLength(String contentLength) throws IOException {
+        String value = contentLength.trim();
+        if (value.isEmpty()) {
+            throw new IOException("Invalid Content-Length: " + contentLength);
+        }
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < '0' || c > '9') {
+                throw new IOException("Invalid Content-Length: " + contentLength);
+            }
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid Content-Length: " + contentLength);
+        }
+    }
+
+    /**
+     * 校验请求头名称为RFC 7230中的token
+     *
+     * @param name 请求头名称
+     *
+     * @return name
+     */
+    static String checkName(String name) {
+        if (null == name || name.isEmpty()) {
+            throw new IllegalArgumentException("Empty header name");
+        }
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c <= 0x20 || c > 0x7e || TOKEN_DELIMITERS.indexOf(c) >= 0) {
+                throw new IllegalArgumentException("Invalid header name: " + name);
+            }
+        }
+        return name;
+    }
+
+    /**
+     * 校验请求头的值(或请求目标)中没有CR/LF/NUL，避免拆分出额外的请求头或请求
+     *
+     * @param name  名称，用于异常信息
+     * @param value 值
+     *
+     * @return value
+     */
+    static String checkValue(String name, String value) {
+        if (null == value) {
+            throw new IllegalArgumentException("Null value of " + name);
+        }
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\r' || c == '\n' || c == '\0') {
+                throw new IllegalArgumentException("Invalid character in " + name + ": " + value);
+            }
+        }
+        return value;
+    }
+
+    /**
+     * 解析chunk-size行(忽略chunk-ext)
+     *
+     * @param line chunk-size行
+     *
+     * @return chunk长度
+     *
+     * @throws IOException 格式错误
+     */
+    static long parseChunkSize(String line) throws IOException {
+        int ext = line.indexOf(';');
+        String size = (ext < 0 ? line : line.substring(0, ext)).trim();
+        try {
+            return Long.parseLong(size, 16);
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid chunk size: " + line);
+        }
+    }
+
+    /**
+     * 读取一行(以LF结束, 去掉CR)，流结束时返回null
+     *
+     * @param in InputStream
+     *
+     * @return String
+     *
+     * @throws IOException e
+     */
+    static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream buf = new ByteArrayOutputStream(64);
+        int b;
+        while ((b = in.read()) != -1) {
+            if (b == '\n') {
+                break;
+            }
+            if (buf.size() >= MAX_LINE_LENGTH) {
+                throw new IOException("Line too long");
+            }
+            buf.write(b);
+        }
+        if (b == -1 && buf.size() == 0) {
+            return null;
+        }
+
+        byte[] bytes = buf.toByteArray();
+        int len = bytes.length;
+        if (len > 0 && bytes[len - 1] == '\r') {
+            len--;
+        }
+        return new String(bytes, 0, len, ASCII);
+    }
+
+    /**
+     * 解析一行响应头并加入head
+     *
+     * @param head     ResponseHead
+     * @param line     不含CRLF的非空行
+     * @param lastName 上一个header的名字(处理obs-fold)，没有时为null
+     *
+     * @return 本行对应的header名字
+     *
+     * @throws IOException 格式错误
+     */
+    static String parseHeaderLine(ResponseHead head, String line, String lastName) throws IOException {
+        char first = line.charAt(0);
+        if ((first == ' ' || first == '\t') && null != lastName) {
+            // obs-fold, 拼接到上一个header
+            List<String> values = head.headers.get(lastName);
+            int last = values.size() - 1;
+            values.set(last, values.get(last) + " " + line.trim());
+            return lastName;
+        }
+        int idx = line.indexOf(':');
+        if (idx <= 0) {
+            throw new IOException("Malformed header line: " + line);
+        }
+        String name = line.substring(0, idx).trim();
+        head.addHeader(name, line.substring(idx + 1).trim());
+        return name;
+    }
+
+    static ResponseHead parseStatusLine(String statusLine) throws IOException {
+        int sp1 = statusLine.indexOf(' ');
+        if (sp1 <= 0 || !statusLine.startsWith("HTTP/")) {
+            throw new IOException("Malformed status line: " + statusLine);
+        }
+        int sp2 = statusLine.indexOf(' ', sp1 + 1);
+        String code = sp2 < 0 ? statusLine.substring(sp1 + 1) : statusLine.substring(sp1 + 1, sp2);
+        try {
+            return new ResponseHead(statusLine.substring(0, sp1), Integer.parseInt(code.trim()),
+                sp2 < 0 ? "" : statusLine.substring(sp2 + 1));
+        } catch (NumberFormatException e) {
+            throw new IOException("Malformed status line: " + statusLine);
+        }
+    }
+
+    // ------------------------------------ inner classes -------------------------
+
+    /**
+     * body读取结束回调
+     */
+    interface BodyListener {
+        /**
+         * body结束(读完或者被关闭)，只回调一次
+         *
+         * @param reusable 连接是否可以复用
+         */
+        void onComplete(boolean reusable);
+    }
+
+    /**
+     * 响应状态行与响应头
+     */
+    static class ResponseHead {
+        private final String protocol;
+        private final int statusCode;
+        private final String reasonPhrase;
+        private final Map<String, List<String>> headers = new TreeMap<String, List<String>>(
+            String.CASE_INSENSITIVE_ORDER);
+
+        ResponseHead(String protocol, int statusCode, String reasonPhrase) {
+            this.protocol = protocol;
+            this.statusCode = statusCode;
+            this.reasonPhrase = reasonPhrase;
+        }
+
+        void addHeader(String name, String value) {
+            List<String> values = headers.get(name);
+            if (null == values) {
+                values = new ArrayList<String>(1);
+                headers.put(name, values);
+            }
+            values.add(value);
+        }
+
+        String getHeader(String name) {
+            List<String> values = headers.get(name);
+            return null == values || values.isEmpty() ? null : values.get(0);
+        }
+
+        boolean isKeepAlive() {
+            String connection = this.getHeader(CONNECTION);
+            if (HTTP_1_0.equals(protocol)) {
+                return null != connection && connection.toLowerCase().contains(KEEP_ALIVE);
+            }
+            return null == connection || !connection.toLowerCase().contains(CLOSE);
+        }
+
+        boolean isHttp11() {
+            return HTTP_1_1.equals(protocol);
+        }
+
+        int getStatusCode() {
+            return statusCode;
+        }
+
+        String getReasonPhrase() {
+            return reasonPhrase;
+        }
+
+        Map<String, List<String>> getHeaders() {
+            return Collections.unmodifiableMap(headers);
+        }
+    }
+
+    /**
+     * body输入流基类，负责结束回调
+     */
+    abstract static class BodyInputStream extends InputStream {
+        protected final InputStream in;
+        private final BodyListener listener;
+        private boolean completed = false;
+
+        BodyInputStream(InputStream in, BodyListener listener) {
+            this.in = in;
+            this.listener = listener;
+        }
+
+        protected void complete(boolean reusable) {
+            if (completed) {
+                return;
+            }
+            completed = true;
+            if (null != listener) {
+                listener.onComplete(reusable);
+            }
+        }
+
+        protected boolean isCompleted() {
+            return completed;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            int n = this.read(one, 0, 1);
+            return n == -1 ? -1 : one[0] & 0xff;
+        }
+
+        /**
+         * 未读完就关闭时，少量剩余数据读掉以便复用连接，否则放弃连接
+         */
+        @Override
+        public void close() throws IOException {
+            if (completed) {
+                return;
+            }
+            try {
+                byte[] skip = new byte[4096];
+                long drained = 0;
+                int n;
+                while (!completed && drained < MAX_DRAIN_LENGTH && (n = this.read(skip, 0, skip.length)) != -1) {
+                    drained += n;
+                }
+            } catch (IOException e) {
+                this.complete(false);
+            }
+            this.complete(false);
+        }
+    }
+
+    /**
+     * Content-Length定长body
+     */
+    static class FixedLengthInputStream extends BodyInputStream {
+        private final boolean keepAlive;
+        private long remaining;
+
+        FixedLengthInputStream(InputStream in, long length, boolean keepAlive, BodyListener listener) {
+            super(in, listener);
+            this.remaining = length;
+            this.keepAlive = keepAlive;
+            if (remaining == 0) {
+                this.complete(keepAlive);
+            }
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining == 0) {
+                return -1;
+            }
+            int n = in.read(b, off, (int)Math.min(len, remaining));
+            if (n == -1) {
+                this.complete(false);
+                throw new IOException("Premature end of Content-Length delimited body, " + remaining + " bytes left");
+            }
+            remaining -= n;
+            if (remaining == 0) {
+                this.complete(keepAlive);
+            }
+            return n;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int)Math.min(in.available(), remaining);
+        }
+    }
+
+    /**
+     * Transfer-Encoding: chunked body
+     */
+    static class ChunkedInputStream extends BodyInputStream {
+        private final boolean keepAlive;
+        private long chunkRemaining = 0;
+        private boolean eof = false;
+
+        ChunkedInputStream(InputStream in, boolean keepAlive, BodyListener listener) {
+            super(in, listener);
+            this.keepAlive = keepAlive;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (eof) {
+                return -1;
+            }
+            if (chunkRemaining == 0) {
+                this.nextChunk();
+                if (eof) {
+                    return -1;
+                }
+            }
+            int n = in.read(b, off, (int)Math.min(len, chunkRemaining));
+            if (n == -1) {
+                this.complete(false);
+                throw new IOException("Premature end of chunked body");
+            }
+            chunkRemaining -= n;
+            if (chunkRemaining == 0) {
+                // chunk data后的CRLF
+                readLine(in);
+            }
+            return n;
+        }
+
+        private void nextChunk() throws IOException {
+            String line = readLine(in);
+            if (null == line) {
+                this.complete(false);
+                throw new IOException("Premature end of chunked body");
+            }
+            try {
+                chunkRemaining = parseChunkSize(line);
+            } catch (IOException e) {
+                this.complete(false);
+                throw e;
+            }
+            if (chunkRemaining == 0) {
+                // trailers
+                String trailer;
+                while (null != (trailer = readLine(in)) && !trailer.isEmpty()) {
+                    // ignore
+                }
+                eof = true;
+                this.complete(keepAlive);
+            }
+        }
+
+        @Override
+        public int available() throws IOException {
+            return eof ? 0 : (int)Math.min(in.available(), chunkRemaining);
+        }
+    }
+
+    /**
+     * 以连接关闭作为结束的body
+     */
+    static class EofInputStream extends BodyInputStream {
+        EofInputStream(InputStream in, BodyListener listener) {
+            super(in, listener);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (this.isCompleted()) {
+                return -1;
+            }
+            int n = in.read(b, off, len);
+            if (n == -1) {
+                this.complete(false);
+            }
+            return n;
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.complete(false);
+        }
+    }
+
+    /**
+     * Transfer-Encoding: chunked请求body，每次write输出一个chunk，finish写出结束chunk<br/>
+     * - close只结束chunk，不关闭底层输出流(连接要归还连接池)
+     */
+    static class ChunkedOutputStream extends OutputStream {
+        private final OutputStream out;
+        private boolean finished = false;
+
+        ChunkedOutputStream(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            this.write(new byte[] {(byte)b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (finished) {
+                throw new IOException("Chunked stream already finished");
+            }
+            if (len == 0) {
+                // 长度为0的chunk表示结束，不能写出
+                return;
+            }
+            out.write(chunkHeader(len));
+            out.write(b, off, len);
+            out.write(CRLF_BYTES);
+        }
+
+        void finish() throws IOException {
+            if (!finished) {
+                finished = true;
+                out.write(LAST_CHUNK);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.finish();
+        }
+    }
+}
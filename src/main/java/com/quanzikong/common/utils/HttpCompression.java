@@ -0,0 +1,373 @@
+package com.quanzikong.common.utils;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import com.quanzikong.common.enums.HttpProperty;
+
+/**
+ * http body的gzip/deflate压缩与解压<br/>
+ * - 响应：按Content-Encoding透明解压，首次读取时才创建解压流，空body(如204, HEAD)不会报错<br/>
+ * - 请求：以gzip在写出时压缩，长度未知，以chunked发送<br/>
+ * - 统计线上字节数与解压/压缩前的字节数，见<code>getStats()</code>与<code>RestApiClient.getCompressionStats()</code>
+ *
+ * @author agent
+ */
+public final class HttpCompression {
+
+    public static final String GZIP = "gzip";
+    public static final String X_GZIP = "x-gzip";
+    public static final String DEFLATE = "deflate";
+
+    /**
+     * 自动协商时发送的Accept-Encoding
+     */
+    static final String ACCEPT_ENCODING = GZIP + ", " + DEFLATE;
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private static final Stats TOTAL = new Stats(null);
+
+    private HttpCompression() {
+    }
+
+    /**
+     * 所有RestApiClient的累计统计
+     *
+     * @return Stats
+     */
+    public static Stats getStats() {
+        return TOTAL;
+    }
+
+    /**
+     * 按Content-Encoding解压响应body，未压缩时原样返回<br/>
+     * - 解压后的响应不再带有Content-Encoding与Content-Length
+     *
+     * @param response RestApiResponse
+     * @param stats    Stats
+     *
+     * @return RestApiResponse
+     */
+    static RestApiResponse decode(RestApiResponse response, Stats stats) {
+        String encoding = response.getHeader(HttpProperty.ContentEncoding.getCode());
+        if (null == encoding) {
+            return response;
+        }
+        encoding = encoding.trim().toLowerCase();
+        boolean gzip = GZIP.equals(encoding) || X_GZIP.equals(encoding);
+        if (!gzip && !DEFLATE.equals(encoding)) {
+            return response;
+        }
+
+        Map<String, List<String>> headers = new TreeMap<String, List<String>>(String.CASE_INSENSITIVE_ORDER);
+        headers.putAll(response.getHeaders());
+        headers.remove(HttpProperty.ContentEncoding.getCode());
+        headers.remove(HttpProperty.ContentLength.getCode());
+        return new RestApiResponse(response.getStatusCode(), headers,
+            new DecodingInputStream(response.getBody(), gzip, stats), response.getCharset());
+    }
+
+    /**
+     * 以gzip压缩请求body，写出时才压缩
+     *
+     * @param body  HttpBody，须可重复写出
+     * @param stats Stats
+     *
+     * @return HttpBody
+     */
+    static HttpBody encode(final HttpBody body, final Stats stats) {
+        return HttpBody.of(new HttpBody.Producer() {
+            @Override
+            public void writeTo(OutputStream out) throws IOException {
+                CountingOutputStream wire = new CountingOutputStream(out);
+                GZIPOutputStream gzip = new GZIPOutputStream(wire, BUFFER_SIZE);
+                CountingOutputStream raw = new CountingOutputStream(gzip);
+                body.writeTo(raw);
+                // 不能close，否则会关闭连接的输出流
+                gzip.finish();
+                stats.recordRequest(wire.count, raw.count);
+            }
+        });
+    }
+
+    // ------------------------------------ inner classes -------------------------
+
+    /**
+     * 压缩统计，线程安全
+     */
+    public static final class Stats {
+        private final Stats parent;
+        private final AtomicLong responses = new AtomicLong();
+        private final AtomicLong responseWireBytes = new AtomicLong();
+        private final AtomicLong responseDecodedBytes = new AtomicLong();
+        private final AtomicLong requests = new AtomicLong();
+        private final AtomicLong requestWireBytes = new AtomicLong();
+        private final AtomicLong requestRawBytes = new AtomicLong();
+
+        Stats() {
+            this(TOTAL);
+        }
+
+        private Stats(Stats parent) {
+            this.parent = parent;
+        }
+
+        private void recordResponse(long wire, long decoded) {
+            responses.incrementAndGet();
+            responseWireBytes.addAndGet(wire);
+            responseDecodedBytes.addAndGet(decoded);
+            if (null != parent) {
+                parent.recordResponse(wire, decoded);
+            }
+        }
+
+        private void recordRequest(long wire, long raw) {
+            requests.incrementAndGet();
+            requestWireBytes.addAndGet(wire);
+            requestRawBytes.addAndGet(raw);
+            if (null != parent) {
+                parent.recordRequest(wire, raw);
+            }
+        }
+
+        /**
+         * 解压过的响应个数
+         *
+         * @return long
+         */
+        public long getDecodedResponses() {
+            return responses.get();
+        }
+
+        /**
+         * 压缩响应在线上的字节数
+         *
+         * @return long
+         */
+        public long getResponseWireBytes() {
+            return responseWireBytes.get();
+        }
+
+        /**
+         * 压缩响应解压后的字节数
+         *
+         * @return long
+         */
+        public long getResponseDecodedBytes() {
+            return responseDecodedBytes.get();
+        }
+
+        /**
+         * 压缩过的请求个数
+         *
+         * @return long
+         */
+        public long getEncodedRequests() {
+            return requests.get();
+        }
+
+        /**
+         * 压缩请求在线上的字节数
+         *
+         * @return long
+         */
+        public long getRequestWireBytes() {
+            return requestWireBytes.get();
+        }
+
+        /**
+         * 压缩请求压缩前的字节数
+         *
+         * @return long
+         */
+        public long getRequestRawBytes() {
+            return requestRawBytes.get();
+        }
+
+        @Override
+        public String toString() {
+            return "[responses: " + responses.get()
+                + "; responseWire: " + responseWireBytes.get()
+                + "; responseDecoded: " + responseDecodedBytes.get()
+                + "; requests: " + requests.get()
+                + "; requestWire: " + requestWireBytes.get()
+                + "; requestRaw: " + requestRawBytes.get() + "]";
+        }
+    }
+
+    /**
+     * 解压响应body，读到结尾或者close时记录统计
+     */
+    private static final class DecodingInputStream extends InputStream {
+        private final CountingInputStream wire;
+        private final boolean gzip;
+        private final Stats stats;
+        private InputStream decoded;
+        private Inflater inflater;
+        private long count = 0;
+        private boolean eof = false;
+        private boolean recorded = false;
+
+        private DecodingInputStream(InputStream in, boolean gzip, Stats stats) {
+            this.wire = new CountingInputStream(in);
+            this.gzip = gzip;
+            this.stats = stats;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            int n = this.read(b, 0, 1);
+            return n <= 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (eof) {
+                return -1;
+            }
+            if (null == decoded && !this.open()) {
+                return this.finish();
+            }
+            int n = decoded.read(b, off, len);
+            if (n < 0) {
+                return this.finish();
+            }
+            count += n;
+            return n;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return null == decoded || eof ? 0 : decoded.available();
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.record();
+            try {
+                if (null != decoded) {
+                    decoded.close();
+                }
+            } finally {
+                if (null != inflater) {
+                    inflater.end();
+                }
+                wire.close();
+            }
+        }
+
+        /**
+         * 创建解压流，body为空时返回false
+         */
+        private boolean open() throws IOException {
+            PushbackInputStream in = new PushbackInputStream(wire, 2);
+            int b0 = in.read();
+            if (b0 < 0) {
+                return false;
+            }
+            if (gzip) {
+                in.unread(b0);
+                decoded = new GZIPInputStream(in, BUFFER_SIZE);
+                return true;
+            }
+            // deflate可能是zlib格式(RFC 1950)，也可能是部分服务端发送的裸deflate(RFC 1951)
+            int b1 = in.read();
+            boolean zlib = b1 >= 0 && (b0 & 0x0f) == 8 && ((b0 << 8) | b1) % 31 == 0;
+            if (b1 >= 0) {
+                in.unread(b1);
+            }
+            in.unread(b0);
+            inflater = new Inflater(!zlib);
+            decoded = new InflaterInputStream(in, inflater, BUFFER_SIZE);
+            return true;
+        }
+
+        private int finish() {
+            eof = true;
+            this.record();
+            return -1;
+        }
+
+        private void record() {
+            if (!recorded) {
+                recorded = true;
+                stats.recordResponse(wire.count, count);
+            }
+        }
+    }
+
+    private static final class CountingInputStream extends InputStream {
+        private final InputStream in;
+        private long count = 0;
+
+        private CountingInputStream(InputStream in) {
+            this.in = in;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = in.read(b, off, len);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return in.available();
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    private static final class CountingOutputStream extends FilterOutputStream {
+        private long count = 0;
+
+        private CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+
+        @Override
+        public void close() {
+            // 由调用方决定何时结束底层流
+        }
+    }
+}
@@ -0,0 +1,831 @@
+package com.quanzikong.common.utils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+import com.quanzikong.common.enums.HttpProtocol;
+
+/**
+ * 按host(route)管理的http keep-alive连接池<br/>
+ * - maxPerRoute: 每个route最多同时存在的连接数(含空闲)<br/>
+ * - maxTotal: 连接池最多同时存在的连接数(含空闲)<br/>
+ * - idleTimeout: 空闲超过该时长的连接会被回收<br/>
+ * - validateAfterInactivity: 空闲超过该时长的连接在借出前会做一次stale检查<br/>
+ * - dnsResolver: 新建连接时的域名解析，默认连接池使用DnsCache.getDefault()，其它默认为DnsResolver.SYSTEM；
+ * 解析出多个地址时依次尝试连接
+ *
+ * @author agent
+ */
+public class HttpConnectionPool implements Closeable {
+
+    private static final int DEFAULT_MAX_PER_ROUTE = 20;
+    private static final int DEFAULT_MAX_TOTAL = 200;
+    private static final long DEFAULT_IDLE_TIMEOUT = 60000L;
+    private static final long DEFAULT_VALIDATE_AFTER_INACTIVITY = 2000L;
+    private static final int SOCKET_BUFFER_SIZE = 8192;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition released = lock.newCondition();
+    private final Map<Route, RoutePool> routePools = new HashMap<Route, RoutePool>(16);
+
+    private int maxPerRoute = DEFAULT_MAX_PER_ROUTE;
+    private int maxTotal = DEFAULT_MAX_TOTAL;
+    private long idleTimeout = DEFAULT_IDLE_TIMEOUT;
+    private long validateAfterInactivity = DEFAULT_VALIDATE_AFTER_INACTIVITY;
+    private volatile DnsResolver dnsResolver = DnsResolver.SYSTEM;
+
+    private volatile long lastSweepAt = System.currentTimeMillis();
+    private int totalCount = 0;
+    private int pendingCount = 0;
+    private boolean closed = false;
+
+    private final AtomicLong createdCount = new AtomicLong();
+    private final AtomicLong reusedCount = new AtomicLong();
+    private final AtomicLong evictedCount = new AtomicLong();
+    private final AtomicLong staleCount = new AtomicLong();
+    private final AtomicLong leaseTimeoutCount = new AtomicLong();
+
+    /**
+     * 默认的共享连接池
+     *
+     * @return HttpConnectionPool
+     */
+    public static HttpConnectionPool getDefault() {
+        return DefaultHolder.INSTANCE;
+    }
+
+    /**
+     * 借出一个到route的连接，优先复用空闲连接，达到上限时最多等待leaseTimeout毫秒
+     *
+     * @param route          Route
+     * @param connectTimeout 新建连接时的connect timeout(ms)
+     * @param leaseTimeout   等待可用连接的最长时间(ms)
+     *
+     * @return PooledConnection
+     *
+     * @throws IOException e
+     */
+    public PooledConnection lease(Route route, int connectTimeout, long leaseTimeout) throws IOException {
+        return this.lease(route, connectTimeout, leaseTimeout, null);
+    }
+
+    /**
+     * 借出连接，新建连接时向request的事件监听报告dns、connect与TLS握手耗时
+     *
+     * @param route          Route
+     * @param connectTimeout 新建连接时的connect timeout(ms)
+     * @param leaseTimeout   等待可用连接的最长时间(ms)
+     * @param request        发起借出的请求，可以为null
+     *
+     * @return PooledConnection
+     *
+     * @throws IOException e
+     */
+    PooledConnection lease(Route route, int connectTimeout, long leaseTimeout, HttpTransport.Request request)
+        throws IOException {
+        this.sweepIfNeeded();
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(leaseTimeout);
+        PooledConnection idle;
+
+        lock.lock();
+        try {
+            while (true) {
+                if (closed) {
+                    throw new IOException("Connection pool is closed");
+                }
+
+                // 等待期间空的RoutePool可能被closeIdle移除，每轮重新获取
+                RoutePool routePool = this.getRoutePool(route);
+                idle = routePool.idle.pollFirst();
+                if (null != idle) {
+                    routePool.leased++;
+                    break;
+                }
+
+                if (routePool.total() < maxPerRoute && this.makeRoom()) {
+                    routePool.leased++;
+                    totalCount++;
+                    break;
+                }
+
+                long waitNanos = deadline - System.nanoTime();
+                if (waitNanos <= 0) {
+                    leaseTimeoutCount.incrementAndGet();
+                    throw new SocketTimeoutException("Timeout waiting for connection from pool: " + route);
+                }
+                pendingCount++;
+                try {
+                    released.awaitNanos(waitNanos);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while waiting for connection: " + route, e);
+                } finally {
+                    pendingCount--;
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        if (null != idle) {
+            if (!this.isStale(idle)) {
+                idle.useCount++;
+                reusedCount.incrementAndGet();
+                return idle;
+            }
+            // 丢弃stale连接，复用它的名额新建连接
+            staleCount.incrementAndGet();
+            idle.closeQuietly();
+        }
+
+        try {
+            PooledConnection conn = PooledConnection.open(route, connectTimeout, dnsResolver, request);
+            createdCount.incrementAndGet();
+            return conn;
+        } catch (IOException e) {
+            this.discard(route);
+            throw e;
+        }
+    }
+
+    /**
+     * 归还连接
+     *
+     * @param conn     PooledConnection
+     * @param reusable 连接是否可以被复用(响应已完整读取且未要求Connection: close)
+     */
+    public void release(PooledConnection conn, boolean reusable) {
+        if (null == conn) {
+            return;
+        }
+
+        boolean keep = reusable && conn.isOpen();
+        lock.lock();
+        try {
+            RoutePool routePool = this.getRoutePool(conn.route);
+            routePool.leased--;
+            if (keep && !closed) {
+                conn.lastUsedAt = System.currentTimeMillis();
+                routePool.idle.addFirst(conn);
+            } else {
+                totalCount--;
+                keep = false;
+            }
+            released.signalAll();
+        } finally {
+            lock.unlock();
+        }
+
+        if (!keep) {
+            conn.closeQuietly();
+        }
+    }
+
+    /**
+     * 回收空闲超过idleTimeout的连接
+     *
+     * @return 被回收的连接数
+     */
+    public int closeIdle() {
+        return this.closeIdle(idleTimeout);
+    }
+
+    /**
+     * 回收空闲超过给定时长的连接
+     *
+     * @param idleMillis long
+     *
+     * @return 被回收的连接数
+     */
+    public int closeIdle(long idleMillis) {
+        long threshold = System.currentTimeMillis() - idleMillis;
+        Deque<PooledConnection> expired = new ArrayDeque<PooledConnection>();
+
+        lock.lock();
+        try {
+            Iterator<Entry<Route, RoutePool>> it = routePools.entrySet().iterator();
+            while (it.hasNext()) {
+                RoutePool routePool = it.next().getValue();
+                // idle按最近使用排序，最久未用的在队尾
+                while (!routePool.idle.isEmpty() && routePool.idle.peekLast().lastUsedAt <= threshold) {
+                    expired.add(routePool.idle.pollLast());
+                    totalCount--;
+                }
+                if (routePool.total() == 0) {
+                    it.remove();
+                }
+            }
+            if (!expired.isEmpty()) {
+                released.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        for (PooledConnection conn : expired) {
+            conn.closeQuietly();
+        }
+        evictedCount.addAndGet(expired.size());
+        return expired.size();
+    }
+
+    /**
+     * 连接池统计
+     *
+     * @return Stats
+     */
+    public Stats getStats() {
+        lock.lock();
+        try {
+            int leased = 0;
+            int available = 0;
+            for (RoutePool routePool : routePools.values()) {
+                leased += routePool.leased;
+                available += routePool.idle.size();
+            }
+            return new Stats(leased, available, pendingCount, maxTotal, createdCount.get(), reusedCount.get(),
+                evictedCount.get(), staleCount.get(), leaseTimeoutCount.get());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 单个route的连接统计
+     *
+     * @param route Route
+     *
+     * @return Stats
+     */
+    public Stats getStats(Route route) {
+        lock.lock();
+        try {
+            RoutePool routePool = routePools.get(route);
+            int leased = null == routePool ? 0 : routePool.leased;
+            int available = null == routePool ? 0 : routePool.idle.size();
+            return new Stats(leased, available, pendingCount, maxPerRoute, createdCount.get(), reusedCount.get(),
+                evictedCount.get(), staleCount.get(), leaseTimeoutCount.get());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 关闭连接池，关闭所有空闲连接；借出中的连接在归还时关闭
+     */
+    @Override
+    public void close() {
+        Deque<PooledConnection> idle = new ArrayDeque<PooledConnection>();
+        lock.lock();
+        try {
+            closed = true;
+            for (RoutePool routePool : routePools.values()) {
+                totalCount -= routePool.idle.size();
+                idle.addAll(routePool.idle);
+                routePool.idle.clear();
+            }
+            released.signalAll();
+        } finally {
+            lock.unlock();
+        }
+
+        for (PooledConnection conn : idle) {
+            conn.closeQuietly();
+        }
+    }
+
+    // --------------------------------- setters & getters ----------------------------------
+
+    public int getMaxPerRoute() {
+        return maxPerRoute;
+    }
+
+    public HttpConnectionPool setMaxPerRoute(int maxPerRoute) {
+        this.maxPerRoute = maxPerRoute;
+        return this;
+    }
+
+    public int getMaxTotal() {
+        return maxTotal;
+    }
+
+    public HttpConnectionPool setMaxTotal(int maxTotal) {
+        this.maxTotal = maxTotal;
+        return this;
+    }
+
+    public long getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    public HttpConnectionPool setIdleTimeout(long idleTimeout) {
+        this.idleTimeout = idleTimeout;
+        return this;
+    }
+
+    public long getValidateAfterInactivity() {
+        return validateAfterInactivity;
+    }
+
+    public HttpConnectionPool setValidateAfterInactivity(long validateAfterInactivity) {
+        this.validateAfterInactivity = validateAfterInactivity;
+        return this;
+    }
+
+    public DnsResolver getDnsResolver() {
+        return dnsResolver;
+    }
+
+    /**
+     * 新建连接时使用的域名解析，如DnsCache
+     *
+     * @param dnsResolver DnsResolver
+     *
+     * @return HttpConnectionPool
+     */
+    public HttpConnectionPool setDnsResolver(DnsResolver dnsResolver) {
+        this.dnsResolver = null == dnsResolver ? DnsResolver.SYSTEM : dnsResolver;
+        return this;
+    }
+
+    // --------------------------------- private ----------------------------------
+
+    private RoutePool getRoutePool(Route route) {
+        RoutePool routePool = routePools.get(route);
+        if (null == routePool) {
+            routePool = new RoutePool();
+            routePools.put(route, routePool);
+        }
+        return routePool;
+    }
+
+    /**
+     * 总数达到上限时，关闭其他route上最久未用的空闲连接腾出名额(需持有lock)
+     *
+     * @return 是否有可用名额
+     */
+    private boolean makeRoom() {
+        if (totalCount < maxTotal) {
+            return true;
+        }
+
+        RoutePool victim = null;
+        long oldest = Long.MAX_VALUE;
+        for (RoutePool routePool : routePools.values()) {
+            PooledConnection last = routePool.idle.peekLast();
+            if (null != last && last.lastUsedAt < oldest) {
+                oldest = last.lastUsedAt;
+                victim = routePool;
+            }
+        }
+        if (null == victim) {
+            return false;
+        }
+
+        victim.idle.pollLast().closeQuietly();
+        totalCount--;
+        evictedCount.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * 新建连接失败时释放名额
+     *
+     * @param route Route
+     */
+    private void discard(Route route) {
+        lock.lock();
+        try {
+            this.getRoutePool(route).leased--;
+            totalCount--;
+            released.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 借出时顺带回收空闲超时的连接，不需要额外的清理线程
+     */
+    private void sweepIfNeeded() {
+        long now = System.currentTimeMillis();
+        if (now - lastSweepAt < idleTimeout / 2) {
+            return;
+        }
+        lastSweepAt = now;
+        this.closeIdle();
+    }
+
+    private boolean isStale(PooledConnection conn) {
+        long now = System.currentTimeMillis();
+        if (now - conn.lastUsedAt > idleTimeout) {
+            return true;
+        }
+        if (now - conn.lastUsedAt <= validateAfterInactivity) {
+            return !conn.isOpen();
+        }
+        return conn.isStale();
+    }
+
+    // ------------------------------------ inner classes -------------------------
+
+    private static class DefaultHolder {
+        private static final HttpConnectionPool INSTANCE = new HttpConnectionPool().setDnsResolver(
+            DnsCache.getDefault());
+    }
+
+    private static class RoutePool {
+        /**
+         * 空闲连接，队首为最近归还的连接
+         */
+        private final Deque<PooledConnection> idle = new ArrayDeque<PooledConnection>();
+        private int leased = 0;
+
+        private int total() {
+            return leased + idle.size();
+        }
+    }
+
+    /**
+     * 连接目标(scheme + host + port)，https连接同时以SSLSocketFactory区分
+     */
+    public static final class Route {
+        private final String scheme;
+        private final String host;
+        private final int port;
+        private final SSLSocketFactory sslSocketFactory;
+        private final HostnameVerifier hostnameVerifier;
+
+        public Route(String scheme, String host, int port, SSLSocketFactory sslSocketFactory,
+                     HostnameVerifier hostnameVerifier) {
+            this.scheme = scheme.toLowerCase();
+            this.host = host.toLowerCase();
+            this.port = port;
+            this.sslSocketFactory = sslSocketFactory;
+            this.hostnameVerifier = hostnameVerifier;
+        }
+
+        /**
+         * 根据url创建route
+         *
+         * @param url              URL
+         * @param sslSocketFactory https时使用的SSLSocketFactory, http时传null
+         * @param hostnameVerifier https时使用的HostnameVerifier, http时传null
+         *
+         * @return Route
+         */
+        public static Route of(URL url, SSLSocketFactory sslSocketFactory, HostnameVerifier hostnameVerifier) {
+            int port = url.getPort() > 0 ? url.getPort() : url.getDefaultPort();
+            return new Route(url.getProtocol(), url.getHost(), port, sslSocketFactory, hostnameVerifier);
+        }
+
+        public boolean isSecure() {
+            return HttpProtocol.https.getCode().equals(scheme);
+        }
+
+        public String getScheme() {
+            return scheme;
+        }
+
+        public String getHost() {
+            return host;
+        }
+
+        public int getPort() {
+            return port;
+        }
+
+        public SSLSocketFactory getSslSocketFactory() {
+            return sslSocketFactory;
+        }
+
+        public HostnameVerifier getHostnameVerifier() {
+            return hostnameVerifier;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Route)) {
+                return false;
+            }
+            Route that = (Route)o;
+            return port == that.port
+                && scheme.equals(that.scheme)
+                && host.equals(that.host)
+                && sslSocketFactory == that.sslSocketFactory
+                && hostnameVerifier == that.hostnameVerifier;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = scheme.hashCode();
+            result = 31 * result + host.hashCode();
+            result = 31 * result + port;
+            result = 31 * result + System.identityHashCode(sslSocketFactory);
+            return result;
+        }
+
+        @Override
+        public String toString() {
+            return scheme + "://" + host + ":" + port;
+        }
+    }
+
+    /**
+     * 池化的socket连接
+     */
+    public static class PooledConnection {
+        private final Route route;
+        private final Socket socket;
+        private final InputStream in;
+        private final OutputStream out;
+        private final long createdAt;
+        private volatile long lastUsedAt;
+        private int useCount = 0;
+
+        private PooledConnection(Route route, Socket socket) throws IOException {
+            this.route = route;
+            this.socket = socket;
+            this.in = new BufferedInputStream(socket.getInputStream(), SOCKET_BUFFER_SIZE);
+            this.out = new BufferedOutputStream(socket.getOutputStream(), SOCKET_BUFFER_SIZE);
+            this.createdAt = System.currentTimeMillis();
+            this.lastUsedAt = this.createdAt;
+        }
+
+        /**
+         * 解析route的域名，按顺序尝试连接各个地址，连接成功后按需进行TLS握手
+         */
+        private static PooledConnection open(Route route, int connectTimeout, DnsResolver dnsResolver,
+                                             HttpTransport.Request request) throws IOException {
+            HttpEventListener listener = null == request ? HttpEventListener.NONE : request.getListener();
+            boolean timed = HttpEventListener.NONE != listener;
+            long startedAt = timed ? System.nanoTime() : 0;
+            InetAddress[] addresses = dnsResolver.resolve(route.host, connectTimeout);
+            if (timed) {
+                long now = System.nanoTime();
+                listener.dnsEnd(request, now - startedAt);
+                startedAt = now;
+            }
+
+            IOException failure = null;
+            for (InetAddress address : addresses) {
+                Socket socket = new Socket();
+                try {
+                    socket.setTcpNoDelay(true);
+                    socket.setKeepAlive(true);
+                    socket.connect(new InetSocketAddress(address, route.port), connectTimeout);
+                } catch (IOException e) {
+                    closeQuietly(socket);
+                    if (null == failure) {
+                        failure = e;
+                    } else {
+                        failure.addSuppressed(e);
+                    }
+                    continue;
+                }
+                if (timed) {
+                    long now = System.nanoTime();
+                    listener.connectEnd(request, now - startedAt);
+                    startedAt = now;
+                }
+
+                try {
+                    if (route.isSecure()) {
+                        socket = upgradeToTls(route, socket);
+                        if (timed) {
+                            listener.secureConnectEnd(request, System.nanoTime() - startedAt);
+                        }
+                    }
+                    return new PooledConnection(route, socket);
+                } catch (IOException e) {
+                    closeQuietly(socket);
+                    throw e;
+                }
+            }
+            throw null == failure ? new UnknownHostException(route.host) : failure;
+        }
+
+        private static void closeQuietly(Socket socket) {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+
+        private static Socket upgradeToTls(Route route, Socket socket) throws IOException {
+            SSLSocketFactory factory = null == route.sslSocketFactory
+                ? (SSLSocketFactory)SSLSocketFactory.getDefault()
+                : route.sslSocketFactory;
+            SSLSocket sslSocket;
+            if (factory instanceof SslContextCache.StatsSocketFactory) {
+                sslSocket = ((SslContextCache.StatsSocketFactory)factory).handshake(socket, route.host, route.port);
+            } else {
+                sslSocket = (SSLSocket)factory.createSocket(socket, route.host, route.port, true);
+                sslSocket.startHandshake();
+            }
+            if (null != route.hostnameVerifier && !route.hostnameVerifier.verify(route.host,
+                sslSocket.getSession())) {
+                sslSocket.close();
+                throw new IOException("Hostname '" + route.host + "' was not verified");
+            }
+            return sslSocket;
+        }
+
+        /**
+         * 检查空闲连接是否已被对端关闭或者收到了意外的数据
+         *
+         * @return boolean
+         */
+        boolean isStale() {
+            if (!this.isOpen()) {
+                return true;
+            }
+
+            int soTimeout = 0;
+            try {
+                soTimeout = socket.getSoTimeout();
+                socket.setSoTimeout(1);
+                // 读到EOF说明对端已关闭；读到数据说明连接状态已不可预期，同样丢弃
+                in.read();
+                return true;
+            } catch (SocketTimeoutException e) {
+                return false;
+            } catch (IOException e) {
+                return true;
+            } finally {
+                try {
+                    socket.setSoTimeout(soTimeout);
+                } catch (IOException ignored) {
+                }
+            }
+        }
+
+        public boolean isOpen() {
+            return !socket.isClosed() && !socket.isInputShutdown() && !socket.isOutputShutdown();
+        }
+
+        public void setSoTimeout(int timeout) throws IOException {
+            socket.setSoTimeout(timeout);
+        }
+
+        public void closeQuietly() {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+
+        public Route getRoute() {
+            return route;
+        }
+
+        public Socket getSocket() {
+            return socket;
+        }
+
+        public InputStream getInputStream() {
+            return in;
+        }
+
+        public OutputStream getOutputStream() {
+            return out;
+        }
+
+        public long getCreatedAt() {
+            return createdAt;
+        }
+
+        public long getLastUsedAt() {
+            return lastUsedAt;
+        }
+
+        /**
+         * 连接被复用的次数，新建连接为0
+         *
+         * @return int
+         */
+        public int getUseCount() {
+            return useCount;
+        }
+    }
+
+    /**
+     * 连接池统计快照
+     */
+    public static class Stats {
+        private final int leased;
+        private final int available;
+        private final int pending;
+        private final int max;
+        private final long created;
+        private final long reused;
+        private final long evicted;
+        private final long stale;
+        private final long leaseTimeouts;
+
+        Stats(int leased, int available, int pending, int max, long created, long reused, long evicted, long stale,
+              long leaseTimeouts) {
+            this.leased = leased;
+            this.available = available;
+            this.pending = pending;
+            this.max = max;
+            this.created = created;
+            this.reused = reused;
+            this.evicted = evicted;
+            this.stale = stale;
+            this.leaseTimeouts = leaseTimeouts;
+        }
+
+        /**
+         * 借出中的连接数
+         */
+        public int getLeased() {
+            return leased;
+        }
+
+        /**
+         * 空闲可复用的连接数
+         */
+        public int getAvailable() {
+            return available;
+        }
+
+        /**
+         * 等待连接的线程数
+         */
+        public int getPending() {
+            return pending;
+        }
+
+        public int getMax() {
+            return max;
+        }
+
+        /**
+         * 累计新建的连接数
+         */
+        public long getCreated() {
+            return created;
+        }
+
+        /**
+         * 累计复用的次数
+         */
+        public long getReused() {
+            return reused;
+        }
+
+        /**
+         * 累计因空闲超时或腾出名额被回收的连接数
+         */
+        public long getEvicted() {
+            return evicted;
+        }
+
+        /**
+         * 累计借出前校验失败被丢弃的连接数
+         */
+        public long getStale() {
+            return stale;
+        }
+
+        public long getLeaseTimeouts() {
+            return leaseTimeouts;
+        }
+
+        @Override
+        public String toString() {
+            return "[leased: " + leased + "; available: " + available + "; pending: " + pending + "; max: " + max
+                + "; created: " + created + "; reused: " + reused + "; evicted: " + evicted + "; stale: " + stale
+                + "; leaseTimeouts: " + leaseTimeouts + "]";
+        }
+    }
+}
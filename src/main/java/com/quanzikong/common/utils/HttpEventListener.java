@@ -0,0 +1,120 @@
+package com.quanzikong.common.utils;
+
+/**
+ * 单次http调用各阶段的事件，通过RestApiClient.Builder.eventListener或RestApiUtil.setEventListener注册<br/>
+ * - 耗时均为纳秒；callStart、responseHeaders、responseBodyEnd、callEnd与callFailed由RestApiClient发出，
+ * 适用于所有传输层<br/>
+ * - dnsEnd、connectEnd、secureConnectEnd、connectionAcquired与requestWritten由PooledHttpTransport发出，
+ * 复用连接时没有dns/connect/TLS事件<br/>
+ * - 事件在发出请求或读取响应的线程上同步回调，实现须线程安全且足够快，不能抛出异常<br/>
+ * - 未注册时(NONE)不计时，也不包装响应流
+ *
+ * Usage:
+ * RestApiUtil.newInstance(url).setEventListener(HttpMetrics.getDefault()).asGet().getResponseString();
+ * String json = HttpMetrics.getDefault().toJson().toJSONString();
+ *
+ * @author agent
+ */
+public interface HttpEventListener {
+
+    /**
+     * 不处理任何事件
+     */
+    HttpEventListener NONE = new HttpEventListener() {
+    };
+
+    /**
+     * 开始一次调用
+     *
+     * @param request HttpTransport.Request
+     */
+    default void callStart(HttpTransport.Request request) {
+    }
+
+    /**
+     * 域名解析完成
+     *
+     * @param request HttpTransport.Request
+     * @param nanos   耗时
+     */
+    default void dnsEnd(HttpTransport.Request request, long nanos) {
+    }
+
+    /**
+     * TCP连接建立完成
+     *
+     * @param request HttpTransport.Request
+     * @param nanos   耗时
+     */
+    default void connectEnd(HttpTransport.Request request, long nanos) {
+    }
+
+    /**
+     * TLS握手完成
+     *
+     * @param request HttpTransport.Request
+     * @param nanos   耗时
+     */
+    default void secureConnectEnd(HttpTransport.Request request, long nanos) {
+    }
+
+    /**
+     * 得到连接(含等待连接池与新建连接)
+     *
+     * @param request HttpTransport.Request
+     * @param reused  是否为复用的连接
+     * @param nanos   耗时
+     */
+    default void connectionAcquired(HttpTransport.Request request, boolean reused, long nanos) {
+    }
+
+    /**
+     * 请求(请求行、请求头与body)写出完成
+     *
+     * @param request HttpTransport.Request
+     * @param bytes   写出的字节数
+     * @param nanos   耗时
+     */
+    default void requestWritten(HttpTransport.Request request, long bytes, long nanos) {
+    }
+
+    /**
+     * 收到响应头
+     *
+     * @param request    HttpTransport.Request
+     * @param statusCode 状态码
+     * @param nanos      从callStart算起的耗时(time to first byte)
+     */
+    default void responseHeaders(HttpTransport.Request request, int statusCode, long nanos) {
+    }
+
+    /**
+     * 响应body读完或被关闭
+     *
+     * @param request HttpTransport.Request
+     * @param bytes   读取的字节数(解压前)
+     * @param nanos   从收到响应头算起的耗时
+     */
+    default void responseBodyEnd(HttpTransport.Request request, long bytes, long nanos) {
+    }
+
+    /**
+     * 调用结束(响应body读完或被关闭)
+     *
+     * @param request    HttpTransport.Request
+     * @param statusCode 状态码
+     * @param nanos      总耗时
+     */
+    default void callEnd(HttpTransport.Request request, int statusCode, long nanos) {
+    }
+
+    /**
+     * 调用失败(未得到响应，或读取body时出错)
+     *
+     * @param request HttpTransport.Request
+     * @param error   异常
+     * @param nanos   总耗时
+     */
+    default void callFailed(HttpTransport.Request request, Throwable error, long nanos) {
+    }
+}
@@ -0,0 +1,537 @@
+package com.quanzikong.common.utils;
+
+import java.net.URL;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.alibaba.fastjson.JSONObject;
+
+import com.quanzikong.common.enums.HttpMethod;
+
+/**
+ * 内存中的http调用指标，作为HttpEventListener注册到RestApiClient或RestApiUtil<br/>
+ * - 按host(url的authority，即host[:port])统计：总耗时、首字节、dns、connect、TLS握手、获取连接、写出请求与读取body的延迟直方图，
+ * 调用数、失败数、收发字节数、复用/新建连接数、按状态码与按异常类型的计数<br/>
+ * - 按接口(method + host + path，不含query string)统计总耗时与首字节的直方图及计数；接口数超过maxEndpoints后，
+ * 新接口计入所在host的"(other)"，避免path中带id时无限增长<br/>
+ * - 记录只有ConcurrentHashMap查找与原子操作，不加锁；直方图的单位为微秒<br/>
+ * - toJson()同时输出默认连接池与monitor登记的连接池的使用情况
+ *
+ * Usage:
+ * RestApiClient client = RestApiClient.newBuilder().eventListener(HttpMetrics.getDefault()).build();
+ * JSONObject json = HttpMetrics.getDefault().toJson();
+ * long p99 = HttpMetrics.getDefault().getHost("ip:port").getTotal().getPercentile(0.99);
+ *
+ * @author agent
+ */
+public class HttpMetrics implements HttpEventListener {
+
+    private static final int DEFAULT_MAX_ENDPOINTS = 256;
+    private static final String OTHER_PATH = "(other)";
+
+    private final int maxEndpoints;
+    private final AtomicInteger endpointCount = new AtomicInteger();
+    private final ConcurrentMap<String, HostMetrics> hosts = new ConcurrentHashMap<String, HostMetrics>();
+    private final ConcurrentMap<String, HttpConnectionPool> pools = new ConcurrentHashMap<String, HttpConnectionPool>();
+    private volatile long since = System.currentTimeMillis();
+
+    public HttpMetrics() {
+        this(DEFAULT_MAX_ENDPOINTS);
+    }
+
+    /**
+     * constructor
+     *
+     * @param maxEndpoints 最多单独统计的接口数
+     */
+    public HttpMetrics(int maxEndpoints) {
+        this.maxEndpoints = maxEndpoints;
+    }
+
+    /**
+     * 进程内共享的实例
+     *
+     * @return HttpMetrics
+     */
+    public static HttpMetrics getDefault() {
+        return DefaultHolder.INSTANCE;
+    }
+
+    /**
+     * 登记需要输出使用情况的连接池(默认连接池总是输出)
+     *
+     * @param name 名称
+     * @param pool HttpConnectionPool
+     *
+     * @return HttpMetrics
+     */
+    public HttpMetrics monitor(String name, HttpConnectionPool pool) {
+        pools.put(name, pool);
+        return this;
+    }
+
+    // --------------------------------- events ----------------------------------
+
+    @Override
+    public void callStart(HttpTransport.Request request) {
+        HostMetrics host = this.host(request);
+        host.calls.incrementAndGet();
+        this.endpoint(host, request).calls.incrementAndGet();
+    }
+
+    @Override
+    public void dnsEnd(HttpTransport.Request request, long nanos) {
+        this.host(request).dns.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void connectEnd(HttpTransport.Request request, long nanos) {
+        this.host(request).connect.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void secureConnectEnd(HttpTransport.Request request, long nanos) {
+        this.host(request).tls.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void connectionAcquired(HttpTransport.Request request, boolean reused, long nanos) {
+        HostMetrics host = this.host(request);
+        host.acquire.record(nanos, TimeUnit.NANOSECONDS);
+        (reused ? host.reusedConnections : host.newConnections).incrementAndGet();
+    }
+
+    @Override
+    public void requestWritten(HttpTransport.Request request, long bytes, long nanos) {
+        HostMetrics host = this.host(request);
+        host.write.record(nanos, TimeUnit.NANOSECONDS);
+        host.bytesOut.addAndGet(bytes);
+        this.endpoint(host, request).bytesOut.addAndGet(bytes);
+    }
+
+    @Override
+    public void responseHeaders(HttpTransport.Request request, int statusCode, long nanos) {
+        HostMetrics host = this.host(request);
+        host.ttfb.record(nanos, TimeUnit.NANOSECONDS);
+        this.endpoint(host, request).ttfb.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void responseBodyEnd(HttpTransport.Request request, long bytes, long nanos) {
+        HostMetrics host = this.host(request);
+        host.body.record(nanos, TimeUnit.NANOSECONDS);
+        host.bytesIn.addAndGet(bytes);
+        this.endpoint(host, request).bytesIn.addAndGet(bytes);
+    }
+
+    @Override
+    public void callEnd(HttpTransport.Request request, int statusCode, long nanos) {
+        HostMetrics host = this.host(request);
+        host.end(statusCode, nanos);
+        this.endpoint(host, request).end(statusCode, nanos);
+    }
+
+    @Override
+    public void callFailed(HttpTransport.Request request, Throwable error, long nanos) {
+        HostMetrics host = this.host(request);
+        host.fail(error, nanos);
+        this.endpoint(host, request).fail(error, nanos);
+    }
+
+    // --------------------------------- getters ----------------------------------
+
+    /**
+     * 按host统计的指标
+     *
+     * @return Map, key为host[:port]
+     */
+    public Map<String, HostMetrics> getHosts() {
+        return Collections.unmodifiableMap(hosts);
+    }
+
+    /**
+     * 单个host的指标
+     *
+     * @param authority host[:port]，与url中的写法一致
+     *
+     * @return HostMetrics，没有记录时为null
+     */
+    public HostMetrics getHost(String authority) {
+        return hosts.get(authority);
+    }
+
+    /**
+     * 开始统计(或上次reset)的时间
+     *
+     * @return long
+     */
+    public long getSince() {
+        return since;
+    }
+
+    /**
+     * 清空全部指标
+     */
+    public void reset() {
+        hosts.clear();
+        endpointCount.set(0);
+        since = System.currentTimeMillis();
+    }
+
+    /**
+     * 输出为json，直方图的单位为微秒
+     *
+     * @return JSONObject
+     */
+    public JSONObject toJson() {
+        JSONObject json = new JSONObject(true);
+        json.put("since", since);
+        json.put("unit", "us");
+
+        JSONObject hostsJson = new JSONObject(true);
+        JSONObject endpointsJson = new JSONObject(true);
+        for (HostMetrics host : hosts.values()) {
+            hostsJson.put(host.getName(), host.toJson());
+            for (Map<String, EndpointMetrics> byPath : host.endpoints.values()) {
+                for (EndpointMetrics endpoint : byPath.values()) {
+                    endpointsJson.put(endpoint.getName(), endpoint.toJson());
+                }
+            }
+        }
+        json.put("hosts", hostsJson);
+        json.put("endpoints", endpointsJson);
+
+        JSONObject poolsJson = new JSONObject(true);
+        poolsJson.put("default", toJson(HttpConnectionPool.getDefault().getStats()));
+        for (Map.Entry<String, HttpConnectionPool> entry : pools.entrySet()) {
+            poolsJson.put(entry.getKey(), toJson(entry.getValue().getStats()));
+        }
+        json.put("pools", poolsJson);
+        return json;
+    }
+
+    @Override
+    public String toString() {
+        return this.toJson().toJSONString();
+    }
+
+    // --------------------------------- private ----------------------------------
+
+    private HostMetrics host(HttpTransport.Request request) {
+        // getAuthority返回URL中已有的字符串，查找时不分配对象
+        String authority = request.getUrl().getAuthority();
+        HostMetrics host = hosts.get(authority);
+        if (null == host) {
+            HostMetrics created = new HostMetrics(authority);
+            host = hosts.putIfAbsent(authority, created);
+            if (null == host) {
+                host = created;
+            }
+        }
+        return host;
+    }
+
+    private EndpointMetrics endpoint(HostMetrics host, HttpTransport.Request request) {
+        ConcurrentMap<String, EndpointMetrics> byPath = host.endpoints.get(request.getMethod());
+        if (null == byPath) {
+            ConcurrentMap<String, EndpointMetrics> created = new ConcurrentHashMap<String, EndpointMetrics>();
+            byPath = host.endpoints.putIfAbsent(request.getMethod(), created);
+            if (null == byPath) {
+                byPath = created;
+            }
+        }
+
+        URL url = request.getUrl();
+        String path = url.getPath().isEmpty() ? "/" : url.getPath();
+        EndpointMetrics endpoint = byPath.get(path);
+        if (null != endpoint) {
+            return endpoint;
+        }
+        if (endpointCount.get() >= maxEndpoints) {
+            path = OTHER_PATH;
+            endpoint = byPath.get(path);
+            if (null != endpoint) {
+                return endpoint;
+            }
+        }
+
+        EndpointMetrics created = new EndpointMetrics(
+            request.getMethod().getCode() + " " + url.getProtocol() + "://" + host.getName()
+                + (OTHER_PATH.equals(path) ? " " : "") + path);
+        endpoint = byPath.putIfAbsent(path, created);
+        if (null == endpoint) {
+            endpointCount.incrementAndGet();
+            endpoint = created;
+        }
+        return endpoint;
+    }
+
+    private static JSONObject toJson(LatencyHistogram histogram) {
+        JSONObject json = new JSONObject(true);
+        json.put("count", histogram.getCount());
+        json.put("min", histogram.getMin());
+        json.put("mean", histogram.getMean());
+        json.put("p50", histogram.getPercentile(0.5));
+        json.put("p90", histogram.getPercentile(0.9));
+        json.put("p99", histogram.getPercentile(0.99));
+        json.put("p999", histogram.getPercentile(0.999));
+        json.put("max", histogram.getMax());
+        return json;
+    }
+
+    private static JSONObject toJson(Map<?, AtomicLong> counters) {
+        JSONObject json = new JSONObject(true);
+        for (Map.Entry<?, AtomicLong> entry : counters.entrySet()) {
+            json.put(String.valueOf(entry.getKey()), entry.getValue().get());
+        }
+        return json;
+    }
+
+    private static JSONObject toJson(HttpConnectionPool.Stats stats) {
+        JSONObject json = new JSONObject(true);
+        json.put("leased", stats.getLeased());
+        json.put("available", stats.getAvailable());
+        json.put("pending", stats.getPending());
+        json.put("max", stats.getMax());
+        json.put("created", stats.getCreated());
+        json.put("reused", stats.getReused());
+        json.put("evicted", stats.getEvicted());
+        json.put("stale", stats.getStale());
+        json.put("leaseTimeouts", stats.getLeaseTimeouts());
+        return json;
+    }
+
+    private static <K> void increment(ConcurrentMap<K, AtomicLong> counters, K key) {
+        AtomicLong counter = counters.get(key);
+        if (null == counter) {
+            AtomicLong created = new AtomicLong();
+            counter = counters.putIfAbsent(key, created);
+            if (null == counter) {
+                counter = created;
+            }
+        }
+        counter.incrementAndGet();
+    }
+
+    // ------------------------------------ inner classes -------------------------
+
+    private static class DefaultHolder {
+        private static final HttpMetrics INSTANCE = new HttpMetrics();
+    }
+
+    /**
+     * 单个接口的指标
+     */
+    public static class EndpointMetrics {
+        final String name;
+        final LatencyHistogram total = new LatencyHistogram();
+        final LatencyHistogram ttfb = new LatencyHistogram();
+        final AtomicLong calls = new AtomicLong();
+        final AtomicLong failures = new AtomicLong();
+        final AtomicLong bytesOut = new AtomicLong();
+        final AtomicLong bytesIn = new AtomicLong();
+        final ConcurrentMap<Integer, AtomicLong> statusCodes = new ConcurrentHashMap<Integer, AtomicLong>();
+        final ConcurrentMap<String, AtomicLong> errors = new ConcurrentHashMap<String, AtomicLong>();
+
+        EndpointMetrics(String name) {
+            this.name = name;
+        }
+
+        void end(int statusCode, long nanos) {
+            total.record(nanos, TimeUnit.NANOSECONDS);
+            increment(statusCodes, statusCode);
+        }
+
+        void fail(Throwable error, long nanos) {
+            total.record(nanos, TimeUnit.NANOSECONDS);
+            failures.incrementAndGet();
+            increment(errors, error.getClass().getSimpleName());
+        }
+
+        JSONObject toJson() {
+            JSONObject json = new JSONObject(true);
+            json.put("calls", calls.get());
+            json.put("failures", failures.get());
+            json.put("bytesOut", bytesOut.get());
+            json.put("bytesIn", bytesIn.get());
+            json.put("statusCodes", HttpMetrics.toJson(statusCodes));
+            json.put("errors", HttpMetrics.toJson(errors));
+            json.put("total", HttpMetrics.toJson(total));
+            json.put("ttfb", HttpMetrics.toJson(ttfb));
+            return json;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * 从发起调用到读完body(或失败)的耗时
+         *
+         * @return LatencyHistogram
+         */
+        public LatencyHistogram getTotal() {
+            return total;
+        }
+
+        /**
+         * 从发起调用到收到响应头的耗时
+         *
+         * @return LatencyHistogram
+         */
+        public LatencyHistogram getTtfb() {
+            return ttfb;
+        }
+
+        /**
+         * 发起的调用数
+         *
+         * @return long
+         */
+        public long getCalls() {
+            return calls.get();
+        }
+
+        /**
+         * 失败(未得到响应，或读取body出错)的调用数
+         *
+         * @return long
+         */
+        public long getFailures() {
+            return failures.get();
+        }
+
+        /**
+         * 写出的字节数，只有PooledHttpTransport报告
+         *
+         * @return long
+         */
+        public long getBytesOut() {
+            return bytesOut.get();
+        }
+
+        /**
+         * 读取的响应body字节数(解压前)
+         *
+         * @return long
+         */
+        public long getBytesIn() {
+            return bytesIn.get();
+        }
+
+        /**
+         * 按状态码的完成数
+         *
+         * @param statusCode 状态码
+         *
+         * @return long
+         */
+        public long getStatusCount(int statusCode) {
+            AtomicLong counter = statusCodes.get(statusCode);
+            return null == counter ? 0 : counter.get();
+        }
+
+        /**
+         * 按异常类型(simple name)的失败数
+         *
+         * @return Map
+         */
+        public Map<String, AtomicLong> getErrors() {
+            return Collections.unmodifiableMap(errors);
+        }
+    }
+
+    /**
+     * 单个host的指标，另含各阶段的耗时
+     */
+    public static class HostMetrics extends EndpointMetrics {
+        private final LatencyHistogram dns = new LatencyHistogram();
+        private final LatencyHistogram connect = new LatencyHistogram();
+        private final LatencyHistogram tls = new LatencyHistogram();
+        private final LatencyHistogram acquire = new LatencyHistogram();
+        private final LatencyHistogram write = new LatencyHistogram();
+        private final LatencyHistogram body = new LatencyHistogram();
+        private final AtomicLong newConnections = new AtomicLong();
+        private final AtomicLong reusedConnections = new AtomicLong();
+        private final ConcurrentMap<HttpMethod, ConcurrentMap<String, EndpointMetrics>> endpoints
+            = new ConcurrentHashMap<HttpMethod, ConcurrentMap<String, EndpointMetrics>>();
+
+        HostMetrics(String name) {
+            super(name);
+        }
+
+        @Override
+        JSONObject toJson() {
+            JSONObject json = super.toJson();
+            json.put("newConnections", newConnections.get());
+            json.put("reusedConnections", reusedConnections.get());
+            json.put("dns", HttpMetrics.toJson(dns));
+            json.put("connect", HttpMetrics.toJson(connect));
+            json.put("tls", HttpMetrics.toJson(tls));
+            json.put("acquire", HttpMetrics.toJson(acquire));
+            json.put("write", HttpMetrics.toJson(write));
+            json.put("body", HttpMetrics.toJson(body));
+            return json;
+        }
+
+        public LatencyHistogram getDns() {
+            return dns;
+        }
+
+        public LatencyHistogram getConnect() {
+            return connect;
+        }
+
+        public LatencyHistogram getTls() {
+            return tls;
+        }
+
+        /**
+         * 获取连接的耗时(含等待连接池与新建连接)
+         *
+         * @return LatencyHistogram
+         */
+        public LatencyHistogram getAcquire() {
+            return acquire;
+        }
+
+        public LatencyHistogram getWrite() {
+            return write;
+        }
+
+        /**
+         * 从收到响应头到读完body的耗时
+         *
+         * @return LatencyHistogram
+         */
+        public LatencyHistogram getBody() {
+            return body;
+        }
+
+        public long getNewConnections() {
+            return newConnections.get();
+        }
+
+        public long getReusedConnections() {
+            return reusedConnections.get();
+        }
+
+        /**
+         * 该host下的接口
+         *
+         * @param method HttpMethod
+         * @param path   path(不含query string)，超过maxEndpoints后的接口为"(other)"
+         *
+         * @return EndpointMetrics，没有记录时为null
+         */
+        public EndpointMetrics getEndpoint(HttpMethod method, String path) {
+            Map<String, EndpointMetrics> byPath = endpoints.get(method);
+            return null == byPath ? null : byPath.get(path);
+        }
+    }
+}
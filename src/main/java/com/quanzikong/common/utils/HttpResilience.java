@@ -0,0 +1,617 @@
+package com.quanzikong.common.utils;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 重试、对冲、熔断与并发隔离的配置及运行状态，由ResilientHttpTransport使用<br/>
+ * - retry: 幂等请求(且body可重复写出)在IOException或者retryStatuses时按指数退避+抖动重试<br/>
+ * - hedging: 幂等请求超过该host延迟的hedgeQuantile(默认p95)仍未返回时，再发一个请求，先返回的胜出<br/>
+ * - circuit breaker: 按host:port统计连续失败，达到failureThreshold后熔断openMillis，之后放行少量探测请求(half-open)<br/>
+ * - bulkhead: 限制同时进行的请求数，等待maxWaitMillis后仍无名额则RejectedExecutionException<br/>
+ * - 熔断状态与统计保存在本对象中，多个client/RestApiUtil共享同一个HttpResilience才能共享状态
+ *
+ * Usage:
+ * HttpResilience resilience = new HttpResilience().setMaxRetries(2).setHedging(true).setMaxConcurrent(100);
+ * RestApiClient client = RestApiClient.newBuilder().resilience(resilience).build();
+ *
+ * @author agent
+ */
+public class HttpResilience {
+
+    private static final int HEDGE_POOL_SIZE = 64;
+    private static final int HEDGE_QUEUE_SIZE = 1024;
+
+    private volatile int maxRetries = 2;
+    private volatile long backoffMillis = 50;
+    private volatile long maxBackoffMillis = 2000;
+    private volatile Set<Integer> retryStatuses = new HashSet<Integer>(Arrays.asList(502, 503, 504));
+
+    private volatile boolean hedging = false;
+    private volatile double hedgeQuantile = 0.95;
+    private volatile long minHedgeDelayMillis = 10;
+    private volatile int hedgeMinSamples = 20;
+    private volatile ExecutorService hedgeExecutor = HedgeExecutorHolder.EXECUTOR;
+
+    private volatile int failureThreshold = 5;
+    private volatile long openMillis = 10000;
+    private volatile int halfOpenProbes = 1;
+
+    private volatile int maxConcurrent = 0;
+    private volatile long maxWaitMillis = 0;
+    private volatile Semaphore bulkhead = null;
+
+    private final ConcurrentMap<String, HostState> hosts = new ConcurrentHashMap<String, HostState>();
+    private final Stats stats = new Stats();
+
+    /**
+     * 统计
+     *
+     * @return Stats
+     */
+    public Stats getStats() {
+        return stats;
+    }
+
+    /**
+     * host的熔断状态
+     *
+     * @param host host
+     * @param port port
+     *
+     * @return CircuitState
+     */
+    public CircuitState getCircuitState(String host, int port) {
+        HostState state = hosts.get(host + ":" + port);
+        return null == state ? CircuitState.CLOSED : state.breaker.getState();
+    }
+
+    /**
+     * host最近请求延迟的分位数(ms)，样本不足时返回-1
+     *
+     * @param host     host
+     * @param port     port
+     * @param quantile 如0.95
+     *
+     * @return long
+     */
+    public long getLatencyQuantile(String host, int port, double quantile) {
+        HostState state = hosts.get(host + ":" + port);
+        return null == state ? -1 : state.latency.quantile(quantile, 1);
+    }
+
+    // --------------------------------- package ----------------------------------
+
+    HostState host(URL url) {
+        int port = url.getPort() > 0 ? url.getPort() : url.getDefaultPort();
+        String key = url.getHost() + ":" + port;
+        HostState state = hosts.get(key);
+        if (null == state) {
+            HostState created = new HostState(key);
+            state = hosts.putIfAbsent(key, created);
+            if (null == state) {
+                state = created;
+            }
+        }
+        return state;
+    }
+
+    /**
+     * 取得bulkhead名额，未限制并发时返回null
+     */
+    Semaphore acquire() throws InterruptedException {
+        Semaphore semaphore = bulkhead;
+        if (null == semaphore) {
+            return null;
+        }
+        if (!semaphore.tryAcquire(maxWaitMillis, TimeUnit.MILLISECONDS)) {
+            stats.bulkheadRejected.incrementAndGet();
+            throw new RejectedExecutionException("Too many concurrent requests, maxConcurrent: " + maxConcurrent);
+        }
+        return semaphore;
+    }
+
+    /**
+     * 第attempt次重试前的等待时间：[0, min(maxBackoff, backoff * 2^attempt)]内随机(full jitter)
+     */
+    long backoff(int attempt) {
+        long ceiling = Math.min(maxBackoffMillis, backoffMillis << Math.min(attempt, 20));
+        return ceiling <= 0 ? 0 : ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+
+    boolean isRetryStatus(int statusCode) {
+        return retryStatuses.contains(statusCode);
+    }
+
+    /**
+     * 对冲延迟，样本不足或者未开启时返回-1
+     */
+    long hedgeDelay(HostState state) {
+        if (!hedging) {
+            return -1;
+        }
+        long delay = state.latency.quantile(hedgeQuantile, hedgeMinSamples);
+        return delay < 0 ? -1 : Math.max(delay, minHedgeDelayMillis);
+    }
+
+    // --------------------------------- getters & setters ----------------------------------
+
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    /**
+     * 最大重试次数(不含首次)，0表示不重试
+     *
+     * @param maxRetries int
+     *
+     * @return HttpResilience
+     */
+    public HttpResilience setMaxRetries(int maxRetries) {
+        this.maxRetries = maxRetries;
+        return this;
+    }
+
+    public long getBackoffMillis() {
+        return backoffMillis;
+    }
+
+    /**
+     * 退避基数(ms)，第n次重试的等待上限为backoffMillis * 2^n
+     *
+     * @param backoffMillis long
+     *
+     * @return HttpResilience
+     */
+    public HttpResilience setBackoffMillis(long backoffMillis) {
+        this.backoffMillis = backoffMillis;
+        return this;
+    }
+
+    public long getMaxBackoffMillis() {
+        return maxBackoffMillis;
+    }
+
+    public HttpResilience setMaxBackoffMillis(long maxBackoffMillis) {
+        this.maxBackoffMillis = maxBackoffMillis;
+        return this;
+    }
+
+    public Set<Integer> getRetryStatuses() {
+        return retryStatuses;
+    }
+
+    /**
+     * 视为失败并重试的响应码，默认502, 503, 504
+     *
+     * @param retryStatuses Integer...
+     *
+     * @return HttpResilience
+     */
+    public HttpResilience setRetryStatuses(Integer... retryStatuses) {
+        this.retryStatuses = new HashSet<Integer>(Arrays.asList(retryStatuses));
+        return this;
+    }
+
+    public boolean isHedging() {
+        return hedging;
+    }
+
+    /**
+     * 是否开启对冲请求，默认关闭(会增加上游的请求量)
+     *
+     * @param hedging boolean
+     *
+     * @return HttpResilience
+     */
+    public HttpResilience setHedging(boolean hedging) {
+        this.hedging = hedging;
+        return this;
+    }
+
+    public double getHedgeQuantile() {
+        return hedgeQuantile;
+    }
+
+    public HttpResilience setHedgeQuantile(double hedgeQuantile) {
+        this.hedgeQuantile = hedgeQuantile;
+        return this;
+    }
+
+    public long getMinHedgeDelayMillis() {
+        return minHedgeDelayMillis;
+    }
+
+    public HttpResilience setMinHedgeDelayMillis(long minHedgeDelayMillis) {
+        this.minHedgeDelayMillis = minHedgeDelayMillis;
+        return this;
+    }
+
+    public int getHedgeMinSamples() {
+        return hedgeMinSamples;
+    }
+
+    /**
+     * host的延迟样本数达到该值后才会对冲
+     *
+     * @param hedgeMinSamples int
+     *
+     * @return HttpResilience
+     */
+    public HttpResilience setHedgeMinSamples(int hedgeMinSamples) {
+        this.hedgeMinSamples = hedgeMinSamples;
+        return this;
+    }
+
+    public ExecutorService getHedgeExecutor() {
+        return hedgeExecutor;
+    }
+
+    /**
+     * 执行对冲请求的线程池，默认为共享的有界守护线程池
+     *
+     * @param hedgeExecutor ExecutorService
+     *
+     * @return HttpResilience
+     */
+    public HttpResilience setHedgeExecutor(ExecutorService hedgeExecutor) {
+        this.hedgeExecutor = null == hedgeExecutor ? HedgeExecutorHolder.EXECUTOR : hedgeExecutor;
+        return this;
+    }
+
+    public int getFailureThreshold() {
+        return failureThreshold;
+    }
+
+    /**
+     * 连续失败达到该次数时熔断，小于等于0时不熔断
+     *
+     * @param failureThreshold int
+     *
+     * @return HttpResilience
+     */
+    public HttpResilience setFailureThreshold(int failureThreshold) {
+        this.failureThreshold = failureThreshold;
+        return this;
+    }
+
+    public long getOpenMillis() {
+        return openMillis;
+    }
+
+    /**
+     * 熔断持续时间(ms)，之后进入half-open
+     *
+     * @param openMillis long
+     *
+     * @return HttpResilience
+     */
+    public HttpResilience setOpenMillis(long openMillis) {
+        this.openMillis = openMillis;
+        return this;
+    }
+
+    public int getHalfOpenProbes() {
+        return halfOpenProbes;
+    }
+
+    /**
+     * half-open时同时放行的探测请求数
+     *
+     * @param halfOpenProbes int
+     *
+     * @return HttpResilience
+     */
+    public HttpResilience setHalfOpenProbes(int halfOpenProbes) {
+        this.halfOpenProbes = halfOpenProbes;
+        return this;
+    }
+
+    public int getMaxConcurrent() {
+        return maxConcurrent;
+    }
+
+    /**
+     * 同时进行的最大请求数(所有host共享)，小于等于0时不限制
+     *
+     * @param maxConcurrent int
+     *
+     * @return HttpResilience
+     */
+    public HttpResilience setMaxConcurrent(int maxConcurrent) {
+        this.maxConcurrent = maxConcurrent;
+        this.bulkhead = maxConcurrent > 0 ? new Semaphore(maxConcurrent) : null;
+        return this;
+    }
+
+    public long getMaxWaitMillis() {
+        return maxWaitMillis;
+    }
+
+    /**
+     * 没有并发名额时的最长等待时间(ms)
+     *
+     * @param maxWaitMillis long
+     *
+     * @return HttpResilience
+     */
+    public HttpResilience setMaxWaitMillis(long maxWaitMillis) {
+        this.maxWaitMillis = maxWaitMillis;
+        return this;
+    }
+
+    // ------------------------------------ inner classes -------------------------
+
+    private static class HedgeExecutorHolder {
+        private static final ExecutorService EXECUTOR = ThreadUtil.getDaemonExecutorService(
+            HEDGE_POOL_SIZE, HEDGE_QUEUE_SIZE, "rest-api-hedge-%d");
+    }
+
+    public enum CircuitState {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    /**
+     * 熔断中，请求未发出
+     */
+    public static class CircuitOpenException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        CircuitOpenException(String host) {
+            super("Circuit breaker open: " + host);
+        }
+    }
+
+    /**
+     * 单个host的熔断器与延迟统计
+     */
+    final class HostState {
+        final String key;
+        final CircuitBreaker breaker = new CircuitBreaker();
+        final LatencyWindow latency = new LatencyWindow();
+
+        private HostState(String key) {
+            this.key = key;
+        }
+    }
+
+    /**
+     * 按连续失败次数熔断
+     */
+    final class CircuitBreaker {
+        private CircuitState state = CircuitState.CLOSED;
+        private int failures = 0;
+        private long openedAt = 0;
+        private int probes = 0;
+
+        synchronized CircuitState getState() {
+            if (state == CircuitState.OPEN && System.currentTimeMillis() - openedAt >= openMillis) {
+                return CircuitState.HALF_OPEN;
+            }
+            return state;
+        }
+
+        /**
+         * 是否放行请求，放行后须调用onSuccess/onFailure/onIgnored之一
+         */
+        synchronized boolean tryAcquire() {
+            if (state == CircuitState.OPEN) {
+                if (System.currentTimeMillis() - openedAt < openMillis) {
+                    stats.shortCircuited.incrementAndGet();
+                    return false;
+                }
+                state = CircuitState.HALF_OPEN;
+                probes = 0;
+            }
+            if (state == CircuitState.HALF_OPEN) {
+                if (probes >= Math.max(1, halfOpenProbes)) {
+                    stats.shortCircuited.incrementAndGet();
+                    return false;
+                }
+                probes++;
+            }
+            return true;
+        }
+
+        synchronized void onSuccess() {
+            if (state == CircuitState.HALF_OPEN) {
+                state = CircuitState.CLOSED;
+                probes = 0;
+            }
+            failures = 0;
+        }
+
+        synchronized void onFailure() {
+            stats.failures.incrementAndGet();
+            if (state == CircuitState.HALF_OPEN) {
+                this.open();
+                return;
+            }
+            failures++;
+            if (state == CircuitState.CLOSED && failureThreshold > 0 && failures >= failureThreshold) {
+                this.open();
+            }
+        }
+
+        /**
+         * 请求被调用方中断，不计入成功或失败
+         */
+        synchronized void onIgnored() {
+            if (state == CircuitState.HALF_OPEN && probes > 0) {
+                probes--;
+            }
+        }
+
+        private void open() {
+            state = CircuitState.OPEN;
+            openedAt = System.currentTimeMillis();
+            failures = 0;
+            probes = 0;
+            stats.circuitOpened.incrementAndGet();
+        }
+    }
+
+    /**
+     * 最近若干次成功请求的延迟
+     */
+    static final class LatencyWindow {
+        private static final int SIZE = 128;
+
+        private final long[] samples = new long[SIZE];
+        private int count = 0;
+        private int next = 0;
+
+        synchronized void record(long millis) {
+            samples[next] = millis;
+            next = (next + 1) % SIZE;
+            if (count < SIZE) {
+                count++;
+            }
+        }
+
+        synchronized long quantile(double quantile, int minSamples) {
+            if (count == 0 || count < minSamples) {
+                return -1;
+            }
+            long[] sorted = Arrays.copyOf(samples, count);
+            Arrays.sort(sorted);
+            int index = (int)Math.ceil(quantile * count) - 1;
+            return sorted[Math.max(0, Math.min(count - 1, index))];
+        }
+    }
+
+    /**
+     * 统计，线程安全
+     */
+    public static final class Stats {
+        private final AtomicLong calls = new AtomicLong();
+        private final AtomicLong attempts = new AtomicLong();
+        private final AtomicLong retries = new AtomicLong();
+        private final AtomicLong hedges = new AtomicLong();
+        private final AtomicLong hedgeWins = new AtomicLong();
+        private final AtomicLong failures = new AtomicLong();
+        private final AtomicLong shortCircuited = new AtomicLong();
+        private final AtomicLong circuitOpened = new AtomicLong();
+        private final AtomicLong bulkheadRejected = new AtomicLong();
+
+        void onCall() {
+            calls.incrementAndGet();
+        }
+
+        void onAttempt() {
+            attempts.incrementAndGet();
+        }
+
+        void onRetry() {
+            retries.incrementAndGet();
+        }
+
+        void onHedge() {
+            hedges.incrementAndGet();
+        }
+
+        void onHedgeWin() {
+            hedgeWins.incrementAndGet();
+        }
+
+        /**
+         * 调用次数
+         *
+         * @return long
+         */
+        public long getCalls() {
+            return calls.get();
+        }
+
+        /**
+         * 实际发出的请求数(含重试与对冲)
+         *
+         * @return long
+         */
+        public long getAttempts() {
+            return attempts.get();
+        }
+
+        public long getRetries() {
+            return retries.get();
+        }
+
+        /**
+         * 发出的对冲请求数
+         *
+         * @return long
+         */
+        public long getHedges() {
+            return hedges.get();
+        }
+
+        /**
+         * 对冲请求先于原请求返回的次数
+         *
+         * @return long
+         */
+        public long getHedgeWins() {
+            return hedgeWins.get();
+        }
+
+        /**
+         * 计入熔断器的失败次数
+         *
+         * @return long
+         */
+        public long getFailures() {
+            return failures.get();
+        }
+
+        /**
+         * 因熔断而未发出的请求数
+         *
+         * @return long
+         */
+        public long getShortCircuited() {
+            return shortCircuited.get();
+        }
+
+        /**
+         * 熔断器打开的次数
+         *
+         * @return long
+         */
+        public long getCircuitOpened() {
+            return circuitOpened.get();
+        }
+
+        /**
+         * 因并发名额不足被拒绝的请求数
+         *
+         * @return long
+         */
+        public long getBulkheadRejected() {
+            return bulkheadRejected.get();
+        }
+
+        @Override
+        public String toString() {
+            return "[calls: " + calls.get()
+                + "; attempts: " + attempts.get()
+                + "; retries: " + retries.get()
+                + "; hedges: " + hedges.get()
+                + "; hedgeWins: " + hedgeWins.get()
+                + "; failures: " + failures.get()
+                + "; shortCircuited: " + shortCircuited.get()
+                + "; circuitOpened: " + circuitOpened.get()
+                + "; bulkheadRejected: " + bulkheadRejected.get() + "]";
+        }
+    }
+}
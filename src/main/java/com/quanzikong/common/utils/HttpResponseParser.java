@@ -0,0 +1,220 @@
+package com.quanzikong.common.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * 增量式HTTP/1.1响应解析器，供非阻塞传输层使用<br/>
+ * - 每次feed尽可能多地消费数据，一个响应解析完成后停止消费，剩余数据属于下一个(pipelining)响应<br/>
+ * - body聚合在内存中，超过maxBodySize时报错
+ *
+ * @author agent
+ */
+final class HttpResponseParser {
+
+    private enum State {
+        STATUS_LINE, HEADERS, FIXED_BODY, CHUNK_SIZE, CHUNK_DATA, CHUNK_CRLF, TRAILERS, EOF_BODY, DONE
+    }
+
+    private static final int INITIAL_BODY_BUFFER = 65536;
+
+    private final String method;
+    private final long maxBodySize;
+    private final StringBuilder line = new StringBuilder(64);
+    private State state = State.STATUS_LINE;
+    private HttpCodec.ResponseHead head;
+    private String lastName;
+    private ByteArrayOutputStream body;
+    private long remaining;
+    private boolean untilClose = false;
+
+    /**
+     * constructor
+     *
+     * @param method      请求方法(HEAD请求的响应没有body)
+     * @param maxBodySize body最大长度
+     */
+    HttpResponseParser(String method, long maxBodySize) {
+        this.method = method;
+        this.maxBodySize = maxBodySize;
+    }
+
+    /**
+     * 消费数据
+     *
+     * @param in ByteBuffer(读模式)
+     *
+     * @return 响应是否已完整
+     *
+     * @throws IOException 报文格式错误或者body过大
+     */
+    boolean feed(ByteBuffer in) throws IOException {
+        while (state != State.DONE && in.hasRemaining()) {
+            switch (state) {
+                case STATUS_LINE:
+                    if (this.readLine(in)) {
+                        this.onStatusLine();
+                    }
+                    break;
+                case HEADERS:
+                    if (this.readLine(in)) {
+                        this.onHeaderLine();
+                    }
+                    break;
+                case FIXED_BODY:
+                case CHUNK_DATA:
+                    int n = (int)Math.min(in.remaining(), remaining);
+                    this.appendBody(in, n);
+                    remaining -= n;
+                    if (remaining == 0) {
+                        state = state == State.FIXED_BODY ? State.DONE : State.CHUNK_CRLF;
+                    }
+                    break;
+                case CHUNK_SIZE:
+                    if (this.readLine(in)) {
+                        remaining = HttpCodec.parseChunkSize(this.takeLine());
+                        state = remaining == 0 ? State.TRAILERS : State.CHUNK_DATA;
+                    }
+                    break;
+                case CHUNK_CRLF:
+                    if (this.readLine(in)) {
+                        this.takeLine();
+                        state = State.CHUNK_SIZE;
+                    }
+                    break;
+                case TRAILERS:
+                    if (this.readLine(in) && this.takeLine().isEmpty()) {
+                        state = State.DONE;
+                    }
+                    break;
+                case EOF_BODY:
+                    this.appendBody(in, in.remaining());
+                    break;
+                default:
+                    throw new IllegalStateException(state.name());
+            }
+        }
+        return state == State.DONE;
+    }
+
+    /**
+     * 连接被对端关闭
+     *
+     * @return 响应是否已完整(body以连接关闭为结束)
+     */
+    boolean onEof() {
+        if (state == State.EOF_BODY) {
+            state = State.DONE;
+        }
+        return state == State.DONE;
+    }
+
+    /**
+     * 是否还没有收到任何数据
+     *
+     * @return boolean
+     */
+    boolean isIdle() {
+        return state == State.STATUS_LINE && line.length() == 0;
+    }
+
+    /**
+     * 响应完成后连接是否可以继续使用
+     *
+     * @return boolean
+     */
+    boolean isKeepAlive() {
+        // 以连接关闭为body结束的响应，连接不可复用
+        return state == State.DONE && !untilClose && head.isKeepAlive();
+    }
+
+    HttpCodec.ResponseHead getHead() {
+        return head;
+    }
+
+    byte[] getBody() {
+        return null == body ? new byte[0] : body.toByteArray();
+    }
+
+    private void onStatusLine() throws IOException {
+        String statusLine = this.takeLine();
+        if (statusLine.isEmpty()) {
+            return;
+        }
+        head = HttpCodec.parseStatusLine(statusLine);
+        lastName = null;
+        state = State.HEADERS;
+    }
+
+    private void onHeaderLine() throws IOException {
+        String headerLine = this.takeLine();
+        if (!headerLine.isEmpty()) {
+            lastName = HttpCodec.parseHeaderLine(head, headerLine, lastName);
+            return;
+        }
+
+        int code = head.getStatusCode();
+        if (code >= 100 && code < 200) {
+            // 跳过1xx的中间响应
+            head = null;
+            state = State.STATUS_LINE;
+            return;
+        }
+        long length = HttpCodec.bodyLength(head, method);
+        if (length > maxBodySize) {
+            throw new IOException("Response body too large: " + length);
+        }
+        if (length == HttpCodec.BODY_CHUNKED) {
+            state = State.CHUNK_SIZE;
+        } else if (length == HttpCodec.BODY_UNTIL_CLOSE) {
+            untilClose = true;
+            state = State.EOF_BODY;
+        } else {
+            remaining = length;
+            state = length == 0 ? State.DONE : State.FIXED_BODY;
+        }
+        body = new ByteArrayOutputStream(length > 0 ? (int)Math.min(length, INITIAL_BODY_BUFFER) : 256);
+    }
+
+    /**
+     * 读取到LF为止，返回是否已读到完整的一行
+     */
+    private boolean readLine(ByteBuffer in) throws IOException {
+        while (in.hasRemaining()) {
+            byte b = in.get();
+            if (b == '\n') {
+                return true;
+            }
+            if (line.length() >= HttpCodec.MAX_LINE_LENGTH) {
+                throw new IOException("Line too long");
+            }
+            line.append((char)(b & 0xff));
+        }
+        return false;
+    }
+
+    private String takeLine() {
+        int len = line.length();
+        if (len > 0 && line.charAt(len - 1) == '\r') {
+            len--;
+        }
+        String s = line.substring(0, len);
+        line.setLength(0);
+        return s;
+    }
+
+    private void appendBody(ByteBuffer in, int n) throws IOException {
+        if (body.size() + (long)n > maxBodySize) {
+            throw new IOException("Response body too large: > " + maxBodySize);
+        }
+        if (in.hasArray()) {
+            body.write(in.array(), in.arrayOffset() + in.position(), n);
+            in.position(in.position() + n);
+        } else {
+            byte[] tmp = new byte[n];
+            in.get(tmp);
+            body.write(tmp, 0, n);
+        }
+    }
+}
@@ -0,0 +1,275 @@
+package com.quanzikong.common.utils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URL;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeoutException;
+
+import com.quanzikong.common.enums.HttpMethod;
+import com.quanzikong.common.enums.HttpProtocol;
+import com.quanzikong.common.utils.RestApiUtil.SslProvider;
+
+/**
+ * RestApiClient的传输层SPI<br/>
+ * - RestApiClient负责拼装url、请求头与body，传输层只负责把一次http交换发出去并返回响应<br/>
+ * - 内置实现：PooledHttpTransport(默认, 池化socket)、UrlConnectionHttpTransport(HttpURLConnection)、
+ * NioHttpTransport(Selector多路复用)、Http2Transport(HTTP/2多路复用，不支持时回退HTTP/1.1)
+ *
+ * @author agent
+ */
+public interface HttpTransport {
+
+    /**
+     * 同步执行一次http交换
+     *
+     * @param request Request
+     *
+     * @return RestApiResponse 使用完请务必close(或读完body)
+     *
+     * @throws Exception e
+     */
+    RestApiResponse execute(Request request) throws Exception;
+
+    /**
+     * 传输层看到的单次请求：已拼好的url、请求头、body，以及超时与中断控制<br/>
+     * - Host、Content-Length(或Transfer-Encoding: chunked)由传输层补全
+     */
+    final class Request {
+        private final HttpMethod method;
+        private final URL url;
+        private final Map<String, String> headers;
+        private final HttpBody body;
+        private final String charset;
+        private final int connectTimeout;
+        private final int readTimeout;
+        private final SslProvider sslProvider;
+        private final long deadline;
+        private volatile Closeable resource;
+        private volatile boolean aborted = false;
+        private HttpEventListener listener = HttpEventListener.NONE;
+
+        /**
+         * constructor
+         *
+         * @param method         HttpMethod
+         * @param url            完整的请求地址(含query string)
+         * @param headers        请求头
+         * @param body           请求body，没有时为null
+         * @param charset        编码
+         * @param connectTimeout connect timeout(ms)
+         * @param readTimeout    read timeout(ms)
+         * @param sslProvider    SslProvider
+         * @param timeout        请求的deadline(ms), 0表示不限制
+         */
+        public Request(HttpMethod method, URL url, Map<String, String> headers, HttpBody body, String charset,
+                       int connectTimeout, int readTimeout, SslProvider sslProvider, int timeout) {
+            this.method = method;
+            this.url = url;
+            this.headers = Collections.unmodifiableMap(headers);
+            this.body = body;
+            this.charset = charset;
+            this.connectTimeout = connectTimeout;
+            this.readTimeout = readTimeout;
+            this.sslProvider = sslProvider;
+            this.deadline = timeout > 0 ? System.currentTimeMillis() + timeout : 0;
+        }
+
+        private Request(Request src, Map<String, String> headers) {
+            this.method = src.method;
+            this.url = src.url;
+            this.headers = headers;
+            this.body = src.body;
+            this.charset = src.charset;
+            this.connectTimeout = src.connectTimeout;
+            this.readTimeout = src.readTimeout;
+            this.sslProvider = src.sslProvider;
+            this.deadline = src.deadline;
+            this.listener = src.listener;
+        }
+
+        /**
+         * 复制出独立的一次交换(如对冲请求)，共享deadline，各自登记资源与中断
+         *
+         * @return Request
+         */
+        Request copy() {
+            return new Request(this, headers);
+        }
+
+        /**
+         * 复制出独立的一次交换，并追加(或覆盖)请求头，如条件请求的If-None-Match
+         *
+         * @param extraHeaders 追加的请求头
+         *
+         * @return Request
+         */
+        Request copy(Map<String, String> extraHeaders) {
+            Map<String, String> merged = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+            merged.putAll(headers);
+            merged.putAll(extraHeaders);
+            return new Request(this, Collections.unmodifiableMap(merged));
+        }
+
+        /**
+         * 设置事件监听，须在交给传输层之前设置
+         *
+         * @param listener HttpEventListener
+         *
+         * @return Request
+         */
+        Request listener(HttpEventListener listener) {
+            this.listener = null == listener ? HttpEventListener.NONE : listener;
+            return this;
+        }
+
+        /**
+         * 事件监听，未设置时为HttpEventListener.NONE
+         *
+         * @return HttpEventListener
+         */
+        public HttpEventListener getListener() {
+            return listener;
+        }
+
+        public HttpMethod getMethod() {
+            return method;
+        }
+
+        public URL getUrl() {
+            return url;
+        }
+
+        /**
+         * 请求行中的路径(含query string)
+         *
+         * @return String
+         */
+        public String getTarget() {
+            return StringUtil.isEmpty(url.getFile()) ? "/" : url.getFile();
+        }
+
+        /**
+         * Host请求头的值
+         *
+         * @return String
+         */
+        public String getHostHeader() {
+            int port = url.getPort();
+            return port > 0 && port != url.getDefaultPort() ? url.getHost() + ":" + port : url.getHost();
+        }
+
+        public boolean isSecure() {
+            return HttpProtocol.https.getCode().equalsIgnoreCase(url.getProtocol());
+        }
+
+        public Map<String, String> getHeaders() {
+            return headers;
+        }
+
+        public HttpBody getBody() {
+            return body;
+        }
+
+        public String getCharset() {
+            return charset;
+        }
+
+        public SslProvider getSslProvider() {
+            return sslProvider;
+        }
+
+        /**
+         * 结合deadline后本次可用的connect timeout
+         *
+         * @return int
+         *
+         * @throws TimeoutException 已超过deadline
+         */
+        public int connectTimeout() throws TimeoutException {
+            return this.remaining(connectTimeout);
+        }
+
+        /**
+         * 结合deadline后本次可用的read timeout
+         *
+         * @return int
+         *
+         * @throws TimeoutException 已超过deadline
+         */
+        public int readTimeout() throws TimeoutException {
+            return this.remaining(readTimeout);
+        }
+
+        /**
+         * 登记当前占用的资源(连接)，请求被中断时关闭它
+         *
+         * @param resource Closeable
+         */
+        public void attach(Closeable resource) {
+            this.resource = resource;
+            if (aborted) {
+                closeQuietly(resource);
+            }
+        }
+
+        /**
+         * 资源已归还，不再受中断影响
+         *
+         * @param resource Closeable
+         */
+        public void detach(Closeable resource) {
+            if (this.resource == resource) {
+                this.resource = null;
+            }
+        }
+
+        /**
+         * 中断请求(cancel或者超过deadline)
+         */
+        public void abort() {
+            aborted = true;
+            closeQuietly(resource);
+        }
+
+        public boolean isAborted() {
+            return aborted;
+        }
+
+        public boolean isExpired() {
+            return deadline > 0 && System.currentTimeMillis() >= deadline;
+        }
+
+        /**
+         * 距deadline剩余的时间(ms)，不限制时返回Long.MAX_VALUE
+         *
+         * @return long
+         */
+        long remainingMillis() {
+            return deadline == 0 ? Long.MAX_VALUE : deadline - System.currentTimeMillis();
+        }
+
+        private int remaining(int timeout) throws TimeoutException {
+            if (deadline == 0) {
+                return timeout;
+            }
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                throw new TimeoutException("Request deadline exceeded");
+            }
+            return timeout > 0 ? (int)Math.min(timeout, remaining) : (int)remaining;
+        }
+
+        private static void closeQuietly(Closeable closeable) {
+            if (null == closeable) {
+                return;
+            }
+            try {
+                closeable.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
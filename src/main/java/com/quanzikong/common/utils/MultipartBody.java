@@ -0,0 +1,152 @@
+package com.quanzikong.common.utils;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * multipart/form-data请求body<br/>
+ * - 只在内存中保存各部分的头与表单参数，文件与输入流在写出时才读取<br/>
+ * - 所有部分长度已知时可预先算出Content-Length，否则以chunked发送
+ *
+ * Usage:
+ * MultipartBody body = MultipartBody.newBuilder("utf8")
+ * .param("one", 1)
+ * .part("file", HttpBody.of(Paths.get("/data/big.bin")))
+ * .build();
+ *
+ * @author agent
+ */
+public final class MultipartBody extends HttpBody {
+
+    private static final String EOF = "\r\n";
+    private static final String TWO_HYPHENS = "--";
+    private static final String FIVE_STARS = "*****";
+    private static final String CONTENT_DISPOSITION = "Content-Disposition: form-data; name=\"%s\"";
+    private static final String CONTENT_DISPOSITION_FILE
+        = "Content-Disposition: form-data; name=\"%s\"; filename=\"%s\"";
+    private static final String CONTENT_TYPE_TEXT_PLAIN = "Content-Type: text/plain";
+    private static final String CONTENT_TRANSFER_ENCODING_BINARY = "Content-Transfer-Encoding: binary";
+    private static final String MULTIPART_FORM_DATA_BOUNDARY = "multipart/form-data; boundary=";
+
+    private final String boundary;
+
+    private MultipartBody(List<Segment> segments, String boundary) {
+        super(segments);
+        this.boundary = boundary;
+    }
+
+    /**
+     * builder
+     *
+     * @param charset 表单参数与头的编码
+     *
+     * @return Builder
+     */
+    public static Builder newBuilder(String charset) {
+        return new Builder(charset);
+    }
+
+    public String getBoundary() {
+        return boundary;
+    }
+
+    /**
+     * Content-Type请求头的值
+     *
+     * @return String
+     */
+    public String getContentType() {
+        return MULTIPART_FORM_DATA_BOUNDARY + boundary;
+    }
+
+    /**
+     * MultipartBody构建器，非线程安全
+     */
+    public static final class Builder {
+        private final Charset charset;
+        private final Map<String, HttpBody> parts = new LinkedHashMap<String, HttpBody>(16);
+        private final Map<String, Object> params = new LinkedHashMap<String, Object>(16);
+        private String boundary = FIVE_STARS + System.nanoTime() + FIVE_STARS;
+
+        private Builder(String charset) {
+            this.charset = Charset.forName(charset);
+        }
+
+        public Builder boundary(String boundary) {
+            this.boundary = boundary;
+            return this;
+        }
+
+        public Builder param(String name, Object value) {
+            this.params.put(name, value);
+            return this;
+        }
+
+        public Builder params(Map<String, ?> params) {
+            this.params.putAll(params);
+            return this;
+        }
+
+        /**
+         * 文件部分，filename与name相同
+         *
+         * @param name String
+         * @param body HttpBody
+         *
+         * @return Builder
+         */
+        public Builder part(String name, HttpBody body) {
+            this.parts.put(name, body);
+            return this;
+        }
+
+        public Builder part(String name, File file) {
+            return this.part(name, HttpBody.of(file));
+        }
+
+        public Builder parts(Map<String, HttpBody> parts) {
+            this.parts.putAll(parts);
+            return this;
+        }
+
+        /**
+         * 先写文件部分，再写表单参数
+         *
+         * @return MultipartBody
+         */
+        public MultipartBody build() {
+            List<Segment> segments = new ArrayList<Segment>();
+            for (Entry<String, HttpBody> entry : parts.entrySet()) {
+                String name = entry.getKey();
+                this.text(segments, TWO_HYPHENS + boundary + EOF
+                    + String.format(CONTENT_DISPOSITION_FILE, name, name) + EOF
+                    + CONTENT_TRANSFER_ENCODING_BINARY + EOF
+                    + EOF);
+                segments.addAll(entry.getValue().segments());
+                this.text(segments, EOF);
+            }
+
+            StringBuilder sb = new StringBuilder();
+            for (Entry<String, Object> entry : params.entrySet()) {
+                sb.append(TWO_HYPHENS).append(boundary).append(EOF)
+                    .append(String.format(CONTENT_DISPOSITION, entry.getKey())).append(EOF)
+                    .append(CONTENT_TYPE_TEXT_PLAIN).append(EOF)
+                    .append(EOF)
+                    .append(entry.getValue()).append(EOF);
+            }
+            sb.append(TWO_HYPHENS).append(boundary).append(TWO_HYPHENS).append(EOF);
+            this.text(segments, sb.toString());
+            return new MultipartBody(segments, boundary);
+        }
+
+        private void text(List<Segment> segments, String text) {
+            segments.add(Segment.of(ByteBuffer.wrap(text.getBytes(charset))));
+        }
+    }
+}
@@ -0,0 +1,1333 @@
+package com.quanzikong.common.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLEngineResult.HandshakeStatus;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLPeerUnverifiedException;
+
+import com.quanzikong.common.utils.RestApiUtil.SslProvider;
+
+/**
+ * 基于Selector/SocketChannel的非阻塞HTTP/1.1传输层<br/>
+ * - 少量I/O线程多路复用所有连接，进行中的请求不占用线程<br/>
+ * - 每个route固定由一个I/O线程处理，route内的连接与排队请求只在该线程上访问，无需加锁<br/>
+ * - 连接数达到maxConnectionsPerRoute后，幂等请求可在已有连接上pipelining(pipeliningDepth &gt; 1时)<br/>
+ * - 支持Content-Length、chunked与以连接关闭结束的响应，body聚合在内存中(不超过maxResponseSize)<br/>
+ * - https通过SSLEngine实现，使用SslProvider的SSLContext与HostnameVerifier<br/>
+ * - future在callbackExecutor中complete，不阻塞I/O线程
+ *
+ * Usage:
+ * NioHttpTransport transport = new NioHttpTransport().setPipeliningDepth(4);
+ * RestApiClient client = RestApiClient.newBuilder().transport(transport).build();
+ *
+ * @author agent
+ */
+public class NioHttpTransport implements AsyncHttpTransport, Closeable {
+
+    private static final int DEFAULT_IO_THREADS = 2;
+    private static final int BUFFER_SIZE = 16384;
+    private static final long SELECT_TIMEOUT = 100;
+    private static final int CALLBACK_POOL_SIZE = 16;
+    private static final int CALLBACK_QUEUE_SIZE = 4096;
+    private static final AtomicInteger TRANSPORT_SEQ = new AtomicInteger();
+
+    private final IoLoop[] loops;
+    private volatile boolean closed = false;
+
+    private volatile int maxConnectionsPerRoute = 20;
+    private volatile int pipeliningDepth = 1;
+    private volatile long maxResponseSize = 64L * 1024 * 1024;
+    private volatile long idleTimeout = 60000;
+    private volatile Executor callbackExecutor = CallbackExecutorHolder.EXECUTOR;
+
+    private final AtomicInteger openConnections = new AtomicInteger();
+    private final AtomicInteger inFlightRequests = new AtomicInteger();
+    private final AtomicLong createdConnections = new AtomicLong();
+    private final AtomicLong completedRequests = new AtomicLong();
+    private final AtomicLong pipelinedRequests = new AtomicLong();
+    private final AtomicLong retriedRequests = new AtomicLong();
+
+    public NioHttpTransport() {
+        this(DEFAULT_IO_THREADS);
+    }
+
+    /**
+     * constructor
+     *
+     * @param ioThreads I/O线程数
+     */
+    public NioHttpTransport(int ioThreads) {
+        if (ioThreads <= 0) {
+            throw new IllegalArgumentException("ioThreads must be positive");
+        }
+        int seq = TRANSPORT_SEQ.incrementAndGet();
+        this.loops = new IoLoop[ioThreads];
+        for (int i = 0; i < ioThreads; i++) {
+            try {
+                loops[i] = new IoLoop();
+            } catch (IOException e) {
+                this.close();
+                throw new IllegalStateException("Failed to open selector", e);
+            }
+            Thread thread = new Thread(loops[i], "nio-http-" + seq + "-io-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    @Override
+    public RestApiResponse execute(HttpTransport.Request request) throws Exception {
+        CompletableFuture<RestApiResponse> future = this.executeAsync(request);
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            request.abort();
+            Thread.currentThread().interrupt();
+            throw e;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception)cause;
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public CompletableFuture<RestApiResponse> executeAsync(final HttpTransport.Request request) {
+        CompletableFuture<RestApiResponse> future = new CompletableFuture<RestApiResponse>();
+        if (closed) {
+            future.completeExceptionally(new IOException("Transport closed"));
+            return future;
+        }
+
+        final Exchange exchange;
+        try {
+            RouteKey route = new RouteKey(request);
+            final IoLoop loop = loops[(route.hashCode() & Integer.MAX_VALUE) % loops.length];
+            exchange = new Exchange(request, route, loop, future);
+            exchange.abortHandle = new Closeable() {
+                @Override
+                public void close() {
+                    loop.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            loop.abort(exchange);
+                        }
+                    });
+                }
+            };
+            request.attach(exchange.abortHandle);
+            loop.execute(new Runnable() {
+                @Override
+                public void run() {
+                    loop.submit(exchange);
+                }
+            });
+        } catch (Exception e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * 关闭所有连接并停止I/O线程，排队中与进行中的请求以IOException结束
+     */
+    @Override
+    public void close() {
+        closed = true;
+        for (final IoLoop loop : loops) {
+            if (null != loop) {
+                loop.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        loop.shutdown();
+                    }
+                });
+            }
+        }
+    }
+
+    // --------------------------------- getters & setters ----------------------------------
+
+    public int getMaxConnectionsPerRoute() {
+        return maxConnectionsPerRoute;
+    }
+
+    public NioHttpTransport setMaxConnectionsPerRoute(int maxConnectionsPerRoute) {
+        this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+        return this;
+    }
+
+    public int getPipeliningDepth() {
+        return pipeliningDepth;
+    }
+
+    /**
+     * setter of pipeliningDepth<br/>
+     * - 单个连接上最多同时发出的请求数，1表示不使用pipelining<br/>
+     * - 只有连接数已达上限且请求是幂等的(GET/PUT/DELETE)时才会pipelining
+     *
+     * @param pipeliningDepth int
+     *
+     * @return NioHttpTransport
+     */
+    public NioHttpTransport setPipeliningDepth(int pipeliningDepth) {
+        this.pipeliningDepth = Math.max(1, pipeliningDepth);
+        return this;
+    }
+
+    public long getMaxResponseSize() {
+        return maxResponseSize;
+    }
+
+    public NioHttpTransport setMaxResponseSize(long maxResponseSize) {
+        this.maxResponseSize = maxResponseSize;
+        return this;
+    }
+
+    public long getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    public NioHttpTransport setIdleTimeout(long idleTimeout) {
+        this.idleTimeout = idleTimeout;
+        return this;
+    }
+
+    public Executor getCallbackExecutor() {
+        return callbackExecutor;
+    }
+
+    /**
+     * setter of callbackExecutor，future在其中complete，默认为共享的有界守护线程池
+     *
+     * @param callbackExecutor Executor
+     *
+     * @return NioHttpTransport
+     */
+    public NioHttpTransport setCallbackExecutor(Executor callbackExecutor) {
+        this.callbackExecutor = null == callbackExecutor ? CallbackExecutorHolder.EXECUTOR : callbackExecutor;
+        return this;
+    }
+
+    public int getOpenConnections() {
+        return openConnections.get();
+    }
+
+    public int getInFlightRequests() {
+        return inFlightRequests.get();
+    }
+
+    public long getCreatedConnections() {
+        return createdConnections.get();
+    }
+
+    public long getCompletedRequests() {
+        return completedRequests.get();
+    }
+
+    public long getPipelinedRequests() {
+        return pipelinedRequests.get();
+    }
+
+    public long getRetriedRequests() {
+        return retriedRequests.get();
+    }
+
+    @Override
+    public String toString() {
+        return "[open: " + openConnections.get()
+            + "; inFlight: " + inFlightRequests.get()
+            + "; created: " + createdConnections.get()
+            + "; completed: " + completedRequests.get()
+            + "; pipelined: " + pipelinedRequests.get()
+            + "; retried: " + retriedRequests.get() + "]";
+    }
+
+    // ------------------------------------ inner classes -------------------------
+
+    private static class CallbackExecutorHolder {
+        private static final ExecutorService EXECUTOR = ThreadUtil.getDaemonExecutorService(
+            CALLBACK_POOL_SIZE, CALLBACK_QUEUE_SIZE, "nio-http-callback-%d");
+    }
+
+    /**
+     * 连接的目标：scheme、host、port与SslProvider
+     */
+    private static final class RouteKey {
+        private final boolean secure;
+        private final String host;
+        private final int port;
+        private final SslProvider sslProvider;
+
+        private RouteKey(HttpTransport.Request request) {
+            URL url = request.getUrl();
+            this.secure = request.isSecure();
+            this.host = url.getHost();
+            this.port = url.getPort() > 0 ? url.getPort() : url.getDefaultPort();
+            this.sslProvider = secure ? request.getSslProvider() : null;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof RouteKey)) {
+                return false;
+            }
+            RouteKey that = (RouteKey)o;
+            return secure == that.secure && port == that.port && host.equalsIgnoreCase(that.host)
+                && sslProvider == that.sslProvider;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = host.toLowerCase().hashCode();
+            result = 31 * result + port;
+            result = 31 * result + (secure ? 1 : 0);
+            result = 31 * result + System.identityHashCode(sslProvider);
+            return result;
+        }
+
+        @Override
+        public String toString() {
+            return (secure ? "https://" : "http://") + host + ":" + port;
+        }
+    }
+
+    /**
+     * 一次请求在传输层内的状态，除future外只在所属I/O线程上访问
+     */
+    private final class Exchange {
+        private final HttpTransport.Request request;
+        private final RouteKey route;
+        private final IoLoop loop;
+        private final CompletableFuture<RestApiResponse> future;
+        private final ByteBuffer head;
+        private final HttpBody body;
+        private final String method;
+        private final boolean idempotent;
+        private final int connectTimeout;
+        private final int readTimeout;
+        private final InetSocketAddress address;
+        private Closeable abortHandle;
+        private Connection connection;
+        private boolean reused;
+        private int attempt = 0;
+        private boolean done = false;
+
+        private Exchange(HttpTransport.Request request, RouteKey route, IoLoop loop,
+                         CompletableFuture<RestApiResponse> future) throws IOException, TimeoutException {
+            this.request = request;
+            this.route = route;
+            this.loop = loop;
+            this.future = future;
+            this.method = request.getMethod().getCode();
+            this.idempotent = request.getMethod().isIdempotent();
+            this.connectTimeout = request.connectTimeout();
+            this.readTimeout = request.readTimeout();
+            // 在调用线程上解析DNS，避免阻塞I/O线程
+            this.address = new InetSocketAddress(route.host, route.port);
+
+            // Producer(如流式json)会阻塞I/O线程，在调用线程上先生成到内存中
+            this.body = null == request.getBody() ? null : request.getBody().bufferProducers();
+            this.head = ByteBuffer.wrap(HttpCodec.encodeRequestHead(request, body));
+            inFlightRequests.incrementAndGet();
+        }
+
+        private void succeed(final RestApiResponse response) {
+            if (done) {
+                return;
+            }
+            done = true;
+            inFlightRequests.decrementAndGet();
+            completedRequests.incrementAndGet();
+            request.detach(abortHandle);
+            this.callback(new Runnable() {
+                @Override
+                public void run() {
+                    future.complete(response);
+                }
+            });
+        }
+
+        private void fail(final Throwable cause) {
+            if (done) {
+                return;
+            }
+            done = true;
+            inFlightRequests.decrementAndGet();
+            request.detach(abortHandle);
+            this.callback(new Runnable() {
+                @Override
+                public void run() {
+                    future.completeExceptionally(cause);
+                }
+            });
+        }
+
+        private void callback(Runnable task) {
+            try {
+                callbackExecutor.execute(task);
+            } catch (RejectedExecutionException e) {
+                task.run();
+            }
+        }
+    }
+
+    /**
+     * 一个route在I/O线程上的状态：连接与排队的请求
+     */
+    private static final class RouteState {
+        private final RouteKey key;
+        private final ArrayDeque<Exchange> pending = new ArrayDeque<Exchange>();
+        private final List<Connection> connections = new ArrayList<Connection>();
+
+        private RouteState(RouteKey key) {
+            this.key = key;
+        }
+    }
+
+    /**
+     * I/O线程：一个Selector加一个任务队列
+     */
+    private final class IoLoop implements Runnable {
+        private final Selector selector;
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+        private final Map<RouteKey, RouteState> routes = new HashMap<RouteKey, RouteState>();
+        private final ByteBuffer readBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+        private volatile boolean running = true;
+        private long lastScanAt = System.currentTimeMillis();
+
+        private IoLoop() throws IOException {
+            this.selector = Selector.open();
+        }
+
+        private void execute(Runnable task) {
+            if (!running) {
+                // I/O线程已停止，任务只会让请求失败，直接在调用线程上执行
+                task.run();
+                return;
+            }
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (running) {
+                    selector.select(SELECT_TIMEOUT);
+                    this.runTasks();
+                    this.processKeys();
+                    long now = System.currentTimeMillis();
+                    if (now - lastScanAt >= SELECT_TIMEOUT) {
+                        lastScanAt = now;
+                        this.scan(now);
+                    }
+                }
+            } catch (Throwable e) {
+                this.shutdown();
+            } finally {
+                try {
+                    selector.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+
+        private void runTasks() {
+            Runnable task;
+            while (null != (task = tasks.poll())) {
+                try {
+                    task.run();
+                } catch (RuntimeException ignored) {
+                    // 单个任务的异常不应终止I/O线程
+                }
+            }
+        }
+
+        private void processKeys() {
+            Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+            while (it.hasNext()) {
+                SelectionKey key = it.next();
+                it.remove();
+                Connection conn = (Connection)key.attachment();
+                try {
+                    if (key.isValid() && key.isConnectable()) {
+                        conn.onConnectable();
+                    }
+                    if (key.isValid() && key.isReadable()) {
+                        conn.onReadable();
+                    }
+                    if (key.isValid() && key.isWritable()) {
+                        conn.onWritable();
+                    }
+                } catch (Exception e) {
+                    conn.close(e);
+                }
+            }
+        }
+
+        private void submit(Exchange exchange) {
+            if (exchange.done) {
+                return;
+            }
+            if (!running) {
+                exchange.fail(new IOException("Transport closed"));
+                return;
+            }
+            if (exchange.request.isAborted()) {
+                exchange.fail(new IOException("Request aborted"));
+                return;
+            }
+            RouteState route = routes.get(exchange.route);
+            if (null == route) {
+                route = new RouteState(exchange.route);
+                routes.put(exchange.route, route);
+            }
+            route.pending.addLast(exchange);
+            this.dispatch(route);
+        }
+
+        /**
+         * 把排队的请求分配到连接上：空闲连接 &gt; 新建连接 &gt; pipelining
+         */
+        private void dispatch(RouteState route) {
+            while (running && !route.pending.isEmpty()) {
+                Exchange exchange = route.pending.peekFirst();
+                Connection conn = this.idleConnection(route);
+                if (null == conn && route.connections.size() < maxConnectionsPerRoute) {
+                    route.pending.pollFirst();
+                    try {
+                        conn = new Connection(this, route, exchange);
+                    } catch (Exception e) {
+                        exchange.fail(e);
+                        continue;
+                    }
+                    conn.enqueue(exchange);
+                    conn.start();
+                    continue;
+                }
+                if (null == conn && exchange.idempotent && pipeliningDepth > 1) {
+                    conn = this.pipelineConnection(route);
+                    if (null != conn) {
+                        pipelinedRequests.incrementAndGet();
+                    }
+                }
+                if (null == conn) {
+                    return;
+                }
+                route.pending.pollFirst();
+                conn.enqueue(exchange);
+            }
+        }
+
+        private Connection idleConnection(RouteState route) {
+            for (Connection conn : route.connections) {
+                if (conn.inFlight.isEmpty() && !conn.closed) {
+                    return conn;
+                }
+            }
+            return null;
+        }
+
+        private Connection pipelineConnection(RouteState route) {
+            Connection best = null;
+            for (Connection conn : route.connections) {
+                if (conn.closed || !conn.keepAlive || conn.inFlight.size() >= pipeliningDepth) {
+                    continue;
+                }
+                if (!conn.allIdempotent()) {
+                    continue;
+                }
+                if (null == best || conn.inFlight.size() < best.inFlight.size()) {
+                    best = conn;
+                }
+            }
+            return best;
+        }
+
+        private void abort(Exchange exchange) {
+            if (exchange.done) {
+                return;
+            }
+            IOException cause = new IOException("Request aborted");
+            Connection conn = exchange.connection;
+            if (null == conn) {
+                RouteState route = routes.get(exchange.route);
+                if (null != route) {
+                    route.pending.remove(exchange);
+                }
+                exchange.fail(cause);
+            } else if (conn.inFlight.peekFirst() == exchange) {
+                conn.close(cause);
+            } else {
+                // 已pipelining发出的请求无法撤回，响应到达后丢弃
+                exchange.fail(cause);
+            }
+        }
+
+        /**
+         * 检查connect/read超时、请求deadline与空闲连接
+         */
+        private void scan(long now) {
+            Iterator<RouteState> routeIt = routes.values().iterator();
+            while (routeIt.hasNext()) {
+                RouteState route = routeIt.next();
+                Iterator<Exchange> pendingIt = route.pending.iterator();
+                while (pendingIt.hasNext()) {
+                    Exchange exchange = pendingIt.next();
+                    if (exchange.request.isExpired()) {
+                        pendingIt.remove();
+                        exchange.fail(new TimeoutException("Request deadline exceeded"));
+                    }
+                }
+
+                for (Connection conn : new ArrayList<Connection>(route.connections)) {
+                    conn.checkTimeout(now);
+                }
+                if (route.connections.isEmpty() && route.pending.isEmpty()) {
+                    routeIt.remove();
+                }
+            }
+        }
+
+        private void shutdown() {
+            running = false;
+            IOException cause = new IOException("Transport closed");
+            for (RouteState route : new ArrayList<RouteState>(routes.values())) {
+                for (Connection conn : new ArrayList<Connection>(route.connections)) {
+                    conn.close(cause);
+                }
+                Exchange exchange;
+                while (null != (exchange = route.pending.pollFirst())) {
+                    exchange.fail(cause);
+                }
+            }
+            routes.clear();
+        }
+    }
+
+    /**
+     * 一个非阻塞连接，in-flight的请求按发出顺序排队等待响应
+     */
+    private final class Connection {
+        private final IoLoop loop;
+        private final RouteState route;
+        private final SocketChannel channel;
+        private final SelectionKey key;
+        private final ArrayDeque<Exchange> inFlight = new ArrayDeque<Exchange>();
+        private final ArrayDeque<RequestWriter> outQueue = new ArrayDeque<RequestWriter>();
+        private HttpResponseParser parser;
+        private SSLEngine engine;
+        private SslContextCache.Entry sslEntry;
+        private long handshakeStartedAt;
+        private ByteBuffer netIn;
+        private ByteBuffer netOut;
+        private ByteBuffer appIn;
+        private boolean ready = false;
+        private boolean keepAlive = true;
+        private boolean closed = false;
+        private long connectDeadline;
+        private long lastActiveAt;
+        private int useCount = 0;
+
+        private Connection(IoLoop loop, RouteState route, Exchange first) throws IOException {
+            this.loop = loop;
+            this.route = route;
+            this.channel = SocketChannel.open();
+            try {
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                channel.setOption(StandardSocketOptions.SO_KEEPALIVE, true);
+                boolean connected = channel.connect(first.address);
+                this.key = channel.register(loop.selector, connected ? SelectionKey.OP_READ : SelectionKey.OP_CONNECT,
+                    this);
+            } catch (IOException e) {
+                closeChannel();
+                throw e;
+            }
+            long now = System.currentTimeMillis();
+            this.connectDeadline = first.connectTimeout > 0 ? now + first.connectTimeout : 0;
+            this.lastActiveAt = now;
+            route.connections.add(this);
+            openConnections.incrementAndGet();
+            createdConnections.incrementAndGet();
+        }
+
+        /**
+         * connect立即完成(如本机地址)时直接进入握手/发送
+         */
+        private void start() {
+            if (!channel.isConnected() || closed) {
+                return;
+            }
+            try {
+                this.onConnected();
+            } catch (Exception e) {
+                this.close(e);
+            }
+        }
+
+        private void enqueue(Exchange exchange) {
+            exchange.connection = this;
+            exchange.reused = useCount > 0;
+            inFlight.addLast(exchange);
+            outQueue.addLast(new RequestWriter(exchange.head.duplicate(), exchange.body));
+            if (null == parser) {
+                parser = new HttpResponseParser(exchange.method, maxResponseSize);
+            }
+            if (inFlight.size() == 1) {
+                lastActiveAt = System.currentTimeMillis();
+            }
+            if (ready) {
+                try {
+                    this.flush();
+                } catch (IOException e) {
+                    this.close(e);
+                }
+            }
+        }
+
+        private boolean allIdempotent() {
+            for (Exchange exchange : inFlight) {
+                if (!exchange.idempotent) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void onConnectable() throws IOException {
+            if (channel.finishConnect()) {
+                key.interestOps(SelectionKey.OP_READ);
+                this.onConnected();
+            }
+        }
+
+        private void onConnected() throws IOException {
+            if (!route.key.secure) {
+                connectDeadline = 0;
+                ready = true;
+                this.flush();
+                return;
+            }
+
+            try {
+                sslEntry = route.key.sslProvider.getSslEntry();
+            } catch (Exception e) {
+                throw new SSLException("Failed to create SSLContext", e);
+            }
+            // 带上host与port，以便复用SSLContext中缓存的会话
+            engine = sslEntry.getContext().createSSLEngine(route.key.host, route.key.port);
+            engine.setUseClientMode(true);
+            int packetSize = engine.getSession().getPacketBufferSize();
+            netIn = ByteBuffer.allocate(packetSize);
+            netOut = ByteBuffer.allocate(packetSize);
+            appIn = ByteBuffer.allocate(engine.getSession().getApplicationBufferSize());
+            handshakeStartedAt = System.currentTimeMillis();
+            engine.beginHandshake();
+            this.handshake();
+        }
+
+        private void onReadable() throws IOException {
+            ByteBuffer buffer = null == engine ? loop.readBuffer : netIn;
+            int n = channel.read(buffer);
+            if (n < 0) {
+                this.onEof();
+                return;
+            }
+            if (n == 0) {
+                return;
+            }
+            lastActiveAt = System.currentTimeMillis();
+            if (null == engine) {
+                buffer.flip();
+                this.onData(buffer);
+                buffer.clear();
+                return;
+            }
+
+            if (!ready) {
+                this.handshake();
+            }
+            if (ready && !closed) {
+                this.unwrap();
+            }
+        }
+
+        private void onWritable() throws IOException {
+            if (ready) {
+                this.flush();
+            } else {
+                this.handshake();
+            }
+        }
+
+        /**
+         * 驱动TLS握手，完成后校验主机名并开始发送请求
+         */
+        private void handshake() throws IOException {
+            while (!closed) {
+                HandshakeStatus status = engine.getHandshakeStatus();
+                if (status == HandshakeStatus.NEED_TASK) {
+                    this.runDelegatedTasks();
+                } else if (status == HandshakeStatus.NEED_WRAP) {
+                    SSLEngineResult result = engine.wrap(ByteBuffer.allocate(0), netOut);
+                    if (result.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW) {
+                        netOut = enlarge(netOut, engine.getSession().getPacketBufferSize());
+                    } else if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+                        throw new SSLException("SSLEngine closed during handshake");
+                    }
+                    if (!this.writeNet()) {
+                        return;
+                    }
+                } else if (status == HandshakeStatus.NOT_HANDSHAKING || status == HandshakeStatus.FINISHED) {
+                    if (!this.writeNet()) {
+                        return;
+                    }
+                    this.onHandshakeFinished();
+                    return;
+                } else {
+                    // NEED_UNWRAP
+                    netIn.flip();
+                    SSLEngineResult result;
+                    try {
+                        result = engine.unwrap(netIn, appIn);
+                    } finally {
+                        netIn.compact();
+                    }
+                    SSLEngineResult.Status unwrapStatus = result.getStatus();
+                    if (unwrapStatus == SSLEngineResult.Status.BUFFER_UNDERFLOW) {
+                        if (netIn.position() == netIn.capacity()) {
+                            netIn = enlarge(netIn, engine.getSession().getPacketBufferSize());
+                        }
+                        // 等待更多数据
+                        return;
+                    }
+                    if (unwrapStatus == SSLEngineResult.Status.BUFFER_OVERFLOW) {
+                        appIn = enlarge(appIn, engine.getSession().getApplicationBufferSize());
+                    } else if (unwrapStatus == SSLEngineResult.Status.CLOSED) {
+                        throw new SSLException("SSLEngine closed during handshake");
+                    }
+                }
+            }
+        }
+
+        private void onHandshakeFinished() throws IOException {
+            sslEntry.onHandshake(engine.getSession(), handshakeStartedAt);
+            if (!route.key.sslProvider.getDefalutHostnameVerifier().verify(route.key.host, engine.getSession())) {
+                throw new SSLPeerUnverifiedException("Hostname " + route.key.host + " not verified");
+            }
+            connectDeadline = 0;
+            ready = true;
+            if (appIn.position() > 0) {
+                appIn.flip();
+                this.onData(appIn);
+                appIn.clear();
+            }
+            if (!closed) {
+                this.flush();
+            }
+            if (netIn.position() > 0 && !closed) {
+                this.unwrap();
+            }
+        }
+
+        private void runDelegatedTasks() {
+            Runnable task;
+            while (null != (task = engine.getDelegatedTask())) {
+                task.run();
+            }
+        }
+
+        /**
+         * 解密已收到的TLS记录并交给解析器
+         */
+        private void unwrap() throws IOException {
+            netIn.flip();
+            try {
+                while (netIn.hasRemaining() && !closed) {
+                    SSLEngineResult result = engine.unwrap(netIn, appIn);
+                    SSLEngineResult.Status status = result.getStatus();
+                    if (status == SSLEngineResult.Status.BUFFER_UNDERFLOW) {
+                        break;
+                    }
+                    if (status == SSLEngineResult.Status.BUFFER_OVERFLOW) {
+                        appIn = enlarge(appIn, engine.getSession().getApplicationBufferSize());
+                        continue;
+                    }
+                    appIn.flip();
+                    this.onData(appIn);
+                    appIn.clear();
+                    if (status == SSLEngineResult.Status.CLOSED) {
+                        this.onEof();
+                        return;
+                    }
+                    HandshakeStatus hs = result.getHandshakeStatus();
+                    if (hs == HandshakeStatus.NEED_TASK) {
+                        this.runDelegatedTasks();
+                    } else if (hs == HandshakeStatus.NEED_WRAP) {
+                        engine.wrap(ByteBuffer.allocate(0), netOut);
+                        this.writeNet();
+                    }
+                }
+            } finally {
+                if (!closed) {
+                    netIn.compact();
+                }
+            }
+        }
+
+        /**
+         * 依次解析响应，一个buffer里可能有多个pipelining的响应
+         */
+        private void onData(ByteBuffer buffer) throws IOException {
+            while (buffer.hasRemaining() && !closed) {
+                if (null == parser) {
+                    throw new IOException("Unexpected data from server: " + route.key);
+                }
+                if (!parser.feed(buffer)) {
+                    return;
+                }
+                this.onResponse();
+            }
+        }
+
+        private void onResponse() {
+            HttpCodec.ResponseHead head = parser.getHead();
+            boolean reusable = parser.isKeepAlive();
+            Exchange exchange = inFlight.pollFirst();
+            exchange.succeed(new RestApiResponse(head.getStatusCode(), head.getHeaders(),
+                new ByteArrayInputStream(parser.getBody()), exchange.request.getCharset()));
+            useCount++;
+            lastActiveAt = System.currentTimeMillis();
+
+            Exchange next = inFlight.peekFirst();
+            parser = null == next ? null : new HttpResponseParser(next.method, maxResponseSize);
+            if (!reusable) {
+                keepAlive = false;
+                this.close(new IOException("Connection closed by server: " + route.key));
+                return;
+            }
+            loop.dispatch(route);
+        }
+
+        private void onEof() {
+            if (null != parser && parser.onEof()) {
+                keepAlive = false;
+                this.onResponse();
+                if (closed) {
+                    return;
+                }
+            }
+            this.close(new IOException("Connection closed by peer: " + route.key));
+        }
+
+        private void checkTimeout(long now) {
+            if (connectDeadline > 0 && now >= connectDeadline) {
+                this.close(new SocketTimeoutException("connect timed out: " + route.key));
+                return;
+            }
+            Exchange head = inFlight.peekFirst();
+            if (null == head) {
+                if (idleTimeout > 0 && now - lastActiveAt >= idleTimeout) {
+                    this.close(null);
+                }
+                return;
+            }
+            if (head.request.isExpired()) {
+                this.close(new TimeoutException("Request deadline exceeded"));
+                return;
+            }
+            if (ready && head.readTimeout > 0 && now - lastActiveAt >= head.readTimeout) {
+                this.close(new SocketTimeoutException("Read timed out: " + route.key));
+                return;
+            }
+            for (Exchange exchange : inFlight) {
+                if (exchange.request.isExpired()) {
+                    exchange.fail(new TimeoutException("Request deadline exceeded"));
+                }
+            }
+        }
+
+        /**
+         * 写出待发送的数据，写不完时注册OP_WRITE
+         */
+        private void flush() throws IOException {
+            if (null == engine) {
+                RequestWriter writer;
+                while (null != (writer = outQueue.peekFirst())) {
+                    if (!writer.writeTo(channel)) {
+                        this.interestWrite(true);
+                        return;
+                    }
+                    outQueue.pollFirst();
+                }
+                this.interestWrite(false);
+                return;
+            }
+
+            while (true) {
+                if (!this.writeNet()) {
+                    return;
+                }
+                RequestWriter writer = outQueue.peekFirst();
+                if (null == writer) {
+                    this.interestWrite(false);
+                    return;
+                }
+                ByteBuffer src = writer.nextBuffer();
+                if (null == src) {
+                    outQueue.pollFirst();
+                    continue;
+                }
+                SSLEngineResult result = engine.wrap(src, netOut);
+                if (result.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW && netOut.position() == 0) {
+                    netOut = enlarge(netOut, engine.getSession().getPacketBufferSize());
+                } else if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+                    throw new SSLException("SSLEngine closed");
+                }
+            }
+        }
+
+        /**
+         * 写出netOut中已加密的数据
+         *
+         * @return 是否已全部写出
+         */
+        private boolean writeNet() throws IOException {
+            netOut.flip();
+            try {
+                while (netOut.hasRemaining()) {
+                    if (channel.write(netOut) == 0) {
+                        this.interestWrite(true);
+                        return false;
+                    }
+                }
+            } finally {
+                netOut.compact();
+            }
+            return true;
+        }
+
+        private void interestWrite(boolean write) throws ClosedChannelException {
+            if (!key.isValid()) {
+                throw new ClosedChannelException();
+            }
+            key.interestOps(write ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+        }
+
+        /**
+         * 关闭连接，未完成的请求按条件重试或者失败
+         *
+         * @param cause 失败原因，空闲关闭时为null
+         */
+        private void close(Throwable cause) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            this.closeChannel();
+            if (null != engine) {
+                engine.closeOutbound();
+            }
+            route.connections.remove(this);
+            openConnections.decrementAndGet();
+
+            List<Exchange> retries = new ArrayList<Exchange>();
+            boolean first = true;
+            for (Exchange exchange : inFlight) {
+                if (this.retryable(exchange, first, cause)) {
+                    exchange.attempt++;
+                    exchange.connection = null;
+                    retries.add(exchange);
+                } else {
+                    exchange.fail(null == cause ? new IOException("Connection closed") : cause);
+                }
+                first = false;
+            }
+            inFlight.clear();
+            for (RequestWriter writer : outQueue) {
+                writer.close();
+            }
+            outQueue.clear();
+            parser = null;
+
+            // 按原顺序放回队首
+            for (int i = retries.size() - 1; i >= 0; i--) {
+                route.pending.addFirst(retries.get(i));
+                retriedRequests.incrementAndGet();
+            }
+            loop.dispatch(route);
+        }
+
+        /**
+         * 幂等请求只重试一次：pipelining排在后面的请求，或者复用的连接上尚未收到响应的请求<br/>
+         * - body含输入流时可能已被部分读取，不能重试
+         */
+        private boolean retryable(Exchange exchange, boolean first, Throwable cause) {
+            if (exchange.done || !exchange.idempotent || exchange.attempt > 0 || exchange.request.isAborted()
+                || !loop.running || (null != exchange.body && !exchange.body.isRepeatable())) {
+                return false;
+            }
+            if (!first) {
+                return true;
+            }
+            return exchange.reused && null != parser && parser.isIdle()
+                && !(cause instanceof SocketTimeoutException) && !(cause instanceof TimeoutException);
+        }
+
+        private void closeChannel() {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private static ByteBuffer enlarge(ByteBuffer buffer, int minCapacity) {
+        ByteBuffer bigger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, minCapacity));
+        buffer.flip();
+        bigger.put(buffer);
+        return bigger;
+    }
+
+    /**
+     * 单个请求的写出状态：请求头、body各段依次写出，只在所属I/O线程上访问<br/>
+     * - 明文连接上文件段通过FileChannel.transferTo直接写入SocketChannel<br/>
+     * - TLS连接与输入流段经由一个固定大小的缓冲区，内存占用与body大小无关<br/>
+     * - body长度未知时按chunked分块<br/>
+     * - 输入流段在I/O线程上读取，应为本地数据(内存、磁盘)，避免阻塞I/O线程
+     */
+    private static final class RequestWriter {
+        private static final int SCRATCH_SIZE = 16384;
+
+        private final ArrayDeque<ByteBuffer> buffers = new ArrayDeque<ByteBuffer>();
+        private final Iterator<HttpBody.Segment> segments;
+        private final boolean chunked;
+        private ByteBuffer scratch;
+        private FileChannel file;
+        private HttpBody.Segment fileSegment;
+        private long filePosition;
+        private long fileRemaining;
+        private InputStream stream;
+        private boolean finished = false;
+
+        private RequestWriter(ByteBuffer head, HttpBody body) {
+            this.buffers.addLast(head);
+            this.segments = null == body ? Collections.<HttpBody.Segment>emptyIterator() : body.segments().iterator();
+            this.chunked = null != body && body.contentLength() < 0;
+        }
+
+        /**
+         * 写出到明文连接
+         *
+         * @return 是否已全部写出
+         */
+        private boolean writeTo(SocketChannel channel) throws IOException {
+            while (true) {
+                if (!buffers.isEmpty()) {
+                    // 连续的内存段(如请求头与json body)合并为一次写出
+                    ByteBuffer[] srcs = buffers.toArray(new ByteBuffer[buffers.size()]);
+                    channel.write(srcs);
+                    while (!buffers.isEmpty() && !buffers.peekFirst().hasRemaining()) {
+                        buffers.pollFirst();
+                    }
+                    if (!buffers.isEmpty()) {
+                        return false;
+                    }
+                } else if (fileRemaining > 0) {
+                    long n = file.transferTo(filePosition, fileRemaining, channel);
+                    if (n == 0) {
+                        if (filePosition >= file.size()) {
+                            throw new IOException("File truncated while sending: " + fileSegment.path);
+                        }
+                        return false;
+                    }
+                    this.onFileRead(n);
+                } else if (!this.advance()) {
+                    return true;
+                }
+            }
+        }
+
+        /**
+         * 下一段待加密的明文
+         *
+         * @return ByteBuffer，全部写出后返回null
+         */
+        private ByteBuffer nextBuffer() throws IOException {
+            while (true) {
+                ByteBuffer buffer = buffers.peekFirst();
+                if (null != buffer) {
+                    if (buffer.hasRemaining()) {
+                        return buffer;
+                    }
+                    buffers.pollFirst();
+                } else if (fileRemaining > 0) {
+                    ByteBuffer chunk = this.scratch();
+                    if (chunk.remaining() > fileRemaining) {
+                        chunk.limit((int)fileRemaining);
+                    }
+                    int n = file.read(chunk, filePosition);
+                    if (n < 0) {
+                        throw new IOException("File truncated while sending: " + fileSegment.path);
+                    }
+                    chunk.flip();
+                    buffers.addLast(chunk);
+                    this.onFileRead(n);
+                } else if (!this.advance()) {
+                    return null;
+                }
+            }
+        }
+
+        /**
+         * 准备下一段数据
+         *
+         * @return 是否还有数据
+         */
+        private boolean advance() throws IOException {
+            if (null != stream) {
+                ByteBuffer chunk = this.scratch();
+                int n = stream.read(chunk.array(), 0, chunk.capacity());
+                if (n < 0) {
+                    this.closeStream();
+                } else if (n > 0) {
+                    chunk.limit(n);
+                    this.addChunk(chunk, n);
+                }
+                return true;
+            }
+            while (segments.hasNext()) {
+                HttpBody.Segment segment = segments.next();
+                if (null != segment.buffer) {
+                    this.addChunk(segment.buffer.duplicate(), segment.length);
+                } else if (null != segment.path) {
+                    if (segment.length == 0) {
+                        continue;
+                    }
+                    if (chunked) {
+                        buffers.addLast(ByteBuffer.wrap(HttpCodec.chunkHeader(segment.length)));
+                    }
+                    fileSegment = segment;
+                    file = FileChannel.open(segment.path, StandardOpenOption.READ);
+                    filePosition = segment.position;
+                    fileRemaining = segment.length;
+                    return true;
+                } else {
+                    stream = segment.stream;
+                    return true;
+                }
+                if (!buffers.isEmpty()) {
+                    return true;
+                }
+            }
+            if (chunked && !finished) {
+                finished = true;
+                buffers.addLast(ByteBuffer.wrap(HttpCodec.LAST_CHUNK));
+                return true;
+            }
+            return false;
+        }
+
+        private void addChunk(ByteBuffer buffer, long size) {
+            if (size == 0) {
+                return;
+            }
+            if (chunked) {
+                buffers.addLast(ByteBuffer.wrap(HttpCodec.chunkHeader(size)));
+                buffers.addLast(buffer);
+                buffers.addLast(ByteBuffer.wrap(HttpCodec.CRLF_BYTES));
+            } else {
+                buffers.addLast(buffer);
+            }
+        }
+
+        private void onFileRead(long n) throws IOException {
+            filePosition += n;
+            fileRemaining -= n;
+            if (fileRemaining == 0) {
+                this.closeFile();
+                if (chunked) {
+                    buffers.addLast(ByteBuffer.wrap(HttpCodec.CRLF_BYTES));
+                }
+            }
+        }
+
+        /**
+         * 复用的读缓冲区，只在上一次的数据写出后才会再次填充
+         */
+        private ByteBuffer scratch() {
+            if (null == scratch) {
+                scratch = ByteBuffer.allocate(SCRATCH_SIZE);
+            }
+            scratch.clear();
+            return scratch;
+        }
+
+        private void closeFile() throws IOException {
+            FileChannel f = file;
+            file = null;
+            fileSegment = null;
+            fileRemaining = 0;
+            if (null != f) {
+                f.close();
+            }
+        }
+
+        private void closeStream() throws IOException {
+            InputStream in = stream;
+            stream = null;
+            if (null != in) {
+                in.close();
+            }
+        }
+
+        private void close() {
+            try {
+                this.closeFile();
+                this.closeStream();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
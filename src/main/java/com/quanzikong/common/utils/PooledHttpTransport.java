@@ -0,0 +1,217 @@
+package com.quanzikong.common.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingOutputStream;
+
+import com.quanzikong.common.utils.HttpConnectionPool.PooledConnection;
+import com.quanzikong.common.utils.HttpConnectionPool.Route;
+import com.quanzikong.common.utils.RestApiUtil.SslProvider;
+
+/**
+ * 基于HttpConnectionPool的阻塞式传输层(RestApiClient的默认传输层)<br/>
+ * - 响应body读完或者被关闭时连接归还连接池<br/>
+ * - 另提供同一连接上的HTTP/1.1 pipelining，见<code>RestApiBatch</code>
+ *
+ * @author agent
+ */
+public class PooledHttpTransport implements HttpTransport {
+
+    private final HttpConnectionPool connectionPool;
+
+    public PooledHttpTransport(HttpConnectionPool connectionPool) {
+        this.connectionPool = connectionPool;
+    }
+
+    @Override
+    public RestApiResponse execute(final Request request) throws Exception {
+        Route route = newRoute(request);
+        byte[] head = HttpCodec.encodeRequestHead(request);
+        HttpBody body = request.getBody();
+        String method = request.getMethod().getCode();
+
+        for (int attempt = 0; ; attempt++) {
+            int connectTimeout = request.connectTimeout();
+            HttpEventListener listener = request.getListener();
+            boolean timed = HttpEventListener.NONE != listener;
+            long startedAt = timed ? System.nanoTime() : 0;
+            final PooledConnection conn = connectionPool.lease(route, connectTimeout, connectTimeout, request);
+            final Closeable abortHandle = new Closeable() {
+                @Override
+                public void close() {
+                    conn.closeQuietly();
+                }
+            };
+            request.attach(abortHandle);
+            HttpCodec.ResponseHead responseHead;
+            try {
+                if (timed) {
+                    long now = System.nanoTime();
+                    listener.connectionAcquired(request, conn.getUseCount() > 0, now - startedAt);
+                    startedAt = now;
+                }
+                // 等待连接期间可能已经到达deadline，readTimeout抛出的TimeoutException同样要归还连接
+                conn.setSoTimeout(request.readTimeout());
+                OutputStream out = conn.getOutputStream();
+                long written = writeRequest(out, head, body);
+                out.flush();
+                if (timed) {
+                    listener.requestWritten(request, written, System.nanoTime() - startedAt);
+                }
+                responseHead = HttpCodec.readResponseHead(conn.getInputStream());
+            } catch (Exception e) {
+                // body序列化失败等非IO异常同样要归还连接
+                request.detach(abortHandle);
+                connectionPool.release(conn, false);
+                // 复用的空闲连接可能已被服务端关闭，幂等请求换一个连接重发一次
+                if (e instanceof IOException && attempt == 0 && conn.getUseCount() > 0
+                    && request.getMethod().isIdempotent()
+                    && (null == body || body.isRepeatable())
+                    && !request.isAborted() && !(e instanceof SocketTimeoutException)) {
+                    continue;
+                }
+                throw e;
+            }
+
+            InputStream ins;
+            try {
+                ins = HttpCodec.bodyStream(responseHead, method, conn.getInputStream(),
+                    new HttpCodec.BodyListener() {
+                        @Override
+                        public void onComplete(boolean reusable) {
+                            // 连接归还后不再受本次请求的cancel影响
+                            request.detach(abortHandle);
+                            connectionPool.release(conn, reusable);
+                        }
+                    });
+            } catch (Exception e) {
+                request.detach(abortHandle);
+                connectionPool.release(conn, false);
+                throw e;
+            }
+            return new RestApiResponse(responseHead.getStatusCode(), responseHead.getHeaders(), ins,
+                request.getCharset());
+        }
+    }
+
+    /**
+     * 在同一个连接上先写出全部请求，再按顺序读取响应(HTTP/1.1 pipelining)，由RestApiBatch使用<br/>
+     * - 请求须属于同一个host，connect/read timeout取第一个请求的<br/>
+     * - 响应body全部读入内存，最后一个响应读完后连接才归还连接池<br/>
+     * - 服务端中途关闭连接(Connection: close)或者读写失败时，之后的请求没有响应，由调用方决定是否重发
+     *
+     * @param requests 同一host的请求
+     *
+     * @return Pipeline
+     *
+     * @throws Exception 获取连接失败
+     */
+    Pipeline executePipelined(List<Request> requests) throws Exception {
+        Request first = requests.get(0);
+        int connectTimeout = first.connectTimeout();
+        PooledConnection conn = connectionPool.lease(newRoute(first), connectTimeout, connectTimeout);
+        Pipeline pipeline = new Pipeline(requests.size(), conn.getUseCount() > 0);
+        final boolean[] reusable = new boolean[1];
+        try {
+            conn.setSoTimeout(first.readTimeout());
+            OutputStream out = conn.getOutputStream();
+            for (Request request : requests) {
+                writeRequest(out, HttpCodec.encodeRequestHead(request), request.getBody());
+            }
+            out.flush();
+
+            for (Request request : requests) {
+                HttpCodec.ResponseHead head = HttpCodec.readResponseHead(conn.getInputStream());
+                reusable[0] = false;
+                InputStream ins = HttpCodec.bodyStream(head, request.getMethod().getCode(), conn.getInputStream(),
+                    new HttpCodec.BodyListener() {
+                        @Override
+                        public void onComplete(boolean keepAlive) {
+                            reusable[0] = keepAlive;
+                        }
+                    });
+                byte[] bytes;
+                try {
+                    bytes = ByteStreams.toByteArray(ins);
+                } finally {
+                    ins.close();
+                }
+                pipeline.responses.add(new RestApiResponse(head.getStatusCode(), head.getHeaders(),
+                    new ByteArrayInputStream(bytes), request.getCharset()));
+                pipeline.http11 &= head.isHttp11();
+                if (!reusable[0]) {
+                    // 服务端将关闭连接，之后的请求不会被处理
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            reusable[0] = false;
+            pipeline.error = e;
+        } finally {
+            connectionPool.release(conn, reusable[0] && pipeline.responses.size() == requests.size());
+        }
+        return pipeline;
+    }
+
+    public HttpConnectionPool getConnectionPool() {
+        return connectionPool;
+    }
+
+    /**
+     * 写出请求，返回写出的字节数
+     */
+    private static long writeRequest(OutputStream out, byte[] head, HttpBody body) throws IOException {
+        out.write(head);
+        if (null == body) {
+            return head.length;
+        }
+        if (body.contentLength() >= 0) {
+            body.writeTo(out);
+            return head.length + body.contentLength();
+        }
+        CountingOutputStream counting = new CountingOutputStream(out);
+        HttpCodec.ChunkedOutputStream chunked = new HttpCodec.ChunkedOutputStream(counting);
+        body.writeTo(chunked);
+        chunked.finish();
+        return head.length + counting.getCount();
+    }
+
+    private static Route newRoute(Request request) throws Exception {
+        if (!request.isSecure()) {
+            return Route.of(request.getUrl(), null, null);
+        }
+        SslProvider sslProvider = request.getSslProvider();
+        return Route.of(request.getUrl(), sslProvider.getSSLSocketFactory(), sslProvider.getDefalutHostnameVerifier());
+    }
+
+    // ------------------------------------ inner classes -------------------------
+
+    /**
+     * 一次pipelining的结果：按顺序收到的响应(可能少于请求数)，以及中途的异常
+     */
+    static final class Pipeline {
+        final List<RestApiResponse> responses;
+        /**
+         * 是否复用了连接池中的空闲连接
+         */
+        final boolean reused;
+        /**
+         * 服务端是否为HTTP/1.1(HTTP/1.0不应pipelining)
+         */
+        boolean http11 = true;
+        IOException error;
+
+        private Pipeline(int size, boolean reused) {
+            this.responses = new ArrayList<RestApiResponse>(size);
+            this.reused = reused;
+        }
+    }
+}
@@ -0,0 +1,310 @@
+package com.quanzikong.common.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import javax.servlet.http.HttpServletRequest;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.TypeReference;
+
+/**
+ * 服务端读取的请求body，替代RestApiUtil.getRequestBytes<br/>
+ * - 支持chunked(没有Content-Length)的body；有Content-Length时只分配一次，超过maxSize时不读取直接失败<br/>
+ * - 读入BufferPool借出的数组，close后归还；InputStream、ByteBuffer、json与hessian解码都直接使用该数组，不再复制<br/>
+ * - 不修改request的编码，解码字符串与json时使用请求声明的charset，未声明时为UTF-8<br/>
+ * - 非线程安全，close后不能再使用
+ *
+ * Usage:
+ * try (RequestPayload payload = RequestPayload.read(request)) {
+ * TestPojo pojo = payload.getHessianObject(TestPojo.class);
+ * }
+ *
+ * @author agent
+ */
+public final class RequestPayload implements Closeable {
+
+    /**
+     * 默认最大body：16MB
+     */
+    public static final int DEFAULT_MAX_SIZE = 16 * 1024 * 1024;
+    private static final String DEFAULT_CHARSET = "UTF-8";
+    private static final int INITIAL_SIZE = 4 * 1024;
+    private static final byte[] EMPTY = new byte[0];
+
+    private byte[] buffer;
+    private final int length;
+    private final String charset;
+
+    private RequestPayload(byte[] buffer, int length, String charset) {
+        this.buffer = buffer;
+        this.length = length;
+        this.charset = charset;
+    }
+
+    /**
+     * 读取请求body，最大DEFAULT_MAX_SIZE
+     *
+     * @param request HttpServletRequest
+     *
+     * @return RequestPayload 使用完请close
+     *
+     * @throws IOException e, body超过最大长度时为PayloadTooLargeException
+     */
+    public static RequestPayload read(HttpServletRequest request) throws IOException {
+        return read(request, DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * 读取请求body
+     *
+     * @param request HttpServletRequest
+     * @param maxSize 最大长度
+     *
+     * @return RequestPayload 使用完请close
+     *
+     * @throws IOException e, body超过最大长度时为PayloadTooLargeException
+     */
+    public static RequestPayload read(HttpServletRequest request, int maxSize) throws IOException {
+        String charset = null == request.getCharacterEncoding() ? DEFAULT_CHARSET : request.getCharacterEncoding();
+        return read(request.getInputStream(), request.getContentLengthLong(), charset, maxSize);
+    }
+
+    /**
+     * 从输入流读取body
+     *
+     * @param in            InputStream，不会被关闭
+     * @param contentLength 长度，未知时为-1
+     * @param charset       解码字符串与json使用的编码
+     * @param maxSize       最大长度
+     *
+     * @return RequestPayload 使用完请close
+     *
+     * @throws IOException e, body超过最大长度时为PayloadTooLargeException
+     */
+    public static RequestPayload read(InputStream in, long contentLength, String charset, int maxSize)
+        throws IOException {
+        Collector collector = new Collector(contentLength, charset, maxSize);
+        try {
+            while (collector.readFrom(in) >= 0) {
+                // until EOF
+            }
+        } catch (IOException | RuntimeException e) {
+            collector.discard();
+            throw e;
+        }
+        return collector.finish();
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    public String getCharset() {
+        return charset;
+    }
+
+    /**
+     * body的输入流，直接读取内部数组
+     *
+     * @return InputStream
+     */
+    public InputStream getInputStream() {
+        return new ByteArrayInputStream(this.buffer(), 0, length);
+    }
+
+    /**
+     * body的只读ByteBuffer，直接包装内部数组
+     *
+     * @return ByteBuffer
+     */
+    public ByteBuffer getByteBuffer() {
+        return ByteBuffer.wrap(this.buffer(), 0, length).slice().asReadOnlyBuffer();
+    }
+
+    /**
+     * 复制出body
+     *
+     * @return byte[]
+     */
+    public byte[] getBytes() {
+        return Arrays.copyOf(this.buffer(), length);
+    }
+
+    /**
+     * 按请求的charset解码为字符串
+     *
+     * @return String
+     */
+    public String getString() {
+        return new String(this.buffer(), 0, length, Charset.forName(charset));
+    }
+
+    /**
+     * 按json解析为给定类型
+     *
+     * @param clazz Class
+     * @param <T>   T
+     *
+     * @return T
+     */
+    public <T> T getObject(Class<T> clazz) {
+        return JSON.parseObject(this.buffer(), 0, length, Charset.forName(charset).newDecoder(), clazz);
+    }
+
+    /**
+     * 按json解析为给定的泛型类型
+     *
+     * @param typeReference TypeReference
+     * @param <T>           T
+     *
+     * @return T
+     */
+    public <T> T getObject(TypeReference<T> typeReference) {
+        return JSON.parseObject(this.buffer(), 0, length, Charset.forName(charset).newDecoder(),
+            typeReference.getType());
+    }
+
+    /**
+     * 按hessian反序列化
+     *
+     * @param clazz Class
+     * @param <T>   T
+     *
+     * @return T
+     */
+    public <T> T getHessianObject(Class<T> clazz) {
+        return HessianUtil.deserialize(this.getInputStream(), clazz);
+    }
+
+    /**
+     * 归还内部数组
+     */
+    @Override
+    public void close() {
+        BufferPool.release(buffer);
+        buffer = null;
+    }
+
+    // --------------------------------- private ----------------------------------
+
+    private byte[] buffer() {
+        if (null == buffer) {
+            throw new IllegalStateException("RequestPayload is closed");
+        }
+        return buffer;
+    }
+
+    // ------------------------------------ inner classes -------------------------
+
+    /**
+     * 把body逐段读入BufferPool借出的数组，供同步读取与ReadListener共用
+     */
+    static final class Collector {
+        private final long contentLength;
+        private final String charset;
+        private final int maxSize;
+        private byte[] buffer;
+        private int count = 0;
+
+        /**
+         * constructor
+         *
+         * @param contentLength 长度，未知时为-1
+         * @param charset       编码
+         * @param maxSize       最大长度
+         *
+         * @throws PayloadTooLargeException 声明的长度超过maxSize
+         */
+        Collector(long contentLength, String charset, int maxSize) throws PayloadTooLargeException {
+            if (contentLength > maxSize) {
+                throw new PayloadTooLargeException(contentLength, maxSize);
+            }
+            this.contentLength = contentLength;
+            this.charset = charset;
+            this.maxSize = maxSize;
+            // 已知长度时多留1字节，读到EOF时不需要扩容
+            this.buffer = contentLength == 0 ? EMPTY : BufferPool.acquire(contentLength > 0
+                ? (int)Math.min(contentLength + 1, Integer.MAX_VALUE) : (int)Math.min(INITIAL_SIZE, (long)maxSize + 1));
+        }
+
+        /**
+         * 读一次，返回读到的字节数，EOF时返回-1
+         *
+         * @param in InputStream
+         *
+         * @return int
+         *
+         * @throws IOException e, 超过maxSize时为PayloadTooLargeException
+         */
+        int readFrom(InputStream in) throws IOException {
+            if (contentLength == 0) {
+                return -1;
+            }
+            // 最多读到maxSize + 1字节，足以判断超限
+            int limit = (int)Math.min((long)maxSize + 1, Integer.MAX_VALUE - 8);
+            if (count == buffer.length) {
+                byte[] grown = BufferPool.acquire((int)Math.min(Math.max((long)count << 1, INITIAL_SIZE), limit));
+                System.arraycopy(buffer, 0, grown, 0, count);
+                BufferPool.release(buffer);
+                buffer = grown;
+            }
+            int n = in.read(buffer, count, Math.min(buffer.length, limit) - count);
+            if (n > 0) {
+                if (count + n > maxSize) {
+                    throw new PayloadTooLargeException(count + n, maxSize);
+                }
+                count += n;
+            }
+            return n;
+        }
+
+        RequestPayload finish() {
+            RequestPayload payload = new RequestPayload(buffer, count, charset);
+            buffer = null;
+            return payload;
+        }
+
+        /**
+         * 读取失败时归还数组
+         */
+        void discard() {
+            BufferPool.release(buffer);
+            buffer = null;
+        }
+    }
+
+    /**
+     * body超过最大长度，可以映射为413
+     */
+    public static class PayloadTooLargeException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        private final long length;
+        private final int maxSize;
+
+        private PayloadTooLargeException(long length, int maxSize) {
+            super("Request body exceeds " + maxSize + " bytes: " + length);
+            this.length = length;
+            this.maxSize = maxSize;
+        }
+
+        /**
+         * 声明的长度，或者超出时已读取的长度
+         *
+         * @return long
+         */
+        public long getLength() {
+            return length;
+        }
+
+        public int getMaxSize() {
+            return maxSize;
+        }
+    }
+}
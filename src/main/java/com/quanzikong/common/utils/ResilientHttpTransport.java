@@ -0,0 +1,296 @@
+package com.quanzikong.common.utils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import com.quanzikong.common.utils.HttpResilience.HostState;
+
+/**
+ * 在另一个传输层外加上重试、对冲、熔断与并发隔离，配置与状态见<code>HttpResilience</code><br/>
+ * - 只有幂等且body可重复写出的请求会被重试或对冲<br/>
+ * - 重试用尽后仍为retryStatuses的响应原样返回，IOException原样抛出<br/>
+ * - 被调用方中断或者超过deadline的请求不再重试，也不计入熔断
+ *
+ * @author agent
+ */
+public class ResilientHttpTransport implements HttpTransport {
+
+    private final HttpTransport delegate;
+    private final HttpResilience resilience;
+
+    public ResilientHttpTransport(HttpTransport delegate, HttpResilience resilience) {
+        this.delegate = delegate;
+        this.resilience = resilience;
+    }
+
+    @Override
+    public RestApiResponse execute(Request request) throws Exception {
+        HostState host = resilience.host(request.getUrl());
+        HttpResilience.Stats stats = resilience.getStats();
+        stats.onCall();
+
+        Semaphore permit = resilience.acquire();
+        try {
+            HttpBody body = request.getBody();
+            boolean idempotent = request.getMethod().isIdempotent() && (null == body || body.isRepeatable());
+            for (int attempt = 0; ; attempt++) {
+                if (!host.breaker.tryAcquire()) {
+                    throw new HttpResilience.CircuitOpenException(host.key);
+                }
+
+                RestApiResponse response;
+                try {
+                    long delay = idempotent ? resilience.hedgeDelay(host) : -1;
+                    response = delay < 0 ? this.attempt(request, host) : this.hedge(request, host, delay, permit);
+                } catch (Exception e) {
+                    // 调用方被中断时不再重试(InterruptedException已清除中断标志)
+                    if (e instanceof InterruptedException || request.isAborted() || request.isExpired()) {
+                        host.breaker.onIgnored();
+                        throw e;
+                    }
+                    host.breaker.onFailure();
+                    long wait = this.retryDelay(request, idempotent, attempt);
+                    if (wait < 0) {
+                        throw e;
+                    }
+                    this.sleep(wait);
+                    stats.onRetry();
+                    continue;
+                }
+
+                if (!resilience.isRetryStatus(response.getStatusCode())) {
+                    host.breaker.onSuccess();
+                    return response;
+                }
+                host.breaker.onFailure();
+                long wait = this.retryDelay(request, idempotent, attempt);
+                if (wait < 0) {
+                    return response;
+                }
+                closeQuietly(response);
+                this.sleep(wait);
+                stats.onRetry();
+            }
+        } finally {
+            if (null != permit) {
+                permit.release();
+            }
+        }
+    }
+
+    public HttpTransport getDelegate() {
+        return delegate;
+    }
+
+    public HttpResilience getResilience() {
+        return resilience;
+    }
+
+    // --------------------------------- private ----------------------------------
+
+    /**
+     * 发出一次请求，成功(非retryStatuses)时记录延迟
+     */
+    private RestApiResponse attempt(Request request, HostState host) throws Exception {
+        resilience.getStats().onAttempt();
+        long startedAt = System.currentTimeMillis();
+        RestApiResponse response = delegate.execute(request);
+        if (!resilience.isRetryStatus(response.getStatusCode())) {
+            host.latency.record(System.currentTimeMillis() - startedAt);
+        }
+        return response;
+    }
+
+    /**
+     * 第attempt次重试前的退避时间，不能重试、deadline不够或者已被中断时返回-1
+     */
+    private long retryDelay(Request request, boolean idempotent, int attempt) {
+        if (!idempotent || attempt >= resilience.getMaxRetries()) {
+            return -1;
+        }
+        long wait = resilience.backoff(attempt);
+        return request.isAborted() || request.remainingMillis() <= wait ? -1 : wait;
+    }
+
+    private void sleep(long millis) throws InterruptedException {
+        if (millis > 0) {
+            Thread.sleep(millis);
+        }
+    }
+
+    /**
+     * 先发原请求，超过delay仍未返回时再发一个对冲请求，取先成功的响应，另一个被中断<br/>
+     * - 对冲请求另占一个bulkhead名额，没有空闲名额时不对冲
+     */
+    private RestApiResponse hedge(final Request request, final HostState host, long delay, Semaphore bulkhead)
+        throws Exception {
+        final HedgedCall call = new HedgedCall();
+        final Request primary = request.copy();
+        final Request secondary = request.copy();
+        Closeable abortHandle = new Closeable() {
+            @Override
+            public void close() {
+                primary.abort();
+                secondary.abort();
+            }
+        };
+        request.attach(abortHandle);
+
+        try {
+            if (!this.launch(call, primary, secondary, host, null)) {
+                // 线程池已满，退化为普通请求
+                request.detach(abortHandle);
+                return this.attempt(request, host);
+            }
+            RestApiResponse response;
+            try {
+                response = call.result.get(delay, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                this.launchHedge(call, primary, secondary, host, bulkhead);
+                response = call.result.get();
+            }
+            if (call.winner == secondary) {
+                resilience.getStats().onHedgeWin();
+            }
+            return response;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception)cause;
+            }
+            throw e;
+        } catch (InterruptedException e) {
+            primary.abort();
+            secondary.abort();
+            // 之后完成的请求由launch关闭，已经完成的在这里关闭
+            closeQuietly(call.abandon());
+            throw e;
+        } finally {
+            request.detach(abortHandle);
+        }
+    }
+
+    /**
+     * 发出对冲请求，没有空闲的bulkhead名额、已有结果或者线程池已满时不对冲
+     */
+    private void launchHedge(HedgedCall call, Request primary, Request secondary, HostState host,
+                             Semaphore bulkhead) {
+        if (null != bulkhead && !bulkhead.tryAcquire()) {
+            return;
+        }
+        if (call.tryLaunchHedge() && this.launch(call, secondary, primary, host, bulkhead)) {
+            resilience.getStats().onHedge();
+            return;
+        }
+        if (null != bulkhead) {
+            bulkhead.release();
+        }
+        call.cancelHedge();
+    }
+
+    /**
+     * 在hedgeExecutor中发出attempt，先成功的作为结果并中断other；attempt结束后归还permit(可以为null)
+     */
+    private boolean launch(final HedgedCall call, final Request attempt, final Request other, final HostState host,
+                           final Semaphore permit) {
+        try {
+            resilience.getHedgeExecutor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    RestApiResponse response;
+                    try {
+                        response = ResilientHttpTransport.this.attempt(attempt, host);
+                    } catch (Throwable e) {
+                        call.onFailure(e);
+                        return;
+                    } finally {
+                        if (null != permit) {
+                            permit.release();
+                        }
+                    }
+                    if (call.onSuccess(attempt, response)) {
+                        other.abort();
+                    } else {
+                        closeQuietly(response);
+                    }
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (null == closeable) {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    // ------------------------------------ inner classes -------------------------
+
+    /**
+     * 原请求与对冲请求的共同结果：任一成功即完成，全部失败时以最后的异常结束
+     */
+    private static final class HedgedCall {
+        private final CompletableFuture<RestApiResponse> result = new CompletableFuture<RestApiResponse>();
+        private volatile Request winner;
+        private int launched = 1;
+        private int failed = 0;
+        private Throwable lastError;
+
+        private synchronized boolean onSuccess(Request attempt, RestApiResponse response) {
+            if (result.isDone()) {
+                return false;
+            }
+            winner = attempt;
+            return result.complete(response);
+        }
+
+        private synchronized void onFailure(Throwable e) {
+            failed++;
+            lastError = e;
+            if (failed >= launched) {
+                result.completeExceptionally(e);
+            }
+        }
+
+        /**
+         * 调用方不再等待结果，之后的onSuccess都返回false
+         *
+         * @return 已经完成但没有被取走的响应
+         */
+        private synchronized RestApiResponse abandon() {
+            if (result.completeExceptionally(new CancellationException()) || result.isCompletedExceptionally()) {
+                return null;
+            }
+            return result.getNow(null);
+        }
+
+        private synchronized boolean tryLaunchHedge() {
+            if (result.isDone()) {
+                return false;
+            }
+            launched++;
+            return true;
+        }
+
+        private synchronized void cancelHedge() {
+            launched--;
+            if (failed >= launched && !result.isDone()) {
+                result.completeExceptionally(lastError);
+            }
+        }
+    }
+}
@@ -0,0 +1,629 @@
+package com.quanzikong.common.utils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import com.quanzikong.common.utils.RestApiClient.ResponseHandler;
+
+/**
+ * 批量发送请求<br/>
+ * - 按host分组，每个host最多maxPerHost个并行通道，通道之间共享连接池中的连接<br/>
+ * - pipelineDepth大于1时，同一连接上一次写出最多pipelineDepth个请求再依次读取响应(HTTP/1.1 pipelining)，
+ * 只在client使用默认的连接池传输层(未配置cache、resilience、coalescer、transport)时生效，否则逐个发送<br/>
+ * - 服务端返回HTTP/1.0时该host不再pipelining；服务端以Connection: close结束时未处理的请求会被重发，
+ * 连接异常中断时只重发幂等请求(pipelining非幂等请求请确认服务端可以承受)<br/>
+ * - 结果按请求顺序返回，也可以通过listener在每个请求完成时回调；每批结果带有延迟直方图
+ *
+ * Usage:
+ * RestApiBatch batch = new RestApiBatch(client).setMaxPerHost(4).setPipelineDepth(16);
+ * RestApiBatch.BatchResult&lt;String&gt; result = batch.executeForString(requests);
+ * System.out.println(result.getLatency());
+ *
+ * @author agent
+ */
+public class RestApiBatch {
+
+    /**
+     * 单个请求因连接被关闭而重发的最大次数
+     */
+    private static final int MAX_RESENDS = 2;
+
+    private static final ResponseHandler<String> STRING_HANDLER = new ResponseHandler<String>() {
+        @Override
+        public String handle(RestApiResponse response) throws Exception {
+            return response.getString();
+        }
+    };
+
+    private final RestApiClient client;
+    private volatile int maxPerHost = 4;
+    private volatile int pipelineDepth = 1;
+    private volatile long pipelineMaxBytes = 64 * 1024;
+    private volatile ExecutorService executor;
+
+    public RestApiBatch(RestApiClient client) {
+        this.client = client;
+        this.executor = client.getExecutor();
+    }
+
+    /**
+     * 批量发送，结果为body字符串
+     *
+     * @param requests 请求
+     *
+     * @return BatchResult
+     *
+     * @throws InterruptedException 等待时被中断
+     */
+    public BatchResult<String> executeForString(Collection<RestApiRequest> requests) throws InterruptedException {
+        return this.execute(requests, STRING_HANDLER, null);
+    }
+
+    /**
+     * 批量发送，按请求顺序返回结果
+     *
+     * @param requests 请求
+     * @param handler  响应处理，在工作线程中执行
+     * @param <T>      T
+     *
+     * @return BatchResult
+     *
+     * @throws InterruptedException 等待时被中断
+     */
+    public <T> BatchResult<T> execute(Collection<RestApiRequest> requests, ResponseHandler<T> handler)
+        throws InterruptedException {
+        return this.execute(requests, handler, null);
+    }
+
+    /**
+     * 批量发送，每个请求完成时回调listener，全部完成后按请求顺序返回结果
+     *
+     * @param requests 请求
+     * @param handler  响应处理，在工作线程中执行
+     * @param listener 完成回调，在工作线程中执行(可能并发)，可以为null
+     * @param <T>      T
+     *
+     * @return BatchResult
+     *
+     * @throws InterruptedException 等待时被中断，未开始的请求不再发送
+     */
+    public <T> BatchResult<T> execute(Collection<RestApiRequest> requests, ResponseHandler<T> handler,
+                                      Consumer<? super Result<T>> listener) throws InterruptedException {
+        long startedAt = System.nanoTime();
+        Run<T> run = new Run<T>(new ArrayList<RestApiRequest>(requests), handler, listener);
+        PooledHttpTransport pipe = pipelineDepth > 1 ? client.pipelineTransport() : null;
+
+        Map<String, HostQueue> hosts = new LinkedHashMap<String, HostQueue>();
+        for (int i = 0; i < run.requests.size(); i++) {
+            String key = hostKey(run.requests.get(i).getUrl());
+            HostQueue host = hosts.get(key);
+            if (null == host) {
+                host = new HostQueue(null != pipe);
+                hosts.put(key, host);
+            }
+            host.queue.add(i);
+        }
+
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+        List<Lane<T>> inline = new ArrayList<Lane<T>>();
+        for (HostQueue host : hosts.values()) {
+            int lanes = Math.max(1, Math.min(maxPerHost, host.queue.size()));
+            boolean submitted = false;
+            for (int i = 0; i < lanes; i++) {
+                Lane<T> lane = new Lane<T>(run, host, pipe);
+                try {
+                    futures.add(executor.submit(lane));
+                    submitted = true;
+                } catch (RejectedExecutionException e) {
+                    // 线程池已满：至少保证有一个通道在调用线程中执行
+                    if (!submitted) {
+                        inline.add(lane);
+                    }
+                    break;
+                }
+            }
+        }
+
+        try {
+            for (Lane<T> lane : inline) {
+                lane.run();
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            for (Future<?> future : futures) {
+                future.cancel(true);
+            }
+            throw e;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Error) {
+                throw (Error)cause;
+            }
+            throw new IllegalStateException("Batch lane failed", cause);
+        }
+        return run.toBatchResult(System.nanoTime() - startedAt);
+    }
+
+    public RestApiClient getClient() {
+        return client;
+    }
+
+    // --------------------------------- private ----------------------------------
+
+    private static String hostKey(String url) {
+        try {
+            URL u = new URL(url);
+            int port = u.getPort() > 0 ? u.getPort() : u.getDefaultPort();
+            return u.getProtocol() + "://" + u.getHost() + ":" + port;
+        } catch (IOException e) {
+            // 非法url在发送时失败
+            return url;
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (null == closeable) {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    // --------------------------------- getters & setters ----------------------------------
+
+    public int getMaxPerHost() {
+        return maxPerHost;
+    }
+
+    /**
+     * 每个host的并行通道数，默认4，受连接池maxPerRoute限制
+     *
+     * @param maxPerHost int
+     *
+     * @return RestApiBatch
+     */
+    public RestApiBatch setMaxPerHost(int maxPerHost) {
+        this.maxPerHost = maxPerHost;
+        return this;
+    }
+
+    public int getPipelineDepth() {
+        return pipelineDepth;
+    }
+
+    /**
+     * 每个连接上一次写出的最大请求数，小于等于1时不pipelining(默认)
+     *
+     * @param pipelineDepth int
+     *
+     * @return RestApiBatch
+     */
+    public RestApiBatch setPipelineDepth(int pipelineDepth) {
+        this.pipelineDepth = pipelineDepth;
+        return this;
+    }
+
+    public long getPipelineMaxBytes() {
+        return pipelineMaxBytes;
+    }
+
+    /**
+     * 一次pipelining写出的请求body总字节数上限，默认64K<br/>
+     * - 避免请求写满socket缓冲区时与等待写出响应的服务端互相阻塞；长度未知的body单独发送
+     *
+     * @param pipelineMaxBytes long
+     *
+     * @return RestApiBatch
+     */
+    public RestApiBatch setPipelineMaxBytes(long pipelineMaxBytes) {
+        this.pipelineMaxBytes = pipelineMaxBytes;
+        return this;
+    }
+
+    public ExecutorService getExecutor() {
+        return executor;
+    }
+
+    /**
+     * 执行通道的线程池，默认为client的executor
+     *
+     * @param executor ExecutorService
+     *
+     * @return RestApiBatch
+     */
+    public RestApiBatch setExecutor(ExecutorService executor) {
+        this.executor = null == executor ? client.getExecutor() : executor;
+        return this;
+    }
+
+    // ------------------------------------ inner classes -------------------------
+
+    /**
+     * 单个请求的结果
+     *
+     * @param <T> T
+     */
+    public static final class Result<T> {
+        private final int index;
+        private final RestApiRequest request;
+        private final T value;
+        private final Throwable error;
+        private final long latencyMicros;
+
+        private Result(int index, RestApiRequest request, T value, Throwable error, long latencyMicros) {
+            this.index = index;
+            this.request = request;
+            this.value = value;
+            this.error = error;
+            this.latencyMicros = latencyMicros;
+        }
+
+        /**
+         * 在请求集合中的序号
+         *
+         * @return int
+         */
+        public int getIndex() {
+            return index;
+        }
+
+        public RestApiRequest getRequest() {
+            return request;
+        }
+
+        public boolean isSuccess() {
+            return null == error;
+        }
+
+        public T getValue() {
+            return value;
+        }
+
+        public Throwable getError() {
+            return error;
+        }
+
+        /**
+         * 从发出到处理完响应的耗时(微秒)
+         *
+         * @return long
+         */
+        public long getLatencyMicros() {
+            return latencyMicros;
+        }
+    }
+
+    /**
+     * 一批请求的结果与统计
+     *
+     * @param <T> T
+     */
+    public static final class BatchResult<T> {
+        private final List<Result<T>> results;
+        private final LatencyHistogram latency;
+        private final long elapsedNanos;
+        private final int succeeded;
+        private final int pipelined;
+        private final int resent;
+
+        private BatchResult(List<Result<T>> results, LatencyHistogram latency, long elapsedNanos, int pipelined,
+                            int resent) {
+            this.results = results;
+            this.latency = latency;
+            this.elapsedNanos = elapsedNanos;
+            this.pipelined = pipelined;
+            this.resent = resent;
+            int ok = 0;
+            for (Result<T> result : results) {
+                if (result.isSuccess()) {
+                    ok++;
+                }
+            }
+            this.succeeded = ok;
+        }
+
+        /**
+         * 按请求顺序排列的结果
+         *
+         * @return List
+         */
+        public List<Result<T>> getResults() {
+            return results;
+        }
+
+        /**
+         * 本批请求的延迟直方图
+         *
+         * @return LatencyHistogram
+         */
+        public LatencyHistogram getLatency() {
+            return latency;
+        }
+
+        public long getElapsedMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+        }
+
+        /**
+         * 吞吐量(请求/秒)
+         *
+         * @return double
+         */
+        public double getThroughput() {
+            return elapsedNanos <= 0 ? 0 : results.size() * 1e9 / elapsedNanos;
+        }
+
+        public int getSucceeded() {
+            return succeeded;
+        }
+
+        public int getFailed() {
+            return results.size() - succeeded;
+        }
+
+        /**
+         * 经pipelining得到响应的请求数
+         *
+         * @return int
+         */
+        public int getPipelined() {
+            return pipelined;
+        }
+
+        /**
+         * 因连接被关闭而重发的次数
+         *
+         * @return int
+         */
+        public int getResent() {
+            return resent;
+        }
+
+        @Override
+        public String toString() {
+            return "[requests: " + results.size()
+                + "; succeeded: " + succeeded
+                + "; pipelined: " + pipelined
+                + "; resent: " + resent
+                + "; elapsed: " + this.getElapsedMillis() + "ms"
+                + "; throughput: " + String.format("%.1f/s", this.getThroughput())
+                + "; latency: " + latency + "]";
+        }
+    }
+
+    /**
+     * 同一host待发送的请求序号
+     */
+    private static final class HostQueue {
+        private final Queue<Integer> queue = new ConcurrentLinkedQueue<Integer>();
+        private volatile boolean pipelining;
+
+        private HostQueue(boolean pipelining) {
+            this.pipelining = pipelining;
+        }
+    }
+
+    /**
+     * 一次批量调用的共享状态
+     */
+    private static final class Run<T> {
+        private final List<RestApiRequest> requests;
+        private final ResponseHandler<T> handler;
+        private final Consumer<? super Result<T>> listener;
+        private final Result<T>[] results;
+        private final HttpTransport.Request[] exchanges;
+        private final int[] resends;
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final AtomicInteger pipelined = new AtomicInteger();
+        private final AtomicInteger resent = new AtomicInteger();
+
+        @SuppressWarnings("unchecked")
+        private Run(List<RestApiRequest> requests, ResponseHandler<T> handler, Consumer<? super Result<T>> listener) {
+            this.requests = requests;
+            this.handler = handler;
+            this.listener = listener;
+            this.results = (Result<T>[])new Result<?>[requests.size()];
+            this.exchanges = new HttpTransport.Request[requests.size()];
+            this.resends = new int[requests.size()];
+        }
+
+        private void complete(int index, RestApiResponse response, long startedAt) {
+            T value;
+            try {
+                value = handler.handle(response);
+            } catch (Throwable e) {
+                closeQuietly(response);
+                this.fail(index, e, startedAt);
+                return;
+            }
+            this.finish(new Result<T>(index, requests.get(index), value, null, elapsedMicros(startedAt)));
+        }
+
+        private void fail(int index, Throwable error, long startedAt) {
+            this.finish(new Result<T>(index, requests.get(index), null, error, elapsedMicros(startedAt)));
+        }
+
+        private void finish(Result<T> result) {
+            results[result.index] = result;
+            latency.recordMicros(result.latencyMicros);
+            if (null != listener) {
+                try {
+                    listener.accept(result);
+                } catch (RuntimeException ignored) {
+                    // listener的异常不影响其他请求
+                }
+            }
+        }
+
+        private BatchResult<T> toBatchResult(long elapsedNanos) {
+            List<Result<T>> list = new ArrayList<Result<T>>(results.length);
+            for (int i = 0; i < results.length; i++) {
+                // 被中断的通道可能留下未发送的请求
+                list.add(null != results[i] ? results[i]
+                    : new Result<T>(i, requests.get(i), null, new IllegalStateException("Not executed"), 0));
+            }
+            return new BatchResult<T>(Collections.unmodifiableList(list), latency, elapsedNanos, pipelined.get(),
+                resent.get());
+        }
+
+        private static long elapsedMicros(long startedAt) {
+            return TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startedAt);
+        }
+    }
+
+    /**
+     * 一个并行通道：不断从host队列取出请求发送，直到队列为空
+     */
+    private final class Lane<T> implements Runnable {
+        private final Run<T> run;
+        private final HostQueue host;
+        private final PooledHttpTransport pipe;
+        /**
+         * 需要优先发送的请求(放不进上一个窗口的、需要重发的)
+         */
+        private final Deque<Integer> pending = new ArrayDeque<Integer>();
+
+        private Lane(Run<T> run, HostQueue host, PooledHttpTransport pipe) {
+            this.run = run;
+            this.host = host;
+            this.pipe = pipe;
+        }
+
+        @Override
+        public void run() {
+            while (!Thread.currentThread().isInterrupted()) {
+                if (null != pipe && host.pipelining) {
+                    List<Integer> window = this.nextWindow();
+                    if (window.isEmpty()) {
+                        return;
+                    }
+                    this.sendPipelined(window);
+                } else {
+                    Integer index = this.next();
+                    if (null == index) {
+                        return;
+                    }
+                    this.send(index);
+                }
+            }
+        }
+
+        private Integer next() {
+            Integer index = pending.poll();
+            return null != index ? index : host.queue.poll();
+        }
+
+        private void send(int index) {
+            long startedAt = System.nanoTime();
+            try {
+                HttpTransport.Request exchange = run.exchanges[index];
+                RestApiResponse response = null == exchange
+                    ? client.execute(run.requests.get(index))
+                    : client.decode(exchange, client.getTransport().execute(exchange));
+                run.complete(index, response, startedAt);
+            } catch (Throwable e) {
+                run.fail(index, e, startedAt);
+            }
+        }
+
+        /**
+         * 取出下一个pipelining窗口：不超过pipelineDepth个请求，body总字节数不超过pipelineMaxBytes
+         */
+        private List<Integer> nextWindow() {
+            List<Integer> window = new ArrayList<Integer>(pipelineDepth);
+            long bytes = 0;
+            Integer index;
+            while (window.size() < pipelineDepth && null != (index = this.next())) {
+                HttpTransport.Request exchange = run.exchanges[index];
+                if (null == exchange) {
+                    try {
+                        exchange = client.newTransportRequest(run.requests.get(index));
+                    } catch (Throwable e) {
+                        run.fail(index, e, System.nanoTime());
+                        continue;
+                    }
+                    run.exchanges[index] = exchange;
+                }
+                HttpBody body = exchange.getBody();
+                long length = null == body ? 0 : body.contentLength();
+                if (!window.isEmpty() && (length < 0 || bytes + length > pipelineMaxBytes)) {
+                    pending.addFirst(index);
+                    break;
+                }
+                window.add(index);
+                if (length < 0) {
+                    break;
+                }
+                bytes += length;
+            }
+            return window;
+        }
+
+        private void sendPipelined(List<Integer> window) {
+            long startedAt = System.nanoTime();
+            List<HttpTransport.Request> exchanges = new ArrayList<HttpTransport.Request>(window.size());
+            for (Integer index : window) {
+                exchanges.add(run.exchanges[index]);
+            }
+
+            PooledHttpTransport.Pipeline pipeline;
+            try {
+                pipeline = pipe.executePipelined(exchanges);
+            } catch (Throwable e) {
+                for (Integer index : window) {
+                    run.fail(index, e, startedAt);
+                }
+                return;
+            }
+            if (!pipeline.http11) {
+                host.pipelining = false;
+            }
+
+            int answered = pipeline.responses.size();
+            for (int i = 0; i < answered; i++) {
+                run.pipelined.incrementAndGet();
+                run.complete(window.get(i), client.decode(exchanges.get(i), pipeline.responses.get(i)), startedAt);
+            }
+            // 没有响应的请求按原顺序放回pending
+            for (int i = window.size() - 1; i >= answered; i--) {
+                int index = window.get(i);
+                HttpTransport.Request exchange = exchanges.get(i);
+                HttpBody body = exchange.getBody();
+                boolean repeatable = null == body || body.isRepeatable();
+                // 以Connection: close正常结束时服务端未处理之后的请求，连接异常中断时只有幂等请求可以安全重发
+                boolean resend = repeatable && run.resends[index] < MAX_RESENDS
+                    && (null == pipeline.error || exchange.getMethod().isIdempotent());
+                if (resend) {
+                    run.resends[index]++;
+                    run.resent.incrementAndGet();
+                    pending.addFirst(index);
+                } else {
+                    run.fail(index, null == pipeline.error
+                        ? new IOException("Connection closed before response") : pipeline.error, startedAt);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,1117 @@
+package com.quanzikong.common.utils;
+
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.Proxy;
+import java.net.URL;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiConsumer;
+
+import com.alibaba.fastjson.JSONException;
+import com.alibaba.fastjson.TypeReference;
+import com.alibaba.fastjson.serializer.AfterFilter;
+import com.alibaba.fastjson.serializer.JSONSerializer;
+import com.alibaba.fastjson.serializer.PropertyFilter;
+import com.alibaba.fastjson.serializer.SerializeWriter;
+
+import com.quanzikong.common.enums.HttpContentType;
+import com.quanzikong.common.enums.HttpMethod;
+import com.quanzikong.common.enums.HttpProperty;
+import com.quanzikong.common.utils.RestApiUtil.SslProvider;
+
+/**
+ * 线程安全、不可变的http客户端<br/>
+ * - 持有超时、SSL、代理、默认请求头等配置，通过<code>RestApiClient.Builder</code>构建<br/>
+ * - 每次调用的参数由不可变的<code>RestApiRequest</code>描述，同一个client可被任意多个线程并发使用<br/>
+ * - 请求最终交给<code>HttpTransport</code>发送，可通过Builder.transport替换(如NioHttpTransport)
+ *
+ * Usage:
+ * RestApiClient client = RestApiClient.newBuilder()
+ * .readTimeout(3000)
+ * .defaultHeader("x-api-key", "testKey")
+ * .build();
+ * RestApiResponse rsp = client.execute(RestApiRequest.get("http://ip:port/xxx").param("one", 1).build());
+ *
+ * @author agent
+ */
+public class RestApiClient {
+
+    private static final String DEFAULT_CHARSET = "utf8";
+    private static final String DEFAULT_USER_AGENT = "Mozilla/5.0 (Windows; U; Windows NT 6.1; zh-CN; rv:1.9.2.6)";
+    private static final String FORM_URLENCODED = "application/x-www-form-urlencoded";
+    private static final int ASYNC_POOL_SIZE = 64;
+    private static final int ASYNC_QUEUE_SIZE = 1024;
+
+    private final int connectTimeout;
+    private final int readTimeout;
+    private final String charset;
+    private final Map<String, String> defaultHeaders;
+    private final Proxy proxy;
+    private final SslProvider sslProvider;
+    private final HttpConnectionPool connectionPool;
+    private final boolean doInput;
+    private final boolean doOutput;
+    private final boolean useCaches;
+    private final boolean followRedirects;
+    private final ExecutorService executor;
+    private final HttpTransport transport;
+    private final HttpTransport customTransport;
+    private final HttpResilience resilience;
+    private final HttpCache cache;
+    private final HttpCoalescer coalescer;
+    private final boolean acceptEncoding;
+    private final int compressThreshold;
+    private final HttpEventListener eventListener;
+    private final HttpCompression.Stats compressionStats = new HttpCompression.Stats();
+
+    private RestApiClient(Builder builder) {
+        this.connectTimeout = builder.connectTimeout;
+        this.readTimeout = builder.readTimeout;
+        this.charset = builder.charset;
+        this.defaultHeaders = Collections.unmodifiableMap(new LinkedHashMap<String, String>(builder.defaultHeaders));
+        this.proxy = builder.proxy;
+        this.sslProvider = builder.sslProvider;
+        this.connectionPool = builder.connectionPool;
+        this.doInput = builder.doInput;
+        this.doOutput = builder.doOutput;
+        this.useCaches = builder.useCaches;
+        this.followRedirects = builder.followRedirects;
+        this.executor = builder.executor;
+        this.customTransport = builder.transport;
+        this.resilience = builder.resilience;
+        this.cache = null == builder.cache && useCaches ? HttpCache.getDefault() : builder.cache;
+        HttpTransport base = null != customTransport ? customTransport : this.defaultTransport();
+        HttpTransport resilient = null == resilience ? base : new ResilientHttpTransport(base, resilience);
+        HttpTransport cached = null == cache ? resilient : new CachingHttpTransport(resilient, cache);
+        this.coalescer = builder.coalescer;
+        this.transport = null == coalescer ? cached : new CoalescingHttpTransport(cached, coalescer);
+        this.acceptEncoding = builder.acceptEncoding;
+        this.compressThreshold = builder.compressThreshold;
+        this.eventListener = builder.eventListener;
+    }
+
+    /**
+     * 默认配置的共享client
+     *
+     * @return RestApiClient
+     */
+    public static RestApiClient getDefault() {
+        return DefaultHolder.INSTANCE;
+    }
+
+    public static Builder newBuilder() {
+        return new Builder();
+    }
+
+    /**
+     * 以当前配置为模板创建新的Builder
+     *
+     * @return Builder
+     */
+    public Builder toBuilder() {
+        Builder builder = new Builder();
+        builder.connectTimeout = connectTimeout;
+        builder.readTimeout = readTimeout;
+        builder.charset = charset;
+        builder.defaultHeaders.clear();
+        builder.defaultHeaders.putAll(defaultHeaders);
+        builder.proxy = proxy;
+        builder.sslProvider = sslProvider;
+        builder.connectionPool = connectionPool;
+        builder.doInput = doInput;
+        builder.doOutput = doOutput;
+        builder.useCaches = useCaches;
+        builder.followRedirects = followRedirects;
+        builder.executor = executor;
+        // 内置的transport由配置推导，不随Builder复制
+        builder.transport = customTransport;
+        builder.resilience = resilience;
+        builder.cache = cache;
+        builder.coalescer = coalescer;
+        builder.acceptEncoding = acceptEncoding;
+        builder.compressThreshold = compressThreshold;
+        builder.eventListener = eventListener;
+        return builder;
+    }
+
+    /**
+     * 发送请求<br/>
+     * - 未指定transport时：设置了proxy、followRedirects或者未配置连接池时通过HttpURLConnection发送，否则经过连接池
+     *
+     * @param request RestApiRequest
+     *
+     * @return RestApiResponse 使用完请务必close(或读完body)
+     *
+     * @throws Exception e
+     */
+    public RestApiResponse execute(RestApiRequest request) throws Exception {
+        return this.execute(this.newTransportRequest(request));
+    }
+
+    /**
+     * 编译请求模板：url、method、请求头、编码与固定参数只计算一次，之后每次只绑定变化的参数与body
+     *
+     * @param request 模板请求，其params作为每次都带上的固定参数
+     *
+     * @return RestApiTemplate
+     */
+    public RestApiTemplate template(RestApiRequest request) {
+        return new RestApiTemplate(this, request);
+    }
+
+    /**
+     * 异步发送请求，在client的executor中执行(transport为AsyncHttpTransport时不占用executor线程)<br/>
+     * - 返回的future被cancel或者超过request的timeout时，进行中的请求会被中断<br/>
+     * - 得到的RestApiResponse的body尚未读取，使用完请务必close
+     *
+     * @param request RestApiRequest
+     *
+     * @return CompletableFuture
+     */
+    public CompletableFuture<RestApiResponse> executeAsync(RestApiRequest request) {
+        return this.submit(request, new ResponseHandler<RestApiResponse>() {
+            @Override
+            public RestApiResponse handle(RestApiResponse response) {
+                return response;
+            }
+        });
+    }
+
+    /**
+     * 异步发送请求，结果为body字符串
+     *
+     * @param request RestApiRequest
+     *
+     * @return CompletableFuture
+     */
+    public CompletableFuture<String> executeAsyncForString(RestApiRequest request) {
+        return this.submit(request, new ResponseHandler<String>() {
+            @Override
+            public String handle(RestApiResponse response) throws Exception {
+                return response.getString();
+            }
+        });
+    }
+
+    /**
+     * 异步发送请求，结果为body字节
+     *
+     * @param request RestApiRequest
+     *
+     * @return CompletableFuture
+     */
+    public CompletableFuture<byte[]> executeAsyncForBytes(RestApiRequest request) {
+        return this.submit(request, new ResponseHandler<byte[]>() {
+            @Override
+            public byte[] handle(RestApiResponse response) throws Exception {
+                return response.getBytes();
+            }
+        });
+    }
+
+    /**
+     * 异步发送请求，body按json解析为给定类型
+     *
+     * @param request RestApiRequest
+     * @param clazz   Class
+     * @param <T>     T
+     *
+     * @return CompletableFuture
+     */
+    public <T> CompletableFuture<T> executeAsync(RestApiRequest request, final Class<T> clazz) {
+        return this.submit(request, new ResponseHandler<T>() {
+            @Override
+            public T handle(RestApiResponse response) throws Exception {
+                return response.getObject(clazz);
+            }
+        });
+    }
+
+    /**
+     * 异步发送请求，body按json解析为给定的泛型类型
+     *
+     * @param request       RestApiRequest
+     * @param typeReference TypeReference
+     * @param <T>           T
+     *
+     * @return CompletableFuture
+     */
+    public <T> CompletableFuture<T> executeAsync(RestApiRequest request, final TypeReference<T> typeReference) {
+        return this.submit(request, new ResponseHandler<T>() {
+            @Override
+            public T handle(RestApiResponse response) throws Exception {
+                return response.getObject(typeReference);
+            }
+        });
+    }
+
+    /**
+     * 在executor中执行请求(或交给AsyncHttpTransport)，并用handler处理响应
+     */
+    private <T> CompletableFuture<T> submit(RestApiRequest request, ResponseHandler<T> handler) {
+        final HttpTransport.Request exchange;
+        try {
+            exchange = this.newTransportRequest(request);
+        } catch (Exception e) {
+            CompletableFuture<T> failed = new CompletableFuture<T>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+        return this.submit(exchange, request, handler);
+    }
+
+    /**
+     * 同步执行已拼装好的传输层请求
+     */
+    RestApiResponse execute(HttpTransport.Request exchange) throws Exception {
+        HttpEventListener listener = exchange.getListener();
+        if (HttpEventListener.NONE == listener) {
+            return this.decode(exchange, transport.execute(exchange));
+        }
+
+        long startedAt = System.nanoTime();
+        listener.callStart(exchange);
+        RestApiResponse response;
+        try {
+            response = transport.execute(exchange);
+        } catch (Exception e) {
+            listener.callFailed(exchange, e, System.nanoTime() - startedAt);
+            throw e;
+        }
+        return this.decode(exchange, observe(exchange, response, startedAt));
+    }
+
+    /**
+     * 异步执行已拼装好的传输层请求，request提供timeout与超时信息中的url
+     */
+    <T> CompletableFuture<T> submit(final HttpTransport.Request exchange, final RestApiRequest request,
+                                    final ResponseHandler<T> handler) {
+        final AsyncCall<T> call = new AsyncCall<T>(exchange);
+        final long startedAt = System.nanoTime();
+        exchange.getListener().callStart(exchange);
+        if (transport instanceof AsyncHttpTransport) {
+            ((AsyncHttpTransport)transport).executeAsync(exchange).whenComplete(
+                new BiConsumer<RestApiResponse, Throwable>() {
+                    @Override
+                    public void accept(RestApiResponse response, Throwable throwable) {
+                        if (null != throwable) {
+                            Throwable cause = throwable instanceof CompletionException && null != throwable.getCause()
+                                ? throwable.getCause() : throwable;
+                            exchange.getListener().callFailed(exchange, cause, System.nanoTime() - startedAt);
+                            call.completeExceptionally(
+                                exchange.isExpired() ? newTimeoutException(request, cause) : cause);
+                            return;
+                        }
+                        complete(call, exchange, request, handler,
+                            decode(exchange, observe(exchange, response, startedAt)));
+                    }
+                });
+        } else {
+            try {
+                call.task = executor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (call.isDone()) {
+                            // 开始执行前已超时或被cancel
+                            exchange.getListener().callFailed(exchange, failureOf(call),
+                                System.nanoTime() - startedAt);
+                            return;
+                        }
+                        RestApiResponse response;
+                        try {
+                            response = transport.execute(exchange);
+                        } catch (Throwable e) {
+                            exchange.getListener().callFailed(exchange, e, System.nanoTime() - startedAt);
+                            call.completeExceptionally(exchange.isExpired() ? newTimeoutException(request, e) : e);
+                            return;
+                        }
+                        complete(call, exchange, request, handler,
+                            decode(exchange, observe(exchange, response, startedAt)));
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                exchange.getListener().callFailed(exchange, e, System.nanoTime() - startedAt);
+                call.completeExceptionally(e);
+                return call;
+            }
+        }
+
+        if (request.getTimeout() > 0) {
+            final ScheduledFuture<?> timer = DeadlineHolder.SCHEDULER.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    if (call.completeExceptionally(newTimeoutException(request, null))) {
+                        call.abort();
+                    }
+                }
+            }, request.getTimeout(), TimeUnit.MILLISECONDS);
+            call.whenComplete(new BiConsumer<T, Throwable>() {
+                @Override
+                public void accept(T t, Throwable throwable) {
+                    timer.cancel(false);
+                }
+            });
+        }
+        return call;
+    }
+
+    private static <T> void complete(AsyncCall<T> call, HttpTransport.Request exchange, RestApiRequest request,
+                                     ResponseHandler<T> handler, RestApiResponse response) {
+        try {
+            if (!call.complete(handler.handle(response))) {
+                // 已被cancel或者超时
+                closeQuietly(response);
+            }
+        } catch (Throwable e) {
+            closeQuietly(response);
+            call.completeExceptionally(exchange.isExpired() ? newTimeoutException(request, e) : e);
+        }
+    }
+
+    /**
+     * 拼装传输层请求：合并请求头、拼接query string、序列化body
+     */
+    HttpTransport.Request newTransportRequest(RestApiRequest request) throws Exception {
+        String target = HttpMethod.GET == request.getMethod()
+            ? FormEncoder.appendQuery(request.getUrl(), request.getParams(), this.charsetOf(request))
+            : request.getUrl();
+        return this.newTransportRequest(request, this.compileHeaders(request), target, request.getParams(),
+            request.getBody());
+    }
+
+    /**
+     * 以预先合并好的请求头拼装传输层请求，headers不会被修改(需要补充Content-Type或Content-Encoding时复制)
+     *
+     * @param request 提供method、contentType、charset、文件部分与timeout
+     * @param headers compileHeaders的结果
+     * @param target  完整的请求地址(含query string)
+     * @param params  表单/json/multipart的参数
+     * @param pojo    请求body对象(postPojo)
+     */
+    HttpTransport.Request newTransportRequest(RestApiRequest request, Map<String, String> headers, String target,
+                                              Map<String, Object> params, Object pojo) throws Exception {
+        HttpMethod method = request.getMethod();
+        String requestCharset = this.charsetOf(request);
+        Map<String, String> requestHeaders = headers;
+        HttpBody body = null;
+        if (HttpMethod.GET != method) {
+            body = this.newBody(request, params, pojo, requestCharset);
+            boolean compress = this.shouldCompress(body, headers);
+            if (body instanceof MultipartBody || compress) {
+                requestHeaders = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+                requestHeaders.putAll(headers);
+            }
+            if (body instanceof MultipartBody) {
+                requestHeaders.put(HttpProperty.ContentType.getCode(), ((MultipartBody)body).getContentType());
+            }
+            if (compress) {
+                body = HttpCompression.encode(body, compressionStats);
+                requestHeaders.put(HttpProperty.ContentEncoding.getCode(), HttpCompression.GZIP);
+            }
+        }
+
+        return new HttpTransport.Request(method, new URL(target), requestHeaders, body, requestCharset,
+            connectTimeout, readTimeout, sslProvider, request.getTimeout()).listener(eventListener);
+    }
+
+    /**
+     * 与body无关的请求头：合并默认请求头与请求自身的请求头，补全Content-Type与Accept-Encoding
+     */
+    Map<String, String> compileHeaders(RestApiRequest request) {
+        Map<String, String> headers = this.mergeHeaders(request);
+
+        // 与HttpURLConnection保持一致，未指定Content-Type时按表单提交
+        if (HttpMethod.GET != request.getMethod() && !headers.containsKey(HttpProperty.ContentType.getCode())) {
+            headers.put(HttpProperty.ContentType.getCode(), FORM_URLENCODED);
+        }
+
+        // 调用方自行指定Accept-Encoding时，不再透明解压
+        if (acceptEncoding && !headers.containsKey(HttpProperty.AcceptEncoding.getCode())) {
+            headers.put(HttpProperty.AcceptEncoding.getCode(), HttpCompression.ACCEPT_ENCODING);
+        }
+        return headers;
+    }
+
+    /**
+     * 请求带的是自动协商的Accept-Encoding时，按Content-Encoding解压响应
+     */
+    RestApiResponse decode(HttpTransport.Request exchange, RestApiResponse response) {
+        String accept = exchange.getHeaders().get(HttpProperty.AcceptEncoding.getCode());
+        return HttpCompression.ACCEPT_ENCODING.equals(accept)
+            ? HttpCompression.decode(response, compressionStats) : response;
+    }
+
+    /**
+     * 报告响应头到达，并包装body以统计读取的字节数与结束时间；未设置事件监听时原样返回
+     */
+    private static RestApiResponse observe(HttpTransport.Request exchange, RestApiResponse response,
+                                           long startedAt) {
+        HttpEventListener listener = exchange.getListener();
+        if (HttpEventListener.NONE == listener) {
+            return response;
+        }
+        long headersAt = System.nanoTime();
+        listener.responseHeaders(exchange, response.getStatusCode(), headersAt - startedAt);
+        return new RestApiResponse(response.getStatusCode(), response.getHeaders(),
+            new MeteredBody(response.getBody(), exchange, response.getStatusCode(), startedAt, headersAt),
+            response.getCharset());
+    }
+
+    /**
+     * 开启了请求压缩、body可重复写出、未指定Content-Encoding，且长度未知或者不小于阈值时压缩
+     */
+    private boolean shouldCompress(HttpBody body, Map<String, String> headers) {
+        return compressThreshold >= 0 && null != body && body.isRepeatable()
+            && !headers.containsKey(HttpProperty.ContentEncoding.getCode())
+            && (body.contentLength() < 0 || body.contentLength() >= compressThreshold);
+    }
+
+    private HttpTransport defaultTransport() {
+        if (null != proxy || followRedirects || null == connectionPool) {
+            return new UrlConnectionHttpTransport(proxy, doInput, doOutput, useCaches, followRedirects);
+        }
+        return new PooledHttpTransport(connectionPool);
+    }
+
+    // --------------------------------- getters ----------------------------------
+
+    public int getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    public int getReadTimeout() {
+        return readTimeout;
+    }
+
+    public String getCharset() {
+        return charset;
+    }
+
+    public Map<String, String> getDefaultHeaders() {
+        return defaultHeaders;
+    }
+
+    public Proxy getProxy() {
+        return proxy;
+    }
+
+    public SslProvider getSslProvider() {
+        return sslProvider;
+    }
+
+    public HttpConnectionPool getConnectionPool() {
+        return connectionPool;
+    }
+
+    public boolean isFollowRedirects() {
+        return followRedirects;
+    }
+
+    public ExecutorService getExecutor() {
+        return executor;
+    }
+
+    public HttpTransport getTransport() {
+        return transport;
+    }
+
+    public HttpResilience getResilience() {
+        return resilience;
+    }
+
+    public HttpCache getCache() {
+        return cache;
+    }
+
+    public HttpCoalescer getCoalescer() {
+        return coalescer;
+    }
+
+    public HttpEventListener getEventListener() {
+        return eventListener;
+    }
+
+    /**
+     * 可以pipelining的传输层：只有未经cache、resilience、coalescer包装的连接池传输层才支持
+     *
+     * @return PooledHttpTransport 不支持时返回null
+     */
+    PooledHttpTransport pipelineTransport() {
+        return transport instanceof PooledHttpTransport ? (PooledHttpTransport)transport : null;
+    }
+
+    public boolean isAcceptEncoding() {
+        return acceptEncoding;
+    }
+
+    public int getCompressThreshold() {
+        return compressThreshold;
+    }
+
+    /**
+     * 当前client的压缩统计(线上字节数 vs 解压/压缩前字节数)，所有client的累计见HttpCompression.getStats()
+     *
+     * @return HttpCompression.Stats
+     */
+    public HttpCompression.Stats getCompressionStats() {
+        return compressionStats;
+    }
+
+    // --------------------------------- private ----------------------------------
+
+    private String charsetOf(RestApiRequest request) {
+        return null == request.getCharset() ? charset : request.getCharset();
+    }
+
+    /**
+     * 合并默认请求头与请求自身的请求头(后者优先)，忽略空值
+     */
+    private Map<String, String> mergeHeaders(RestApiRequest request) {
+        Map<String, String> headers = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+        putNotBlank(headers, defaultHeaders);
+        putNotBlank(headers, request.getHeaders());
+        return headers;
+    }
+
+    private static void putNotBlank(Map<String, String> headers, Map<String, String> src) {
+        for (Entry<String, String> entry : src.entrySet()) {
+            if (StringUtil.isNotBlank(entry.getValue())) {
+                headers.put(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * 按contentType创建请求body，均不在内存中聚合完整的body：<br/>
+     * - multipart: 文件部分在发送时才读取<br/>
+     * - json: 发送时直接序列化到连接的输出流，postPojo为HttpBody.Producer时由其自行序列化<br/>
+     * - octet-stream: 直接使用postPojo的byte[]
+     */
+    private HttpBody newBody(RestApiRequest request, Map<String, Object> params, Object pojo, String requestCharset)
+        throws Exception {
+        switch (request.getContentType()) {
+            case MULTIPART_FORM_DATA:
+                return MultipartBody.newBuilder(requestCharset)
+                    .parts(request.getFileParts())
+                    .params(params)
+                    .build();
+            case APPLICATION_JSON:
+                if (pojo instanceof HttpBody.Producer) {
+                    return HttpBody.of((HttpBody.Producer)pojo);
+                }
+                return HttpBody.of(new JsonProducer(pojo, params, requestCharset));
+            case APPLICATION_OCTET_STREAM:
+                return HttpBody.of((byte[])pojo);
+            default:
+                return HttpBody.of(FormEncoder.toBytes(params, requestCharset));
+        }
+    }
+
+    /**
+     * 把postPojo与params直接序列化到输出流，不生成中间的JSONObject与String<br/>
+     * - 集合与数组原样输出，忽略params<br/>
+     * - Map与params合并到新的Map后输出(只复制引用)<br/>
+     * - 其它对象输出其属性，params作为额外的属性追加(同名时覆盖postPojo的属性)<br/>
+     * - SerializeWriter的char缓冲区写满即输出，缓冲区由fastjson按线程复用
+     */
+    private static final class JsonProducer implements HttpBody.Producer {
+        private final Object pojo;
+        private final Map<String, Object> params;
+        private final String charset;
+
+        private JsonProducer(Object pojo, Map<String, Object> params, String charset) {
+            this.pojo = pojo;
+            this.params = params;
+            this.charset = charset;
+        }
+
+        @Override
+        public void writeTo(OutputStream out) throws IOException {
+            Writer writer = new OutputStreamWriter(out, charset);
+            SerializeWriter serializeWriter = new SerializeWriter(writer);
+            try {
+                JSONSerializer serializer = new JSONSerializer(serializeWriter);
+                if (null == pojo) {
+                    serializer.write(params);
+                } else if (pojo instanceof Collection || pojo instanceof Object[] || params.isEmpty()) {
+                    serializer.write(pojo);
+                } else if (pojo instanceof Map) {
+                    Map<Object, Object> merged = new LinkedHashMap<Object, Object>((Map<?, ?>)pojo);
+                    merged.putAll(params);
+                    serializer.write(merged);
+                } else {
+                    this.appendParams(serializer);
+                    serializer.write(pojo);
+                }
+                serializeWriter.flush();
+            } catch (JSONException e) {
+                // 写出失败时fastjson会把IOException包装为JSONException
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException)e.getCause();
+                }
+                throw e;
+            } finally {
+                serializeWriter.close();
+            }
+            writer.flush();
+        }
+
+        private void appendParams(JSONSerializer serializer) {
+            serializer.addFilter(new PropertyFilter() {
+                @Override
+                public boolean apply(Object object, String name, Object value) {
+                    return object != pojo || !params.containsKey(name);
+                }
+            });
+            serializer.addFilter(new AfterFilter() {
+                @Override
+                public void writeAfter(Object object) {
+                    if (object != pojo) {
+                        return;
+                    }
+                    for (Entry<String, Object> entry : params.entrySet()) {
+                        this.writeKeyValue(entry.getKey(), entry.getValue());
+                    }
+                }
+            });
+        }
+    }
+
+    private static TimeoutException newTimeoutException(RestApiRequest request, Throwable cause) {
+        TimeoutException e = new TimeoutException(
+            "Request timed out after " + request.getTimeout() + "ms: " + request.getUrl());
+        if (null != cause) {
+            e.initCause(cause);
+        }
+        return e;
+    }
+
+    /**
+     * 已经异常结束的future的异常
+     */
+    private static Throwable failureOf(CompletableFuture<?> future) {
+        try {
+            future.getNow(null);
+            return new CancellationException();
+        } catch (CompletionException e) {
+            return null == e.getCause() ? e : e.getCause();
+        } catch (CancellationException e) {
+            return e;
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (null == closeable) {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    // ------------------------------------ inner classes -------------------------
+
+    private static class DefaultHolder {
+        private static final RestApiClient INSTANCE = new Builder().build();
+    }
+
+    private static class AsyncExecutorHolder {
+        private static final ExecutorService EXECUTOR = ThreadUtil.getDaemonExecutorService(
+            ASYNC_POOL_SIZE, ASYNC_QUEUE_SIZE, "rest-api-async-%d");
+    }
+
+    private static class DeadlineHolder {
+        private static final ScheduledExecutorService SCHEDULER = ThreadUtil.getDaemonScheduledExecutorService(
+            1, "rest-api-deadline-%d");
+    }
+
+    /**
+     * 异步调用与批量调用的响应处理
+     *
+     * @param <T> T
+     */
+    public interface ResponseHandler<T> {
+        /**
+         * 处理响应，须读完或者关闭body
+         *
+         * @param response RestApiResponse
+         *
+         * @return T
+         *
+         * @throws Exception e
+         */
+        T handle(RestApiResponse response) throws Exception;
+    }
+
+    /**
+     * 统计响应body的字节数，读到EOF或被关闭时报告responseBodyEnd与callEnd，读取出错时报告callFailed(各只报告一次)
+     */
+    private static class MeteredBody extends FilterInputStream {
+        private final HttpTransport.Request exchange;
+        private final int statusCode;
+        private final long startedAt;
+        private final long headersAt;
+        private long bytes = 0;
+        private boolean finished = false;
+
+        private MeteredBody(InputStream in, HttpTransport.Request exchange, int statusCode, long startedAt,
+                            long headersAt) {
+            super(in);
+            this.exchange = exchange;
+            this.statusCode = statusCode;
+            this.startedAt = startedAt;
+            this.headersAt = headersAt;
+        }
+
+        @Override
+        public int read() throws IOException {
+            try {
+                int b = in.read();
+                if (b < 0) {
+                    this.finish(null);
+                } else {
+                    bytes++;
+                }
+                return b;
+            } catch (IOException e) {
+                this.finish(e);
+                throw e;
+            }
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            try {
+                int n = in.read(b, off, len);
+                if (n < 0) {
+                    this.finish(null);
+                } else {
+                    bytes += n;
+                }
+                return n;
+            } catch (IOException e) {
+                this.finish(e);
+                throw e;
+            }
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = in.skip(n);
+            bytes += skipped;
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                in.close();
+            } finally {
+                this.finish(null);
+            }
+        }
+
+        private void finish(IOException error) {
+            if (finished) {
+                return;
+            }
+            finished = true;
+            long now = System.nanoTime();
+            HttpEventListener listener = exchange.getListener();
+            if (null != error) {
+                listener.callFailed(exchange, error, now - startedAt);
+                return;
+            }
+            listener.responseBodyEnd(exchange, bytes, now - headersAt);
+            listener.callEnd(exchange, statusCode, now - startedAt);
+        }
+    }
+
+    /**
+     * 可中断的异步调用结果
+     *
+     * @param <T> T
+     */
+    private static class AsyncCall<T> extends CompletableFuture<T> {
+        private final HttpTransport.Request exchange;
+        private volatile Future<?> task;
+
+        private AsyncCall(HttpTransport.Request exchange) {
+            this.exchange = exchange;
+        }
+
+        private void abort() {
+            exchange.abort();
+            Future<?> t = task;
+            if (null != t) {
+                t.cancel(false);
+            }
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancelled = super.cancel(mayInterruptIfRunning);
+            if (cancelled) {
+                this.abort();
+            }
+            return cancelled;
+        }
+    }
+
+    /**
+     * RestApiClient构建器，非线程安全
+     */
+    public static class Builder {
+        private int connectTimeout = 70000;
+        private int readTimeout = 70000;
+        private String charset = DEFAULT_CHARSET;
+        private final Map<String, String> defaultHeaders = new LinkedHashMap<String, String>(16);
+        private Proxy proxy = null;
+        private SslProvider sslProvider = SslProvider.DEFAULT;
+        private HttpConnectionPool connectionPool = HttpConnectionPool.getDefault();
+        private boolean doInput = true;
+        private boolean doOutput = true;
+        private boolean useCaches = false;
+        private boolean followRedirects = false;
+        private ExecutorService executor = AsyncExecutorHolder.EXECUTOR;
+        private HttpTransport transport = null;
+        private HttpResilience resilience = null;
+        private HttpCache cache = null;
+        private HttpCoalescer coalescer = null;
+        private boolean acceptEncoding = true;
+        private int compressThreshold = -1;
+        private HttpEventListener eventListener = HttpEventListener.NONE;
+
+        private Builder() {
+            this.defaultHeaders.put(HttpProperty.UserAgent.getCode(), DEFAULT_USER_AGENT);
+        }
+
+        public Builder connectTimeout(int connectTimeout) {
+            this.connectTimeout = connectTimeout;
+            return this;
+        }
+
+        public Builder readTimeout(int readTimeout) {
+            this.readTimeout = readTimeout;
+            return this;
+        }
+
+        public Builder charset(String charset) {
+            this.charset = charset;
+            return this;
+        }
+
+        public Builder userAgent(String userAgent) {
+            this.defaultHeaders.put(HttpProperty.UserAgent.getCode(), userAgent);
+            return this;
+        }
+
+        /**
+         * 每个请求都会带上的请求头，请求自身的同名请求头优先
+         *
+         * @param name  String
+         * @param value String
+         *
+         * @return Builder
+         */
+        public Builder defaultHeader(String name, String value) {
+            this.defaultHeaders.put(name, value);
+            return this;
+        }
+
+        public Builder defaultHeader(HttpProperty property, String value) {
+            this.defaultHeaders.put(property.getCode(), value);
+            return this;
+        }
+
+        /**
+         * setter of proxy<br/>
+         * - e.g: new Proxy(Proxy.Type.HTTP, new InetSocketAddress("web-proxy.ind.abc.com", 8080))
+         *
+         * @param proxy java.net.Proxy
+         *
+         * @return Builder
+         */
+        public Builder proxy(Proxy proxy) {
+            this.proxy = proxy;
+            return this;
+        }
+
+        public Builder sslProvider(SslProvider sslProvider) {
+            this.sslProvider = null == sslProvider ? SslProvider.DEFAULT : sslProvider;
+            return this;
+        }
+
+        /**
+         * setter of connectionPool，传null时每次请求都通过HttpURLConnection发送
+         *
+         * @param connectionPool HttpConnectionPool
+         *
+         * @return Builder
+         */
+        public Builder connectionPool(HttpConnectionPool connectionPool) {
+            this.connectionPool = connectionPool;
+            return this;
+        }
+
+        public Builder doInput(boolean doInput) {
+            this.doInput = doInput;
+            return this;
+        }
+
+        public Builder doOutput(boolean doOutput) {
+            this.doOutput = doOutput;
+            return this;
+        }
+
+        /**
+         * 是否缓存响应，开启且未指定cache时使用共享的HttpCache.getDefault()
+         *
+         * @param useCaches boolean
+         *
+         * @return Builder
+         */
+        public Builder useCaches(boolean useCaches) {
+            this.useCaches = useCaches;
+            return this;
+        }
+
+        public Builder followRedirects(boolean followRedirects) {
+            this.followRedirects = followRedirects;
+            return this;
+        }
+
+        /**
+         * 异步请求使用的线程池，默认为共享的有界守护线程池(64线程, 队列1024)
+         *
+         * @param executor ExecutorService
+         *
+         * @return Builder
+         */
+        public Builder executor(ExecutorService executor) {
+            this.executor = null == executor ? AsyncExecutorHolder.EXECUTOR : executor;
+            return this;
+        }
+
+        /**
+         * 发送请求使用的传输层，为null时按proxy、followRedirects、connectionPool选择内置实现<br/>
+         * - 指定后proxy、connectionPool、doInput等传输相关配置由transport自身决定
+         *
+         * @param transport HttpTransport
+         *
+         * @return Builder
+         */
+        public Builder transport(HttpTransport transport) {
+            this.transport = transport;
+            return this;
+        }
+
+        /**
+         * 重试、对冲、熔断与并发隔离，为null时不启用(默认)<br/>
+         * - 熔断状态与统计保存在HttpResilience中，请在多个client之间共享同一个实例
+         *
+         * @param resilience HttpResilience
+         *
+         * @return Builder
+         */
+        public Builder resilience(HttpResilience resilience) {
+            this.resilience = resilience;
+            return this;
+        }
+
+        /**
+         * http响应缓存(ETag/Last-Modified重新验证)，为null时按useCaches决定<br/>
+         * - 缓存在重试/熔断之外，命中时不计入熔断与重试统计<br/>
+         * - 请在多个client之间共享同一个实例
+         *
+         * @param cache HttpCache
+         *
+         * @return Builder
+         */
+        public Builder cache(HttpCache cache) {
+            this.cache = cache;
+            return this;
+        }
+
+        /**
+         * 合并同一时刻相同的GET请求(single-flight)，为null时不合并(默认)<br/>
+         * - 在缓存之外，缓存过期时的并发请求只会有一个访问上游<br/>
+         * - 请在多个client之间共享同一个实例
+         *
+         * @param coalescer HttpCoalescer
+         *
+         * @return Builder
+         */
+        public Builder coalescer(HttpCoalescer coalescer) {
+            this.coalescer = coalescer;
+            return this;
+        }
+
+        /**
+         * 请求各阶段的事件监听，如HttpMetrics.getDefault()；为null时不监听(默认)，此时不计时也不包装响应body
+         *
+         * @param eventListener HttpEventListener
+         *
+         * @return Builder
+         */
+        public Builder eventListener(HttpEventListener eventListener) {
+            this.eventListener = null == eventListener ? HttpEventListener.NONE : eventListener;
+            return this;
+        }
+
+        /**
+         * 是否发送Accept-Encoding: gzip, deflate并透明解压响应，默认开启
+         *
+         * @param acceptEncoding boolean
+         *
+         * @return Builder
+         */
+        public Builder acceptEncoding(boolean acceptEncoding) {
+            this.acceptEncoding = acceptEncoding;
+            return this;
+        }
+
+        /**
+         * 请求body不小于该字节数(或长度未知)时以gzip压缩发送，需服务端支持Content-Encoding: gzip<br/>
+         * - 小于0时不压缩(默认)；含输入流的body不压缩
+         *
+         * @param compressThreshold int
+         *
+         * @return Builder
+         */
+        public Builder compressThreshold(int compressThreshold) {
+            this.compressThreshold = compressThreshold;
+            return this;
+        }
+
+        public RestApiClient build() {
+            return new RestApiClient(this);
+        }
+    }
+}
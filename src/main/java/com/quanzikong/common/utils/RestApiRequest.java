@@ -0,0 +1,305 @@
+package com.quanzikong.common.utils;
+
+import java.io.File;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.quanzikong.common.enums.HttpContentType;
+import com.quanzikong.common.enums.HttpMethod;
+import com.quanzikong.common.enums.HttpProperty;
+import com.quanzikong.common.enums.HttpProtocol;
+
+/**
+ * 不可变的单次请求描述，通过<code>RestApiRequest.Builder</code>构建<br/>
+ * 创建后可被任意线程共享，交给<code>RestApiClient.execute</code>执行
+ *
+ * Usage:
+ * RestApiRequest request = RestApiRequest.post("http://ip:port/xxx/yyy")
+ * .contentType(HttpContentType.APPLICATION_JSON)
+ * .param("one", 1)
+ * .param("two", "2")
+ * .build();
+ * String rsp = client.execute(request).getString();
+ *
+ * @author agent
+ */
+public final class RestApiRequest {
+
+    private final String url;
+    private final HttpMethod method;
+    private final HttpContentType contentType;
+    private final String charset;
+    private final Map<String, String> headers;
+    private final Map<String, Object> params;
+    private final Map<String, HttpBody> fileParts;
+    private final Object body;
+    private final int timeout;
+
+    private RestApiRequest(Builder builder) {
+        this.url = builder.url;
+        this.method = builder.method;
+        this.contentType = builder.contentType;
+        this.charset = builder.charset;
+        this.headers = Collections.unmodifiableMap(new LinkedHashMap<String, String>(builder.headers));
+        this.params = Collections.unmodifiableMap(new LinkedHashMap<String, Object>(builder.params));
+        this.fileParts = Collections.unmodifiableMap(new LinkedHashMap<String, HttpBody>(builder.fileParts));
+        this.body = builder.body;
+        this.timeout = builder.timeout;
+    }
+
+    /**
+     * 构建请求
+     *
+     * @param url 请求地址，未带协议时默认http
+     *
+     * @return Builder
+     */
+    public static Builder newBuilder(String url) {
+        return new Builder(url);
+    }
+
+    /**
+     * 构建GET请求
+     *
+     * @param url String
+     *
+     * @return Builder
+     */
+    public static Builder get(String url) {
+        return new Builder(url).method(HttpMethod.GET);
+    }
+
+    /**
+     * 构建POST请求
+     *
+     * @param url String
+     *
+     * @return Builder
+     */
+    public static Builder post(String url) {
+        return new Builder(url).method(HttpMethod.POST);
+    }
+
+    /**
+     * 以当前请求为模板创建新的Builder，原请求不受影响
+     *
+     * @return Builder
+     */
+    public Builder toBuilder() {
+        Builder builder = new Builder(url);
+        builder.method = method;
+        builder.contentType = contentType;
+        builder.charset = charset;
+        builder.headers.putAll(headers);
+        builder.params.putAll(params);
+        builder.fileParts.putAll(fileParts);
+        builder.body = body;
+        builder.timeout = timeout;
+        return builder;
+    }
+
+    // --------------------------------- getters ----------------------------------
+
+    public String getUrl() {
+        return url;
+    }
+
+    public HttpMethod getMethod() {
+        return method;
+    }
+
+    public HttpContentType getContentType() {
+        return contentType;
+    }
+
+    /**
+     * 请求的编码，为null时使用RestApiClient的charset
+     *
+     * @return String
+     */
+    public String getCharset() {
+        return charset;
+    }
+
+    public Map<String, String> getHeaders() {
+        return headers;
+    }
+
+    public Map<String, Object> getParams() {
+        return params;
+    }
+
+    public Map<String, HttpBody> getFileParts() {
+        return fileParts;
+    }
+
+    /**
+     * 请求body对象(postPojo)
+     *
+     * @return Object
+     */
+    public Object getBody() {
+        return body;
+    }
+
+    /**
+     * 请求的deadline(ms)，0表示只受client的connectTimeout/readTimeout限制
+     *
+     * @return int
+     */
+    public int getTimeout() {
+        return timeout;
+    }
+
+    // ------------------------------------ inner classes -------------------------
+
+    /**
+     * RestApiRequest构建器，非线程安全，build()之后的修改不影响已构建的请求
+     */
+    public static class Builder {
+        private final String url;
+        private HttpMethod method = HttpMethod.GET;
+        private HttpContentType contentType = HttpContentType.DEFAULT;
+        private String charset = null;
+        private final Map<String, String> headers = new LinkedHashMap<String, String>(16);
+        private final Map<String, Object> params = new LinkedHashMap<String, Object>(16);
+        private final Map<String, HttpBody> fileParts = new LinkedHashMap<String, HttpBody>(16);
+        private Object body = null;
+        private int timeout = 0;
+
+        private Builder(String url) {
+            String fUrl = url.trim();
+            boolean hasProtocol = fUrl.toLowerCase().startsWith(HttpProtocol.http.getCode());
+            this.url = hasProtocol ? fUrl : HttpProtocol.http.getCode() + "://" + fUrl;
+        }
+
+        public Builder method(HttpMethod method) {
+            this.method = method;
+            return this;
+        }
+
+        /**
+         * setter of contentType，同时设置Content-Type请求头
+         *
+         * @param contentType HttpContentType
+         *
+         * @return Builder
+         */
+        public Builder contentType(HttpContentType contentType) {
+            if (null == contentType) {
+                return this;
+            }
+
+            this.contentType = contentType;
+            this.headers.put(HttpProperty.ContentType.getCode(), contentType.getCode());
+            return this;
+        }
+
+        public Builder charset(String charset) {
+            this.charset = charset;
+            return this;
+        }
+
+        public Builder header(HttpProperty property, String value) {
+            this.headers.put(property.getCode(), value);
+            return this;
+        }
+
+        public Builder header(String name, String value) {
+            this.headers.put(name, value);
+            return this;
+        }
+
+        public Builder headers(Map<String, String> headers) {
+            if (null != headers && !headers.isEmpty()) {
+                this.headers.putAll(headers);
+            }
+            return this;
+        }
+
+        public Builder param(String key, Object val) {
+            this.params.put(key, val);
+            return this;
+        }
+
+        /**
+         * 批量添加参数（以追加的形式，有重复将会替换之前的参数值）
+         *
+         * @param params Map
+         *
+         * @return Builder
+         */
+        public Builder params(Map<String, Object> params) {
+            if (null != params && !params.isEmpty()) {
+                this.params.putAll(params);
+            }
+            return this;
+        }
+
+        public Builder filePart(String name, File file) {
+            return this.filePart(name, HttpBody.of(file));
+        }
+
+        /**
+         * 添加文件部分，长度未知(以chunked发送)，发送完后关闭输入流
+         *
+         * @param name String
+         * @param in   InputStream
+         *
+         * @return Builder
+         */
+        public Builder filePart(String name, InputStream in) {
+            return this.filePart(name, HttpBody.of(in, -1));
+        }
+
+        public Builder filePart(String name, ByteBuffer buffer) {
+            return this.filePart(name, HttpBody.of(buffer));
+        }
+
+        /**
+         * 添加文件部分，如HttpBody.of(path)、HttpBody.of(in, length)，发送时才读取
+         *
+         * @param name String
+         * @param body HttpBody
+         *
+         * @return Builder
+         */
+        public Builder filePart(String name, HttpBody body) {
+            this.fileParts.put(name, body);
+            return this;
+        }
+
+        /**
+         * 设置发送的对象(postPojo)。application/json时序列化为json，application/octet-stream时为byte[]
+         *
+         * @param body Object
+         *
+         * @return Builder
+         */
+        public Builder body(Object body) {
+            this.body = body;
+            return this;
+        }
+
+        /**
+         * 请求的deadline(ms)，从开始执行算起<br/>
+         * - 同步执行时限制取连接、连接和等待响应的时间<br/>
+         * - 异步执行时超时后future以TimeoutException结束，并中断进行中的请求
+         *
+         * @param timeout int
+         *
+         * @return Builder
+         */
+        public Builder timeout(int timeout) {
+            this.timeout = timeout;
+            return this;
+        }
+
+        public RestApiRequest build() {
+            return new RestApiRequest(this);
+        }
+    }
+}
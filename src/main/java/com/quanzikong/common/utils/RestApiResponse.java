@@ -0,0 +1,204 @@
+package com.quanzikong.common.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+
+import com.alibaba.fastjson.JSONReader;
+import com.alibaba.fastjson.TypeReference;
+import com.google.common.io.ByteStreams;
+
+/**
+ * 单次请求的响应<br/>
+ * - body只能读取一次，读完或者close后底层连接才会被复用
+ *
+ * @author agent
+ */
+public class RestApiResponse implements Closeable {
+
+    private final int statusCode;
+    private final Map<String, List<String>> headers;
+    private final InputStream body;
+    private final String charset;
+
+    /**
+     * constructor，供HttpTransport的实现使用
+     *
+     * @param statusCode 响应码
+     * @param headers    响应头
+     * @param body       响应body，为null时视为空body
+     * @param charset    解码body使用的编码
+     */
+    public RestApiResponse(int statusCode, Map<String, List<String>> headers, InputStream body, String charset) {
+        Map<String, List<String>> copy = new TreeMap<String, List<String>>(String.CASE_INSENSITIVE_ORDER);
+        if (null != headers) {
+            for (Map.Entry<String, List<String>> entry : headers.entrySet()) {
+                // HttpURLConnection以null为key返回状态行
+                if (null != entry.getKey()) {
+                    copy.put(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+
+        this.statusCode = statusCode;
+        this.headers = Collections.unmodifiableMap(copy);
+        this.body = null == body ? new ByteArrayInputStream(new byte[] {}) : body;
+        this.charset = charset;
+    }
+
+    /**
+     * 是否成功(200, 201, 202)
+     *
+     * @return boolean
+     */
+    public boolean isSuccess() {
+        return HttpURLConnection.HTTP_OK == statusCode
+            || HttpURLConnection.HTTP_CREATED == statusCode
+            || HttpURLConnection.HTTP_ACCEPTED == statusCode;
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    public Map<String, List<String>> getHeaders() {
+        return headers;
+    }
+
+    /**
+     * 获取响应头的第一个值
+     *
+     * @param name 响应头名称(不区分大小写)
+     *
+     * @return String
+     */
+    public String getHeader(String name) {
+        List<String> values = headers.get(name);
+        return null == values || values.isEmpty() ? null : values.get(0);
+    }
+
+    /**
+     * 响应body流，使用完请务必close
+     *
+     * @return InputStream
+     */
+    public InputStream getBody() {
+        return body;
+    }
+
+    /**
+     * 读取全部body并关闭
+     *
+     * @return byte[]
+     *
+     * @throws IOException e
+     */
+    public byte[] getBytes() throws IOException {
+        try {
+            return ByteStreams.toByteArray(body);
+        } finally {
+            body.close();
+        }
+    }
+
+    /**
+     * 按请求的charset读取全部body并关闭
+     *
+     * @return String
+     *
+     * @throws IOException e
+     */
+    public String getString() throws IOException {
+        return new String(this.getBytes(), charset);
+    }
+
+    /**
+     * 按json从body流直接解析为给定类型并关闭，不生成中间的String
+     *
+     * @param clazz Class
+     * @param <T>   T
+     *
+     * @return T
+     *
+     * @throws IOException e
+     */
+    public <T> T getObject(Class<T> clazz) throws IOException {
+        JSONReader reader = this.newJsonReader();
+        try {
+            return reader.readObject(clazz);
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * 按json从body流直接解析为给定的泛型类型并关闭，如new TypeReference&lt;List&lt;Foo&gt;&gt;() {}
+     *
+     * @param typeReference TypeReference
+     * @param <T>           T
+     *
+     * @return T
+     *
+     * @throws IOException e
+     */
+    public <T> T getObject(TypeReference<T> typeReference) throws IOException {
+        JSONReader reader = this.newJsonReader();
+        try {
+            return reader.readObject(typeReference);
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * 逐个解析body中json数组的元素并交给consumer，读完后关闭<br/>
+     * - 只持有当前元素，内存占用与数组大小无关
+     *
+     * @param clazz    元素类型
+     * @param consumer Consumer
+     * @param <T>      T
+     *
+     * @return 元素个数
+     *
+     * @throws IOException e
+     */
+    public <T> long streamArray(Class<T> clazz, Consumer<? super T> consumer) throws IOException {
+        JSONReader reader = this.newJsonReader();
+        try {
+            long count = 0;
+            reader.startArray();
+            while (reader.hasNext()) {
+                consumer.accept(reader.readObject(clazz));
+                count++;
+            }
+            reader.endArray();
+            return count;
+        } finally {
+            reader.close();
+        }
+    }
+
+    public String getCharset() {
+        return charset;
+    }
+
+    @Override
+    public void close() throws IOException {
+        body.close();
+    }
+
+    /**
+     * JSONReader按块读取body，fastjson的char缓冲区按线程复用
+     */
+    private JSONReader newJsonReader() throws IOException {
+        return new JSONReader(new InputStreamReader(body, charset));
+    }
+}
@@ -0,0 +1,217 @@
+package com.quanzikong.common.utils;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import com.alibaba.fastjson.TypeReference;
+
+import com.quanzikong.common.enums.HttpMethod;
+
+/**
+ * 预编译的请求模板，用于反复调用同一个接口<br/>
+ * - 创建时固定url、method、contentType、编码与请求头：合并client的默认请求头、过滤空值、补全Content-Type与Accept-Encoding只做一次<br/>
+ * - 模板请求的params是每次都带上的固定参数：GET时预先编码进url，其它方法与每次的参数合并(每次的参数优先)<br/>
+ * - 每次调用只绑定变化的参数与body，不再遍历请求头；请求头只在需要补充(multipart的boundary、请求压缩)时复制<br/>
+ * - 不可变，可被任意线程共享；之后对client或RestApiUtil的修改不影响已创建的模板
+ *
+ * Usage:
+ * RestApiTemplate template = RestApiClient.getDefault().template(RestApiRequest.get("http://ip:port/xxx")
+ * .header("X-Token", token)
+ * .param("app", "demo")
+ * .build());
+ * BizResult rst = template.execute(Collections.singletonMap("id", 1), BizResult.class);
+ *
+ * @author agent
+ */
+public final class RestApiTemplate {
+
+    private static final RestApiClient.ResponseHandler<RestApiResponse> IDENTITY
+        = new RestApiClient.ResponseHandler<RestApiResponse>() {
+        @Override
+        public RestApiResponse handle(RestApiResponse response) {
+            return response;
+        }
+    };
+
+    private final RestApiClient client;
+    private final RestApiRequest request;
+    private final Map<String, String> headers;
+    private final String baseUrl;
+    private final String charset;
+
+    RestApiTemplate(RestApiClient client, RestApiRequest request) {
+        this.client = client;
+        this.request = request;
+        this.headers = Collections.unmodifiableMap(client.compileHeaders(request));
+        this.charset = null == request.getCharset() ? client.getCharset() : request.getCharset();
+        this.baseUrl = HttpMethod.GET == request.getMethod()
+            ? FormEncoder.appendQuery(request.getUrl(), request.getParams(), charset)
+            : request.getUrl();
+    }
+
+    /**
+     * 只使用模板中的参数与body发送请求
+     *
+     * @return RestApiResponse 使用完请务必close(或读完body)
+     *
+     * @throws Exception e
+     */
+    public RestApiResponse execute() throws Exception {
+        return this.execute(null, request.getBody());
+    }
+
+    /**
+     * 绑定本次的参数并发送请求，body使用模板中的body
+     *
+     * @param params 本次的参数，可以为null
+     *
+     * @return RestApiResponse 使用完请务必close(或读完body)
+     *
+     * @throws Exception e
+     */
+    public RestApiResponse execute(Map<String, Object> params) throws Exception {
+        return this.execute(params, request.getBody());
+    }
+
+    /**
+     * 绑定本次的参数与body并发送请求
+     *
+     * @param params 本次的参数，可以为null
+     * @param body   本次的body对象(postPojo)，application/json时序列化为json，application/octet-stream时为byte[]
+     *
+     * @return RestApiResponse 使用完请务必close(或读完body)
+     *
+     * @throws Exception e
+     */
+    public RestApiResponse execute(Map<String, Object> params, Object body) throws Exception {
+        return client.execute(this.bind(params, body));
+    }
+
+    /**
+     * 发送请求，body按json解析为给定类型
+     *
+     * @param params 本次的参数，可以为null
+     * @param clazz  Class
+     * @param <T>    T
+     *
+     * @return T
+     *
+     * @throws Exception e
+     */
+    public <T> T execute(Map<String, Object> params, Class<T> clazz) throws Exception {
+        return this.execute(params, request.getBody()).getObject(clazz);
+    }
+
+    /**
+     * 发送请求，body按json解析为给定的泛型类型
+     *
+     * @param params        本次的参数，可以为null
+     * @param typeReference TypeReference
+     * @param <T>           T
+     *
+     * @return T
+     *
+     * @throws Exception e
+     */
+    public <T> T execute(Map<String, Object> params, TypeReference<T> typeReference) throws Exception {
+        return this.execute(params, request.getBody()).getObject(typeReference);
+    }
+
+    /**
+     * 发送请求，结果为body字符串
+     *
+     * @param params 本次的参数，可以为null
+     *
+     * @return String
+     *
+     * @throws Exception e
+     */
+    public String executeForString(Map<String, Object> params) throws Exception {
+        return this.execute(params, request.getBody()).getString();
+    }
+
+    /**
+     * 异步发送请求，规则同RestApiClient.executeAsync
+     *
+     * @param params 本次的参数，可以为null
+     * @param body   本次的body对象(postPojo)
+     *
+     * @return CompletableFuture
+     */
+    public CompletableFuture<RestApiResponse> executeAsync(Map<String, Object> params, Object body) {
+        return this.submit(params, body, IDENTITY);
+    }
+
+    /**
+     * 异步发送请求，body按json解析为给定类型
+     *
+     * @param params 本次的参数，可以为null
+     * @param clazz  Class
+     * @param <T>    T
+     *
+     * @return CompletableFuture
+     */
+    public <T> CompletableFuture<T> executeAsync(Map<String, Object> params, final Class<T> clazz) {
+        return this.submit(params, request.getBody(), new RestApiClient.ResponseHandler<T>() {
+            @Override
+            public T handle(RestApiResponse response) throws Exception {
+                return response.getObject(clazz);
+            }
+        });
+    }
+
+    // --------------------------------- getters ----------------------------------
+
+    public RestApiClient getClient() {
+        return client;
+    }
+
+    /**
+     * 模板请求
+     *
+     * @return RestApiRequest
+     */
+    public RestApiRequest getRequest() {
+        return request;
+    }
+
+    /**
+     * 每次请求都会发送的请求头(已合并client的默认请求头)
+     *
+     * @return Map
+     */
+    public Map<String, String> getHeaders() {
+        return headers;
+    }
+
+    // --------------------------------- private ----------------------------------
+
+    private <T> CompletableFuture<T> submit(Map<String, Object> params, Object body,
+                                            RestApiClient.ResponseHandler<T> handler) {
+        HttpTransport.Request exchange;
+        try {
+            exchange = this.bind(params, body);
+        } catch (Exception e) {
+            CompletableFuture<T> failed = new CompletableFuture<T>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+        return client.submit(exchange, request, handler);
+    }
+
+    private HttpTransport.Request bind(Map<String, Object> params, Object body) throws Exception {
+        Map<String, Object> bound = null == params ? Collections.<String, Object>emptyMap() : params;
+        if (HttpMethod.GET == request.getMethod()) {
+            return client.newTransportRequest(request, headers, FormEncoder.appendQuery(baseUrl, bound, charset),
+                bound, body);
+        }
+        if (!request.getParams().isEmpty()) {
+            Map<String, Object> merged = new LinkedHashMap<String, Object>(request.getParams());
+            merged.putAll(bound);
+            bound = merged;
+        }
+        return client.newTransportRequest(request, headers, baseUrl, bound, body);
+    }
+}
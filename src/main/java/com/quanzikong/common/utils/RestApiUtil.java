@@ -1,37 +1,30 @@
 package com.quanzikong.common.utils;
 
-import java.io.BufferedReader;
-import java.io.DataOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.OutputStream;
-import java.io.OutputStreamWriter;
-import java.net.HttpURLConnection;
 import java.net.Proxy;
-import java.net.URL;
-import java.net.URLConnection;
+import java.nio.ByteBuffer;
 import java.security.SecureRandom;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
-import java.util.Collection;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Consumer;
 
 import javax.net.ssl.HostnameVerifier;
-import javax.net.ssl.HttpsURLConnection;
 import javax.net.ssl.KeyManager;
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSocketFactory;
 import javax.net.ssl.TrustManager;
 import javax.net.ssl.X509TrustManager;
 import javax.servlet.http.HttpServletRequest;
 
-import com.alibaba.fastjson.JSONObject;
-
+import com.alibaba.fastjson.TypeReference;
 import com.google.common.io.ByteStreams;
 import com.quanzikong.common.enums.HttpContentType;
 import com.quanzikong.common.enums.HttpMethod;
@@ -39,25 +32,15 @@ import com.quanzikong.common.enums.HttpProperty;
 import com.quanzikong.common.enums.HttpProtocol;
 
 /**
- * RestApiUtil
+ * RestApiUtil<br/>
+ * - 单次调用的便捷入口，每次newInstance得到独立的实例，实例本身不可跨线程共享<br/>
+ * - 高并发场景请共享一个<code>RestApiClient</code>，每次调用构建<code>RestApiRequest</code>
  *
  * @since 2018-06-25 17:31
  */
 public class RestApiUtil {
 
-    private static final String EOF = "\r\n";
-    private static final String TWO_HYPHENS = "--";
-    private static final String FIVE_STARS = "*****";
-    private static final String AND_CHAR = "&";
-    private static final String EUQAL_CHAR = "=";
     private static final String DEFAULT_CHARSET = "utf8";
-    private static final String CONTENT_DISPOSITION = "Content-Disposition: form-data; name=\"%s\"";
-    private static final String CONTENT_DISPOSITION_FILE = "Content-Disposition: form-data; name=\"%s\"; filename=\"%s\"";
-    private static final String CONTENT_TYPE_TEXT_PLAIN = "Content-Type: text/plain";
-    private static final String CONTENT_TRANSFER_ENCODING_BINARY = "Content-Transfer-Encoding: binary";
-    private static final String MULTIPART_FORM_DATA_BOUNDARY = "multipart/form-data; boundary=";
-    private static final int MAX_BUFFER_SIZE = 1048576;
-    private static final int ZERO = 0;
 
     private int connectTimeout = 70000;
     private int readTimeout = 70000;
@@ -69,18 +52,27 @@ public class RestApiUtil {
     private Map<String, String> headerFields = new HashMap(16);
     private Map<String, String> requestProperties = new HashMap(16);
     private Map<String, Object> commonParams = new HashMap(16);
-    private Map<String, File> fileParts = new HashMap(16);
+    private Map<String, HttpBody> fileParts = new HashMap(16);
     private Object postPojo = null;
-    private HttpURLConnection httpConn;
     private boolean doInput = true;
     private boolean doOutput = true;
     private boolean userCache = false;
     private boolean instanceFollowRedirects = false;
+    private int timeout = 0;
+    private ExecutorService executor = null;
 
-    private Proxy proxy = null;
-    private SslProvider sslProvider = new SslProvider();
+    private RestApiResponse response;
 
-    private static RestApiUtil restApiUtil;
+    private Proxy proxy = null;
+    private SslProvider sslProvider = SslProvider.DEFAULT;
+    private HttpConnectionPool connectionPool = HttpConnectionPool.getDefault();
+    private HttpTransport transport = null;
+    private HttpResilience resilience = null;
+    private HttpCache cache = null;
+    private HttpCoalescer coalescer = null;
+    private boolean acceptEncoding = true;
+    private int compressThreshold = -1;
+    private HttpEventListener eventListener = null;
 
     /**
      * constructor
@@ -108,12 +100,9 @@ public class RestApiUtil {
      */
     public static RestApiUtil newInstance(String uri) {
         if (uri.trim().toLowerCase().startsWith(HttpProtocol.http.getCode())) {
-            restApiUtil = new RestApiUtil(HttpProtocol.http, uri, DEFAULT_CHARSET);
-        } else {
-            restApiUtil = new RestApiUtil(HttpProtocol.https, uri, DEFAULT_CHARSET);
+            return new RestApiUtil(HttpProtocol.http, uri, DEFAULT_CHARSET);
         }
-
-        return restApiUtil;
+        return new RestApiUtil(HttpProtocol.https, uri, DEFAULT_CHARSET);
     }
 
     /**
@@ -125,8 +114,7 @@ public class RestApiUtil {
      * @return RestApiUtil
      */
     public static RestApiUtil newInstance(HttpProtocol protocol, String uri) {
-        restApiUtil = new RestApiUtil(protocol, uri, DEFAULT_CHARSET);
-        return restApiUtil;
+        return new RestApiUtil(protocol, uri, DEFAULT_CHARSET);
     }
 
     /**
@@ -139,37 +127,26 @@ public class RestApiUtil {
      * @return RestApiUtil
      */
     public static RestApiUtil newInstance(HttpProtocol protocol, String uri, String charset) {
-        restApiUtil = new RestApiUtil(protocol, uri, charset);
-        return restApiUtil;
+        return new RestApiUtil(protocol, uri, charset);
     }
 
     /**
-     * 从HttpServletRequest获取byte[]
+     * 从HttpServletRequest获取byte[]<br/>
+     * - 支持chunked的body，不修改request的编码，最大RequestPayload.DEFAULT_MAX_SIZE<br/>
+     * - 结果是一份复制，直接使用RequestPayload可以避免复制
      *
      * @param request HttpServletRequest
      *
-     * @return T 目标对象实例
+     * @return byte[]
      *
      * @throws Exception e
+     * @deprecated use {@link RequestPayload#read(HttpServletRequest)}
      */
+    @Deprecated
     public static byte[] getRequestBytes(HttpServletRequest request) throws Exception {
-        request.setCharacterEncoding(DEFAULT_CHARSET);
-        int contentLen = request.getContentLength();
-        InputStream is = request.getInputStream();
-        if (contentLen > 0) {
-            int readLen = 0;
-            int readLengthThisTime = 0;
-            byte[] message = new byte[contentLen];
-            while (readLen != contentLen) {
-                readLengthThisTime = is.read(message, readLen, contentLen - readLen);
-                if (readLengthThisTime == -1) {
-                    break;
-                }
-                readLen += readLengthThisTime;
-            }
-            return message;
+        try (RequestPayload payload = RequestPayload.read(request)) {
+            return payload.getBytes();
         }
-        return new byte[] {};
     }
 
     /**
@@ -219,6 +196,19 @@ public class RestApiUtil {
         return asPost(HttpMethod.POST);
     }
 
+    /**
+     * 以当前配置(超时、连接池、请求头等)创建批量发送器<br/>
+     * - 请求由调用方以RestApiRequest描述，url不必与本实例相同
+     *
+     * Usage:
+     * RestApiUtil.newInstance(url).setReadTimeout(3000).newBatch().setPipelineDepth(16).executeForString(requests);
+     *
+     * @return RestApiBatch
+     */
+    public RestApiBatch newBatch() {
+        return new RestApiBatch(this.newClient());
+    }
+
     // --------------------------------- setters & getters ----------------------------------
 
     /**
@@ -245,6 +235,138 @@ public class RestApiUtil {
         return this;
     }
 
+    /**
+     * setter of connectionPool<br/>
+     * - 默认使用共享的<code>HttpConnectionPool.getDefault()</code><br/>
+     * - 设置了proxy或者instanceFollowRedirects时不经过连接池
+     *
+     * @param connectionPool HttpConnectionPool
+     *
+     * @return RestApiUtil
+     */
+    public RestApiUtil setConnectionPool(HttpConnectionPool connectionPool) {
+        this.connectionPool = connectionPool;
+        return this;
+    }
+
+    /**
+     * setter of timeout<br/>
+     * - 整个请求的deadline(ms)，异步请求超时后future以TimeoutException结束并中断请求
+     *
+     * @param timeout int
+     *
+     * @return RestApiUtil
+     */
+    public RestApiUtil setTimeout(int timeout) {
+        this.timeout = timeout;
+        return this;
+    }
+
+    /**
+     * setter of executor<br/>
+     * - sendAsync使用的线程池，默认使用RestApiClient共享的有界线程池
+     *
+     * @param executor ExecutorService
+     *
+     * @return RestApiUtil
+     */
+    public RestApiUtil setExecutor(ExecutorService executor) {
+        this.executor = executor;
+        return this;
+    }
+
+    /**
+     * setter of transport<br/>
+     * - 为null时按proxy、instanceFollowRedirects、connectionPool选择内置实现<br/>
+     * - e.g: 共享一个new NioHttpTransport()，以少量I/O线程承载大量并发请求
+     *
+     * @param transport HttpTransport
+     *
+     * @return RestApiUtil
+     */
+    public RestApiUtil setTransport(HttpTransport transport) {
+        this.transport = transport;
+        return this;
+    }
+
+    /**
+     * setter of resilience<br/>
+     * - 重试、对冲、熔断与并发隔离，熔断状态保存在HttpResilience中，请在多次调用之间共享同一个实例
+     *
+     * @param resilience HttpResilience
+     *
+     * @return RestApiUtil
+     */
+    public RestApiUtil setResilience(HttpResilience resilience) {
+        this.resilience = resilience;
+        return this;
+    }
+
+    /**
+     * setter of cache<br/>
+     * - GET响应的缓存，过期后以ETag/Last-Modified重新验证，请在多次调用之间共享同一个实例
+     *
+     * @param cache HttpCache
+     *
+     * @return RestApiUtil
+     */
+    public RestApiUtil setCache(HttpCache cache) {
+        this.cache = cache;
+        return this;
+    }
+
+    /**
+     * setter of coalescer<br/>
+     * - 同一时刻相同的GET只发出一次请求，请在多次调用之间共享同一个实例
+     *
+     * @param coalescer HttpCoalescer
+     *
+     * @return RestApiUtil
+     */
+    public RestApiUtil setCoalescer(HttpCoalescer coalescer) {
+        this.coalescer = coalescer;
+        return this;
+    }
+
+    /**
+     * setter of eventListener<br/>
+     * - 报告dns、connect、TLS握手、写出请求、首字节与读完body等阶段的耗时，如HttpMetrics.getDefault()
+     *
+     * @param eventListener HttpEventListener
+     *
+     * @return RestApiUtil
+     */
+    public RestApiUtil setEventListener(HttpEventListener eventListener) {
+        this.eventListener = eventListener;
+        return this;
+    }
+
+    /**
+     * setter of acceptEncoding<br/>
+     * - 默认发送Accept-Encoding: gzip, deflate，并透明解压响应
+     *
+     * @param acceptEncoding boolean
+     *
+     * @return RestApiUtil
+     */
+    public RestApiUtil setAcceptEncoding(boolean acceptEncoding) {
+        this.acceptEncoding = acceptEncoding;
+        return this;
+    }
+
+    /**
+     * setter of compressThreshold<br/>
+     * - 请求body不小于该字节数(或长度未知)时以gzip压缩发送，小于0时不压缩(默认)
+     *
+     * @param compressThreshold int
+     *
+     * @return RestApiUtil
+     */
+    public RestApiUtil setCompressThreshold(int compressThreshold) {
+        this.compressThreshold = compressThreshold;
+        return this;
+    }
+
     /**
      * setter of proxy<br/>
      * - e.g: new Proxy(Proxy.Type.HTTP, new InetSocketAddress("web-proxy.ind.abc.com", 8080))
@@ -283,7 +405,8 @@ public class RestApiUtil {
     }
 
     /**
-     * setter of userCache
+     * setter of userCache<br/>
+     * - 开启且未setCache时使用共享的HttpCache.getDefault()缓存GET响应
      *
      * @param userCache boolean
      *
@@ -313,6 +436,7 @@ public class RestApiUtil {
      */
     public void setUserAgent(String userAgent) {
         this.userAgent = userAgent;
+        this.requestProperties.put(HttpProperty.UserAgent.getCode(), userAgent);
     }
 
     /**
@@ -366,216 +490,54 @@ public class RestApiUtil {
 
     // --------------------------------- private ----------------------------------
 
-    private void postApplicationJson() throws Exception {
-        String postString = "";
-        if (this.postPojo instanceof Collection || this.postPojo instanceof Object[]) {
-            postString = JSONObject.toJSONString(this.postPojo);
-        } else {
-            JSONObject o = new JSONObject();
-            if (null != this.postPojo) {
-                o = (JSONObject)JSONObject.toJSON(this.postPojo);
-            }
-            this.appendCommonParamsToJson(o);
-            postString = o.toJSONString();
-        }
-
-        OutputStream outputStream = httpConn.getOutputStream();
-        OutputStreamWriter out = new OutputStreamWriter(outputStream, this.charset);
-        out.write(postString);
-        out.flush();
-        out.close();
-    }
-
-    private void postApplicationOctetStream() throws Exception {
-        OutputStream out = httpConn.getOutputStream();
-        out.write((byte[])this.postPojo);
-        out.flush();
-        out.close();
-    }
-
-    private void postMultipartFormData() throws Exception {
-        String boundary = FIVE_STARS + System.currentTimeMillis() + FIVE_STARS;
-        httpConn.setRequestProperty(HttpProperty.ContentType.getCode(), MULTIPART_FORM_DATA_BOUNDARY + boundary);
-        DataOutputStream writer = new DataOutputStream(httpConn.getOutputStream());
-
-        // send files
-        this.sendFiles(writer, boundary);
-
-        // send common params
-        this.sendParams(writer, boundary);
-
-        writer.writeBytes(TWO_HYPHENS + boundary + TWO_HYPHENS + EOF);
-        writer.flush();
-        writer.close();
-    }
-
-    private void postSimpleData() throws Exception {
-        OutputStream outputStream = httpConn.getOutputStream();
-        OutputStreamWriter out = new OutputStreamWriter(outputStream, this.charset);
-        out.write(getUrlParams());
-        out.flush();
-        out.close();
-    }
-
-    private void sendParams(DataOutputStream writer, String boundary) throws Exception {
-        if (this.commonParams.isEmpty()) {
-            return;
-        }
-
-        Iterator<Entry<String, Object>> formfieldsIt = this.commonParams.entrySet().iterator();
-        Entry<String, Object> formfieldsEntry;
-        while (formfieldsIt.hasNext()) {
-            formfieldsEntry = formfieldsIt.next();
-            String name = formfieldsEntry.getKey();
-            String value = formfieldsEntry.getValue() + StringUtil.EMPTY_STRING;
-
-            writer.writeBytes(TWO_HYPHENS + boundary + EOF);
-            writer.writeBytes(String.format(CONTENT_DISPOSITION, name) + EOF);
-            writer.writeBytes(CONTENT_TYPE_TEXT_PLAIN + EOF);
-            writer.writeBytes(EOF);
-            writer.writeBytes(value);
-            writer.writeBytes(EOF);
-        }
-    }
-
-    private void sendFiles(DataOutputStream wirter, String boundary) throws Exception {
-        if (this.fileParts.isEmpty()) {
-            return;
-        }
-
-        Iterator<Entry<String, File>> iterator = this.fileParts.entrySet().iterator();
-        Entry<String, File> fileEntry;
-        while (iterator.hasNext()) {
-            fileEntry = iterator.next();
-            String fn = fileEntry.getKey();
-            File file = fileEntry.getValue();
-
-            wirter.writeBytes(TWO_HYPHENS + boundary + EOF);
-            wirter.writeBytes(String.format(CONTENT_DISPOSITION_FILE, fn, fn) + EOF);
-            wirter.writeBytes(CONTENT_TRANSFER_ENCODING_BINARY + EOF);
-            wirter.writeBytes(EOF);
-
-            FileInputStream fileInputStream = new FileInputStream(file);
-            int bytesAvailable = fileInputStream.available();
-            int bufferSize = Math.min(bytesAvailable, MAX_BUFFER_SIZE);
-            byte[] buffer = new byte[bufferSize];
-            int bytesRead = fileInputStream.read(buffer, ZERO, bufferSize);
-            while (bytesRead > ZERO) {
-                wirter.write(buffer, ZERO, bufferSize);
-                bytesAvailable = fileInputStream.available();
-                bufferSize = Math.min(bytesAvailable, MAX_BUFFER_SIZE);
-                bytesRead = fileInputStream.read(buffer, ZERO, bufferSize);
-            }
-            wirter.writeBytes(EOF);
-            fileInputStream.close();
-        }
-    }
-
-    private void appendCommonParamsToJson(JSONObject o) {
-        if (this.commonParams.isEmpty()) {
-            return;
-        }
-
-        Iterator<Entry<String, Object>> it = this.commonParams.entrySet().iterator();
-        Entry<String, Object> entry;
-        String key;
-        Object val;
-        while (it.hasNext()) {
-            entry = it.next();
-            key = entry.getKey();
-            val = entry.getValue();
-            o.put(key, val);
-        }
-    }
-
     /**
-     * 将map转换成url参数，仅支持GET.
-     * 1, 忽略文件类型的参数
+     * 按当前配置构建client(不可变，构建后与本实例无共享状态)
      *
-     * @return 拼好的URL参数key1=value1&key2=value2的形式
+     * @return RestApiClient
      */
-    private String getUrlParams() {
-        if (this.commonParams.isEmpty()) {
-            return "";
-        }
-        Object val;
-
-        StringBuffer sb = new StringBuffer();
-        for (Entry<String, Object> entry : this.commonParams.entrySet()) {
-            val = entry.getValue();
-            // 忽略文件类型的参数
-            if (val instanceof File) {
-                continue;
-            }
-            sb.append(entry.getKey() + EUQAL_CHAR + val);
-            sb.append(AND_CHAR);
-        }
-        String s = sb.toString();
-        if (s.endsWith(AND_CHAR)) {
-            s = StringUtil.substringBeforeLast(s, AND_CHAR);
-        }
-
-        return s;
+    private RestApiClient newClient() {
+        return RestApiClient.newBuilder()
+            .connectTimeout(this.connectTimeout)
+            .readTimeout(this.readTimeout)
+            .charset(this.charset)
+            .userAgent(this.userAgent)
+            .proxy(this.proxy)
+            .sslProvider(this.sslProvider)
+            .connectionPool(this.connectionPool)
+            .doInput(this.doInput)
+            .doOutput(this.doOutput)
+            .useCaches(this.userCache)
+            .followRedirects(this.instanceFollowRedirects)
+            .executor(this.executor)
+            .transport(this.transport)
+            .resilience(this.resilience)
+            .cache(this.cache)
+            .coalescer(this.coalescer)
+            .acceptEncoding(this.acceptEncoding)
+            .compressThreshold(this.compressThreshold)
+            .eventListener(this.eventListener)
+            .build();
     }
 
     /**
-     * initHttpConn
+     * 按当前参数构建不可变的请求
      *
-     * @param url String
-     *
-     * @throws Exception e
+     * @return RestApiRequest
      */
-    private void initHttpConn(String url, HttpMethod method) throws Exception {
-        boolean isHttps = url.toLowerCase().startsWith(HttpProtocol.https.getCode());
-
-        if (isHttps) {
-            this.initSSLProtocol();
-        }
-
-        URL uri = new URL(url);
-        URLConnection urlConnection = null == this.proxy ? uri.openConnection() : uri.openConnection(this.proxy);
-
-        httpConn = isHttps ? (HttpsURLConnection)urlConnection : (HttpURLConnection)urlConnection;
-        httpConn.setRequestMethod(method.getCode());
-        httpConn.setDoInput(this.doInput);
-        httpConn.setDoOutput(this.doOutput);
-        httpConn.setUseCaches(this.userCache);
-        httpConn.setInstanceFollowRedirects(this.instanceFollowRedirects);
-        httpConn.setConnectTimeout(this.connectTimeout);
-        httpConn.setReadTimeout(this.readTimeout);
-        // set request properties
-        if (!this.requestProperties.isEmpty()) {
-            Iterator<Entry<String, String>> propertiesIt = this.requestProperties.entrySet().iterator();
-            Entry<String, String> entry;
-            while (propertiesIt.hasNext()) {
-                entry = propertiesIt.next();
-                if (StringUtil.isNotBlank(entry.getValue())) {
-                    httpConn.setRequestProperty(entry.getKey(), entry.getValue());
-                }
-            }
-        }
-
-        // set header fields
-        if (!this.headerFields.isEmpty()) {
-            Iterator<Entry<String, String>> propertiesIt = this.headerFields.entrySet().iterator();
-            Entry<String, String> entry;
-            while (propertiesIt.hasNext()) {
-                entry = propertiesIt.next();
-                if (StringUtil.isNotBlank(entry.getValue())) {
-                    httpConn.setRequestProperty(entry.getKey(), entry.getValue());
-                }
-            }
+    private RestApiRequest newRequest() {
+        RestApiRequest.Builder builder = RestApiRequest.newBuilder(this.url)
+            .method(this.method)
+            .contentType(this.contentType)
+            .charset(this.charset)
+            .headers(this.requestProperties)
+            .headers(this.headerFields)
+            .params(this.commonParams)
+            .body(this.postPojo)
+            .timeout(this.timeout);
+        for (Entry<String, HttpBody> entry : this.fileParts.entrySet()) {
+            builder.filePart(entry.getKey(), entry.getValue());
         }
-    }
-
-    /**
-     * initSSLProtocol
-     */
-    private void initSSLProtocol() throws Exception {
-        HttpsURLConnection.setDefaultHostnameVerifier(sslProvider.getDefalutHostnameVerifier());
-        SSLContext sc = SSLContext.getInstance(sslProvider.getSSLContextAlgorithm());
-        sc.init(sslProvider.getKeyManagers(), sslProvider.getTrustAllCerts(), sslProvider.getSecureRandom());
-        HttpsURLConnection.setDefaultSSLSocketFactory(sc.getSocketFactory());
+        return builder.build();
     }
 
     // ------------------------------------ inner classes -------------------------
@@ -585,20 +547,16 @@ public class RestApiUtil {
      */
     class BaseProxy {
         /**
-         * 得到请求结果的InputStream
+         * 得到请求结果的InputStream<br/>
+         * - 与原来一样，返回前body已读入内存、连接已归还，调用方不close也不会占用连接<br/>
+         * - 大的响应需要边读边处理时使用RestApiClient.execute，读完或者close后连接才被复用
          *
          * @return InputStream
          *
          * @throws Exception e
          */
         public InputStream getResponseStream() throws Exception {
-            this.send();
-
-            InputStream ins = this.getResponseInputStream();
-
-            httpConn.disconnect();
-
-            return ins;
+            return new ByteArrayInputStream(this.getResponseBytes());
         }
 
         /**
@@ -612,12 +570,11 @@ public class RestApiUtil {
             this.send();
 
             InputStream ins = this.getResponseInputStream();
-
-            byte[] bytes = ByteStreams.toByteArray(ins);
-
-            httpConn.disconnect();
-
-            return bytes;
+            try {
+                return ByteStreams.toByteArray(ins);
+            } finally {
+                ins.close();
+            }
         }
 
         /**
@@ -630,19 +587,109 @@ public class RestApiUtil {
         public String getResponseString() throws Exception {
             this.send();
 
-            InputStream ins = this.getResponseInputStream();
+            return response.getString();
+        }
 
-            StringBuffer result = new StringBuffer();
-            InputStreamReader isr = new InputStreamReader(ins, charset);
-            BufferedReader in = new BufferedReader(isr);
-            String inputLine;
-            while ((inputLine = in.readLine()) != null) {
-                result.append(inputLine);
-            }
+        /**
+         * 请求结果按json从响应流直接解析为给定类型
+         *
+         * @param clazz Class
+         * @param <T>   T
+         *
+         * @return T
+         *
+         * @throws Exception e
+         */
+        public <T> T getResponse(Class<T> clazz) throws Exception {
+            this.send();
 
-            httpConn.disconnect();
+            return response.getObject(clazz);
+        }
 
-            return result.toString();
+        /**
+         * 请求结果按json从响应流直接解析为给定的泛型类型
+         *
+         * @param typeReference TypeReference
+         * @param <T>           T
+         *
+         * @return T
+         *
+         * @throws Exception e
+         */
+        public <T> T getResponse(TypeReference<T> typeReference) throws Exception {
+            this.send();
+
+            return response.getObject(typeReference);
+        }
+
+        /**
+         * 请求结果为json数组时，逐个解析元素并交给consumer，内存占用与数组大小无关
+         *
+         * @param clazz    元素类型
+         * @param consumer Consumer
+         * @param <T>      T
+         *
+         * @return 元素个数
+         *
+         * @throws Exception e
+         */
+        public <T> long streamArray(Class<T> clazz, Consumer<? super T> consumer) throws Exception {
+            this.send();
+
+            return response.streamArray(clazz, consumer);
+        }
+
+        /**
+         * 异步发送，得到请求结果的String
+         *
+         * @return CompletableFuture
+         */
+        public CompletableFuture<String> sendAsync() {
+            return newClient().executeAsyncForString(newRequest());
+        }
+
+        /**
+         * 异步发送，得到请求结果的byte[]
+         *
+         * @return CompletableFuture
+         */
+        public CompletableFuture<byte[]> sendAsyncForBytes() {
+            return newClient().executeAsyncForBytes(newRequest());
+        }
+
+        /**
+         * 异步发送，请求结果按json解析为给定类型
+         *
+         * @param clazz Class
+         * @param <T>   T
+         *
+         * @return CompletableFuture
+         */
+        public <T> CompletableFuture<T> sendAsync(Class<T> clazz) {
+            return newClient().executeAsync(newRequest(), clazz);
+        }
+
+        /**
+         * 异步发送，请求结果按json解析为给定的泛型类型
+         *
+         * @param typeReference TypeReference
+         * @param <T>           T
+         *
+         * @return CompletableFuture
+         */
+        public <T> CompletableFuture<T> sendAsync(TypeReference<T> typeReference) {
+            return newClient().executeAsync(newRequest(), typeReference);
+        }
+
+        /**
+         * 以当前的配置、请求头与参数编译请求模板，用于反复调用同一个接口<br/>
+         * - 已添加的参数作为固定参数，每次调用时再绑定变化的参数与body<br/>
+         * - 之后对当前RestApiUtil的修改不影响模板
+         *
+         * @return RestApiTemplate
+         */
+        public RestApiTemplate toTemplate() {
+            return newClient().template(newRequest());
         }
 
         /**
@@ -653,23 +700,11 @@ public class RestApiUtil {
          * @throws Exception e
          */
         private InputStream getResponseInputStream() throws Exception {
-            if (null == httpConn) {
+            if (null == response) {
                 throw new Exception("Please call send() first!!");
             }
 
-            InputStream ins = null;
-            // checks server's status code first
-            int resCode = httpConn.getResponseCode();
-            boolean isSrccess = HttpURLConnection.HTTP_OK == resCode
-                || HttpURLConnection.HTTP_CREATED == resCode
-                || HttpURLConnection.HTTP_ACCEPTED == resCode;
-            if (isSrccess) {
-                ins = httpConn.getInputStream();
-            } else {
-                ins = httpConn.getErrorStream();
-            }
-
-            return ins;
+            return response.getBody();
         }
 
         /**
@@ -680,25 +715,7 @@ public class RestApiUtil {
          * @throws Exception e
          */
         private void send() throws Exception {
-            if (HttpMethod.GET == method) {
-                initHttpConn(url + "?" + getUrlParams(), method);
-                return;
-            }
-
-            initHttpConn(url, method);
-            switch (contentType) {
-                case APPLICATION_JSON:
-                    postApplicationJson();
-                    break;
-                case APPLICATION_OCTET_STREAM:
-                    postApplicationOctetStream();
-                    break;
-                case MULTIPART_FORM_DATA:
-                    postMultipartFormData();
-                    break;
-                default:
-                    postSimpleData();
-            }
+            response = newClient().execute(newRequest());
         }
     }
 
@@ -707,7 +724,7 @@ public class RestApiUtil {
      */
     public class GetProxy extends BaseProxy {
         /**
-         * 添加参数
+         * 添加参数，值为Collection或数组时作为多值参数(key=v1&amp;key=v2)
          *
          * @param key String
          * @param val Object
@@ -748,7 +765,43 @@ public class RestApiUtil {
          * @return RestApiUtil
          */
         public PostProxy addFilePart(String name, File val) {
-            restApiUtil.fileParts.put(name, val);
+            return this.addFilePart(name, HttpBody.of(val));
+        }
+
+        /**
+         * 添加需要发送的文件内容，长度未知(以chunked发送)，发送完后关闭输入流
+         *
+         * @param name 文件名
+         * @param val  输入流
+         *
+         * @return RestApiUtil
+         */
+        public PostProxy addFilePart(String name, InputStream val) {
+            return this.addFilePart(name, HttpBody.of(val, -1));
+        }
+
+        /**
+         * 添加需要发送的文件内容，发送position到limit之间的数据，不复制
+         *
+         * @param name 文件名
+         * @param val  ByteBuffer
+         *
+         * @return RestApiUtil
+         */
+        public PostProxy addFilePart(String name, ByteBuffer val) {
+            return this.addFilePart(name, HttpBody.of(val));
+        }
+
+        /**
+         * 添加需要发送的文件内容，如HttpBody.of(path)、HttpBody.of(in, length)，发送时才读取
+         *
+         * @param name 文件名
+         * @param val  HttpBody
+         *
+         * @return RestApiUtil
+         */
+        public PostProxy addFilePart(String name, HttpBody val) {
+            fileParts.put(name, val);
             return this;
         }
 
@@ -760,7 +813,7 @@ public class RestApiUtil {
          * @return RestApiUtil
          */
         public PostProxy setPostPojo(Object postPojo) {
-            restApiUtil.postPojo = postPojo;
+            RestApiUtil.this.postPojo = postPojo;
             return this;
         }
 
@@ -782,7 +835,7 @@ public class RestApiUtil {
         }
 
         /**
-         * 添加参数
+         * 添加参数，值为Collection或数组时作为多值参数(key=v1&amp;key=v2)
          *
          * @param key String
          * @param val Object
@@ -816,14 +869,18 @@ public class RestApiUtil {
      */
     public static class SslProvider {
 
-        private HostnameVerifier defalutHostnameVerifier = new HostnameVerifier() {
+        /**
+         * 默认的HostnameVerifier、TrustManager与SecureRandom为共享实例，
+         * 未修改这些配置的SslProvider得到相同的缓存key，共享SSLContext与TLS会话缓存
+         */
+        private static final HostnameVerifier TRUST_ALL_HOSTNAME_VERIFIER = new HostnameVerifier() {
             @Override
             public boolean verify(String s, SSLSession sslSession) {
                 return true;
             }
         };
 
-        private TrustManager[] trustAllCerts = new TrustManager[] {
+        private static final TrustManager[] TRUST_ALL_CERTS = new TrustManager[] {
             new X509TrustManager() {
                 public void checkClientTrusted(X509Certificate[] chain, String authType)
                     throws CertificateException {
@@ -839,12 +896,72 @@ public class RestApiUtil {
             }
         };
 
+        private static final SecureRandom SECURE_RANDOM = new SecureRandom();
+
+        /**
+         * 默认配置的共享实例，复用同一个SSLSocketFactory以便池化的https连接可以被复用<br/>
+         * - 须在上面的静态默认值之后初始化
+         */
+        static final SslProvider DEFAULT = new SslProvider();
+
+        private volatile SslContextCache.Entry sslEntry;
+
+        private HostnameVerifier defalutHostnameVerifier = TRUST_ALL_HOSTNAME_VERIFIER;
+
+        private TrustManager[] trustAllCerts = TRUST_ALL_CERTS;
+
         private KeyManager[] keyManagers = null;
 
-        private SecureRandom secureRandom = new SecureRandom();
+        private SecureRandom secureRandom = SECURE_RANDOM;
 
         private String SSLContextAlgorithm = "TLS";
 
+        private int sessionCacheSize = 0;
+
+        private int sessionTimeout = 0;
+
+        /**
+         * 与当前配置对应的SSLContext，取自SslContextCache，配置变更时重新获取
+         *
+         * @return javax.net.ssl.SSLContext
+         *
+         * @throws Exception e
+         */
+        public SSLContext getSSLContext() throws Exception {
+            return this.getSslEntry().getContext();
+        }
+
+        /**
+         * 与SSLContext一同缓存的SSLSocketFactory，只用于单个连接，不修改JVM全局的默认配置
+         *
+         * @return javax.net.ssl.SSLSocketFactory
+         *
+         * @throws Exception e
+         */
+        public SSLSocketFactory getSSLSocketFactory() throws Exception {
+            return this.getSslEntry().getSocketFactory();
+        }
+
+        /**
+         * 当前配置的握手统计(配置相同的SslProvider共享)
+         *
+         * @return SslContextCache.Stats
+         *
+         * @throws Exception e
+         */
+        public SslContextCache.Stats getSslStats() throws Exception {
+            return this.getSslEntry().getStats();
+        }
+
+        SslContextCache.Entry getSslEntry() throws Exception {
+            SslContextCache.Entry entry = sslEntry;
+            if (null == entry) {
+                entry = SslContextCache.get(this);
+                sslEntry = entry;
+            }
+            return entry;
+        }
+
         /**
          * getter of defalutHostnameVerifier
          *
@@ -879,6 +996,7 @@ public class RestApiUtil {
          */
         public void setTrustAllCerts(TrustManager[] trustAllCerts) {
             this.trustAllCerts = trustAllCerts;
+            this.sslEntry = null;
         }
 
         /**
@@ -897,6 +1015,7 @@ public class RestApiUtil {
          */
         public void setKeyManagers(KeyManager[] keyManagers) {
             this.keyManagers = keyManagers;
+            this.sslEntry = null;
         }
 
         /**
@@ -915,6 +1034,7 @@ public class RestApiUtil {
          */
         public void setSecureRandom(SecureRandom secureRandom) {
             this.secureRandom = secureRandom;
+            this.sslEntry = null;
         }
 
         /**
@@ -933,6 +1053,47 @@ public class RestApiUtil {
          */
         public void setSSLContextAlgorithm(String SSLContextAlgorithm) {
             this.SSLContextAlgorithm = SSLContextAlgorithm;
+            this.sslEntry = null;
+        }
+
+        /**
+         * getter of sessionCacheSize
+         *
+         * @return int
+         */
+        public int getSessionCacheSize() {
+            return sessionCacheSize;
+        }
+
+        /**
+         * setter of sessionCacheSize<br/>
+         * - 客户端TLS会话缓存的条数，0表示使用JDK默认值
+         *
+         * @param sessionCacheSize int
+         */
+        public void setSessionCacheSize(int sessionCacheSize) {
+            this.sessionCacheSize = sessionCacheSize;
+            this.sslEntry = null;
+        }
+
+        /**
+         * getter of sessionTimeout
+         *
+         * @return int
+         */
+        public int getSessionTimeout() {
+            return sessionTimeout;
+        }
+
+        /**
+         * setter of sessionTimeout<br/>
+         * - 客户端TLS会话的有效期(秒)，超过后不再用于会话恢复，0表示使用JDK默认值
+         *
+         * @param sessionTimeout int
+         */
+        public void setSessionTimeout(int sessionTimeout) {
+            this.sessionTimeout = sessionTimeout;
+            this.sslEntry = null;
         }
     }
 }
\ No newline at end of file
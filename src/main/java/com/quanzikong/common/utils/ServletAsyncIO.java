@@ -0,0 +1,297 @@
+package com.quanzikong.common.utils;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiConsumer;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.alibaba.fastjson.JSON;
+
+/**
+ * 基于Servlet 3.1 ReadListener/WriteListener的非阻塞body读写<br/>
+ * - 等待慢客户端上传或接收数据时不占用容器线程，结果以CompletableFuture返回<br/>
+ * - 读取规则同RequestPayload(支持chunked，使用BufferPool，超过maxSize时以PayloadTooLargeException结束)<br/>
+ * - write系列写完后结束AsyncContext；超时或出错时未完成的future以异常结束，并返回503(响应尚未提交时)<br/>
+ * - future在容器的I/O线程上完成，耗时的业务请用thenApplyAsync等切换到业务线程池
+ *
+ * Usage:
+ * final AsyncContext ctx = ServletAsyncIO.startAsync(request, response, 30000);
+ * ServletAsyncIO.readBody(ctx).thenAccept(new Consumer&lt;RequestPayload&gt;() {
+ * public void accept(RequestPayload payload) {
+ * try (RequestPayload p = payload) {
+ * ServletAsyncIO.writeJson(ctx, new BizResult().toSuccess("OK").xPut("src", p.getHessianObject(TestPojo.class)));
+ * }
+ * }
+ * });
+ *
+ * @author agent
+ */
+public final class ServletAsyncIO {
+
+    public static final String APPLICATION_JSON = "application/json;charset=UTF-8";
+    public static final String APPLICATION_HESSIAN = "application/x-hessian";
+    /**
+     * 每次写出的最大字节数，容器缓冲区满时(isReady() == false)等待下一次onWritePossible
+     */
+    private static final int WRITE_CHUNK_SIZE = 8192;
+    private static final String PENDING_ATTRIBUTE = ServletAsyncIO.class.getName() + ".PENDING";
+
+    private ServletAsyncIO() {
+    }
+
+    /**
+     * 开启异步处理，登记超时与出错的处理
+     *
+     * @param request  HttpServletRequest
+     * @param response HttpServletResponse
+     * @param timeout  超时(ms)，0表示不限制
+     *
+     * @return AsyncContext
+     */
+    public static AsyncContext startAsync(HttpServletRequest request, HttpServletResponse response, long timeout) {
+        final AsyncContext ctx = request.startAsync(request, response);
+        ctx.setTimeout(timeout);
+        final Set<CompletableFuture<?>> pending = ConcurrentHashMap.newKeySet();
+        request.setAttribute(PENDING_ATTRIBUTE, pending);
+        ctx.addListener(new AsyncListener() {
+            @Override
+            public void onComplete(AsyncEvent event) {
+            }
+
+            @Override
+            public void onTimeout(AsyncEvent event) {
+                abort(ctx, pending, new TimeoutException("Async request timed out after " + ctx.getTimeout() + "ms"));
+            }
+
+            @Override
+            public void onError(AsyncEvent event) {
+                abort(ctx, pending, null == event.getThrowable()
+                    ? new IOException("Async request failed") : event.getThrowable());
+            }
+
+            @Override
+            public void onStartAsync(AsyncEvent event) {
+            }
+        });
+        return ctx;
+    }
+
+    /**
+     * 非阻塞读取请求body，最大RequestPayload.DEFAULT_MAX_SIZE
+     *
+     * @param ctx AsyncContext
+     *
+     * @return CompletableFuture, RequestPayload使用完请close
+     */
+    public static CompletableFuture<RequestPayload> readBody(AsyncContext ctx) {
+        return readBody(ctx, RequestPayload.DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * 非阻塞读取请求body
+     *
+     * @param ctx     AsyncContext
+     * @param maxSize 最大长度
+     *
+     * @return CompletableFuture, RequestPayload使用完请close
+     */
+    public static CompletableFuture<RequestPayload> readBody(AsyncContext ctx, int maxSize) {
+        final CompletableFuture<RequestPayload> future = track(ctx, new CompletableFuture<RequestPayload>());
+        try {
+            HttpServletRequest request = (HttpServletRequest)ctx.getRequest();
+            String charset = null == request.getCharacterEncoding() ? "UTF-8" : request.getCharacterEncoding();
+            RequestPayload.Collector collector = new RequestPayload.Collector(request.getContentLengthLong(),
+                charset, maxSize);
+            ServletInputStream in = request.getInputStream();
+            in.setReadListener(new BodyReader(in, collector, future));
+        } catch (Throwable e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * 以json写出结果并结束AsyncContext
+     *
+     * @param ctx    AsyncContext
+     * @param result 结果，如BizResult
+     *
+     * @return CompletableFuture
+     */
+    public static CompletableFuture<Void> writeJson(AsyncContext ctx, Object result) {
+        return write(ctx, APPLICATION_JSON, JSON.toJSONBytes(result));
+    }
+
+    /**
+     * 以hessian写出结果并结束AsyncContext
+     *
+     * @param ctx    AsyncContext
+     * @param result 结果
+     *
+     * @return CompletableFuture
+     */
+    public static CompletableFuture<Void> writeHessian(AsyncContext ctx, Object result) {
+        return write(ctx, APPLICATION_HESSIAN, HessianUtil.serialize(result));
+    }
+
+    /**
+     * 非阻塞写出响应body并结束AsyncContext
+     *
+     * @param ctx         AsyncContext
+     * @param contentType Content-Type
+     * @param bytes       body
+     *
+     * @return CompletableFuture
+     */
+    public static CompletableFuture<Void> write(final AsyncContext ctx, String contentType, byte[] bytes) {
+        final CompletableFuture<Void> future = track(ctx, new CompletableFuture<Void>());
+        try {
+            HttpServletResponse response = (HttpServletResponse)ctx.getResponse();
+            response.setContentType(contentType);
+            response.setContentLength(bytes.length);
+            ServletOutputStream out = response.getOutputStream();
+            out.setWriteListener(new BodyWriter(ctx, out, bytes, future));
+        } catch (Throwable e) {
+            future.completeExceptionally(e);
+            complete(ctx);
+        }
+        return future;
+    }
+
+    // --------------------------------- private ----------------------------------
+
+    /**
+     * 登记未完成的future，超时或出错时统一以异常结束
+     */
+    private static <T> CompletableFuture<T> track(AsyncContext ctx, final CompletableFuture<T> future) {
+        @SuppressWarnings("unchecked")
+        final Set<CompletableFuture<?>> pending = (Set<CompletableFuture<?>>)ctx.getRequest().getAttribute(
+            PENDING_ATTRIBUTE);
+        if (null != pending) {
+            pending.add(future);
+            future.whenComplete(new BiConsumer<T, Throwable>() {
+                @Override
+                public void accept(T t, Throwable throwable) {
+                    pending.remove(future);
+                }
+            });
+        }
+        return future;
+    }
+
+    private static void abort(AsyncContext ctx, Set<CompletableFuture<?>> pending, Throwable cause) {
+        for (CompletableFuture<?> future : pending) {
+            future.completeExceptionally(cause);
+        }
+        HttpServletResponse response = (HttpServletResponse)ctx.getResponse();
+        if (!response.isCommitted()) {
+            response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+        }
+        complete(ctx);
+    }
+
+    private static void complete(AsyncContext ctx) {
+        try {
+            ctx.complete();
+        } catch (IllegalStateException ignored) {
+            // 已经结束
+        }
+    }
+
+    // ------------------------------------ inner classes -------------------------
+
+    /**
+     * 有数据时读到isReady()为false为止，读完时交出RequestPayload
+     */
+    private static final class BodyReader implements ReadListener {
+        private final ServletInputStream in;
+        private final RequestPayload.Collector collector;
+        private final CompletableFuture<RequestPayload> future;
+
+        private BodyReader(ServletInputStream in, RequestPayload.Collector collector,
+                           CompletableFuture<RequestPayload> future) {
+            this.in = in;
+            this.collector = collector;
+            this.future = future;
+        }
+
+        @Override
+        public void onDataAvailable() {
+            try {
+                while (in.isReady() && !in.isFinished()) {
+                    if (collector.readFrom(in) < 0) {
+                        break;
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                // 不再读取剩余的数据，容器也不会再回调onAllDataRead
+                this.onError(e);
+            }
+        }
+
+        @Override
+        public void onAllDataRead() {
+            RequestPayload payload = collector.finish();
+            if (!future.complete(payload)) {
+                // 已超时
+                payload.close();
+            }
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            collector.discard();
+            future.completeExceptionally(t);
+        }
+    }
+
+    /**
+     * 可写时写到isReady()为false为止，写完后结束AsyncContext
+     */
+    private static final class BodyWriter implements WriteListener {
+        private final AsyncContext ctx;
+        private final ServletOutputStream out;
+        private final byte[] bytes;
+        private final CompletableFuture<Void> future;
+        private int offset = 0;
+
+        private BodyWriter(AsyncContext ctx, ServletOutputStream out, byte[] bytes, CompletableFuture<Void> future) {
+            this.ctx = ctx;
+            this.out = out;
+            this.bytes = bytes;
+            this.future = future;
+        }
+
+        @Override
+        public void onWritePossible() throws IOException {
+            while (out.isReady()) {
+                if (offset == bytes.length) {
+                    complete(ctx);
+                    future.complete(null);
+                    return;
+                }
+                int n = Math.min(WRITE_CHUNK_SIZE, bytes.length - offset);
+                out.write(bytes, offset, n);
+                offset += n;
+            }
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            future.completeExceptionally(t);
+            complete(ctx);
+        }
+    }
+}
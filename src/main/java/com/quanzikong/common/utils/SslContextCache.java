@@ -0,0 +1,339 @@
+package com.quanzikong.common.utils;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.HandshakeCompletedEvent;
+import javax.net.ssl.HandshakeCompletedListener;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+import com.quanzikong.common.utils.RestApiUtil.SslProvider;
+
+/**
+ * 按SslProvider配置缓存SSLContext<br/>
+ * - 配置相同的SslProvider共享同一个SSLContext，从而共享TLS会话缓存，后续握手可以走会话恢复<br/>
+ * - 统计握手次数与会话恢复次数，见<code>getStats()</code>与<code>SslProvider.getSslStats()</code>
+ *
+ * @author agent
+ */
+public final class SslContextCache {
+
+    private static final int MAX_ENTRIES = 64;
+
+    private static final Stats TOTAL = new Stats();
+
+    private static final Map<Key, Entry> CACHE = new LinkedHashMap<Key, Entry>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, SslContextCache.Entry> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    private SslContextCache() {
+    }
+
+    /**
+     * 取得与provider配置相同的缓存项，没有时创建
+     *
+     * @param provider SslProvider
+     *
+     * @return Entry
+     *
+     * @throws Exception e
+     */
+    static Entry get(SslProvider provider) throws Exception {
+        Key key = new Key(provider);
+        synchronized (CACHE) {
+            Entry entry = CACHE.get(key);
+            if (null == entry) {
+                entry = new Entry(newContext(provider));
+                CACHE.put(key, entry);
+            }
+            return entry;
+        }
+    }
+
+    /**
+     * 所有SSLContext的握手统计
+     *
+     * @return Stats
+     */
+    public static Stats getStats() {
+        return TOTAL;
+    }
+
+    /**
+     * 缓存的SSLContext个数
+     *
+     * @return int
+     */
+    public static int size() {
+        synchronized (CACHE) {
+            return CACHE.size();
+        }
+    }
+
+    /**
+     * 清空缓存，已创建的连接不受影响
+     */
+    public static void clear() {
+        synchronized (CACHE) {
+            CACHE.clear();
+        }
+    }
+
+    private static SSLContext newContext(SslProvider provider) throws Exception {
+        SSLContext context = SSLContext.getInstance(provider.getSSLContextAlgorithm());
+        context.init(provider.getKeyManagers(), provider.getTrustAllCerts(), provider.getSecureRandom());
+        SSLSessionContext sessionContext = context.getClientSessionContext();
+        if (null != sessionContext) {
+            if (provider.getSessionCacheSize() > 0) {
+                sessionContext.setSessionCacheSize(provider.getSessionCacheSize());
+            }
+            if (provider.getSessionTimeout() > 0) {
+                sessionContext.setSessionTimeout(provider.getSessionTimeout());
+            }
+        }
+        return context;
+    }
+
+    // ------------------------------------ inner classes -------------------------
+
+    /**
+     * 缓存key：算法、KeyManager、TrustManager、SecureRandom(按实例)与会话缓存配置
+     */
+    private static final class Key {
+        private final String algorithm;
+        private final List<?> keyManagers;
+        private final List<?> trustManagers;
+        private final Object secureRandom;
+        private final int sessionCacheSize;
+        private final int sessionTimeout;
+
+        private Key(SslProvider provider) {
+            this.algorithm = provider.getSSLContextAlgorithm();
+            this.keyManagers = null == provider.getKeyManagers() ? null
+                : Arrays.asList(provider.getKeyManagers().clone());
+            this.trustManagers = null == provider.getTrustAllCerts() ? null
+                : Arrays.asList(provider.getTrustAllCerts().clone());
+            this.secureRandom = provider.getSecureRandom();
+            this.sessionCacheSize = provider.getSessionCacheSize();
+            this.sessionTimeout = provider.getSessionTimeout();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key that = (Key)o;
+            return sessionCacheSize == that.sessionCacheSize
+                && sessionTimeout == that.sessionTimeout
+                && secureRandom == that.secureRandom
+                && ObjectUtil.equals(algorithm, that.algorithm)
+                && ObjectUtil.equals(keyManagers, that.keyManagers)
+                && ObjectUtil.equals(trustManagers, that.trustManagers);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = null == algorithm ? 0 : algorithm.hashCode();
+            result = 31 * result + (null == keyManagers ? 0 : keyManagers.hashCode());
+            result = 31 * result + (null == trustManagers ? 0 : trustManagers.hashCode());
+            result = 31 * result + System.identityHashCode(secureRandom);
+            result = 31 * result + sessionCacheSize;
+            result = 31 * result + sessionTimeout;
+            return result;
+        }
+    }
+
+    /**
+     * 缓存项：SSLContext、带统计的SSLSocketFactory与握手统计
+     */
+    static final class Entry {
+        private final SSLContext context;
+        private final StatsSocketFactory socketFactory;
+        private final Stats stats = new Stats();
+
+        private Entry(SSLContext context) {
+            this.context = context;
+            this.socketFactory = new StatsSocketFactory(context.getSocketFactory(), this);
+        }
+
+        SSLContext getContext() {
+            return context;
+        }
+
+        SSLSocketFactory getSocketFactory() {
+            return socketFactory;
+        }
+
+        Stats getStats() {
+            return stats;
+        }
+
+        /**
+         * 记录一次完成的握手
+         *
+         * @param session   握手得到的会话
+         * @param startedAt 握手开始时间(ms)，恢复的会话创建时间早于它
+         */
+        void onHandshake(SSLSession session, long startedAt) {
+            boolean resumed = session.getCreationTime() < startedAt;
+            stats.record(resumed);
+            TOTAL.record(resumed);
+        }
+    }
+
+    /**
+     * 握手统计
+     */
+    public static final class Stats {
+        private final AtomicLong handshakes = new AtomicLong();
+        private final AtomicLong resumed = new AtomicLong();
+
+        private void record(boolean resumedSession) {
+            handshakes.incrementAndGet();
+            if (resumedSession) {
+                resumed.incrementAndGet();
+            }
+        }
+
+        /**
+         * 完成的握手次数(含会话恢复)
+         *
+         * @return long
+         */
+        public long getHandshakes() {
+            return handshakes.get();
+        }
+
+        /**
+         * 通过会话恢复完成的握手次数
+         *
+         * @return long
+         */
+        public long getResumedSessions() {
+            return resumed.get();
+        }
+
+        /**
+         * 完整握手次数
+         *
+         * @return long
+         */
+        public long getFullHandshakes() {
+            return handshakes.get() - resumed.get();
+        }
+
+        @Override
+        public String toString() {
+            return "[handshakes: " + handshakes.get()
+                + "; full: " + this.getFullHandshakes()
+                + "; resumed: " + resumed.get() + "]";
+        }
+    }
+
+    /**
+     * 统计握手的SSLSocketFactory<br/>
+     * - HttpsURLConnection自行握手，通过HandshakeCompletedListener统计<br/>
+     * - 连接池通过<code>handshake</code>同步握手并统计
+     */
+    static final class StatsSocketFactory extends SSLSocketFactory {
+        private final SSLSocketFactory delegate;
+        private final Entry entry;
+
+        private StatsSocketFactory(SSLSocketFactory delegate, Entry entry) {
+            this.delegate = delegate;
+            this.entry = entry;
+        }
+
+        /**
+         * 在已连接的socket上完成TLS握手
+         *
+         * @param socket 已连接的socket
+         * @param host   对端主机名(用于SNI与会话恢复)
+         * @param port   对端端口
+         *
+         * @return SSLSocket
+         *
+         * @throws IOException e
+         */
+        SSLSocket handshake(Socket socket, String host, int port) throws IOException {
+            long startedAt = System.currentTimeMillis();
+            SSLSocket sslSocket = (SSLSocket)delegate.createSocket(socket, host, port, true);
+            sslSocket.startHandshake();
+            entry.onHandshake(sslSocket.getSession(), startedAt);
+            return sslSocket;
+        }
+
+        @Override
+        public String[] getDefaultCipherSuites() {
+            return delegate.getDefaultCipherSuites();
+        }
+
+        @Override
+        public String[] getSupportedCipherSuites() {
+            return delegate.getSupportedCipherSuites();
+        }
+
+        @Override
+        public Socket createSocket(Socket s, String host, int port, boolean autoClose) throws IOException {
+            return this.listen(delegate.createSocket(s, host, port, autoClose));
+        }
+
+        @Override
+        public Socket createSocket() throws IOException {
+            return this.listen(delegate.createSocket());
+        }
+
+        @Override
+        public Socket createSocket(String host, int port) throws IOException {
+            return this.listen(delegate.createSocket(host, port));
+        }
+
+        @Override
+        public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException {
+            return this.listen(delegate.createSocket(host, port, localHost, localPort));
+        }
+
+        @Override
+        public Socket createSocket(InetAddress host, int port) throws IOException {
+            return this.listen(delegate.createSocket(host, port));
+        }
+
+        @Override
+        public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort)
+            throws IOException {
+            return this.listen(delegate.createSocket(address, port, localAddress, localPort));
+        }
+
+        private Socket listen(Socket socket) {
+            if (socket instanceof SSLSocket) {
+                final long createdAt = System.currentTimeMillis();
+                ((SSLSocket)socket).addHandshakeCompletedListener(new HandshakeCompletedListener() {
+                    @Override
+                    public void handshakeCompleted(HandshakeCompletedEvent event) {
+                        entry.onHandshake(event.getSession(), createdAt);
+                    }
+                });
+            }
+            return socket;
+        }
+    }
+}
@@ -4,6 +4,7 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
@@ -42,6 +43,60 @@ public class ThreadUtil {
         );
     }
 
+    /**
+     * 有界的守护线程池，不会阻止JVM退出，适合作为类库内部的共享线程池<br/>
+     * - 线程数固定为poolSize，空闲超过60s回收；队列满时拒绝(AbortPolicy)
+     *
+     * @param poolSize   int
+     * @param queueSize  int
+     * @param nameFormat 线程名称格式，如"rest-api-async-%d"
+     *
+     * @return ExecutorService
+     */
+    public static ExecutorService getDaemonExecutorService(int poolSize, int queueSize, String nameFormat) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+            poolSize,
+            poolSize,
+            60000L,
+            TimeUnit.MILLISECONDS,
+            new LinkedBlockingQueue<Runnable>(queueSize),
+            new ThreadFactoryBuilder().setNameFormat(nameFormat).setDaemon(true).build(),
+            new ThreadPoolExecutor.AbortPolicy()
+        );
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * 守护线程的定时任务线程池
+     *
+     * @param corePoolSize int
+     * @param nameFormat   线程名称格式
+     *
+     * @return ScheduledExecutorService
+     */
+    public static ScheduledExecutorService getDaemonScheduledExecutorService(int corePoolSize, String nameFormat) {
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(
+            corePoolSize,
+            new ThreadFactoryBuilder().setNameFormat(nameFormat).setDaemon(true).build(),
+            new ThreadPoolExecutor.AbortPolicy()
+        );
+        // 取消的超时任务及时移出队列
+        executor.setRemoveOnCancelPolicy(true);
+        return executor;
+    }
+
+    /**
+     * 守护线程的ThreadFactory，用于长期运行的独立线程(如连接的读线程)
+     *
+     * @param nameFormat 线程名称格式，如"http2-reader-%d"
+     *
+     * @return ThreadFactory
+     */
+    public static ThreadFactory getDaemonThreadFactory(String nameFormat) {
+        return new ThreadFactoryBuilder().setNameFormat(nameFormat).setDaemon(true).build();
+    }
+
     public static ScheduledExecutorService getScheduledExecutorService() {
         return new ScheduledThreadPoolExecutor(
             CORE_POOL_SIZE,
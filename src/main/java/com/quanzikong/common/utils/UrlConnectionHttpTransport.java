@@ -0,0 +1,108 @@
+package com.quanzikong.common.utils;
+
+import java.io.Closeable;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.Proxy;
+import java.net.URLConnection;
+import java.util.Map.Entry;
+
+import javax.net.ssl.HttpsURLConnection;
+
+import com.quanzikong.common.utils.RestApiUtil.SslProvider;
+
+/**
+ * 基于HttpURLConnection的传输层，支持proxy与重定向<br/>
+ * - 响应读完后关闭流而不是disconnect，由JDK的keep-alive缓存复用连接
+ *
+ * @author agent
+ */
+public class UrlConnectionHttpTransport implements HttpTransport {
+
+    private final Proxy proxy;
+    private final boolean doInput;
+    private final boolean doOutput;
+    private final boolean useCaches;
+    private final boolean followRedirects;
+
+    public UrlConnectionHttpTransport() {
+        this(null, true, true, false, false);
+    }
+
+    /**
+     * constructor
+     *
+     * @param proxy           java.net.Proxy, 可为null
+     * @param doInput         boolean
+     * @param doOutput        boolean
+     * @param useCaches       boolean
+     * @param followRedirects boolean
+     */
+    public UrlConnectionHttpTransport(Proxy proxy, boolean doInput, boolean doOutput, boolean useCaches,
+                                      boolean followRedirects) {
+        this.proxy = proxy;
+        this.doInput = doInput;
+        this.doOutput = doOutput;
+        this.useCaches = useCaches;
+        this.followRedirects = followRedirects;
+    }
+
+    @Override
+    public RestApiResponse execute(Request request) throws Exception {
+        final HttpURLConnection httpConn = this.initHttpConn(request);
+        request.attach(new Closeable() {
+            @Override
+            public void close() {
+                httpConn.disconnect();
+            }
+        });
+
+        HttpBody body = request.getBody();
+        if (null != body) {
+            // 流式写出，避免HttpURLConnection在内存中缓存整个body
+            if (body.contentLength() >= 0) {
+                httpConn.setFixedLengthStreamingMode(body.contentLength());
+            } else {
+                httpConn.setChunkedStreamingMode(0);
+            }
+            OutputStream out = httpConn.getOutputStream();
+            body.writeTo(out);
+            out.close();
+        }
+
+        // checks server's status code first
+        int resCode = httpConn.getResponseCode();
+        boolean isSrccess = HttpURLConnection.HTTP_OK == resCode
+            || HttpURLConnection.HTTP_CREATED == resCode
+            || HttpURLConnection.HTTP_ACCEPTED == resCode;
+        InputStream ins = isSrccess ? httpConn.getInputStream() : httpConn.getErrorStream();
+        return new RestApiResponse(resCode, httpConn.getHeaderFields(), ins, request.getCharset());
+    }
+
+    private HttpURLConnection initHttpConn(Request request) throws Exception {
+        URLConnection urlConnection = null == this.proxy
+            ? request.getUrl().openConnection()
+            : request.getUrl().openConnection(this.proxy);
+
+        HttpURLConnection httpConn = (HttpURLConnection)urlConnection;
+        if (request.isSecure()) {
+            // 只作用于当前连接，不修改JVM全局的默认配置
+            SslProvider sslProvider = request.getSslProvider();
+            HttpsURLConnection httpsConn = (HttpsURLConnection)urlConnection;
+            httpsConn.setSSLSocketFactory(sslProvider.getSSLSocketFactory());
+            httpsConn.setHostnameVerifier(sslProvider.getDefalutHostnameVerifier());
+        }
+        httpConn.setRequestMethod(request.getMethod().getCode());
+        httpConn.setDoInput(this.doInput);
+        httpConn.setDoOutput(this.doOutput);
+        httpConn.setUseCaches(this.useCaches);
+        httpConn.setInstanceFollowRedirects(this.followRedirects);
+        httpConn.setConnectTimeout(request.connectTimeout());
+        httpConn.setReadTimeout(request.readTimeout());
+        for (Entry<String, String> entry : request.getHeaders().entrySet()) {
+            httpConn.setRequestProperty(entry.getKey(), entry.getValue());
+        }
+        return httpConn;
+    }
+}
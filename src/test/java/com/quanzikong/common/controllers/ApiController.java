@@ -1,25 +1,35 @@
 package com.quanzikong.common.controllers;
 
 import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
 
+import javax.servlet.AsyncContext;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import com.alibaba.fastjson.JSONObject;
+import com.alibaba.fastjson.TypeReference;
 
 import com.quanzikong.common.BizResult;
 import com.quanzikong.common.to.TestPojo;
-import com.quanzikong.common.utils.HessianUtil;
-import com.quanzikong.common.utils.RestApiUtil;
+import com.quanzikong.common.utils.RequestPayload;
+import com.quanzikong.common.utils.ServletAsyncIO;
 import org.springframework.http.MediaType;
 import org.springframework.util.MultiValueMap;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.multipart.MultipartFile;
 import org.springframework.web.multipart.MultipartHttpServletRequest;
@@ -27,6 +37,9 @@ import org.springframework.web.multipart.MultipartHttpServletRequest;
 @RestController
 @RequestMapping("/api")
 public class ApiController {
+    private static final ConcurrentMap<String, AtomicInteger> CALL_COUNTERS
+        = new ConcurrentHashMap<String, AtomicInteger>();
+
     @RequestMapping(value = "/testget", method = {RequestMethod.GET})
     public BizResult testget(HttpServletRequest request, int one, String two) {
         BizResult rst = new BizResult();
@@ -89,6 +102,84 @@ public class ApiController {
         return rst.toSuccess("OK");
     }
 
+    @RequestMapping(value = "/testarray", method = {RequestMethod.GET})
+    public List<TestPojo> testArray(int size) {
+        List<TestPojo> list = new ArrayList<TestPojo>(size);
+        for (int i = 0; i < size; i++) {
+            TestPojo testPojo = new TestPojo();
+            testPojo.setOne(i);
+            testPojo.setTwo(String.valueOf(i));
+            list.add(testPojo);
+        }
+        return list;
+    }
+
+    @RequestMapping(value = "/testgzip", method = {RequestMethod.POST})
+    public BizResult testGzip(HttpServletRequest request) throws Exception {
+        TestPojo testPojo = JSONObject.parseObject(new GZIPInputStream(request.getInputStream()), TestPojo.class);
+        return new BizResult().toSuccess("OK").xPut("src", testPojo)
+            .xPut("contentEncoding", request.getHeader("Content-Encoding"));
+    }
+
+    /**
+     * 同一个key的前failures次请求返回503，第slowCalls次之前的请求先sleep
+     */
+    @RequestMapping(value = "/testflaky", method = {RequestMethod.GET})
+    public BizResult testFlaky(HttpServletResponse response, String key,
+                               @RequestParam(defaultValue = "0") int failures,
+                               @RequestParam(defaultValue = "0") int slowCalls,
+                               @RequestParam(defaultValue = "0") long sleep) throws Exception {
+        int call = nextCall(key);
+        if (call <= slowCalls) {
+            Thread.sleep(sleep);
+        }
+        if (call <= failures) {
+            response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            return new BizResult(false, "Unavailable");
+        }
+        return new BizResult().toSuccess("OK").xPut("call", call);
+    }
+
+    @RequestMapping(value = "/testcache", method = {RequestMethod.GET})
+    public BizResult testCache(HttpServletRequest request, HttpServletResponse response, String key,
+                               @RequestParam(defaultValue = "0") int maxAge,
+                               @RequestParam(defaultValue = "1") int version,
+                               @RequestParam(defaultValue = "") String scope) {
+        int call = nextCall(key);
+        String etag = "\"" + key + "-" + version + "\"";
+        response.setHeader("Cache-Control", (scope.isEmpty() ? "" : scope + ", ") + "max-age=" + maxAge);
+        response.setHeader("ETag", etag);
+        if (etag.equals(request.getHeader("If-None-Match"))) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return null;
+        }
+        return new BizResult().toSuccess("OK").xPut("call", call).xPut("version", version);
+    }
+
+    @RequestMapping(value = "/testcache", method = {RequestMethod.POST})
+    public BizResult testCacheUpdate(String key) {
+        return new BizResult().toSuccess("OK").xPut("call", nextCall(key));
+    }
+
+    /**
+     * 原样返回解码后的参数(含多值参数)
+     */
+    @RequestMapping(value = "/testquery", method = {RequestMethod.GET, RequestMethod.POST})
+    public BizResult testQuery(HttpServletRequest request) {
+        return new BizResult().toSuccess("OK").xPut("params", request.getParameterMap());
+    }
+
+    @RequestMapping(value = "/testdrain", method = {RequestMethod.POST})
+    public BizResult testDrain(HttpServletRequest request) throws Exception {
+        byte[] buffer = new byte[8192];
+        long length = 0;
+        InputStream in = request.getInputStream();
+        for (int n; (n = in.read(buffer)) != -1; ) {
+            length += n;
+        }
+        return new BizResult().toSuccess("OK").xPut("length", length);
+    }
+
     @RequestMapping(
         value = "/testoctetstream",
         method = {RequestMethod.POST},
@@ -103,10 +194,67 @@ public class ApiController {
         }
 
         // object
-        byte[] bytes = RestApiUtil.getRequestBytes(request);
-        TestPojo testPojo = HessianUtil.deserialize(bytes, TestPojo.class);
+        try (RequestPayload payload = RequestPayload.read(request)) {
+            TestPojo testPojo = payload.getHessianObject(TestPojo.class);
+            return new BizResult().toSuccess("OK").xPut("src", testPojo);
+        }
+    }
+
+    /**
+     * 非阻塞读取hessian对象，以json返回
+     */
+    @RequestMapping(value = "/testasynchessian", method = {RequestMethod.POST})
+    public void testAsyncHessian(HttpServletRequest request, HttpServletResponse response) {
+        final AsyncContext ctx = ServletAsyncIO.startAsync(request, response, 10000);
+        ServletAsyncIO.readBody(ctx).thenAccept(new Consumer<RequestPayload>() {
+            @Override
+            public void accept(RequestPayload payload) {
+                try (RequestPayload p = payload) {
+                    ServletAsyncIO.writeJson(ctx, new BizResult().toSuccess("OK")
+                        .xPut("src", p.getHessianObject(TestPojo.class))
+                        .xPut("thread", Thread.currentThread().getName()));
+                }
+            }
+        });
+    }
+
+    /**
+     * 非阻塞读取body并原样写回
+     */
+    @RequestMapping(value = "/testasyncecho", method = {RequestMethod.POST})
+    public void testAsyncEcho(HttpServletRequest request, HttpServletResponse response) {
+        final AsyncContext ctx = ServletAsyncIO.startAsync(request, response, 10000);
+        ServletAsyncIO.readBody(ctx).whenComplete(new BiConsumer<RequestPayload, Throwable>() {
+            @Override
+            public void accept(RequestPayload payload, Throwable throwable) {
+                if (null != throwable) {
+                    ((HttpServletResponse)ctx.getResponse()).setStatus(
+                        HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE);
+                    ServletAsyncIO.writeJson(ctx, new BizResult().toFail(throwable.getMessage()));
+                    return;
+                }
+                try (RequestPayload p = payload) {
+                    ServletAsyncIO.write(ctx, MediaType.APPLICATION_OCTET_STREAM_VALUE, p.getBytes());
+                }
+            }
+        });
+    }
 
-        return new BizResult().toSuccess("OK").xPut("src", testPojo);
+    /**
+     * 读取json数组body(最大1MB)，返回长度与元素个数，超过时返回413
+     */
+    @RequestMapping(value = "/testpayload", method = {RequestMethod.POST})
+    public BizResult testPayload(HttpServletRequest request, HttpServletResponse response) throws Exception {
+        try (RequestPayload payload = RequestPayload.read(request, 1024 * 1024)) {
+            List<TestPojo> list = payload.getObject(new TypeReference<List<TestPojo>>() {});
+            return new BizResult().toSuccess("OK")
+                .xPut("length", payload.getLength())
+                .xPut("chunked", request.getContentLengthLong() < 0)
+                .xPut("size", list.size());
+        } catch (RequestPayload.PayloadTooLargeException e) {
+            response.setStatus(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE);
+            return new BizResult().toFail(e.getMessage());
+        }
     }
 
     @RequestMapping(
@@ -154,4 +302,13 @@ public class ApiController {
 
         return rst.xPut("src", o);
     }
+
+    private static int nextCall(String key) {
+        AtomicInteger counter = CALL_COUNTERS.get(key);
+        if (null == counter) {
+            CALL_COUNTERS.putIfAbsent(key, new AtomicInteger());
+            counter = CALL_COUNTERS.get(key);
+        }
+        return counter.incrementAndGet();
+    }
 }
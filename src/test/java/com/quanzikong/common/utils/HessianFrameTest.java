@@ -0,0 +1,179 @@
+package com.quanzikong.common.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.collect.Iterators;
+
+import com.quanzikong.common.to.TestPojo;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * HessianFrameTest
+ */
+public class HessianFrameTest {
+
+    @Test
+    public void testframes() throws Exception {
+        File file = File.createTempFile("frames", ".bin");
+        file.deleteOnExit();
+        try {
+            int total = 5000;
+            HessianFrameWriter writer = new HessianFrameWriter(new FileOutputStream(file)).setChecksum(true);
+            try {
+                for (int i = 0; i < total; i++) {
+                    TestPojo pojo = new TestPojo();
+                    pojo.setOne(i);
+                    pojo.setTwo("two-" + i);
+                    writer.write(pojo);
+                }
+            } finally {
+                writer.close();
+            }
+            assertEquals(total, writer.getRecords());
+            assertEquals(file.length(), writer.getBytes());
+
+            HessianFrameReader<TestPojo> mapped = HessianFrameReader.map(file.toPath(), TestPojo.class);
+            try {
+                int expected = 0;
+                for (TestPojo pojo : mapped) {
+                    assertEquals(expected, pojo.getOne());
+                    assertEquals("two-" + expected, pojo.getTwo());
+                    expected++;
+                }
+                assertEquals(total, expected);
+                assertEquals(total, mapped.getRecords());
+            } finally {
+                mapped.close();
+            }
+
+            HessianFrameReader<TestPojo> stream = new HessianFrameReader<TestPojo>(new FileInputStream(file),
+                TestPojo.class);
+            try {
+                assertEquals(total, Iterators.size(stream));
+            } finally {
+                stream.close();
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testchannel() throws Exception {
+        // channel写入，Hessian 1，不带校验，记录大于缓冲区
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        HessianFrameWriter writer = new HessianFrameWriter(Channels.newChannel(out))
+            .setProtocol(HessianUtil.Protocol.HESSIAN_1);
+        List<Object> records = new ArrayList<Object>();
+        records.add("first");
+        records.add(new byte[200 * 1024]);
+        records.add(Collections.singletonMap("k", "v"));
+        records.add(null);
+        for (Object record : records) {
+            writer.write(record);
+        }
+        writer.close();
+
+        HessianFrameReader<Object> reader = new HessianFrameReader<Object>(
+            Channels.newChannel(new ByteArrayInputStream(out.toByteArray())), Object.class);
+        assertEquals("first", reader.next());
+        assertEquals(200 * 1024, ((byte[])reader.next()).length);
+        assertEquals("v", ((Map<?, ?>)reader.next()).get("k"));
+        assertTrue(reader.hasNext());
+        assertEquals(null, reader.next());
+        assertTrue(!reader.hasNext());
+        reader.close();
+    }
+
+    @Test
+    public void testtruncated() throws Exception {
+        // 空输入没有记录
+        assertTrue(!new HessianFrameReader<Object>(new ByteArrayInputStream(new byte[0]), Object.class).hasNext());
+
+        byte[] bytes = this.encode(true, "one", "two");
+        byte[] corrupted = bytes.clone();
+        corrupted[corrupted.length - 1] ^= 1;
+        HessianFrameReader<Object> reader = new HessianFrameReader<Object>(new ByteArrayInputStream(corrupted),
+            Object.class);
+        assertEquals("one", reader.next());
+        try {
+            reader.next();
+            assertTrue(false);
+        } catch (IllegalStateException expected) {
+            showLog(expected.getMessage());
+        }
+
+        // 记录被截断、记录头被截断、流头不完整
+        int first = HessianFrameWriter.STREAM_HEADER_SIZE + 8 + HessianUtil.serialize("one",
+            HessianUtil.Protocol.HESSIAN_2).length;
+        for (int length : new int[] {bytes.length - 2, first + 5, 2}) {
+            reader = new HessianFrameReader<Object>(new ByteArrayInputStream(Arrays.copyOf(bytes, length)),
+                Object.class);
+            try {
+                if (length > first) {
+                    assertEquals("one", reader.next());
+                }
+                reader.hasNext();
+                assertTrue(false);
+            } catch (IllegalStateException expected) {
+                showLog(expected.getMessage());
+            }
+        }
+    }
+
+    @Test
+    public void testoversized() throws Exception {
+        byte[] bytes = this.encode(false, "small", new byte[4096]);
+        HessianFrameReader<Object> reader = new HessianFrameReader<Object>(new ByteArrayInputStream(bytes),
+            Object.class).setMaxFrameSize(1024);
+        assertEquals("small", reader.next());
+        try {
+            reader.hasNext();
+            assertTrue(false);
+        } catch (IllegalStateException expected) {
+            showLog(expected.getMessage());
+            assertTrue(expected.getMessage().startsWith("Invalid frame length"));
+        }
+
+        // 损坏的长度(负数)
+        bytes[HessianFrameWriter.STREAM_HEADER_SIZE] = (byte)0x80;
+        reader = new HessianFrameReader<Object>(new ByteArrayInputStream(bytes), Object.class);
+        try {
+            reader.hasNext();
+            assertTrue(false);
+        } catch (IllegalStateException expected) {
+            showLog(expected.getMessage());
+            assertTrue(expected.getMessage().startsWith("Invalid frame length"));
+        }
+    }
+
+    private byte[] encode(boolean checksum, Object... records) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        HessianFrameWriter writer = new HessianFrameWriter(out).setChecksum(checksum);
+        for (Object record : records) {
+            writer.write(record);
+        }
+        writer.close();
+        return out.toByteArray();
+    }
+
+    private void showLog(String logs) {
+        System.out.println(String.format(""
+            + "\n-------------------------------------------------------------------------------------\n"
+            + "%s"
+            + "\n-------------------------------------------------------------------------------------\n", logs));
+    }
+}
@@ -0,0 +1,365 @@
+package com.quanzikong.common.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.lang.management.ManagementFactory;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.alibaba.fastjson.JSON;
+
+import com.quanzikong.common.to.TestPojo;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * HessianUtilTest
+ */
+public class HessianUtilTest {
+
+    @Test
+    public void testhessianbuffers() throws Exception {
+        List<TestPojo> list = new ArrayList<TestPojo>();
+        for (int i = 0; i < 100; i++) {
+            TestPojo pojo = new TestPojo();
+            pojo.setOne(i);
+            pojo.setTwo("two-" + i);
+            list.add(pojo);
+        }
+        byte[] bytes = HessianUtil.serialize(list);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(bytes.length, HessianUtil.serialize(list, out));
+        assertTrue(Arrays.equals(bytes, out.toByteArray()));
+
+        // 连续写入同一个ByteBuffer，再按顺序读出
+        for (ByteBuffer buffer : new ByteBuffer[] {ByteBuffer.allocate(8192), ByteBuffer.allocateDirect(8192)}) {
+            HessianUtil.serialize(list, buffer);
+            HessianUtil.serialize(list.get(7), buffer);
+            buffer.flip();
+            List<?> decoded = HessianUtil.deserialize(buffer, List.class);
+            assertEquals(100, decoded.size());
+            assertEquals("two-99", ((TestPojo)decoded.get(99)).getTwo());
+            assertEquals(7, HessianUtil.deserialize(buffer, TestPojo.class).getOne());
+            assertEquals(0, buffer.remaining());
+        }
+        try {
+            HessianUtil.serialize(list, ByteBuffer.allocate(16));
+            assertTrue(false);
+        } catch (BufferOverflowException expected) {
+            // not enough room
+        }
+
+        // 与每次新建HessianOutput/ByteArrayOutputStream比较分配，第一轮预热
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean)ManagementFactory
+            .getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        ByteBuffer target = ByteBuffer.allocate(bytes.length);
+        int iterations = 200;
+        long legacy = 0;
+        long pooled = 0;
+        for (int round = 0; round < 2; round++) {
+            long allocBefore = threadBean.getThreadAllocatedBytes(threadId);
+            for (int i = 0; i < iterations; i++) {
+                ByteArrayOutputStream os = new ByteArrayOutputStream();
+                com.caucho.hessian.io.HessianOutput ho = new com.caucho.hessian.io.HessianOutput(os);
+                ho.writeObject(list);
+                assertEquals(bytes.length, os.toByteArray().length);
+            }
+            legacy = threadBean.getThreadAllocatedBytes(threadId) - allocBefore;
+
+            allocBefore = threadBean.getThreadAllocatedBytes(threadId);
+            for (int i = 0; i < iterations; i++) {
+                target.clear();
+                assertEquals(bytes.length, HessianUtil.serialize(list, target));
+            }
+            pooled = threadBean.getThreadAllocatedBytes(threadId) - allocBefore;
+        }
+        showLog(String.format("%d serializations: new streams alloc=%dB/op, reused alloc=%dB/op", iterations,
+            legacy / iterations, pooled / iterations));
+        assertTrue(pooled < legacy);
+    }
+
+    @Test
+    public void testhessian2() throws Exception {
+        List<TestPojo> list = new ArrayList<TestPojo>();
+        for (int i = 0; i < 1000; i++) {
+            TestPojo pojo = new TestPojo();
+            pojo.setOne(i);
+            pojo.setTwo("two-" + (i % 10));
+            list.add(pojo);
+        }
+        Map<String, Object> graph = buildGraph(6, list);
+
+        for (Object value : Arrays.asList(list, graph, list.get(3), "text", 42, null)) {
+            byte[] v1 = HessianUtil.serialize(value);
+            byte[] v2 = HessianUtil.serialize(value, HessianUtil.Protocol.HESSIAN_2);
+            assertEquals('H', v2[0]);
+            // 按首字节识别协议
+            assertEquals(JSON.toJSONString(value), JSON.toJSONString(HessianUtil.deserialize(v1, Object.class)));
+            assertEquals(JSON.toJSONString(value), JSON.toJSONString(HessianUtil.deserialize(v2, Object.class)));
+            assertEquals(JSON.toJSONString(value), JSON.toJSONString(
+                HessianUtil.deserialize(new ByteArrayInputStream(v2), Object.class)));
+        }
+        // 没有版本头的Hessian 2
+        ByteArrayOutputStream headless = new ByteArrayOutputStream();
+        com.caucho.hessian.io.Hessian2Output h2 = new com.caucho.hessian.io.Hessian2Output(headless);
+        h2.writeObject(list.get(5));
+        h2.flush();
+        assertEquals(5, HessianUtil.deserialize(headless.toByteArray(), TestPojo.class).getOne());
+        // 无类型map以'H'开头，不是版本头
+        Map<Object, Object> map = new HashMap<Object, Object>();
+        map.put("one", 1);
+        map.put("two", "two");
+        for (Object value : Arrays.asList(map, new HashMap<Object, Object>())) {
+            headless.reset();
+            h2 = new com.caucho.hessian.io.Hessian2Output(headless);
+            h2.writeObject(value);
+            h2.flush();
+            assertEquals('H', headless.toByteArray()[0]);
+            assertEquals(value, HessianUtil.deserialize(headless.toByteArray(), Object.class));
+            assertEquals(value, HessianUtil.deserialize(new ByteArrayInputStream(headless.toByteArray()), Map.class));
+        }
+
+        // 两种协议混合写入同一个ByteBuffer，按顺序读出
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        HessianUtil.serialize(list, buffer, HessianUtil.Protocol.HESSIAN_2);
+        HessianUtil.serialize(list.get(7), buffer);
+        HessianUtil.serialize(list.get(8), buffer, HessianUtil.Protocol.HESSIAN_2);
+        buffer.flip();
+        assertEquals(1000, HessianUtil.deserialize(buffer, List.class).size());
+        assertEquals(7, HessianUtil.deserialize(buffer, TestPojo.class).getOne());
+        assertEquals(8, HessianUtil.deserialize(buffer, TestPojo.class).getOne());
+        assertEquals(0, buffer.remaining());
+
+        // Hessian 2对同类列表与共享字符串更紧凑
+        for (Object value : Arrays.asList(list, graph)) {
+            int size1 = HessianUtil.serialize(value).length;
+            int size2 = HessianUtil.serialize(value, HessianUtil.Protocol.HESSIAN_2).length;
+            showLog(String.format("%s: hessian1 %dB, hessian2 %dB", value == list ? "1000 TestPojo" : "graph",
+                size1, size2));
+            assertTrue(size2 < size1);
+        }
+    }
+
+    @Test
+    public void testhessianfactory() throws Exception {
+        HessianUtil.warmUp(TestPojo.class, TestPojo[].class);
+        try {
+            HessianUtil.warmUp(HessianUtilTest.class);
+            assertTrue(false);
+        } catch (IllegalStateException expected) {
+            // not Serializable
+        }
+
+        // 注册的serializer对所有线程生效
+        HessianUtil.register(Point.class, new com.caucho.hessian.io.AbstractSerializer() {
+            @Override
+            public void writeObject(Object obj, com.caucho.hessian.io.AbstractHessianOutput out) throws IOException {
+                Point point = (Point)obj;
+                out.writeString(point.x + "," + point.y);
+            }
+        }, null);
+        final Point point = new Point();
+        point.x = 1;
+        point.y = 2;
+        final AtomicReference<byte[]> encoded = new AtomicReference<byte[]>();
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                encoded.set(HessianUtil.serialize(point, HessianUtil.Protocol.HESSIAN_2));
+            }
+        });
+        thread.start();
+        thread.join();
+        assertEquals("1,2", HessianUtil.deserialize(encoded.get(), Object.class));
+        assertEquals("1,2", HessianUtil.deserialize(HessianUtil.serialize(point), Object.class));
+
+        // 新线程上的首次调用：每个流自带SerializerFactory与共享预热的SerializerFactory
+        final com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean)ManagementFactory
+            .getThreadMXBean();
+        final TestPojo pojo = new TestPojo();
+        pojo.setOne(1);
+        pojo.setTwo("two");
+        final long[] legacy = new long[2];
+        final long[] shared = new long[2];
+        int threads = 20;
+        for (int i = 0; i < threads; i++) {
+            thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    long threadId = Thread.currentThread().getId();
+                    try {
+                        long allocBefore = threadBean.getThreadAllocatedBytes(threadId);
+                        long startedAt = System.nanoTime();
+                        com.caucho.hessian.io.HessianOutput ho = new com.caucho.hessian.io.HessianOutput(
+                            new ByteArrayOutputStream());
+                        ho.writeObject(pojo);
+                        legacy[0] += System.nanoTime() - startedAt;
+                        legacy[1] += threadBean.getThreadAllocatedBytes(threadId) - allocBefore;
+
+                        allocBefore = threadBean.getThreadAllocatedBytes(threadId);
+                        startedAt = System.nanoTime();
+                        HessianUtil.serialize(pojo);
+                        shared[0] += System.nanoTime() - startedAt;
+                        shared[1] += threadBean.getThreadAllocatedBytes(threadId) - allocBefore;
+                    } catch (IOException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+            });
+            thread.start();
+            thread.join();
+        }
+        showLog(String.format("first serialize per thread: own factory %dus alloc=%dB, shared factory %dus alloc=%dB",
+            legacy[0] / threads / 1000, legacy[1] / threads, shared[0] / threads / 1000, shared[1] / threads));
+        assertTrue(shared[1] < legacy[1]);
+    }
+
+    @Test
+    public void testhessiantyped() throws Exception {
+        TestPojo pojo = new TestPojo();
+        pojo.setOne(1);
+        pojo.setTwo("two");
+        for (HessianUtil.Protocol protocol : HessianUtil.Protocol.values()) {
+            byte[] bytes = HessianUtil.serialize(pojo, protocol);
+            assertEquals("two", HessianUtil.deserialize(bytes, TestPojo.class, true).getTwo());
+            // 不同的类：默认按字段映射，strict时失败
+            assertEquals("two", HessianUtil.deserialize(bytes, Map.class).get("two"));
+            assertEquals(0, HessianUtil.deserialize(bytes, Point.class).x);
+            for (Class<?> clazz : Arrays.<Class<?>>asList(Map.class, Point.class)) {
+                try {
+                    HessianUtil.deserialize(bytes, clazz, true);
+                    assertTrue(false);
+                } catch (IllegalStateException expected) {
+                    showLog(expected.getMessage());
+                }
+            }
+            // 无法转换时在deserialize中失败，而不是在调用方ClassCastException
+            try {
+                HessianUtil.deserialize(HessianUtil.serialize("text", protocol), TestPojo.class);
+                assertTrue(false);
+            } catch (IllegalStateException expected) {
+                showLog(expected.getMessage());
+            }
+            assertEquals(Long.valueOf(42), HessianUtil.deserialize(HessianUtil.serialize(42, protocol), long.class));
+        }
+
+        // 本地没有的类
+        ByteArrayOutputStream h1 = new ByteArrayOutputStream();
+        com.caucho.hessian.io.HessianOutput ho = new com.caucho.hessian.io.HessianOutput(h1);
+        ho.writeMapBegin("com.example.Missing");
+        ho.writeString("one");
+        ho.writeInt(5);
+        ho.writeString("two");
+        ho.writeString("five");
+        ho.writeMapEnd();
+        ByteArrayOutputStream h2 = new ByteArrayOutputStream();
+        com.caucho.hessian.io.Hessian2Output h2o = new com.caucho.hessian.io.Hessian2Output(h2);
+        h2o.writeObjectBegin("com.example.Missing");
+        h2o.writeClassFieldLength(2);
+        h2o.writeString("one");
+        h2o.writeString("two");
+        h2o.writeObjectBegin("com.example.Missing");
+        h2o.writeInt(5);
+        h2o.writeString("five");
+        h2o.flush();
+        for (byte[] bytes : Arrays.asList(h1.toByteArray(), h2.toByteArray())) {
+            assertTrue(HessianUtil.deserialize(bytes, Object.class) instanceof Map);
+            TestPojo decoded = HessianUtil.deserialize(bytes, TestPojo.class);
+            assertEquals(5, decoded.getOne());
+            assertEquals("five", decoded.getTwo());
+            try {
+                HessianUtil.deserialize(bytes, TestPojo.class, true);
+                assertTrue(false);
+            } catch (IllegalStateException expected) {
+                showLog(expected.getMessage());
+            }
+        }
+
+        // 嵌套字段的类不同：Hessian 1和Hessian 2都在strict时失败
+        Outer outer = new Outer();
+        outer.in = new Inner();
+        outer.in.x = 3;
+        assertEquals(3, HessianUtil.deserialize(HessianUtil.serialize(outer), Outer.class, true).in.x);
+        h1 = new ByteArrayOutputStream();
+        ho = new com.caucho.hessian.io.HessianOutput(h1);
+        ho.writeMapBegin(Outer.class.getName());
+        ho.writeString("in");
+        ho.writeObject(pojo);
+        ho.writeMapEnd();
+        h2 = new ByteArrayOutputStream();
+        h2o = new com.caucho.hessian.io.Hessian2Output(h2);
+        h2o.writeObjectBegin(Outer.class.getName());
+        h2o.writeClassFieldLength(1);
+        h2o.writeString("in");
+        h2o.writeObjectBegin(Outer.class.getName());
+        h2o.writeObject(pojo);
+        h2o.flush();
+        for (byte[] bytes : Arrays.asList(h1.toByteArray(), h2.toByteArray())) {
+            assertEquals(0, HessianUtil.deserialize(bytes, Outer.class).in.x);
+            try {
+                HessianUtil.deserialize(bytes, Outer.class, true);
+                assertTrue(false);
+            } catch (IllegalStateException expected) {
+                showLog(expected.getMessage());
+            }
+        }
+    }
+
+    private static class Point implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private int x;
+        private int y;
+    }
+
+    private static class Outer implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private Inner in;
+    }
+
+    private static class Inner implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private int x;
+    }
+
+    /**
+     * 多层嵌套的map/list，叶子共享同一批TestPojo
+     */
+    private static Map<String, Object> buildGraph(int depth, List<TestPojo> leaves) {
+        Map<String, Object> node = new LinkedHashMap<String, Object>();
+        node.put("depth", depth);
+        node.put("name", "node-" + depth);
+        if (depth == 0) {
+            node.put("leaves", leaves.subList(0, 20));
+            return node;
+        }
+        List<Object> children = new ArrayList<Object>();
+        for (int i = 0; i < 3; i++) {
+            children.add(buildGraph(depth - 1, leaves));
+        }
+        node.put("children", children);
+        return node;
+    }
+
+    private void showLog(String logs) {
+        System.out.println(String.format(""
+            + "\n-------------------------------------------------------------------------------------\n"
+            + "%s"
+            + "\n-------------------------------------------------------------------------------------\n", logs));
+    }
+}
@@ -0,0 +1,151 @@
+package com.quanzikong.common.utils;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.alibaba.fastjson.JSONObject;
+
+import com.quanzikong.common.Application;
+import com.quanzikong.common.BizResult;
+import com.quanzikong.common.enums.HttpContentType;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * RestApiUtil相关的耗时与分配对比，类名不以Test结尾，mvn test时不运行<br/>
+ * 手动运行：mvn test -Dtest=RestApiBenchmark
+ */
+public class RestApiBenchmark {
+    private ConfigurableApplicationContext context;
+
+    @Before
+    public void setUp() throws Exception {
+        context = SpringApplication.run(Application.class, new String[] {});
+    }
+
+    @After
+    public void after() {
+        SpringApplication.exit(context);
+        HttpConnectionPool.getDefault().closeIdle(0);
+    }
+
+    @Test
+    public void benchformencoder() throws Exception {
+        // 与原来的StringBuffer拼接比较耗时与分配(原方式不做任何编码)
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean)ManagementFactory
+            .getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        Map<String, Object> form = new LinkedHashMap<String, Object>();
+        for (int i = 0; i < 20; i++) {
+            form.put("param" + i, "value-" + i);
+        }
+        int iterations = 200000;
+        long[] legacy = new long[2];
+        long[] encoder = new long[2];
+        for (int round = 0; round < 2; round++) {
+            long allocBefore = threadBean.getThreadAllocatedBytes(threadId);
+            long startedAt = System.nanoTime();
+            long length = 0;
+            for (int i = 0; i < iterations; i++) {
+                length += legacyUrlParams(form).getBytes("utf8").length;
+            }
+            legacy[0] = System.nanoTime() - startedAt;
+            legacy[1] = threadBean.getThreadAllocatedBytes(threadId) - allocBefore;
+
+            allocBefore = threadBean.getThreadAllocatedBytes(threadId);
+            startedAt = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                length -= FormEncoder.toBytes(form, "utf8").length;
+            }
+            encoder[0] = System.nanoTime() - startedAt;
+            encoder[1] = threadBean.getThreadAllocatedBytes(threadId) - allocBefore;
+            assertEquals(0, length);
+        }
+        showLog(String.format("%d forms: legacy %dms alloc=%dB/op, FormEncoder %dms alloc=%dB/op", iterations,
+            legacy[0] / 1000000, legacy[1] / iterations, encoder[0] / 1000000, encoder[1] / iterations));
+        assertTrue(encoder[1] < legacy[1]);
+    }
+
+    @Test
+    public void benchapplicationjsonstreaming() throws Exception {
+        String url = "http://localhost:8090/api/testdrain";
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean)ManagementFactory
+            .getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        RestApiClient client = RestApiClient.getDefault();
+
+        for (int mb : new int[] {1, 10, 50}) {
+            // 每个元素约1KB
+            List<String> payload = Collections.nCopies(mb * 1024, StringUtil.repeat("x", 1020));
+            RestApiRequest streaming = RestApiRequest.post(url)
+                .contentType(HttpContentType.APPLICATION_JSON)
+                .body(payload)
+                .build();
+
+            long gcBefore = gcCount();
+            long allocBefore = threadBean.getThreadAllocatedBytes(threadId);
+            BizResult rst = JSONObject.parseObject(client.execute(streaming).getString(), BizResult.class);
+            long streamingAlloc = threadBean.getThreadAllocatedBytes(threadId) - allocBefore;
+            long streamingGc = gcCount() - gcBefore;
+            assertTrue(rst.isSuccess());
+            long length = rst.getLongValue("length");
+
+            // 旧的方式：先生成完整的String与byte[]再发送
+            gcBefore = gcCount();
+            allocBefore = threadBean.getThreadAllocatedBytes(threadId);
+            RestApiRequest buffered = RestApiRequest.post(url)
+                .contentType(HttpContentType.APPLICATION_OCTET_STREAM)
+                .body(JSONObject.toJSONString(payload).getBytes("utf8"))
+                .build();
+            rst = JSONObject.parseObject(client.execute(buffered).getString(), BizResult.class);
+            long bufferedAlloc = threadBean.getThreadAllocatedBytes(threadId) - allocBefore;
+            long bufferedGc = gcCount() - gcBefore;
+            assertEquals(length, rst.getLongValue("length"));
+
+            showLog(String.format("%dMB json: streaming alloc=%dKB gc=%d, buffered alloc=%dKB gc=%d",
+                mb, streamingAlloc / 1024, streamingGc, bufferedAlloc / 1024, bufferedGc));
+            assertTrue(streamingAlloc * 2 < bufferedAlloc);
+        }
+    }
+
+    /**
+     * 原RestApiClient.getUrlParams的实现，作为对比基准
+     */
+    private static String legacyUrlParams(Map<String, Object> params) {
+        StringBuffer sb = new StringBuffer();
+        for (Map.Entry<String, Object> entry : params.entrySet()) {
+            sb.append(entry.getKey() + "=" + entry.getValue());
+            sb.append("&");
+        }
+        String s = sb.toString();
+        if (s.endsWith("&")) {
+            s = StringUtil.substringBeforeLast(s, "&");
+        }
+        return s;
+    }
+
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, bean.getCollectionCount());
+        }
+        return count;
+    }
+
+    private void showLog(String logs) {
+        System.out.println(String.format(""
+            + "\n-------------------------------------------------------------------------------------\n"
+            + "%s"
+            + "\n-------------------------------------------------------------------------------------\n", logs));
+    }
+}
@@ -1,12 +1,51 @@
 package com.quanzikong.common.utils;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.file.Paths;
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
 
 import com.alibaba.fastjson.JSONObject;
+import com.alibaba.fastjson.TypeReference;
+import com.google.common.io.ByteStreams;
 
 import com.quanzikong.common.Application;
 import com.quanzikong.common.BizResult;
 import com.quanzikong.common.enums.HttpContentType;
+import com.quanzikong.common.enums.HttpMethod;
 import com.quanzikong.common.to.TestPojo;
 import org.junit.After;
 import org.junit.Before;
@@ -33,6 +72,8 @@ public class RestApiUtilTest {
     @After
     public void after() {
         SpringApplication.exit(context);
+        // 每个用例都会重启服务端，共享连接池中的keep-alive连接已失效
+        HttpConnectionPool.getDefault().closeIdle(0);
     }
 
     @Test
@@ -51,6 +92,21 @@ public class RestApiUtilTest {
         assertEquals(Integer.valueOf(1), rst.getJSONObject("src").getInteger("one"));
     }
 
+    @Test
+    public void testresponsestream() throws Exception {
+        String url = "http://localhost:8090/api/testget";
+        // 不close返回的流也不占用连接，超过每个host的连接数上限仍然可以继续请求
+        int calls = HttpConnectionPool.getDefault().getMaxPerRoute() + 5;
+        for (int i = 0; i < calls; i++) {
+            InputStream ins = RestApiUtil.newInstance(url).setTimeout(2000).asGet()
+                .addParam("one", i)
+                .getResponseStream();
+            BizResult rst = JSONObject.parseObject(ByteStreams.toByteArray(ins), BizResult.class);
+            assertEquals(Integer.valueOf(i), rst.getJSONObject("src").getInteger("one"));
+        }
+        assertEquals(0, HttpConnectionPool.getDefault().getStats().getLeased());
+    }
+
     public BizResult postDefault(String url) throws Exception {
         String rsp = RestApiUtil.newInstance(url).asPost()
             .addParam("one", 1)
@@ -118,6 +174,78 @@ public class RestApiUtilTest {
         assertEquals("aa", rst.getJSONArray("src").getString(0));
     }
 
+    @Test
+    public void testtypedresponse() throws Exception {
+        BizResult rst = RestApiUtil.newInstance("http://localhost:8090/api/testget").asGet()
+            .addParam("one", 1)
+            .addParam("two", "2")
+            .getResponse(BizResult.class);
+        assertTrue(rst.isSuccess());
+        assertEquals(Integer.valueOf(1), rst.getJSONObject("src").getInteger("one"));
+
+        String url = "http://localhost:8090/api/testarray";
+        List<TestPojo> list = RestApiUtil.newInstance(url).asGet()
+            .addParam("size", 3)
+            .getResponse(new TypeReference<List<TestPojo>>() {});
+        assertEquals(3, list.size());
+        assertEquals("2", list.get(2).getTwo());
+
+        final AtomicLong sum = new AtomicLong();
+        long count = RestApiUtil.newInstance(url).asGet()
+            .addParam("size", 10000)
+            .streamArray(TestPojo.class, new Consumer<TestPojo>() {
+                @Override
+                public void accept(TestPojo testPojo) {
+                    sum.addAndGet(testPojo.getOne());
+                }
+            });
+        assertEquals(10000, count);
+        assertEquals(10000L * 9999 / 2, sum.get());
+    }
+
+    @Test
+    public void testcompression() throws Exception {
+        RestApiClient client = RestApiClient.newBuilder().compressThreshold(0).build();
+
+        RestApiResponse response = client.execute(RestApiRequest.get("http://localhost:8090/api/testarray")
+            .param("size", 1000)
+            .build());
+        assertEquals(null, response.getHeader("Content-Encoding"));
+        List<TestPojo> list = response.getObject(new TypeReference<List<TestPojo>>() {});
+        assertEquals(1000, list.size());
+        assertEquals("999", list.get(999).getTwo());
+
+        BizResult rst = client.execute(RestApiRequest.post("http://localhost:8090/api/testgzip")
+            .contentType(HttpContentType.APPLICATION_JSON)
+            .param("one", 1)
+            .param("two", "2")
+            .build()).getObject(BizResult.class);
+        assertTrue(rst.isSuccess());
+        assertEquals("gzip", rst.getString("contentEncoding"));
+        assertEquals(Integer.valueOf(1), rst.getJSONObject("src").getInteger("one"));
+
+        HttpCompression.Stats stats = client.getCompressionStats();
+        showLog(stats.toString());
+        assertTrue(stats.getDecodedResponses() > 0);
+        assertTrue(stats.getResponseWireBytes() < stats.getResponseDecodedBytes());
+        assertEquals(1, stats.getEncodedRequests());
+        assertTrue(stats.getRequestRawBytes() > 0);
+    }
+
+    @Test
+    public void testapplicationjsonstreaming() throws Exception {
+        // 分配对比见RestApiBenchmark
+        String url = "http://localhost:8090/api/testdrain";
+        RestApiClient client = RestApiClient.getDefault();
+        List<String> payload = Collections.nCopies(1024, StringUtil.repeat("x", 1020));
+        BizResult rst = JSONObject.parseObject(client.execute(RestApiRequest.post(url)
+            .contentType(HttpContentType.APPLICATION_JSON)
+            .body(payload)
+            .build()).getString(), BizResult.class);
+        assertTrue(rst.isSuccess());
+        assertEquals(JSONObject.toJSONString(payload).getBytes("utf8").length, rst.getLongValue("length"));
+    }
+
     @Test
     public void testoctetstream() throws Exception {
         String url = "http://localhost:8090/api/testoctetstream";
@@ -163,6 +291,1172 @@ public class RestApiUtilTest {
         assertEquals("fileb", rst.getString("fileb"));
     }
 
+    @Test
+    public void testmultipartstreaming() throws Exception {
+        String path = ClassUtil.getClasspath();
+        String url = "http://localhost:8090/api/testmultipart";
+        String rsp = RestApiUtil.newInstance(url)
+            .asPost().setContentType(HttpContentType.MULTIPART_FORM_DATA)
+            .addParam("one", 1)
+            .addFilePart("filea", HttpBody.of(Paths.get(path, "za.txt")))
+            .addFilePart("fileb", ByteBuffer.wrap("fileb".getBytes("utf8")))
+            .addFilePart("filec", new ByteArrayInputStream("filec".getBytes("utf8")))
+            .getResponseString();
+
+        showLog(rsp);
+        BizResult rst = JSONObject.parseObject(rsp, BizResult.class);
+
+        assertTrue(rst.isSuccess());
+        assertEquals(Integer.valueOf(1), rst.getJSONObject("src").getInteger("one"));
+        assertEquals("filea", rst.getString("filea"));
+        assertEquals("fileb", rst.getString("fileb"));
+        assertEquals("filec", rst.getString("filec"));
+    }
+
+    @Test
+    public void testconnectionpool() throws Exception {
+        String url = "http://localhost:8090/api/testget";
+        HttpConnectionPool pool = new HttpConnectionPool().setMaxPerRoute(2);
+
+        for (int i = 0; i < 5; i++) {
+            String rsp = RestApiUtil.newInstance(url).setConnectionPool(pool).asGet()
+                .addParam("one", i)
+                .addParam("two", "2")
+                .getResponseString();
+            BizResult rst = JSONObject.parseObject(rsp, BizResult.class);
+            assertEquals(Integer.valueOf(i), rst.getJSONObject("src").getInteger("one"));
+        }
+
+        HttpConnectionPool.Stats stats = pool.getStats();
+        showLog(stats.toString());
+        assertEquals(1, stats.getCreated());
+        assertEquals(4, stats.getReused());
+        assertEquals(0, stats.getLeased());
+        assertEquals(1, stats.getAvailable());
+        pool.close();
+    }
+
+    @Test
+    public void testconnectionreleaseonerror() throws Exception {
+        String url = "http://localhost:8090/api/testapplicationjson";
+        HttpConnectionPool pool = new HttpConnectionPool().setMaxPerRoute(1);
+        RestApiClient client = RestApiClient.newBuilder().connectionPool(pool).build();
+        try {
+            // 写出body时getter抛出异常，不是IOException
+            for (int i = 0; i < 2; i++) {
+                RestApiRequest request = RestApiRequest.post(url)
+                    .contentType(HttpContentType.APPLICATION_JSON)
+                    .body(new BrokenPojo())
+                    .build();
+                try {
+                    client.execute(request);
+                    assertTrue(false);
+                } catch (Exception e) {
+                    showLog(e.toString());
+                }
+                assertEquals(0, pool.getStats().getLeased());
+            }
+
+            // 连接池仍然可用
+            RestApiRequest request = RestApiRequest.post(url)
+                .contentType(HttpContentType.APPLICATION_JSON)
+                .param("one", 1)
+                .build();
+            BizResult rst = JSONObject.parseObject(client.execute(request).getString(), BizResult.class);
+            assertEquals(Integer.valueOf(1), rst.getJSONObject("src").getInteger("one"));
+            assertEquals(0, pool.getStats().getLeased());
+        } finally {
+            pool.close();
+        }
+    }
+
+    @Test
+    public void testconnectiondeadline() throws Exception {
+        String url = "http://localhost:8090/api/testget";
+        HttpConnectionPool pool = new HttpConnectionPool().setMaxPerRoute(1);
+        RestApiClient client = RestApiClient.newBuilder().connectionPool(pool)
+            .eventListener(new HttpEventListener() {
+                @Override
+                public void connectionAcquired(HttpTransport.Request request, boolean reused, long nanos) {
+                    // 模拟等到连接时恰好已经到达deadline
+                    try {
+                        Thread.sleep(300);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            })
+            .build();
+        try {
+            // 占满连接池，在deadline之前归还
+            final RestApiResponse held = client.execute(RestApiRequest.get(url).param("one", 1).build());
+            assertEquals(1, pool.getStats().getLeased());
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        Thread.sleep(100);
+                        held.close();
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    }
+                }
+            }).start();
+
+            long start = System.currentTimeMillis();
+            try {
+                client.execute(RestApiRequest.get(url).param("one", 2).timeout(300).build());
+                assertTrue(false);
+            } catch (Exception e) {
+                showLog(e.toString());
+            }
+            assertTrue(System.currentTimeMillis() - start < 1000);
+            assertEquals(0, pool.getStats().getLeased());
+        } finally {
+            pool.close();
+        }
+    }
+
+    @Test
+    public void testheadervalidation() throws Exception {
+        String url = "http://localhost:8090/api/testget";
+        HttpConnectionPool pool = new HttpConnectionPool();
+        RestApiClient client = RestApiClient.newBuilder().connectionPool(pool).build();
+        try {
+            String[][] headers = {{"x-one", "1\r\nx-two: 2"}, {"x-one", "1\n"}, {"x-one", "1\0"},
+                {"x one", "1"}, {"x-one:", "1"}, {"", "1"}, {"x-中", "1"}};
+            for (String[] header : headers) {
+                try {
+                    client.execute(RestApiRequest.get(url).header(header[0], header[1]).build());
+                    assertTrue(false);
+                } catch (IllegalArgumentException e) {
+                    showLog(e.getMessage());
+                }
+            }
+            try {
+                client.execute(RestApiRequest.get(url + "?one=1\r\nx-two:%202").build());
+                assertTrue(false);
+            } catch (IllegalArgumentException e) {
+                showLog(e.getMessage());
+            }
+            assertEquals(0, pool.getStats().getLeased());
+
+            RestApiResponse response = client.execute(
+                RestApiRequest.get(url).param("one", 1).header("x-one", "1 \t2").build());
+            assertEquals(200, response.getStatusCode());
+            response.getString();
+        } finally {
+            pool.close();
+        }
+
+        // 负数或者带符号的Content-Length视为格式错误
+        final String[] lengths = {"-1", "+2", "2x", ""};
+        final ServerSocket server = new ServerSocket(0);
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; !server.isClosed(); i++) {
+                    try (Socket socket = server.accept()) {
+                        socket.getInputStream().read(new byte[8192]);
+                        OutputStream out = socket.getOutputStream();
+                        out.write(("HTTP/1.1 200 OK\r\nContent-Type: text/plain\r\nContent-Length: "
+                            + lengths[i % lengths.length] + "\r\nConnection: close\r\n\r\nok").getBytes("ISO-8859-1"));
+                        out.flush();
+                    } catch (Exception ignored) {
+                    }
+                }
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+        try {
+            for (int i = 0; i < lengths.length; i++) {
+                try {
+                    RestApiUtil.newInstance("http://localhost:" + server.getLocalPort() + "/").asGet()
+                        .getResponseString();
+                    assertTrue(false);
+                } catch (IOException e) {
+                    showLog(e.getMessage());
+                    assertTrue(e.getMessage().startsWith("Invalid Content-Length"));
+                }
+            }
+        } finally {
+            server.close();
+        }
+    }
+
+    public static class BrokenPojo {
+        public int getOne() {
+            throw new IllegalStateException("broken getter");
+        }
+    }
+
+    @Test
+    public void testclientconcurrent() throws Exception {
+        final String url = "http://localhost:8090/api/testapplicationjson";
+        final RestApiClient client = RestApiClient.newBuilder()
+            .defaultHeader("x-api-key", "testKey")
+            .build();
+
+        ExecutorService executor = Executors.newFixedThreadPool(16);
+        List<Future<BizResult>> futures = new ArrayList<Future<BizResult>>();
+        for (int i = 0; i < 200; i++) {
+            final int one = i;
+            futures.add(executor.submit(new Callable<BizResult>() {
+                @Override
+                public BizResult call() throws Exception {
+                    RestApiRequest request = RestApiRequest.post(url)
+                        .contentType(HttpContentType.APPLICATION_JSON)
+                        .param("one", one)
+                        .param("two", "2")
+                        .build();
+                    return JSONObject.parseObject(client.execute(request).getString(), BizResult.class);
+                }
+            }));
+        }
+
+        for (int i = 0; i < futures.size(); i++) {
+            BizResult rst = futures.get(i).get();
+            assertTrue(rst.isSuccess());
+            assertEquals(Integer.valueOf(i), rst.getJSONObject("src").getInteger("one"));
+        }
+        executor.shutdown();
+    }
+
+    @Test
+    public void testasync() throws Exception {
+        String url = "http://localhost:8090/api/testget";
+
+        List<CompletableFuture<BizResult>> futures = new ArrayList<CompletableFuture<BizResult>>();
+        for (int i = 0; i < 20; i++) {
+            futures.add(RestApiUtil.newInstance(url).setTimeout(5000).asGet()
+                .addParam("one", i)
+                .addParam("two", "2")
+                .sendAsync(BizResult.class));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).get();
+
+        for (int i = 0; i < futures.size(); i++) {
+            BizResult rst = futures.get(i).get();
+            assertTrue(rst.isSuccess());
+            assertEquals(Integer.valueOf(i), rst.getJSONObject("src").getInteger("one"));
+        }
+    }
+
+    @Test
+    public void testniotransport() throws Exception {
+        String url = "http://localhost:8090/api/testget";
+        NioHttpTransport transport = new NioHttpTransport(1).setMaxConnectionsPerRoute(4).setPipeliningDepth(8);
+        try {
+            List<CompletableFuture<BizResult>> futures = new ArrayList<CompletableFuture<BizResult>>();
+            for (int i = 0; i < 200; i++) {
+                futures.add(RestApiUtil.newInstance(url).setTransport(transport).setTimeout(5000).asGet()
+                    .addParam("one", i)
+                    .addParam("two", "2")
+                    .sendAsync(BizResult.class));
+            }
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).get();
+
+            for (int i = 0; i < futures.size(); i++) {
+                BizResult rst = futures.get(i).get();
+                assertTrue(rst.isSuccess());
+                assertEquals(Integer.valueOf(i), rst.getJSONObject("src").getInteger("one"));
+            }
+            assertTrue(transport.getCreatedConnections() <= 4);
+
+            String rsp = RestApiUtil.newInstance("http://localhost:8090/api/testapplicationjson")
+                .setTransport(transport)
+                .asPost()
+                .setContentType(HttpContentType.APPLICATION_JSON)
+                .addParam("one", 1)
+                .addParam("two", "2")
+                .getResponseString();
+            BizResult rst = JSONObject.parseObject(rsp, BizResult.class);
+            assertTrue(rst.isSuccess());
+            assertEquals(Integer.valueOf(1), rst.getJSONObject("src").getInteger("one"));
+        } finally {
+            transport.close();
+        }
+    }
+
+    @Test
+    public void testresilience() throws Exception {
+        String url = "http://localhost:8090/api/testflaky";
+        HttpResilience resilience = new HttpResilience()
+            .setMaxRetries(2)
+            .setBackoffMillis(10)
+            .setFailureThreshold(3)
+            .setOpenMillis(60000);
+
+        BizResult rst = RestApiUtil.newInstance(url).setResilience(resilience).asGet()
+            .addParam("key", "retry")
+            .addParam("failures", 2)
+            .getResponse(BizResult.class);
+        assertTrue(rst.isSuccess());
+        assertEquals(3, rst.getIntValue("call"));
+        assertEquals(2, resilience.getStats().getRetries());
+
+        RestApiClient client = RestApiClient.newBuilder().resilience(resilience).build();
+        RestApiRequest failing = RestApiRequest.get(url).param("key", "breaker").param("failures", 100).build();
+        RestApiResponse response = client.execute(failing);
+        assertEquals(503, response.getStatusCode());
+        response.close();
+        assertEquals(HttpResilience.CircuitState.OPEN, resilience.getCircuitState("localhost", 8090));
+        try {
+            client.execute(failing);
+            assertTrue(false);
+        } catch (HttpResilience.CircuitOpenException e) {
+            assertEquals(1, resilience.getStats().getShortCircuited());
+        }
+        showLog(resilience.getStats().toString());
+    }
+
+    @Test
+    public void testhedging() throws Exception {
+        String url = "http://localhost:8090/api/testflaky";
+        HttpResilience resilience = new HttpResilience()
+            .setHedging(true)
+            .setHedgeMinSamples(5)
+            .setMinHedgeDelayMillis(50);
+        RestApiClient client = RestApiClient.newBuilder().resilience(resilience).build();
+        for (int i = 0; i < 5; i++) {
+            client.execute(RestApiRequest.get(url).param("key", "warmup").build()).close();
+        }
+
+        // 第一次请求很慢，对冲请求先返回
+        long startedAt = System.currentTimeMillis();
+        BizResult rst = client.execute(RestApiRequest.get(url)
+            .param("key", "hedge")
+            .param("slowCalls", 1)
+            .param("sleep", 3000)
+            .build()).getObject(BizResult.class);
+        long elapsed = System.currentTimeMillis() - startedAt;
+        showLog(resilience.getStats() + " elapsed: " + elapsed + "ms");
+        assertEquals(2, rst.getIntValue("call"));
+        assertTrue(elapsed < 2000);
+        assertEquals(1, resilience.getStats().getHedges());
+        assertEquals(1, resilience.getStats().getHedgeWins());
+    }
+
+    @Test
+    public void testhedgingresources() throws Exception {
+        final List<HttpTransport.Request> attempts = Collections.synchronizedList(
+            new ArrayList<HttpTransport.Request>());
+        final AtomicLong slowCalls = new AtomicLong();
+        final AtomicLong opened = new AtomicLong();
+        final AtomicLong closed = new AtomicLong();
+        HttpTransport stub = new HttpTransport() {
+            @Override
+            public RestApiResponse execute(Request request) throws Exception {
+                attempts.add(request);
+                if (slowCalls.getAndDecrement() > 0) {
+                    Thread.sleep(500);
+                }
+                opened.incrementAndGet();
+                return new RestApiResponse(200, Collections.<String, List<String>>emptyMap(),
+                    new ByteArrayInputStream("ok".getBytes("utf8")) {
+                        @Override
+                        public void close() {
+                            closed.incrementAndGet();
+                        }
+                    }, "utf8");
+            }
+        };
+
+        // 对冲结束后，调用方的中断不再作用于胜出的请求
+        HttpResilience resilience = new HttpResilience().setHedging(true).setHedgeMinSamples(5)
+            .setMinHedgeDelayMillis(50);
+        ResilientHttpTransport transport = new ResilientHttpTransport(stub, resilience);
+        for (int i = 0; i < 5; i++) {
+            transport.execute(newStubRequest()).close();
+        }
+        slowCalls.set(1);
+        HttpTransport.Request request = newStubRequest();
+        assertEquals("ok", transport.execute(request).getString());
+        assertEquals(1, resilience.getStats().getHedgeWins());
+        request.abort();
+        assertTrue(!attempts.get(attempts.size() - 1).isAborted());
+
+        // 调用方等待时被中断，之后完成的请求的响应被关闭
+        slowCalls.set(2);
+        final ResilientHttpTransport interrupted = transport;
+        final AtomicReference<Exception> error = new AtomicReference<Exception>();
+        Thread caller = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    interrupted.execute(newStubRequest());
+                } catch (Exception e) {
+                    error.set(e);
+                }
+            }
+        });
+        caller.start();
+        Thread.sleep(200);
+        caller.interrupt();
+        caller.join();
+        assertTrue(error.get() instanceof InterruptedException);
+        Thread.sleep(600);
+        assertEquals(opened.get(), closed.get());
+
+        // 对冲请求需要另一个bulkhead名额，没有时不对冲
+        resilience = new HttpResilience().setHedging(true).setHedgeMinSamples(5).setMinHedgeDelayMillis(50)
+            .setMaxConcurrent(1);
+        transport = new ResilientHttpTransport(stub, resilience);
+        for (int i = 0; i < 5; i++) {
+            transport.execute(newStubRequest()).close();
+        }
+        attempts.clear();
+        slowCalls.set(1);
+        long startedAt = System.currentTimeMillis();
+        assertEquals("ok", transport.execute(newStubRequest()).getString());
+        assertTrue(System.currentTimeMillis() - startedAt >= 500);
+        assertEquals(0, resilience.getStats().getHedges());
+        assertEquals(1, attempts.size());
+    }
+
+    private static HttpTransport.Request newStubRequest() throws Exception {
+        return new HttpTransport.Request(HttpMethod.GET, new URL("http://localhost:8090/api/testget"),
+            new LinkedHashMap<String, String>(), null, "utf8", 1000, 1000, null, 0);
+    }
+
+    @Test
+    public void testbulkhead() throws Exception {
+        final String url = "http://localhost:8090/api/testflaky";
+        final HttpResilience resilience = new HttpResilience().setMaxConcurrent(1);
+        Thread slow = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    RestApiUtil.newInstance(url).setResilience(resilience).asGet()
+                        .addParam("key", "bulkhead")
+                        .addParam("slowCalls", 1)
+                        .addParam("sleep", 1000)
+                        .getResponseString();
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+        slow.start();
+        Thread.sleep(300);
+        try {
+            RestApiUtil.newInstance(url).setResilience(resilience).asGet()
+                .addParam("key", "bulkhead")
+                .getResponseString();
+            assertTrue(false);
+        } catch (RejectedExecutionException e) {
+            assertEquals(1, resilience.getStats().getBulkheadRejected());
+        }
+        slow.join();
+    }
+
+    @Test
+    public void testresponsecache() throws Exception {
+        String url = "http://localhost:8090/api/testcache";
+        HttpCache cache = new HttpCache();
+
+        // max-age内直接命中
+        for (int i = 0; i < 3; i++) {
+            BizResult rst = RestApiUtil.newInstance(url).setCache(cache).asGet()
+                .addParam("key", "fresh")
+                .addParam("maxAge", 60)
+                .getResponse(BizResult.class);
+            assertEquals(1, rst.getIntValue("call"));
+        }
+        assertEquals(1, cache.getStats().getMisses());
+        assertEquals(2, cache.getStats().getHits());
+
+        // 过期后以If-None-Match重新验证，304时复用body
+        for (int i = 0; i < 3; i++) {
+            BizResult rst = RestApiUtil.newInstance(url).setCache(cache).asGet()
+                .addParam("key", "stale")
+                .getResponse(BizResult.class);
+            assertEquals(1, rst.getIntValue("call"));
+        }
+        assertEquals(2, cache.getStats().getRevalidations());
+        assertEquals(2, cache.getStats().getNotModified());
+        showLog(cache.getStats().toString());
+
+        // private的响应不保存，带凭证的请求只保存public的响应
+        String[][] cases = {{"private", null}, {"", "Authorization"}, {"", "Cookie"}, {"public", "Authorization"}};
+        for (String[] c : cases) {
+            int call = 0;
+            for (int i = 0; i < 2; i++) {
+                RestApiUtil api = RestApiUtil.newInstance(url).setCache(cache);
+                if (null != c[1]) {
+                    api.addHeaderField(c[1], "secret");
+                }
+                call = api.asGet()
+                    .addParam("key", "credentials-" + c[0] + c[1])
+                    .addParam("maxAge", 60)
+                    .addParam("scope", c[0])
+                    .getResponse(BizResult.class).getIntValue("call");
+            }
+            assertEquals("public".equals(c[0]) ? 1 : 2, call);
+        }
+
+        // 内存放不下时写入磁盘，再次命中时读回
+        File dir = java.nio.file.Files.createTempDirectory("http-cache").toFile();
+        HttpCache tiered = new HttpCache().setMaxBytes(800).setDirectory(dir);
+        RestApiClient client = RestApiClient.newBuilder().cache(tiered).build();
+        for (String key : new String[] {"disk1", "disk2", "disk1"}) {
+            BizResult rst = client.execute(RestApiRequest.get(url).param("key", key).param("maxAge", 60).build())
+                .getObject(BizResult.class);
+            assertEquals(1, rst.getIntValue("call"));
+        }
+        showLog(tiered.getStats() + " memory: " + tiered.getMemoryBytes() + " disk: " + tiered.getDiskBytes());
+        assertEquals(1, tiered.getStats().getDiskHits());
+        assertEquals(new HttpCache().setDirectory(dir).diskSize(), tiered.diskSize());
+        tiered.clear();
+        dir.delete();
+    }
+
+    @Test
+    public void testcoalescing() throws Exception {
+        final String url = "http://localhost:8090/api/testflaky";
+        final HttpCoalescer coalescer = new HttpCoalescer();
+        final CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executorService = Executors.newFixedThreadPool(10);
+        List<Future<BizResult>> futures = new ArrayList<Future<BizResult>>();
+        for (int i = 0; i < 10; i++) {
+            futures.add(executorService.submit(new Callable<BizResult>() {
+                @Override
+                public BizResult call() throws Exception {
+                    start.await();
+                    return RestApiUtil.newInstance(url).setCoalescer(coalescer).asGet()
+                        .addParam("key", "coalesce")
+                        .addParam("slowCalls", 1)
+                        .addParam("sleep", 500)
+                        .getResponse(BizResult.class);
+                }
+            }));
+        }
+        start.countDown();
+        Set<Integer> calls = new HashSet<Integer>();
+        for (Future<BizResult> future : futures) {
+            calls.add(future.get().getIntValue("call"));
+        }
+        executorService.shutdown();
+        showLog(coalescer.getStats().toString());
+
+        // 每个实际发出的请求对应一个服务端的call
+        assertEquals(10, coalescer.getStats().getCalls());
+        assertEquals(coalescer.getStats().getExecuted(), calls.size());
+        assertTrue(coalescer.getStats().getCoalesced() > 0);
+        assertEquals(0, coalescer.getInFlight());
+    }
+
+    @Test
+    public void testcoalescingleadertimeout() throws Exception {
+        final String url = "http://localhost:8090/api/testflaky";
+        final HttpCoalescer coalescer = new HttpCoalescer();
+        Thread leader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    RestApiUtil.newInstance(url).setCoalescer(coalescer).setTimeout(500).asGet()
+                        .addParam("key", "coalesceleader")
+                        .addParam("slowCalls", 1)
+                        .addParam("sleep", 2000)
+                        .getResponseString();
+                    assertTrue(false);
+                } catch (Exception expected) {
+                    showLog(expected.getMessage());
+                }
+            }
+        });
+        leader.start();
+        Thread.sleep(200);
+        // 第一个调用超时后，等待的调用不跟着失败，而是自己发出请求
+        BizResult rst = RestApiUtil.newInstance(url).setCoalescer(coalescer).setTimeout(5000).asGet()
+            .addParam("key", "coalesceleader")
+            .addParam("slowCalls", 1)
+            .addParam("sleep", 2000)
+            .getResponse(BizResult.class);
+        leader.join();
+        assertTrue(rst.isSuccess());
+        assertEquals(2, rst.getIntValue("call"));
+        assertEquals(1, coalescer.getStats().getCoalesced());
+        assertEquals(2, coalescer.getStats().getExecuted());
+        assertEquals(0, coalescer.getInFlight());
+    }
+
+    @Test
+    public void testbatch() throws Exception {
+        String url = "http://localhost:8090/api/testdrain";
+        List<RestApiRequest> requests = new ArrayList<RestApiRequest>();
+        for (int i = 0; i < 500; i++) {
+            requests.add(RestApiRequest.post(url)
+                .contentType(HttpContentType.APPLICATION_JSON)
+                .param("n", i)
+                .build());
+        }
+        RestApiClient client = RestApiClient.newBuilder().build();
+
+        for (int depth : new int[] {1, 16}) {
+            final AtomicLong completed = new AtomicLong();
+            RestApiBatch.BatchResult<BizResult> result = new RestApiBatch(client)
+                .setMaxPerHost(4)
+                .setPipelineDepth(depth)
+                .execute(requests, new RestApiClient.ResponseHandler<BizResult>() {
+                    @Override
+                    public BizResult handle(RestApiResponse response) throws Exception {
+                        return response.getObject(BizResult.class);
+                    }
+                }, new Consumer<RestApiBatch.Result<BizResult>>() {
+                    @Override
+                    public void accept(RestApiBatch.Result<BizResult> r) {
+                        completed.incrementAndGet();
+                    }
+                });
+            showLog("pipelineDepth " + depth + ": " + result);
+
+            assertEquals(500, completed.get());
+            assertEquals(500, result.getSucceeded());
+            assertEquals(500, result.getLatency().getCount());
+            assertEquals(depth > 1 ? 500 : 0, result.getPipelined());
+            // 结果按请求顺序排列
+            for (int i = 0; i < 500; i++) {
+                RestApiBatch.Result<BizResult> r = result.getResults().get(i);
+                assertEquals(i, r.getIndex());
+                assertEquals(("{\"n\":" + i + "}").length(), r.getValue().getIntValue("length"));
+            }
+        }
+    }
+
+    @Test
+    public void testhttp2() throws Exception {
+        final String url = "http://localhost:8090/api/testget";
+        final Http2Transport transport = new Http2Transport();
+        try {
+            // 并发请求复用同一个h2c连接
+            List<CompletableFuture<BizResult>> futures = new ArrayList<CompletableFuture<BizResult>>();
+            for (int i = 0; i < 50; i++) {
+                futures.add(RestApiUtil.newInstance(url).setTransport(transport).setTimeout(5000).asGet()
+                    .addParam("one", i)
+                    .addParam("two", "2")
+                    .sendAsync(BizResult.class));
+            }
+            for (int i = 0; i < futures.size(); i++) {
+                BizResult rst = futures.get(i).get();
+                assertTrue(rst.isSuccess());
+                assertEquals(Integer.valueOf(i), rst.getJSONObject("src").getInteger("one"));
+            }
+
+            // 超过初始窗口(64K)的请求与响应body
+            byte[] bytes = new byte[3 * 1024 * 1024 + 17];
+            RestApiClient client = RestApiClient.newBuilder().transport(transport).build();
+            BizResult drained = JSONObject.parseObject(client.execute(
+                RestApiRequest.post("http://localhost:8090/api/testdrain")
+                    .contentType(HttpContentType.APPLICATION_OCTET_STREAM)
+                    .body(bytes)
+                    .build()).getString(), BizResult.class);
+            assertEquals(bytes.length, drained.getLongValue("length"));
+            List<TestPojo> list = RestApiUtil.newInstance("http://localhost:8090/api/testarray")
+                .setTransport(transport)
+                .asGet()
+                .addParam("size", 100000)
+                .getResponse(new TypeReference<List<TestPojo>>() {});
+            assertEquals(100000, list.size());
+            assertEquals(99999, list.get(99999).getOne());
+
+            showLog(transport.toString());
+            assertEquals(1, transport.getCreatedConnections());
+            assertEquals(52, transport.getStreams());
+            assertEquals(0, transport.getFallbackRequests());
+            assertEquals(0, transport.getActiveStreams());
+        } finally {
+            transport.close();
+        }
+
+        // 只支持HTTP/1.1的服务端回退到fallback
+        final ServerSocket server = new ServerSocket(0);
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (!server.isClosed()) {
+                    try (Socket socket = server.accept()) {
+                        socket.getInputStream().read(new byte[8192]);
+                        OutputStream out = socket.getOutputStream();
+                        out.write(("HTTP/1.1 200 OK\r\nContent-Type: text/plain\r\nContent-Length: 2\r\n"
+                            + "Connection: close\r\n\r\nok").getBytes("ISO-8859-1"));
+                        out.flush();
+                    } catch (Exception ignored) {
+                    }
+                }
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+        Http2Transport http1 = new Http2Transport();
+        try {
+            String http1Url = "http://localhost:" + server.getLocalPort() + "/";
+            for (int i = 0; i < 2; i++) {
+                assertEquals("ok", RestApiUtil.newInstance(http1Url).setTransport(http1).asGet().getResponseString());
+            }
+            assertEquals(0, http1.getCreatedConnections());
+            assertEquals(2, http1.getFallbackRequests());
+        } finally {
+            http1.close();
+            server.close();
+        }
+    }
+
+    @Test
+    public void testformencoder() throws Exception {
+        String url = "http://localhost:8090/api/testquery";
+        String text = "a b&c=d/e?f+g%h 中文\uD83D\uDE00~";
+        // 编码结果与URLEncoder一致
+        assertEquals(URLEncoder.encode(text, "UTF-8"), FormEncoder.encode(text, "UTF-8"));
+        assertEquals(URLEncoder.encode(text, "GBK"), FormEncoder.encode(text, "GBK"));
+
+        Map<String, Object> params = new LinkedHashMap<String, Object>();
+        params.put("text", text);
+        params.put("ids", Arrays.asList(1, 2, 3));
+        params.put("codes", new int[] {4, 5});
+        params.put("names", new String[] {"x y", "中"});
+        assertEquals("text=" + URLEncoder.encode(text, "UTF-8") + "&ids=1&ids=2&ids=3&codes=4&codes=5"
+            + "&names=x+y&names=%E4%B8%AD", FormEncoder.toQueryString(params, "UTF-8"));
+        assertEquals("http://h/p?a=1&text=", FormEncoder.appendQuery("http://h/p?a=1",
+            Collections.<String, Object>singletonMap("text", ""), "UTF-8"));
+
+        // GET query string与POST表单，服务端解码后得到原值
+        JSONObject get = RestApiUtil.newInstance(url).asGet().addParams(params)
+            .getResponse(BizResult.class).getJSONObject("params");
+        JSONObject post = RestApiUtil.newInstance(url).asPost().addParams(params)
+            .getResponse(BizResult.class).getJSONObject("params");
+        for (JSONObject echo : Arrays.asList(get, post)) {
+            assertEquals(text, echo.getJSONArray("text").getString(0));
+            assertEquals(Arrays.asList("1", "2", "3"), echo.getJSONArray("ids").toJavaList(String.class));
+            assertEquals(Arrays.asList("4", "5"), echo.getJSONArray("codes").toJavaList(String.class));
+            assertEquals(Arrays.asList("x y", "中"), echo.getJSONArray("names").toJavaList(String.class));
+        }
+    }
+
+    @Test
+    public void testrequesttemplate() throws Exception {
+        RestApiUtil util = RestApiUtil.newInstance("http://localhost:8090/api/testquery")
+            .addHeaderField("X-Trace", "template");
+        RestApiTemplate get = util.asGet().addParam("fixed", "a b").toTemplate();
+        // 之后对RestApiUtil的修改不影响模板
+        util.addHeaderField("X-Trace", "changed");
+        assertEquals("template", get.getHeaders().get("x-trace"));
+
+        for (int i = 0; i < 20; i++) {
+            JSONObject params = get.execute(Collections.<String, Object>singletonMap("id", i), BizResult.class)
+                .getJSONObject("params");
+            assertEquals("a b", params.getJSONArray("fixed").getString(0));
+            assertEquals(String.valueOf(i), params.getJSONArray("id").getString(0));
+        }
+        JSONObject fixedOnly = get.execute(null, BizResult.class).getJSONObject("params");
+        assertEquals(1, fixedOnly.size());
+
+        // POST json：固定参数与每次的body合并
+        RestApiTemplate post = RestApiClient.getDefault().template(
+            RestApiRequest.post("http://localhost:8090/api/testapplicationjson")
+                .contentType(HttpContentType.APPLICATION_JSON)
+                .param("two", "fixed")
+                .build());
+        List<CompletableFuture<BizResult>> futures = new ArrayList<CompletableFuture<BizResult>>();
+        for (int i = 0; i < 20; i++) {
+            futures.add(post.executeAsync(Collections.<String, Object>singletonMap("one", i), BizResult.class));
+        }
+        for (int i = 0; i < futures.size(); i++) {
+            JSONObject src = futures.get(i).get().getJSONObject("src");
+            assertEquals(i, src.getIntValue("one"));
+            assertEquals("fixed", src.getString("two"));
+        }
+
+        // 模板的请求头已固定，之后修改builder不影响模板
+        final RestApiClient client = RestApiClient.getDefault();
+        final RestApiRequest.Builder builder = RestApiRequest.get("http://localhost:8090/api/testquery")
+            .header("X-Trace", "template")
+            .param("two", "2");
+        final RestApiTemplate template = client.template(builder.build());
+        builder.header("X-Trace", "changed");
+        assertEquals("template", template.getHeaders().get("x-trace"));
+        try {
+            template.getHeaders().put("x-trace", "changed");
+            assertTrue(false);
+        } catch (UnsupportedOperationException expected) {
+            // frozen headers
+        }
+
+        // 多个线程共用一个模板，与每次构建完整请求的结果一致
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<Boolean>> same = new ArrayList<Future<Boolean>>();
+        for (int i = 0; i < 100; i++) {
+            final int one = i;
+            same.add(executor.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws Exception {
+                    JSONObject templated = template.execute(Collections.<String, Object>singletonMap("one", one),
+                        BizResult.class).getJSONObject("params");
+                    RestApiRequest request = RestApiRequest.get("http://localhost:8090/api/testquery")
+                        .header("X-Trace", "template")
+                        .param("two", "2")
+                        .param("one", one)
+                        .build();
+                    JSONObject built = client.execute(request).getObject(BizResult.class).getJSONObject("params");
+                    return String.valueOf(one).equals(templated.getJSONArray("one").getString(0))
+                        && templated.equals(built);
+                }
+            }));
+        }
+        for (Future<Boolean> future : same) {
+            assertTrue(future.get());
+        }
+        executor.shutdown();
+    }
+
+    @Test
+    public void testrequestpayload() throws Exception {
+        String url = "http://localhost:8090/api/testpayload";
+        RestApiClient client = RestApiClient.getDefault();
+        List<TestPojo> list = new ArrayList<TestPojo>();
+        for (int i = 0; i < 1000; i++) {
+            TestPojo pojo = new TestPojo();
+            pojo.setOne(i);
+            pojo.setTwo("two-" + i);
+            list.add(pojo);
+        }
+
+        // json body流式写出，没有Content-Length
+        JSONObject chunked = JSONObject.parseObject(client.execute(RestApiRequest.post(url)
+            .contentType(HttpContentType.APPLICATION_JSON)
+            .body(list)
+            .build()).getString(), BizResult.class);
+        assertEquals(1000, chunked.getIntValue("size"));
+        assertTrue(chunked.getBooleanValue("chunked"));
+
+        byte[] bytes = JSONObject.toJSONBytes(list);
+        JSONObject sized = JSONObject.parseObject(client.execute(RestApiRequest.post(url)
+            .contentType(HttpContentType.APPLICATION_OCTET_STREAM)
+            .body(bytes)
+            .build()).getString(), BizResult.class);
+        assertEquals(bytes.length, sized.getIntValue("length"));
+        assertTrue(!sized.getBooleanValue("chunked"));
+        assertTrue(BufferPool.getRetained() > 0);
+
+        // 超过1MB：有Content-Length时不读取，chunked时读到超出为止
+        List<TestPojo> large = new ArrayList<TestPojo>();
+        for (int i = 0; i < 50000; i++) {
+            TestPojo pojo = new TestPojo();
+            pojo.setOne(i);
+            pojo.setTwo("two-" + i);
+            large.add(pojo);
+        }
+        RestApiResponse tooLarge = client.execute(RestApiRequest.post(url)
+            .contentType(HttpContentType.APPLICATION_OCTET_STREAM)
+            .body(JSONObject.toJSONBytes(large))
+            .build());
+        assertEquals(413, tooLarge.getStatusCode());
+        tooLarge.close();
+        tooLarge = client.execute(RestApiRequest.post(url)
+            .contentType(HttpContentType.APPLICATION_JSON)
+            .body(large)
+            .build());
+        assertEquals(413, tooLarge.getStatusCode());
+        tooLarge.close();
+
+        RequestPayload payload = RequestPayload.read(new ByteArrayInputStream(bytes), -1, "UTF-8", bytes.length);
+        assertEquals(bytes.length, payload.getByteBuffer().remaining());
+        assertEquals(1000, payload.getObject(new TypeReference<List<TestPojo>>() {}).size());
+        payload.close();
+
+        // 长度未知时最多读到maxSize + 1字节
+        final AtomicLong consumed = new AtomicLong();
+        InputStream endless = new InputStream() {
+            @Override
+            public int read() {
+                consumed.incrementAndGet();
+                return 'x';
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) {
+                consumed.addAndGet(len);
+                return len;
+            }
+        };
+        try {
+            RequestPayload.read(endless, -1, "UTF-8", 100000);
+            assertTrue(false);
+        } catch (RequestPayload.PayloadTooLargeException expected) {
+            showLog(expected.getMessage());
+        }
+        assertEquals(100001, consumed.get());
+    }
+
+    @Test
+    public void testservletasyncio() throws Exception {
+        TestPojo testPojo = new TestPojo();
+        testPojo.setOne(1);
+        testPojo.setTwo("2");
+        BizResult rst = JSONObject.parseObject(RestApiUtil.newInstance("http://localhost:8090/api/testasynchessian")
+            .asPost().setContentType(HttpContentType.APPLICATION_OCTET_STREAM)
+            .setPostPojo(HessianUtil.serialize(testPojo))
+            .getResponseString(), BizResult.class);
+        assertTrue(rst.isSuccess());
+        assertEquals(1, rst.getJSONObject("src").getIntValue("one"));
+        assertEquals("2", rst.getJSONObject("src").getString("two"));
+
+        // 大body：读写都要经过多次onDataAvailable/onWritePossible
+        byte[] bytes = new byte[3 * 1024 * 1024];
+        new Random(7).nextBytes(bytes);
+        RestApiClient client = RestApiClient.getDefault();
+        byte[] echoed = client.execute(RestApiRequest.post("http://localhost:8090/api/testasyncecho")
+            .contentType(HttpContentType.APPLICATION_OCTET_STREAM)
+            .body(bytes)
+            .build()).getBytes();
+        assertTrue(Arrays.equals(bytes, echoed));
+
+        // 慢客户端分段上传chunked body
+        try (Socket socket = new Socket("localhost", 8090)) {
+            socket.setSoTimeout(10000);
+            OutputStream out = socket.getOutputStream();
+            out.write(("POST /api/testasyncecho HTTP/1.1\r\nHost: localhost\r\n"
+                + "Content-Type: application/octet-stream\r\nTransfer-Encoding: chunked\r\n"
+                + "Connection: close\r\n\r\n").getBytes("US-ASCII"));
+            out.flush();
+            for (int i = 0; i < 5; i++) {
+                Thread.sleep(100);
+                out.write(("5\r\npart" + i + "\r\n").getBytes("US-ASCII"));
+                out.flush();
+            }
+            out.write("0\r\n\r\n".getBytes("US-ASCII"));
+            out.flush();
+            String response = new String(ByteStreams.toByteArray(socket.getInputStream()),
+                "US-ASCII");
+            assertTrue(response.startsWith("HTTP/1.1 200"));
+            assertTrue(response.endsWith("part0part1part2part3part4"));
+        }
+    }
+
+    @Test
+    public void testdnscache() throws Exception {
+        final AtomicLong lookups = new AtomicLong();
+        DnsResolver upstream = new DnsResolver() {
+            @Override
+            public InetAddress[] resolve(String host) throws UnknownHostException {
+                lookups.incrementAndGet();
+                if (!"svc.test".equals(host)) {
+                    throw new UnknownHostException(host);
+                }
+                return new InetAddress[] {
+                    InetAddress.getByAddress(host, new byte[] {127, 0, 0, 1}),
+                    InetAddress.getByAddress(host, new byte[] {127, 0, 0, 2})
+                };
+            }
+        };
+        DnsCache dnsCache = new DnsCache().setDelegate(upstream).setTtl(2000).setRefreshAfter(300)
+            .setNegativeTtl(2000);
+
+        // 轮询返回，只解析一次
+        InetAddress first = dnsCache.resolve("svc.test")[0];
+        InetAddress second = dnsCache.resolve("svc.test")[0];
+        assertTrue(!first.equals(second));
+        assertEquals(1, lookups.get());
+
+        // 解析失败被缓存
+        for (int i = 0; i < 3; i++) {
+            try {
+                dnsCache.resolve("missing.test");
+                assertTrue(false);
+            } catch (UnknownHostException expected) {
+                // cached failure
+            }
+        }
+        assertEquals(2, lookups.get());
+        assertEquals(2, dnsCache.getStats().getNegativeHits());
+
+        // 超过refreshAfter：立即返回旧结果，后台刷新
+        Thread.sleep(400);
+        assertEquals(2, dnsCache.resolve("svc.test").length);
+        for (int i = 0; i < 50 && dnsCache.getStats().getRefreshes() == 0; i++) {
+            Thread.sleep(20);
+        }
+        assertEquals(1, dnsCache.getStats().getRefreshes());
+        assertEquals(3, lookups.get());
+
+        HttpConnectionPool pool = new HttpConnectionPool().setDnsResolver(dnsCache);
+        try {
+            RestApiClient client = RestApiClient.newBuilder().connectionPool(pool).build();
+            for (int i = 0; i < 4; i++) {
+                RestApiResponse response = client.execute(
+                    RestApiRequest.get("http://svc.test:8090/api/testget").param("one", i).build());
+                assertEquals(200, response.getStatusCode());
+                response.getString();
+            }
+            assertEquals(3, lookups.get());
+        } finally {
+            pool.close();
+        }
+        showLog(dnsCache.getStats().toString());
+
+        // 等待其它线程进行中的解析不超过timeout
+        final CountDownLatch started = new CountDownLatch(1);
+        final DnsCache slowCache = new DnsCache().setDelegate(new DnsResolver() {
+            @Override
+            public InetAddress[] resolve(String host) throws UnknownHostException {
+                started.countDown();
+                try {
+                    Thread.sleep(1000);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return new InetAddress[] {InetAddress.getByAddress(host, new byte[] {127, 0, 0, 1})};
+            }
+        });
+        Thread loader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    slowCache.resolve("slow.test");
+                } catch (UnknownHostException e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+        loader.start();
+        started.await();
+        long startedAt = System.currentTimeMillis();
+        try {
+            slowCache.resolve("slow.test", 100);
+            assertTrue(false);
+        } catch (UnknownHostException e) {
+            showLog(e.getMessage());
+        }
+        assertTrue(System.currentTimeMillis() - startedAt < 500);
+        loader.join();
+        assertEquals(1, slowCache.resolve("slow.test", 100).length);
+    }
+
+    @Test
+    public void testmetrics() throws Exception {
+        HttpMetrics metrics = new HttpMetrics(2);
+        for (int i = 0; i < 10; i++) {
+            RestApiUtil.newInstance("http://localhost:8090/api/testget").setEventListener(metrics).asGet()
+                .addParam("one", i)
+                .getResponseString();
+        }
+
+        RestApiClient client = RestApiClient.newBuilder().eventListener(metrics).build();
+        client.execute(RestApiRequest.post("http://localhost:8090/api/testapplicationjson")
+            .contentType(HttpContentType.APPLICATION_JSON)
+            .param("one", 1)
+            .build()).getString();
+        RestApiResponse notFound = client.execute(RestApiRequest.get("http://localhost:8090/api/nothing").build());
+        assertEquals(404, notFound.getStatusCode());
+        notFound.close();
+        try {
+            client.execute(RestApiRequest.get("http://localhost:1/api/testget").build());
+            assertTrue(false);
+        } catch (Exception expected) {
+            // connection refused
+        }
+
+        HttpMetrics.HostMetrics host = metrics.getHost("localhost:8090");
+        assertEquals(12, host.getCalls());
+        assertEquals(11, host.getStatusCount(200));
+        assertEquals(1, host.getStatusCount(404));
+        assertEquals(12, host.getTotal().getCount());
+        assertEquals(12, host.getTtfb().getCount());
+        assertEquals(12, host.getNewConnections() + host.getReusedConnections());
+        assertTrue(host.getBytesOut() > 0 && host.getBytesIn() > 0);
+
+        HttpMetrics.EndpointMetrics get = host.getEndpoint(HttpMethod.GET, "/api/testget");
+        assertEquals(10, get.getCalls());
+        assertEquals(10, get.getTotal().getCount());
+        // 超过maxEndpoints的接口计入(other)
+        assertEquals(1, host.getEndpoint(HttpMethod.GET, "(other)").getStatusCount(404));
+
+        HttpMetrics.HostMetrics refused = metrics.getHost("localhost:1");
+        assertEquals(1, refused.getFailures());
+        assertEquals(1, refused.getErrors().get("ConnectException").get());
+
+        // executor拒绝的异步调用同样计为失败
+        ExecutorService stopped = Executors.newSingleThreadExecutor();
+        stopped.shutdown();
+        RestApiClient rejecting = RestApiClient.newBuilder().eventListener(metrics).executor(stopped).build();
+        try {
+            rejecting.executeAsync(RestApiRequest.get("http://localhost:1/api/testget").build()).get();
+            assertTrue(false);
+        } catch (ExecutionException expected) {
+            assertTrue(expected.getCause() instanceof RejectedExecutionException);
+        }
+        assertEquals(2, refused.getCalls());
+        assertEquals(2, refused.getFailures());
+        assertEquals(1, refused.getErrors().get("RejectedExecutionException").get());
+
+        JSONObject json = metrics.toJson();
+        assertEquals(2, json.getJSONObject("hosts").size());
+        // 两个接口，以及两个host各自的(other)
+        assertEquals(4, json.getJSONObject("endpoints").size());
+        assertTrue(json.getJSONObject("pools").containsKey("default"));
+        showLog(json.toJSONString());
+
+        assertTrue(HttpEventListener.NONE == RestApiClient.getDefault().getEventListener());
+    }
+
+    @Test
+    public void testsslcontextcache() throws Exception {
+        RestApiUtil.SslProvider one = new RestApiUtil.SslProvider();
+        RestApiUtil.SslProvider two = new RestApiUtil.SslProvider();
+        assertTrue(one.getSSLContext() == two.getSSLContext());
+        assertTrue(one.getSSLSocketFactory() == two.getSSLSocketFactory());
+        assertTrue(one.getSslStats() == two.getSslStats());
+
+        two.setSessionTimeout(600);
+        assertTrue(one.getSSLContext() != two.getSSLContext());
+        assertEquals(600, two.getSSLContext().getClientSessionContext().getSessionTimeout());
+
+        // 自签名证书的https服务端，每个响应后关闭连接，第二次请求新建连接并恢复会话
+        KeyStore keyStore = KeyStore.getInstance("JKS");
+        try (InputStream in = RestApiUtilTest.class.getResourceAsStream("/localhost.jks")) {
+            keyStore.load(in, "changeit".toCharArray());
+        }
+        KeyManagerFactory keyManagerFactory = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keyManagerFactory.init(keyStore, "changeit".toCharArray());
+        SSLContext serverContext = SSLContext.getInstance("TLS");
+        serverContext.init(keyManagerFactory.getKeyManagers(), null, null);
+        final ServerSocket server = serverContext.getServerSocketFactory().createServerSocket(0);
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (!server.isClosed()) {
+                    try (Socket socket = server.accept()) {
+                        socket.getInputStream().read(new byte[8192]);
+                        OutputStream out = socket.getOutputStream();
+                        out.write(("HTTP/1.1 200 OK\r\nContent-Type: text/plain\r\nContent-Length: 2\r\n"
+                            + "Connection: close\r\n\r\nok").getBytes("ISO-8859-1"));
+                        out.flush();
+                    } catch (Exception ignored) {
+                    }
+                }
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+        try {
+            // 独立的配置，统计不受其他用例影响
+            RestApiUtil.SslProvider provider = new RestApiUtil.SslProvider();
+            provider.setSessionTimeout(601);
+            String url = "https://localhost:" + server.getLocalPort() + "/";
+            for (int i = 0; i < 2; i++) {
+                assertEquals("ok", RestApiUtil.newInstance(url).setSslProvider(provider).asGet().getResponseString());
+            }
+            SslContextCache.Stats stats = provider.getSslStats();
+            showLog(stats.toString());
+            assertEquals(2, stats.getHandshakes());
+            assertEquals(1, stats.getFullHandshakes());
+            assertEquals(1, stats.getResumedSessions());
+        } finally {
+            server.close();
+        }
+    }
+
     //@Test // test succeed 2018-06-27 14:45:01
     public void testRemouteHttps() throws Exception {
         String url = "https://remoteIp:port/";